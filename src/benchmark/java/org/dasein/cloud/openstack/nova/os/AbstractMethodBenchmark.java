@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.openstack.nova.os.fake.FakeOpenStack;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the full request and response cycle of {@link AbstractMethod} against a {@link FakeOpenStack} on the
+ * loopback interface: authentication lookup, limiters, the pooled HTTP client, response decompression and JSON
+ * parsing. Latency of the fake cloud itself is a small constant, so differences show the cost on the client side.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AbstractMethodBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int fleetSize;
+
+    private FakeOpenStack cloud;
+    private NovaMethod    method;
+    private NovaOpenStack provider;
+    private String        serverId;
+
+    @Setup
+    public void setUp() throws Exception {
+        cloud = new FakeOpenStack().start();
+        serverId = cloud.createServers(fleetSize)[fleetSize / 2];
+        provider = BenchmarkSupport.connect(cloud);
+        method = new NovaMethod(provider);
+    }
+
+    @TearDown
+    public void tearDown() {
+        provider.close();
+        cloud.stop();
+    }
+
+    @Benchmark
+    public JSONObject getServer() throws CloudException, InternalException {
+        return method.getServers("/servers", serverId, true);
+    }
+
+    @Benchmark
+    public JSONObject getMissingServer() throws CloudException, InternalException {
+        return method.getServers("/servers", "00000000-0000-0000-0000-000000000000", true);
+    }
+
+    @Benchmark
+    public JSONObject listServers() throws CloudException, InternalException {
+        return method.getServers("/servers", null, true, "?limit=" + fleetSize);
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Properties;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.dasein.cloud.Cloud;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.ContextRequirements;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.dc.DataCenter;
+import org.dasein.cloud.openstack.nova.os.fake.FakeOpenStack;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Payloads and providers shared by the benchmarks. Payloads are the responses recorded under
+ * <code>nova/fixtures</code>, replicated into fleets of the requested size with distinct IDs and names so that
+ * hash lookups and string handling behave as they would against a real cloud.
+ */
+public class BenchmarkSupport {
+    static public final String ACCOUNT = "openstack";
+    static public final String REGION  = "RegionOne";
+
+    /**
+     * Loads a recorded response.
+     * @param fixture the path of the fixture below <code>nova/fixtures</code>
+     * @return the parsed response
+     */
+    static public @Nonnull JSONObject load(@Nonnull String fixture) {
+        InputStream input = BenchmarkSupport.class.getClassLoader().getResourceAsStream("nova/fixtures/" + fixture);
+
+        if( input == null ) {
+            throw new IllegalArgumentException("No such fixture: " + fixture);
+        }
+        try {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int count;
+
+                while( (count = input.read(buffer)) != -1 ) {
+                    bytes.write(buffer, 0, count);
+                }
+                return new JSONObject(new String(bytes.toByteArray(), "utf-8"));
+            }
+            finally {
+                input.close();
+            }
+        }
+        catch( IOException e ) {
+            throw new IllegalStateException(e);
+        }
+        catch( JSONException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copies a recorded resource into a fleet. Each copy gets its own ID, and its <code>name</code> and
+     * <code>display_name</code>, where present, are numbered.
+     * @param template the recorded resource
+     * @param size the number of resources in the fleet
+     * @return the fleet
+     */
+    static public @Nonnull JSONArray replicate(@Nonnull JSONObject template, @Nonnegative int size) {
+        JSONArray fleet = new JSONArray();
+        String source = template.toString();
+
+        try {
+            for( int i=0; i<size; i++ ) {
+                JSONObject copy = new JSONObject(source);
+
+                copy.put("id", toId(i));
+                if( copy.has("name") ) {
+                    copy.put("name", copy.getString("name") + "-" + i);
+                }
+                if( copy.has("display_name") ) {
+                    copy.put("display_name", copy.getString("display_name") + "-" + i);
+                }
+                fleet.put(copy);
+            }
+        }
+        catch( JSONException e ) {
+            throw new IllegalStateException(e);
+        }
+        return fleet;
+    }
+
+    /**
+     * @param i the position of a resource in a fleet
+     * @return an ID in the format OpenStack uses
+     */
+    static public @Nonnull String toId(int i) {
+        return String.format("%08x-b71f-48b9-91e9-%012x", i, i);
+    }
+
+    /**
+     * @param i the position of a resource in a fleet
+     * @return a private IPv4 address unique within fleets of up to 16 million resources
+     */
+    static public @Nonnull String toAddress(int i) {
+        return "10." + ((i >> 16) & 0xff) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+    }
+
+    /**
+     * Mocks a provider context for the benchmark account and region.
+     * @param endpoint the cloud endpoint
+     * @return the context
+     */
+    static public @Nonnull ProviderContext toContext(@Nonnull String endpoint) {
+        ProviderContext ctx = mock(ProviderContext.class);
+        Cloud cloud = mock(Cloud.class);
+
+        when(cloud.getEndpoint()).thenReturn(endpoint);
+        when(cloud.getCloudName()).thenReturn("Benchmark");
+        when(cloud.getProviderName()).thenReturn("OpenStack");
+        when(ctx.getCloud()).thenReturn(cloud);
+        when(ctx.getEndpoint()).thenReturn(endpoint);
+        when(ctx.getAccountNumber()).thenReturn(ACCOUNT);
+        when(ctx.getEffectiveAccountNumber()).thenReturn(ACCOUNT);
+        when(ctx.getRegionId()).thenReturn(REGION);
+        when(ctx.getCustomProperties()).thenReturn(new Properties());
+        when(ctx.getConfigurationValue(any(ContextRequirements.Field.class))).thenReturn(new byte[][] { "benchmark".getBytes(), "secret".getBytes() });
+        return ctx;
+    }
+
+    /**
+     * Mocks a provider for converting recorded payloads, which never calls the cloud.
+     * @return the provider
+     */
+    static public @Nonnull NovaOpenStack mockProvider() {
+        NovaOpenStack provider = mock(NovaOpenStack.class);
+        NovaLocationServices locations = mock(NovaLocationServices.class);
+        DataCenter dc = mock(DataCenter.class);
+        ProviderContext ctx = toContext("http://openstack.example.com:5000/v2.0");
+
+        try {
+            when(dc.getProviderDataCenterId()).thenReturn(REGION + "-a");
+            when(locations.listDataCenters(anyString())).thenReturn(Collections.singletonList(dc));
+        }
+        catch( CloudException e ) {
+            throw new IllegalStateException(e);
+        }
+        catch( InternalException e ) {
+            throw new IllegalStateException(e);
+        }
+        when(provider.getContext()).thenReturn(ctx);
+        when(provider.getCloudProvider()).thenReturn(OpenStackProvider.OTHER);
+        when(provider.getDataCenterServices()).thenReturn(locations);
+        return provider;
+    }
+
+    /**
+     * Connects a real provider to a fake cloud, so requests go through authentication, the connection pool and
+     * response handling just as they would against OpenStack.
+     * @param cloud a started fake cloud
+     * @return the provider, already authenticated
+     */
+    static public @Nonnull NovaOpenStack connect(@Nonnull FakeOpenStack cloud) {
+        final ProviderContext ctx = toContext(cloud.getEndpoint());
+        NovaOpenStack provider = new NovaOpenStack() {
+            @Override
+            public ProviderContext getContext() {
+                return ctx;
+            }
+        };
+
+        when(ctx.getAccountNumber()).thenReturn(FakeOpenStack.TENANT_NAME);
+        when(ctx.getEffectiveAccountNumber()).thenReturn(FakeOpenStack.TENANT_NAME);
+        when(ctx.getRegionId()).thenReturn(FakeOpenStack.REGION);
+        try {
+            provider.getAuthenticationContext();
+        }
+        catch( CloudException e ) {
+            throw new IllegalStateException("Unable to authenticate with the fake cloud", e);
+        }
+        catch( InternalException e ) {
+            throw new IllegalStateException("Unable to authenticate with the fake cloud", e);
+        }
+        return provider;
+    }
+}
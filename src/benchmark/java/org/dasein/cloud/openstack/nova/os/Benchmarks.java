@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.openstack.nova.os;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler attached, so every result is reported with its allocation rate
+ * (<code>gc.alloc.rate.norm</code> is the number of bytes allocated per operation). Arguments are those of the JMH
+ * command line, such as a pattern selecting benchmarks or <code>-p fleetSize=1000</code>.
+ * <pre>
+ * mvn -P benchmark test-compile exec:exec -Dbenchmark.args="NovaServerBenchmark -p fleetSize=100,5000"
+ * </pre>
+ */
+public class Benchmarks {
+    static public void main(String... args) throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing the error responses of OpenStack services, including the Retry-After header of throttled
+ * requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NovaExceptionBenchmark {
+    @Param({ "400", "404", "413", "500" })
+    public int status;
+
+    private String       body;
+    private HttpResponse response;
+
+    @Setup
+    public void setUp() throws Exception {
+        response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "Error");
+        switch( status ) {
+            case 400:
+                body = "{\"badRequest\": {\"message\": \"AddressLimitExceeded: Address quota exceeded. You cannot allocate any more addresses\", \"code\": 400}}";
+                break;
+            case 404:
+                body = "{\"itemNotFound\": {\"message\": \"Instance could not be found\", \"code\": 404}}";
+                break;
+            case 413:
+                body = BenchmarkSupport.load("error413.json").toString();
+                response.addHeader("Retry-After", "30");
+                break;
+            default:
+                body = "{\"computeFault\": {\"message\": \"The server has either erred or is incapable of performing the requested operation.\", \"code\": 500}}";
+                break;
+        }
+    }
+
+    @Benchmark
+    public NovaException.ExceptionItems parseException() {
+        return NovaException.parseException(status, body, response);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.openstack.nova.os.fake.FakeOpenStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing the timestamps OpenStack services report, each format falling back through the formats before
+ * it, and looking up the compute API version of an authenticated provider.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NovaOpenStackBenchmark {
+    @State(Scope.Benchmark)
+    static public class Timestamp {
+        /**
+         * Nova with milliseconds, Nova, Cinder and the space separated format of older releases.
+         */
+        @Param({ "2015-06-11T14:27:06.123Z", "2013-09-22T02:33:23Z", "2015-06-11T14:27:06.000000", "2012-06-16 19:41:29" })
+        public String time;
+    }
+
+    @State(Scope.Benchmark)
+    static public class Connected {
+        private FakeOpenStack cloud;
+        private NovaOpenStack provider;
+
+        @Setup
+        public void setUp() throws Exception {
+            cloud = new FakeOpenStack().start();
+            provider = BenchmarkSupport.connect(cloud);
+        }
+
+        @TearDown
+        public void tearDown() {
+            provider.close();
+            cloud.stop();
+        }
+    }
+
+    @Benchmark
+    public long parseTimestamp(Timestamp state) throws CloudException {
+        return NovaOpenStack.parseTimestamp(state.time);
+    }
+
+    @Benchmark
+    public int getMajorVersion(Connected state) throws CloudException, InternalException {
+        return state.provider.getMajorVersion();
+    }
+
+    @Benchmark
+    public int getMinorVersion(Connected state) throws CloudException, InternalException {
+        return state.provider.getMinorVersion();
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.openstack.nova.os.compute;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VolumeProduct;
+import org.dasein.cloud.compute.VolumeType;
+import org.dasein.cloud.openstack.nova.os.BenchmarkSupport;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures converting a fleet of volumes, as recorded from Cinder, into volumes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CinderVolumeBenchmark {
+    @Param({ "1", "100", "1000", "5000" })
+    public int fleetSize;
+
+    private CinderVolume        support;
+    private List<VolumeProduct> types;
+    private JSONArray           volumes;
+
+    @Setup
+    public void setUp() throws JSONException {
+        volumes = BenchmarkSupport.replicate(BenchmarkSupport.load("compute/get_volume.json").getJSONObject("volume"), fleetSize);
+        types = Collections.singletonList(VolumeProduct.getInstance("1", "standard", "standard", VolumeType.HDD));
+        support = new CinderVolume(BenchmarkSupport.mockProvider());
+    }
+
+    @Benchmark
+    public void toVolume(Blackhole bh) throws CloudException, InternalException, JSONException {
+        for( int i=0; i<volumes.length(); i++ ) {
+            bh.consume(support.toVolume(volumes.getJSONObject(i), types));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.openstack.nova.os.compute;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.openstack.nova.os.BenchmarkSupport;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures converting a catalog of images, as recorded from Nova, into machine images.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NovaImageBenchmark {
+    @Param({ "1", "100", "1000", "5000" })
+    public int fleetSize;
+
+    private JSONArray images;
+    private NovaImage support;
+
+    @Setup
+    public void setUp() throws JSONException {
+        images = BenchmarkSupport.replicate(BenchmarkSupport.load("compute/get_image.json").getJSONObject("image"), fleetSize);
+        support = new NovaImage(BenchmarkSupport.mockProvider());
+    }
+
+    @Benchmark
+    public void toImage(Blackhole bh) throws CloudException, InternalException, JSONException {
+        for( int i=0; i<images.length(); i++ ) {
+            bh.consume(support.toImage(images.getJSONObject(i)));
+        }
+    }
+}
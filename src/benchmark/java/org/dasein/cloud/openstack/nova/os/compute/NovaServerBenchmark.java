@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.openstack.nova.os.compute;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ResourceStatus;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.network.Firewall;
+import org.dasein.cloud.network.IPVersion;
+import org.dasein.cloud.network.IpAddress;
+import org.dasein.cloud.network.VLAN;
+import org.dasein.cloud.openstack.nova.os.BenchmarkSupport;
+import org.dasein.cloud.openstack.nova.os.JSONListParser;
+import org.dasein.cloud.openstack.nova.os.NovaMethod;
+import org.dasein.cloud.openstack.nova.os.NovaOpenStack;
+import org.dasein.cloud.openstack.nova.os.OpenStackProvider;
+import org.dasein.cloud.openstack.nova.os.network.NovaFloatingIP;
+import org.dasein.cloud.openstack.nova.os.network.NovaNetworkServices;
+import org.dasein.cloud.openstack.nova.os.network.NovaSecurityGroup;
+import org.dasein.cloud.openstack.nova.os.network.Quantum;
+import org.dasein.cloud.openstack.nova.os.network.SubnetIndex;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures listing a fleet of servers, as recorded from Nova, through {@link NovaServer#listVirtualMachines()}. Each
+ * listing parses the recorded page from its bytes and converts the servers as they are read. The IP pools, networks,
+ * subnets and firewalls the servers are matched against are answered locally from populated lists, so the results
+ * show the cost of the listing and its lookups rather than of the cloud.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NovaServerBenchmark {
+    static private final String NETWORK_ID = "d32019d3-bc6e-4319-9c1d-6722fc136a22";
+    static private final String SUBNET_ID  = "54d6f61d-db07-451c-9ab3-b9609b6b6f0b";
+
+    static private final String[] SECURITY_GROUPS = { "default", "web", "ssh" };
+
+    static private class LocalServer extends NovaServer {
+        private final NovaMethod method;
+
+        LocalServer(NovaOpenStack provider, NovaMethod method) {
+            super(provider);
+            this.method = method;
+        }
+
+        @Override
+        protected NovaMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        protected String getTenantId() {
+            return BenchmarkSupport.ACCOUNT;
+        }
+
+        @Override
+        protected String getRegionId() {
+            return BenchmarkSupport.REGION;
+        }
+
+        @Override
+        protected OpenStackProvider getCloudProvider() {
+            return OpenStackProvider.OTHER;
+        }
+
+        @Override
+        protected int getMajorVersion() {
+            return 2;
+        }
+
+        @Override
+        protected int getMinorVersion() {
+            return 1;
+        }
+
+        @Override
+        protected Platform getPlatform(String vmName, String vmDescription, String imageId) {
+            return Platform.guess(vmName + " " + vmDescription);
+        }
+    }
+
+    @Param({ "1", "100", "1000", "5000" })
+    public int fleetSize;
+
+    private byte[]     page;
+    private NovaServer support;
+
+    /**
+     * @param i the position of a server in the fleet
+     * @return the floating IP address of the server
+     */
+    static private String toFloatingAddress(int i) {
+        return "172." + (16 + ((i >> 16) & 0x0f)) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+    }
+
+    /**
+     * Mocks the network services of a tenant whose IP pool holds a floating IP for every server, with one network
+     * and subnet the servers are attached to and the security groups they belong to.
+     * @return the network services
+     */
+    private NovaNetworkServices toNetworkServices() throws CloudException, InternalException {
+        NovaNetworkServices services = mock(NovaNetworkServices.class);
+        NovaFloatingIP ips = mock(NovaFloatingIP.class);
+        Quantum quantum = mock(Quantum.class);
+        NovaSecurityGroup firewalls = mock(NovaSecurityGroup.class);
+        List<IpAddress> pool = new ArrayList<IpAddress>();
+        List<Firewall> groups = new ArrayList<Firewall>();
+        SubnetIndex subnets = new SubnetIndex();
+        VLAN vlan = new VLAN();
+
+        for( int i=0; i<fleetSize; i++ ) {
+            IpAddress address = new IpAddress();
+
+            address.setIpAddressId(BenchmarkSupport.toId(fleetSize + i));
+            address.setAddress(toFloatingAddress(i));
+            address.setVersion(IPVersion.IPV4);
+            address.setServerId(BenchmarkSupport.toId(i));
+            address.setRegionId(BenchmarkSupport.REGION);
+            pool.add(address);
+        }
+        for( int i=0; i<SECURITY_GROUPS.length; i++ ) {
+            Firewall fw = new Firewall();
+
+            fw.setProviderFirewallId(BenchmarkSupport.toId(2 * fleetSize + i));
+            fw.setName(SECURITY_GROUPS[i]);
+            groups.add(fw);
+        }
+        vlan.setProviderVlanId(NETWORK_ID);
+        vlan.setName("private");
+        subnets.add(NETWORK_ID, SUBNET_ID, "10.0.0.0/8");
+
+        when(ips.listIpPool(IPVersion.IPV4, false)).thenReturn(pool);
+        when(ips.listIpPool(IPVersion.IPV6, false)).thenReturn(Collections.<IpAddress>emptyList());
+        when(quantum.listVlans()).thenReturn(Arrays.asList(vlan));
+        when(quantum.getSubnetIndex()).thenReturn(subnets);
+        when(firewalls.list()).thenReturn(groups);
+        when(services.getIpAddressSupport()).thenReturn(ips);
+        when(services.getVlanSupport()).thenReturn(quantum);
+        when(services.getFirewallSupport()).thenReturn(firewalls);
+        return services;
+    }
+
+    /**
+     * Mocks the compute API answering every server listing with the recorded page, streamed through the converter
+     * of the listing, and every image listing with no images.
+     * @return the compute API
+     */
+    private NovaMethod toMethod() throws CloudException, InternalException {
+        NovaMethod method = mock(NovaMethod.class);
+
+        when(method.getServerList(eq("/servers"), anyBoolean(), anyString(), eq("servers"), any(JSONListParser.ItemConverter.class), any(JSONObject.class))).thenAnswer(new Answer<List<Object>>() {
+            @Override
+            public List<Object> answer(InvocationOnMock invocation) throws Throwable {
+                JSONListParser.ItemConverter<?> converter = (JSONListParser.ItemConverter<?>)invocation.getArguments()[4];
+                JSONObject remainder = (JSONObject)invocation.getArguments()[5];
+
+                return new ArrayList<Object>(JSONListParser.parse(new ByteArrayInputStream(page), "servers", converter, remainder));
+            }
+        });
+        when(method.getServerList(eq("/images"), anyBoolean(), anyString(), eq("images"), any(JSONListParser.ItemConverter.class), any(JSONObject.class))).thenReturn(Collections.emptyList());
+        return method;
+    }
+
+    @Setup
+    public void setUp() throws CloudException, InternalException, JSONException, UnsupportedEncodingException {
+        NovaOpenStack provider = BenchmarkSupport.mockProvider();
+        NovaNetworkServices services = toNetworkServices();
+        NovaComputeServices compute = mock(NovaComputeServices.class);
+        JSONArray servers = BenchmarkSupport.replicate(BenchmarkSupport.load("compute/get_server.json").getJSONObject("server"), fleetSize);
+
+        for( int i=0; i<servers.length(); i++ ) {
+            JSONObject server = servers.getJSONObject(i);
+            JSONObject addresses = server.getJSONObject("addresses");
+            JSONObject fixed = addresses.getJSONArray("private").getJSONObject(0);
+            JSONArray groups = new JSONArray();
+
+            fixed.put("addr", BenchmarkSupport.toAddress(i));
+            // the subnet of a server is matched against the last address of the network
+            addresses.put("private", new JSONArray().put(new JSONObject().put("addr", toFloatingAddress(i)).put("OS-EXT-IPS:type", "floating").put("version", 4)).put(fixed));
+            for( String name : SECURITY_GROUPS ) {
+                groups.put(new JSONObject().put("name", name));
+            }
+            server.put("security_groups", groups);
+        }
+        page = new JSONObject().put("servers", servers).toString().getBytes("utf-8");
+        when(provider.getNetworkServices()).thenReturn(services);
+        when(provider.getComputeServices()).thenReturn(compute);
+        when(compute.getImageSupport()).thenReturn(mock(NovaImage.class));
+        support = new LocalServer(provider, toMethod());
+    }
+
+    @Benchmark
+    public void listVirtualMachines(Blackhole bh) throws CloudException, InternalException {
+        for( VirtualMachine vm : support.listVirtualMachines() ) {
+            bh.consume(vm);
+        }
+    }
+
+    @Benchmark
+    public void listVirtualMachineStatus(Blackhole bh) throws CloudException, InternalException {
+        for( ResourceStatus status : support.listVirtualMachineStatus() ) {
+            bh.consume(status);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.openstack.nova.os.network;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.network.VLAN;
+import org.dasein.cloud.openstack.nova.os.BenchmarkSupport;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures converting fleets of networks and subnets, as recorded from Neutron, into VLANs and subnets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuantumBenchmark {
+    @Param({ "1", "100", "1000", "5000" })
+    public int fleetSize;
+
+    private JSONArray networks;
+    private JSONArray subnets;
+    private Quantum   support;
+    private VLAN[]    vlans;
+
+    @Setup
+    public void setUp() throws CloudException, InternalException, JSONException {
+        networks = BenchmarkSupport.replicate(BenchmarkSupport.load("get_vlan.json").getJSONObject("network"), fleetSize);
+        subnets = BenchmarkSupport.replicate(BenchmarkSupport.load("get_subnet.json").getJSONObject("subnet"), fleetSize);
+        support = new Quantum(BenchmarkSupport.mockProvider());
+        vlans = new VLAN[fleetSize];
+        for( int i=0; i<fleetSize; i++ ) {
+            JSONObject subnet = subnets.getJSONObject(i);
+
+            subnet.put("network_id", networks.getJSONObject(i).getString("id"));
+            subnet.put("cidr", "10." + ((i >> 8) & 0xff) + "." + (i & 0xff) + ".0/24");
+            networks.getJSONObject(i).put("subnets", new JSONArray().put(subnet.getString("id")));
+            vlans[i] = support.toVLAN(networks.getJSONObject(i));
+        }
+    }
+
+    @Benchmark
+    public void toVLAN(Blackhole bh) throws CloudException, InternalException, JSONException {
+        for( int i=0; i<networks.length(); i++ ) {
+            bh.consume(support.toVLAN(networks.getJSONObject(i)));
+        }
+    }
+
+    @Benchmark
+    public void toSubnet(Blackhole bh) throws CloudException, InternalException, JSONException {
+        for( int i=0; i<subnets.length(); i++ ) {
+            bh.consume(support.toSubnet(subnets.getJSONObject(i), vlans[i]));
+        }
+    }
+}
@@ -24,12 +24,13 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
+import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,28 +40,19 @@ import javax.annotation.Nullable;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.conn.params.ConnRoutePNames;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
-import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudErrorType;
@@ -70,11 +62,7 @@ import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.openstack.nova.os.ext.hp.db.HPRDBMS;
 import org.dasein.cloud.util.APITrace;
-import org.dasein.cloud.util.Cache;
-import org.dasein.cloud.util.CacheLevel;
 import org.dasein.util.CalendarWrapper;
-import org.dasein.util.uom.time.Day;
-import org.dasein.util.uom.time.TimePeriod;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -84,7 +72,142 @@ public abstract class AbstractMethod {
 
     public AbstractMethod(NovaOpenStack provider) { this.provider = provider; }
 
-    public synchronized @Nullable AuthenticationContext authenticate() throws CloudException, InternalException {
+    /**
+     * How many times a request the cloud answered with 401 Unauthorized is retried after authenticating again.
+     */
+    static public final int MAX_AUTHENTICATION_RETRIES = 1;
+
+    /**
+     * The verb of the last request each thread sent, so the failure of a call can be judged by whether its request
+     * may safely run twice.
+     */
+    static private final ThreadLocal<String> lastMethod = new ThreadLocal<String>();
+
+    /**
+     * @param method an HTTP verb
+     * @return true if sending a request with the verb twice has the same effect as sending it once
+     */
+    static boolean isIdempotent(@Nullable String method) {
+        return ("GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method) || "DELETE".equals(method) || "OPTIONS".equals(method));
+    }
+
+    /**
+     * A request made with the token of an authentication context. It runs again with a new context if the cloud
+     * rejects the token, so it must not consume anything it cannot produce a second time.
+     * @param <T> the result of the request
+     */
+    static protected abstract class AuthenticatedCall<T> {
+        public abstract T call(@Nonnull AuthenticationContext context) throws CloudException, InternalException;
+    }
+
+    /**
+     * Runs a request with the current authentication context of the provider. If the cloud rejects the token, only
+     * that context is dropped, the credentials authenticate again through the shared authentication cache and the
+     * request is retried up to {@link #MAX_AUTHENTICATION_RETRIES} times. Rate limited requests are retried as the
+     * provider's {@link RetryPolicy} allows, except that a 503 is only retried for requests that may safely run twice
+     * (GET, HEAD, PUT, DELETE and OPTIONS). The compute rate limits of the context are kept current for the
+     * {@link RequestLimiter} along the way.
+     * @param call the request to run
+     * @param <T> the result of the request
+     * @return the result of the request
+     * @throws CloudException the cloud rejected the request or kept rejecting new tokens
+     * @throws InternalException an error occurred within Dasein Cloud while processing the request
+     */
+    protected <T> T authenticated(@Nonnull AuthenticatedCall<T> call) throws CloudException, InternalException {
+        return authenticated(call, true);
+    }
+
+    /**
+     * Runs a request with the current authentication context of the provider, dropping the context if the cloud
+     * rejects its token.
+     * @param call the request to run
+     * @param replayable false if the request cannot run twice, such as an upload consuming a stream, in which case
+     * a rejected token is dropped for the next request but the rejection is raised right away
+     * @param <T> the result of the request
+     * @return the result of the request
+     * @throws CloudException the cloud rejected the request or kept rejecting new tokens
+     * @throws InternalException an error occurred within Dasein Cloud while processing the request
+     */
+    protected <T> T authenticated(@Nonnull AuthenticatedCall<T> call, boolean replayable) throws CloudException, InternalException {
+        RetryPolicy policy = null;
+        int retries = 0, throttled = 0;
+        long waited = 0L;
+
+        while( true ) {
+            AuthenticationContext context = provider.getAuthenticationContext();
+            NovaMetrics metrics = provider.getMetrics();
+
+            if( metrics != null ) {
+                metrics.observe(context);
+            }
+            RequestLimiter.refresh(provider, context);
+            lastMethod.remove();
+            try {
+                return call.call(context);
+            }
+            catch( NovaException ex ) {
+                if( ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED ) {
+                    // another thread that ran into the same rejection may already have replaced the context
+                    provider.invalidateAuthenticationContext(context);
+                    if( !replayable || retries >= MAX_AUTHENTICATION_RETRIES ) {
+                        AuthenticationCache.retriesExhausted();
+                        throw ex;
+                    }
+                    if( metrics != null ) {
+                        metrics.reauthenticated();
+                    }
+                    retries++;
+                    continue;
+                }
+                if( !replayable || !ex.isRateLimited() ) {
+                    throw ex;
+                }
+                // unlike 413 and 429, a 503 may come after the cloud acted on the request
+                if( ex.getHttpCode() == HttpStatus.SC_SERVICE_UNAVAILABLE && !isIdempotent(lastMethod.get()) ) {
+                    throw ex;
+                }
+                if( policy == null ) {
+                    policy = RetryPolicy.getInstance(provider.getContext());
+                }
+                long delay = policy.getNextDelay(ex, throttled, waited);
+
+                if( delay < 0L ) {
+                    throw ex;
+                }
+                if( metrics != null ) {
+                    metrics.retried();
+                }
+                policy.sleep(delay);
+                waited += delay;
+                throttled++;
+            }
+        }
+    }
+
+    /**
+     * Authentication flavors that worked for endpoints given without a "ks:" or "st:" prefix, so later
+     * authentications against them take a single request.
+     */
+    static private final ConcurrentHashMap<String,AuthenticationFlavor> flavors = new ConcurrentHashMap<String, AuthenticationFlavor>();
+
+    /**
+     * @param endpoint an authentication endpoint
+     * @return the authentication flavor that last worked for the endpoint, if any
+     */
+    static public @Nullable AuthenticationFlavor getAuthenticationFlavor(@Nonnull String endpoint) {
+        return flavors.get(endpoint);
+    }
+
+    /**
+     * Records the authentication flavor that worked for an endpoint so it is tried first next time.
+     * @param endpoint an authentication endpoint
+     * @param flavor the flavor the endpoint accepted
+     */
+    static public void setAuthenticationFlavor(@Nonnull String endpoint, @Nonnull AuthenticationFlavor flavor) {
+        flavors.put(endpoint, flavor);
+    }
+
+    public @Nullable AuthenticationContext authenticate() throws CloudException, InternalException {
         Logger std = NovaOpenStack.getLogger(NovaOpenStack.class, "std");
         
         if( std.isTraceEnabled() ) {
@@ -112,22 +235,39 @@ public abstract class AbstractMethod {
                 auth = authenticateStandard(endpoint);
             }
             else {
-                if( endpoint.endsWith("1.0") || endpoint.endsWith("1.0/") || endpoint.endsWith("1.1") || endpoint.endsWith("1.1/")) {
-                    auth = authenticateStandard(endpoint);
-                    if (auth == null) {
-                    	auth = authenticateSwift(endpoint);
+                AuthenticationFlavor known = flavors.get(endpoint);
+
+                auth = null;
+                if( known != null ) {
+                    try {
+                        auth = authenticate(known, endpoint);
                     }
-                    if( auth == null ) {
-                        auth = authenticateKeystone(endpoint);
+                    catch( CloudException e ) {
+                        // an endpoint that now rejects the flavor outright is detected again just the same
+                        std.warn("authenticate(): " + known + " authentication against " + endpoint + " failed: " + e.getMessage());
                     }
                 }
-                else {
-                    auth = authenticateKeystone(endpoint);
-                    if( auth == null ) {
-                        auth = authenticateStandard(endpoint);
+                if( auth == null ) {
+                    // detect from scratch, skipping only the flavor that just failed
+                    if( known != null ) {
+                        flavors.remove(endpoint, known);
                     }
-                    if (auth == null) {
-                    	auth = authenticateSwift(endpoint);
+                    AuthenticationFlavor[] order;
+
+                    if( endpoint.endsWith("1.0") || endpoint.endsWith("1.0/") || endpoint.endsWith("1.1") || endpoint.endsWith("1.1/")) {
+                        order = new AuthenticationFlavor[] { AuthenticationFlavor.STANDARD, AuthenticationFlavor.SWIFT, AuthenticationFlavor.KEYSTONE };
+                    }
+                    else {
+                        order = new AuthenticationFlavor[] { AuthenticationFlavor.KEYSTONE, AuthenticationFlavor.STANDARD, AuthenticationFlavor.SWIFT };
+                    }
+                    for( AuthenticationFlavor flavor : order ) {
+                        if( flavor != known ) {
+                            auth = authenticate(flavor, endpoint);
+                            if( auth != null ) {
+                                setAuthenticationFlavor(endpoint, flavor);
+                                break;
+                            }
+                        }
                     }
                 }
             }
@@ -140,6 +280,15 @@ public abstract class AbstractMethod {
         }
     }
     
+    private @Nullable AuthenticationContext authenticate(@Nonnull AuthenticationFlavor flavor, @Nonnull String endpoint) throws CloudException, InternalException {
+        switch( flavor ) {
+            case KEYSTONE: return authenticateKeystone(endpoint);
+            case STANDARD: return authenticateStandard(endpoint);
+            case SWIFT: return authenticateSwift(endpoint);
+            default: throw new InternalException("Unknown authentication flavor: " + flavor);
+        }
+    }
+
     private @Nullable AuthenticationContext authenticateKeystone(@Nonnull String endpoint) throws CloudException, InternalException {
         Logger std = NovaOpenStack.getLogger(NovaOpenStack.class, "std");
         Logger wire = NovaOpenStack.getLogger(NovaOpenStack.class, "wire");
@@ -153,6 +302,7 @@ public abstract class AbstractMethod {
         }
 
         HttpClient client = null;
+        HttpResponse response = null;
 
         try {
             String accessPublic = null;
@@ -231,6 +381,7 @@ public abstract class AbstractMethod {
             HttpPost post = new HttpPost(endpoint + "/tokens");
             
             post.addHeader("Content-Type", "application/json");
+            acceptCompressed(post);
             if( wire.isDebugEnabled() ) {
                 wire.debug(post.getRequestLine().toString());
                 for( Header header : post.getAllHeaders() ) {
@@ -254,11 +405,10 @@ public abstract class AbstractMethod {
 
             wire.debug("");
 
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "POST authenticateKeystone");
-                response = client.execute(post);
+                response = execute(client, endpoint, post);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -300,7 +450,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
                 
                 if( items == null ) {
                     items = new NovaException.ExceptionItems();
@@ -338,6 +488,7 @@ public abstract class AbstractMethod {
                     String id, tenantId;
                     JSONArray catalog;
                     JSONObject token;
+                    long expiration;
 
                     try {
                         JSONObject rj = new JSONObject(data);
@@ -346,6 +497,7 @@ public abstract class AbstractMethod {
                         token = auth.getJSONObject("token");
                         catalog = auth.getJSONArray("serviceCatalog");
                         id = (token.has("id") ? token.getString("id") : null);
+                        expiration = parseExpiration(token.optString("expires", null));
                         tenantId = ((token.has("tenantId") && !token.isNull("tenantId")) ? token.getString("tenantId") : null);
                         if( tenantId == null && token.has("tenant") && !token.isNull("tenant") ) {
                             JSONObject t = token.getJSONObject("tenant");
@@ -488,15 +640,15 @@ public abstract class AbstractMethod {
                             endpoints.put("region-a.geo-1", "https://region-a.geo-1.dbaas-mysql.hpcloudsvc.com:8779/v1.0/66565797737008");
                             services.put(HPRDBMS.SERVICE, endpoints);
                         }
-                        return new AuthenticationContext(myRegionId, id, tenantId, services, null);
+                        return new AuthenticationContext(myRegionId, id, tenantId, services, null, expiration, AuthenticationFlavor.KEYSTONE);
                     }
                 }
             }
             throw new CloudException("No authentication tokens were provided");
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + AbstractMethod.class.getName() + ".authenticateKeystone()");
@@ -508,6 +660,45 @@ public abstract class AbstractMethod {
         }
     }
     
+    // 2015-09-01T12:00:00Z, 2015-09-01T12:00:00.000000Z, 2015-09-01T12:00:00+00:00 and the like
+    static private final Pattern EXPIRATION = Pattern.compile("(\\d{4})-(\\d{2})-(\\d{2})[Tt ](\\d{2}):(\\d{2}):(\\d{2})(?:\\.(\\d+))?\\s*(?:([Zz])|([+-])(\\d{2}):?(\\d{2}))?");
+
+    /**
+     * Parses the expiration of a Keystone token, with or without fractional seconds and with a trailing
+     * <code>Z</code>, a numeric UTC offset or no zone at all. Keystone reports expirations in UTC, so values without
+     * a zone are taken to be UTC as well.
+     * @param expires the expiration as reported by Keystone
+     * @return the expiration in milliseconds since the epoch or -1 if it is missing or unreadable
+     */
+    static long parseExpiration(@Nullable String expires) {
+        if( expires == null || expires.trim().length() < 1 ) {
+            return -1L;
+        }
+        Matcher m = EXPIRATION.matcher(expires.trim());
+
+        if( !m.matches() ) {
+            NovaOpenStack.getLogger(NovaOpenStack.class, "std").warn("Unable to parse token expiration: " + expires);
+            return -1L;
+        }
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+        cal.clear();
+        cal.set(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) - 1, Integer.parseInt(m.group(3)), Integer.parseInt(m.group(4)), Integer.parseInt(m.group(5)), Integer.parseInt(m.group(6)));
+        long expiration = cal.getTimeInMillis();
+        String fraction = m.group(7);
+
+        if( fraction != null ) {
+            expiration += Integer.parseInt((fraction + "00").substring(0, 3));
+        }
+        if( m.group(9) != null ) {
+            long offset = (Integer.parseInt(m.group(10)) * 60L + Integer.parseInt(m.group(11))) * CalendarWrapper.MINUTE;
+
+            expiration += (m.group(9).equals("-") ? offset : -offset);
+        }
+        return expiration;
+    }
+
+
     private @Nullable AuthenticationContext authenticateStandard(@Nonnull String endpointUrls) throws CloudException, InternalException {
         Logger std = NovaOpenStack.getLogger(NovaOpenStack.class, "std");
         Logger wire = NovaOpenStack.getLogger(NovaOpenStack.class, "wire");
@@ -553,6 +744,7 @@ public abstract class AbstractMethod {
                 }
                 
                 HttpClient client = null;
+                HttpResponse response = null;
 
                 try {
                     ProviderContext ctx = provider.getContext();
@@ -570,11 +762,10 @@ public abstract class AbstractMethod {
                         }
                         wire.debug("");
                     }
-                    HttpResponse response;
 
                     try {
                         APITrace.trace(provider, "GET authenticateStandard");
-                        response = client.execute(get);
+                        response = execute(client, endpoint, get);
                         if( wire.isDebugEnabled() ) {
                             wire.debug(response.getStatusLine().toString());
                             for( Header header : response.getAllHeaders() ) {
@@ -621,7 +812,7 @@ public abstract class AbstractMethod {
                             wire.debug(response);
                         }
                         wire.debug("");
-                        NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                        NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
                         
                         if( items.type.equals(CloudErrorType.AUTHENTICATION) ) {
                             return null;
@@ -689,8 +880,8 @@ public abstract class AbstractMethod {
                     }
                 }
                finally {
-                   if (client != null) {
-                       client.getConnectionManager().shutdown();
+                   if( response != null ) {
+                       EntityUtils.consumeQuietly(response.getEntity());
                    }
                    if( wire.isDebugEnabled() ) {
                        wire.debug("");
@@ -702,7 +893,7 @@ public abstract class AbstractMethod {
                 std.warn("authenticateStandard(): No authentication token in response");
                 throw new CloudException("No authentication token in cloud response");
             }
-            return new AuthenticationContext(myRegion, authToken, tenantId, services, null);
+            return new AuthenticationContext(myRegion, authToken, tenantId, services, null, -1L, AuthenticationFlavor.STANDARD);
         }
         finally {
             if( std.isTraceEnabled() ) {
@@ -747,6 +938,7 @@ public abstract class AbstractMethod {
         }
         
         HttpClient client = null;
+        HttpResponse response = null;
         try {
             client = getClient();
             HttpGet get = new HttpGet(endpoint);
@@ -777,11 +969,10 @@ public abstract class AbstractMethod {
                 }
                 wire.debug("");
             }
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "GET authenticateSwift");
-                response = client.execute(get);
+                response = execute(client, endpoint, get);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -821,7 +1012,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
                 
                 if( items.type.equals(CloudErrorType.AUTHENTICATION) ) {
                     return null;
@@ -871,12 +1062,12 @@ public abstract class AbstractMethod {
                     std.warn("authenticate(): No authentication token in response");
                     throw new CloudException("No authentication token in cloud response");
                 }
-                return new AuthenticationContext(thisRegion, authToken, tenantId, services, storageToken);
+                return new AuthenticationContext(thisRegion, authToken, tenantId, services, storageToken, -1L, AuthenticationFlavor.SWIFT);
             }
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + AbstractMethod.class.getName() + ".authenticate()");
@@ -889,29 +1080,22 @@ public abstract class AbstractMethod {
     }
 
     public void deleteResource(@Nonnull final String service, @Nonnull final String resource, @Nonnull final String resourceId, @Nullable final String suffix) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(service);
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(service);
 
-        if( endpoint == null ) {
-            throw new CloudException("No " + service + " endpoint exists");
-        }
-        String resourceUri = resource + "/" + resourceId;
-        if( suffix != null ) {
-            resourceUri = resource + "/" + resourceId + "/" + suffix;
-        }
-        try {
-            delete(context.getAuthToken(), endpoint, resourceUri);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                deleteResource(service, resource, resourceId, suffix);
-            }
-            else {
-                throw ex;
+                if( endpoint == null ) {
+                    throw new CloudException("No " + service + " endpoint exists");
+                }
+                String resourceUri = resource + "/" + resourceId;
+                if( suffix != null ) {
+                    resourceUri = resource + "/" + resourceId + "/" + suffix;
+                }
+                delete(context.getAuthToken(), endpoint, resourceUri);
+                return null;
             }
-        }
+        });
     }
     
     protected void delete(@Nonnull final String authToken, @Nonnull final String endpoint, @Nonnull final String resource) throws CloudException, InternalException {
@@ -926,11 +1110,13 @@ public abstract class AbstractMethod {
             wire.debug("");
         }
         HttpClient client = null;
+        HttpResponse response = null;
         try {
             client = getClient();
             HttpDelete delete = new HttpDelete(endpoint + resource);
             
             delete.addHeader("Content-Type", "application/json");
+            acceptCompressed(delete);
             delete.addHeader("X-Auth-Token", authToken);
             if( wire.isDebugEnabled() ) {
                 wire.debug(delete.getRequestLine().toString());
@@ -939,11 +1125,10 @@ public abstract class AbstractMethod {
                 }
                 wire.debug("");
             }
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "DELETE " + toAPIResource(resource));
-                response = client.execute(delete);
+                response = execute(client, endpoint, delete);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -980,7 +1165,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
                 
                 if( items == null ) {
                     items = new NovaException.ExceptionItems();
@@ -997,8 +1182,8 @@ public abstract class AbstractMethod {
             }
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + AbstractMethod.class.getName() + ".delete()");
@@ -1011,92 +1196,129 @@ public abstract class AbstractMethod {
     }
 
     public @Nullable String[] getItemList(@Nonnull final String service, @Nonnull final String resource, final boolean suffix) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(service);
+        return authenticated(new AuthenticatedCall<String[]>() {
+            @Override
+            public String[] call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(service);
 
-        if( endpoint == null ) {
-            throw new CloudException("No " + service + " URL has been established in " + context.getMyRegion());
-        }
-        String resourceUri = resource;
-        if( suffix ) {
-            resourceUri += "/detail";
-        }
-        try {
-            String response = getString(context.getAuthToken(), endpoint, resourceUri);
+                if( endpoint == null ) {
+                    throw new CloudException("No " + service + " URL has been established in " + context.getMyRegion());
+                }
+                String resourceUri = resource;
+                if( suffix ) {
+                    resourceUri += "/detail";
+                }
+                String response = getString(context.getAuthToken(), endpoint, resourceUri);
 
-            if( response == null ) {
-                return null;
-            }
-            if( response.length() < 1 ) {
-                return new String[0];
-            }
-            String[] items = response.split("\n");
+                if( response == null ) {
+                    return null;
+                }
+                if( response.length() < 1 ) {
+                    return new String[0];
+                }
+                String[] items = response.split("\n");
 
-            if( items == null || items.length < 1 ) {
-                return new String[] { response.trim() };
-            }
-            for( int i=0; i< items.length; i++ ) {
-                items[i] = items[i].trim();
-            }
-            return items;
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return getItemList(service, resource, suffix);
-            }
-            else {
-                throw ex;
+                if( items == null || items.length < 1 ) {
+                    return new String[] { response.trim() };
+                }
+                for( int i=0; i< items.length; i++ ) {
+                    items[i] = items[i].trim();
+                }
+                return items;
             }
-        }
+        });
     }
     
+    /**
+     * Lists resources of a service, converting each element of the list as it is read from the response rather
+     * than reading the whole response first.
+     * @param service the type of service in the service catalog, such as volume
+     * @param resource the path of the listing relative to the service endpoint
+     * @param suffix true to list the resources in detail
+     * @param listKey the name of the list in the response
+     * @param converter converts each element of the list
+     * @param <T> the type of object the elements describe
+     * @return the converted elements or <code>null</code> if the listing does not exist
+     * @throws CloudException the cloud rejected the request or returned an invalid listing
+     * @throws InternalException an error occurred within Dasein Cloud while processing the listing
+     */
+    public @Nullable <T> List<T> getResourceList(@Nonnull final String service, @Nonnull final String resource, final boolean suffix, @Nonnull final String listKey, @Nonnull final JSONListParser.ItemConverter<T> converter) throws CloudException, InternalException {
+        return authenticated(new AuthenticatedCall<List<T>>() {
+            @Override
+            public List<T> call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(service);
+
+                if( endpoint == null ) {
+                    throw new CloudException("No " + service + " URL has been established in " + context.getMyRegion());
+                }
+                return getList(context.getAuthToken(), endpoint, (suffix ? resource + "/detail" : resource), listKey, converter, null);
+            }
+        });
+    }
+
     public @Nullable JSONObject getResource(@Nonnull final String service, @Nonnull final String resource, @Nullable final String resourceId, final boolean suffix) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(service);
+        return authenticated(new AuthenticatedCall<JSONObject>() {
+            @Override
+            public JSONObject call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(service);
 
-        if( endpoint == null ) {
-            throw new CloudException("No " + service + " URL has been established in " + context.getMyRegion());
-        }
-        String resourceUri = resource;
-        if( resourceId != null ) {
-            if( resourceId.startsWith("?") ) {
-                resourceUri += resourceId;
-            }
-            else {
-                resourceUri += "/" + resourceId;
-            }
-        }
-        else if( suffix ) {
-            resourceUri += "/detail";
-        }
-        try {
-            String response = getString(context.getAuthToken(), endpoint, resourceUri);
+                if( endpoint == null ) {
+                    throw new CloudException("No " + service + " URL has been established in " + context.getMyRegion());
+                }
+                String resourceUri = resource;
+                if( resourceId != null ) {
+                    if( resourceId.startsWith("?") ) {
+                        resourceUri += resourceId;
+                    }
+                    else {
+                        resourceUri += "/" + resourceId;
+                    }
+                }
+                else if( suffix ) {
+                    resourceUri += "/detail";
+                }
+                String response = getString(context.getAuthToken(), endpoint, resourceUri);
 
-            if( response == null ) {
-                return null;
-            }
-            try {
-                return new JSONObject(response);
-            }
-            catch( JSONException e ) {
-                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
-            }
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return getResource(service, resource, resourceId, suffix);
-            }
-            else {
-                throw ex;
+                if( response == null ) {
+                    return null;
+                }
+                try {
+                    return new JSONObject(response);
+                }
+                catch( JSONException e ) {
+                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
+                }
             }
-        }
+        });
     }
     
-    protected @Nullable String getString(@Nonnull String authToken, @Nonnull String endpoint, @Nonnull String resource) throws CloudException, InternalException {
+    /**
+     * Fetches a resource as a string. Identical requests in flight at the same time share a single request if the
+     * provider is configured to coalesce them through the {@link RequestCoalescer}. Resources the cloud sent
+     * validators for are fetched conditionally and served from the {@link ResponseCache} while they are unchanged.
+     * A body served from the cache is the same string as was downloaded, so callers parse it again.
+     * @param authToken the token to authenticate the request with
+     * @param endpoint the service endpoint holding the resource
+     * @param resource the path of the resource relative to the endpoint
+     * @return the response body or <code>null</code> if the resource does not exist
+     * @throws CloudException the cloud rejected the request
+     * @throws InternalException an error occurred within Dasein Cloud while processing the request
+     */
+    protected @Nullable String getString(@Nonnull final String authToken, @Nonnull final String endpoint, @Nonnull final String resource) throws CloudException, InternalException {
+        long window = RequestCoalescer.getReuseWindow(provider.getContext());
+
+        if( window < 0L ) {
+            return fetchString(authToken, endpoint, resource);
+        }
+        return RequestCoalescer.get(authToken, (resource == null ? endpoint : endpoint + resource), window, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return fetchString(authToken, endpoint, resource);
+            }
+        });
+    }
+
+    private @Nullable String fetchString(@Nonnull String authToken, @Nonnull String endpoint, @Nonnull String resource) throws CloudException, InternalException {
         Logger std = NovaOpenStack.getLogger(NovaOpenStack.class, "std");
         Logger wire = NovaOpenStack.getLogger(NovaOpenStack.class, "wire");
         
@@ -1108,11 +1330,17 @@ public abstract class AbstractMethod {
             wire.debug("");
         }
         HttpClient client = null;
+        HttpResponse response = null;
         try {
             client = getClient();
-            HttpGet get = new HttpGet(resource == null ? endpoint : endpoint + resource);
-            
+            String url = (resource == null ? endpoint : endpoint + resource);
+            HttpGet get = new HttpGet(url);
+            ProviderContext ctx = provider.getContext();
+            String cacheKey = (ctx == null ? null : ResponseCache.getKey(ctx, provider.getAuthenticationKey(ctx), url));
+            ResponseCache.Entry cached = (cacheKey == null ? null : ResponseCache.addValidators(cacheKey, get));
+
             get.addHeader("Content-Type", "application/json");
+            acceptCompressed(get);
             get.addHeader("X-Auth-Token", authToken);
 
             if( wire.isDebugEnabled() ) {
@@ -1122,11 +1350,10 @@ public abstract class AbstractMethod {
                 }
                 wire.debug("");
             }
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "GET " + toAPIResource(resource));
-                response = client.execute(get);
+                response = execute(client, endpoint, get);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -1144,7 +1371,13 @@ public abstract class AbstractMethod {
 
             std.debug("HTTP STATUS: " + code);
 
+            if( code == HttpStatus.SC_NOT_MODIFIED && cached != null ) {
+                return ResponseCache.hit(cached);
+            }
             if( code == HttpStatus.SC_NOT_FOUND ) {
+                if( cacheKey != null ) {
+                    ResponseCache.remove(cacheKey);
+                }
                 return null;
             }
             if( code == HttpStatus.SC_BAD_REQUEST ) {
@@ -1178,7 +1411,7 @@ public abstract class AbstractMethod {
                 catch( JSONException e ) {
                     // ignore
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
 
                 if( items == null ) {
                     return null;
@@ -1209,7 +1442,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
                 
                 if( items == null ) {
                     return null;
@@ -1243,12 +1476,15 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
+                if( cacheKey != null ) {
+                    ResponseCache.put(cacheKey, response, data);
+                }
                 return data;
             }
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + AbstractMethod.class.getName() + ".getString()");
@@ -1261,6 +1497,21 @@ public abstract class AbstractMethod {
     }
     
     protected @Nullable InputStream getStream(@Nonnull String authToken, @Nonnull String endpoint, @Nonnull String resource) throws CloudException, InternalException {
+        return getStream(authToken, endpoint, resource, false);
+    }
+
+    /**
+     * Opens the body of a resource for reading; the caller must close the stream to return the connection.
+     * @param authToken the token to authenticate the request with
+     * @param endpoint the service endpoint holding the resource
+     * @param resource the path of the resource relative to the endpoint
+     * @param compressed whether a compressed response may be negotiated, which must only be the case for API
+     * responses since binary objects are handed back exactly as stored
+     * @return the body of the resource or <code>null</code> if it does not exist
+     * @throws CloudException the cloud rejected the request
+     * @throws InternalException an error occurred within Dasein Cloud while making the request
+     */
+    protected @Nullable InputStream getStream(@Nonnull String authToken, @Nonnull String endpoint, @Nonnull String resource, boolean compressed) throws CloudException, InternalException {
         Logger std = NovaOpenStack.getLogger(NovaOpenStack.class, "std");
         Logger wire = NovaOpenStack.getLogger(NovaOpenStack.class, "wire");
         
@@ -1271,12 +1522,18 @@ public abstract class AbstractMethod {
             wire.debug("--------------------------------------------------------> " + endpoint + resource);
             wire.debug("");
         }
+        HttpResponse response = null;
+        boolean streaming = false;
+
         try {
             HttpClient client = getClient();
             HttpGet get = new HttpGet(endpoint + resource);
             
             get.addHeader("Content-Type", "application/json");
             get.addHeader("X-Auth-Token", authToken);
+            if( compressed ) {
+                acceptCompressed(get);
+            }
 
             if( wire.isDebugEnabled() ) {
                 wire.debug(get.getRequestLine().toString());
@@ -1285,11 +1542,10 @@ public abstract class AbstractMethod {
                 }
                 wire.debug("");
             }
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "GET " + toAPIResource(resource));
-                response = client.execute(get);
+                response = execute(client, endpoint, get);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -1329,7 +1585,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
                 
                 if( items == null ) {
                     return null;
@@ -1362,10 +1618,15 @@ public abstract class AbstractMethod {
                     wire.debug("---> Binary Data <---");
                 }
                 wire.debug("");
+                streaming = (input != null);
                 return input;
             }
         }
         finally {
+            // the connection returns to the pool once the caller closes the stream
+            if( response != null && !streaming ) {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + AbstractMethod.class.getName() + ".getStream()");
             }
@@ -1376,89 +1637,131 @@ public abstract class AbstractMethod {
         }
     }
 
-    protected @Nonnull HttpClient getClient() throws CloudException, InternalException {
-        ProviderContext ctx = provider.getContext();
-
-        if( ctx == null ) {
-            throw new InternalException("No context was defined for this request");
+    /**
+     * Fetches a list of resources, converting each element of the list as it is read from the response stream.
+     * Listings are not kept in the {@link ResponseCache}, so every call downloads the whole listing.
+     * @param authToken the token to authenticate the request with
+     * @param endpoint the service endpoint holding the resources
+     * @param resource the path of the listing relative to the endpoint
+     * @param listKey the name of the list in the response
+     * @param converter converts each element of the list
+     * @param remainder receives the other top level members of the response, such as pagination links, if not
+     * <code>null</code>
+     * @param <T> the type of object the elements describe
+     * @return the converted elements or <code>null</code> if the listing does not exist
+     * @throws CloudException the cloud rejected the request or returned an invalid listing
+     * @throws InternalException an error occurred within Dasein Cloud while processing the listing
+     */
+    protected @Nullable <T> List<T> getList(@Nonnull String authToken, @Nonnull String endpoint, @Nonnull String resource, @Nonnull String listKey, @Nonnull JSONListParser.ItemConverter<T> converter, @Nullable JSONObject remainder) throws CloudException, InternalException {
+        InputStream input = getStream(authToken, endpoint, resource, true);
+
+        if( input == null ) {
+            return null;
         }
-        String endpoint = ctx.getCloud().getEndpoint();
-
-        if( endpoint == null ) {
-            throw new InternalException("No cloud endpoint was defined");
+        try {
+            return JSONListParser.parse(input, listKey, converter, remainder);
         }
-        boolean ssl = endpoint.startsWith("https");
-
-        HttpParams params = new BasicHttpParams();
+        finally {
+            try {
+                input.close();
+            }
+            catch( IOException ignore ) {
+                // the connection is not reused
+            }
+        }
+    }
 
-        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-        //noinspection deprecation
-        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
-        HttpProtocolParams.setUserAgent(params, "");
+    protected @Nonnull HttpClient getClient() throws CloudException, InternalException {
+        return provider.getConnectionPool().getClient();
+    }
 
-        Properties p = ctx.getCustomProperties();
+    /**
+     * Asks for a compressed response to a request expecting JSON, unless the provider has compression turned off.
+     * @param request the request to send
+     */
+    private void acceptCompressed(@Nonnull HttpRequest request) {
+        ResponseCompression.accept(provider == null ? null : provider.getContext(), request);
+    }
 
-        if( p != null ) {
-            String proxyHost = p.getProperty("proxyHost");
-            String proxyPort = p.getProperty("proxyPort");
+    /**
+     * Sends a request unless the {@link CircuitBreaker} of its endpoint is open, once the {@link RequestLimiter} of
+     * its endpoint lets it through and the {@link ConcurrencyLimiter} of its endpoint has room for it. Every request
+     * of this class goes out through here.
+     * @param client the client sending the request
+     * @param endpoint the service endpoint the request goes to
+     * @param request the request to send
+     * @return the response to the request
+     * @throws CloudException the endpoint is failing or the request would exceed a rate or concurrency limit and
+     * may not wait for it
+     * @throws InternalException the thread was interrupted while waiting for a limit
+     * @throws IOException the request could not be sent or its response not read
+     */
+    private @Nonnull HttpResponse execute(@Nonnull HttpClient client, @Nonnull String endpoint, @Nonnull HttpUriRequest request) throws CloudException, InternalException, IOException {
+        CircuitBreaker breaker = CircuitBreaker.getInstance(endpoint);
+
+        lastMethod.set(request.getMethod());
+        boolean trial = breaker.acquire();
+        boolean sent = false;
+        int status = -1;
 
-            if( proxyHost != null ) {
-                int port = 0;
+        try {
+            RequestLimiter limiter = RequestLimiter.find(request.getURI());
 
-                if( proxyPort != null && proxyPort.length() > 0 ) {
-                    port = Integer.parseInt(proxyPort);
-                }
-                params.setParameter(ConnRoutePNames.DEFAULT_PROXY, new HttpHost(proxyHost, port, ssl ? "https" : "http"));
+            if( limiter != null ) {
+                limiter.acquire(request.getMethod());
             }
-        }
-        DefaultHttpClient client = new DefaultHttpClient(params);
+            ConcurrencyLimiter concurrency = ConcurrencyLimiter.getInstance(endpoint);
+            long started = concurrency.acquire();
+            NovaMetrics metrics = (provider == null ? null : provider.getMetrics());
+            NovaMetrics.Operation operation = (metrics == null ? null : metrics.getOperation(endpoint, request));
+            long exchanged = System.nanoTime();
 
-        if( provider.isInsecure() ) {
+            sent = true;
             try {
-                client.getConnectionManager().getSchemeRegistry().register(new Scheme("https", 443, new SSLSocketFactory(new TrustStrategy() {
+                HttpResponse response = client.execute(request);
 
-                    public boolean isTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
-                        return true;
-                    }
-                }, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER)));
+                status = response.getStatusLine().getStatusCode();
+                if( operation != null ) {
+                    // wraps the entity first so the bytes are counted as they come off the wire
+                    operation.record(exchanged, request, response);
+                }
+                ResponseCompression.decode(request, response);
+                return response;
             }
-            catch( Throwable t ) {
-                t.printStackTrace();
+            finally {
+                concurrency.release(started, status < 0 || ConcurrencyLimiter.isOverloaded(status));
+                if( operation != null && status < 0 ) {
+                    operation.fail(exchanged);
+                }
             }
         }
-        return client;
+        finally {
+            breaker.release(trial, sent, status);
+        }
     }
 
     public @Nullable Map<String,String> headResource(@Nonnull final String service, @Nullable final String resource, @Nullable final String resourceId) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(service);
+        return authenticated(new AuthenticatedCall<Map<String,String>>() {
+            @Override
+            public Map<String,String> call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(service);
 
-        if( endpoint == null ) {
-            throw new CloudException("No " + service + " URL has been established in " + context.getMyRegion());
-        }
-        String resourceUri = resource;
-        if( resource == null && resourceId == null ) {
-            resourceUri = "/";
-        }
-        else if( resource == null ) {
-            resourceUri = "/" + resourceId;
-        }
-        else if( resourceId != null ) {
-            resourceUri += "/" + resourceId;
-        }
-        try {
-            return head(context.getAuthToken(), endpoint, resourceUri);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return headResource(service, resource, resourceId);
-            }
-            else {
-                throw ex;
+                if( endpoint == null ) {
+                    throw new CloudException("No " + service + " URL has been established in " + context.getMyRegion());
+                }
+                String resourceUri = resource;
+                if( resource == null && resourceId == null ) {
+                    resourceUri = "/";
+                }
+                else if( resource == null ) {
+                    resourceUri = "/" + resourceId;
+                }
+                else if( resourceId != null ) {
+                    resourceUri += "/" + resourceId;
+                }
+                return head(context.getAuthToken(), endpoint, resourceUri);
             }
-        }
+        });
     }
 
     protected @Nullable Map<String,String> head(@Nonnull String authToken, @Nonnull String endpoint, @Nonnull String resource) throws CloudException, InternalException {
@@ -1473,6 +1776,7 @@ public abstract class AbstractMethod {
             wire.debug("");
         }
         HttpClient client = null;
+        HttpResponse response = null;
         try {
             client = getClient();
             HttpHead head = new HttpHead(endpoint + resource);
@@ -1485,11 +1789,10 @@ public abstract class AbstractMethod {
                 }
                 wire.debug("");
             }
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "HEAD " + toAPIResource(resource));
-                response = client.execute(head);
+                response = execute(client, endpoint, head);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -1529,7 +1832,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
                 
                 if( items == null ) {
                     return null;
@@ -1545,8 +1848,8 @@ public abstract class AbstractMethod {
             return map;
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + AbstractMethod.class.getName() + ".head()");
@@ -1559,28 +1862,21 @@ public abstract class AbstractMethod {
     }
 
     public void postResourceHeaders(final String service, final String resource, final String resourceId, final Map<String,String> headers) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(service);
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(service);
 
-        if( endpoint == null ) {
-            throw new CloudException("No " + service + " has been established in " + context.getMyRegion());
-        }
-        if( resourceId == null ) {
-            throw new InternalException("No container was specified");
-        }
-        try {
-            postHeaders(context.getAuthToken(), endpoint, resource + "/" + resourceId, headers);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                postResourceHeaders(service, resource, resourceId, headers);
-            }
-            else {
-                throw ex;
+                if( endpoint == null ) {
+                    throw new CloudException("No " + service + " has been established in " + context.getMyRegion());
+                }
+                if( resourceId == null ) {
+                    throw new InternalException("No container was specified");
+                }
+                postHeaders(context.getAuthToken(), endpoint, resource + "/" + resourceId, headers);
+                return null;
             }
-        }
+        });
     }
     
     @SuppressWarnings("unused")
@@ -1596,6 +1892,7 @@ public abstract class AbstractMethod {
             wire.debug("");
         }
         HttpClient client = null;
+        HttpResponse response = null;
         try {
             client = getClient();
             HttpPost post = new HttpPost(endpoint + resource);
@@ -1617,11 +1914,10 @@ public abstract class AbstractMethod {
                 wire.debug("");
             }
 
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "POST " + toAPIResource(resource));
-                response = client.execute(post);
+                response = execute(client, endpoint, post);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -1665,14 +1961,13 @@ public abstract class AbstractMethod {
                         if( ob.has("overLimit") ) {
                             ob = ob.getJSONObject("overLimit");
                             if( ob.has("retryAfter") ) {
-                                int min = ob.getInt("retryAfter");
+                                long retryAfter = NovaException.parseRetryAfter(ob.optString("retryAfter", null));
 
-                                if( min < 1 ) {
+                                if( retryAfter < 1L ) {
                                     throw new CloudException(CloudErrorType.CAPACITY, 413, "Over Limit", ob.has("message") ? ob.getString("message") : "Over Limit");
                                 }
-                                try { Thread.sleep(CalendarWrapper.MINUTE * min); }
-                                catch( InterruptedException ignore ) { }
-                                return postHeaders(authToken, endpoint, resource, customHeaders);
+                                // retried by the shared retry policy rather than by parking this thread
+                                throw new NovaException(CloudErrorType.THROTTLING, code, "Over Limit", ob.has("message") ? ob.getString("message") : "Over Limit", retryAfter);
                             }
                         }
                     }
@@ -1702,7 +1997,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
                 
                 if( items == null ) {
                     items = new NovaException.ExceptionItems();
@@ -1742,8 +2037,8 @@ public abstract class AbstractMethod {
             }
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + AbstractMethod.class.getName() + ".postString()");
@@ -1756,71 +2051,54 @@ public abstract class AbstractMethod {
     }
 
     public @Nullable JSONObject postString(@Nonnull final String service, @Nonnull final String resource, @Nullable final String resourceId, @Nonnull final String extra, @Nonnull final JSONObject body) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(service);
-        
-        if( endpoint == null ) {
-            throw new CloudException("No " + service + " endpoint exists");
-        }
-        try {
-            String response = postString(context.getAuthToken(), endpoint, resource + "/" + resourceId + "/" + extra, body.toString());
+        return authenticated(new AuthenticatedCall<JSONObject>() {
+            @Override
+            public JSONObject call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(service);
 
-            if( response == null ) {
-                return null;
-            }
-            try {
-                return new JSONObject(response);
-            }
-            catch( JSONException e ) {
-                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
-            }
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return postString(service, resource, resourceId, extra, body);
-            }
-            else {
-                throw ex;
+                if( endpoint == null ) {
+                    throw new CloudException("No " + service + " endpoint exists");
+                }
+                String response = postString(context.getAuthToken(), endpoint, resource + "/" + resourceId + "/" + extra, body.toString());
+
+                if( response == null ) {
+                    return null;
+                }
+                try {
+                    return new JSONObject(response);
+                }
+                catch( JSONException e ) {
+                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
+                }
             }
-        }
+        });
     }
     
     public @Nullable JSONObject postString(@Nonnull final String service, @Nonnull final String resource, @Nullable final String resourceId, @Nonnull final JSONObject body, final boolean suffix) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-
-        String resourceUri = resource;
-        if( resourceId != null ) {
-            resourceUri += "/" + (suffix ? (resourceId + "/action") : resourceId);
-        }
-        String endpoint = context.getServiceUrl(service);
+        return authenticated(new AuthenticatedCall<JSONObject>() {
+            @Override
+            public JSONObject call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String resourceUri = resource;
+                if( resourceId != null ) {
+                    resourceUri += "/" + (suffix ? (resourceId + "/action") : resourceId);
+                }
+                String endpoint = context.getServiceUrl(service);
 
-        if( endpoint == null ) {
-            throw new CloudException("No " + service + " endpoint exists");
-        }
-        try {
-            String response = postString(context.getAuthToken(), endpoint, resourceUri, body.toString());
-            if( response == null ) {
-                return null;
-            }
-            try {
-                return new JSONObject(response);
-            }
-            catch( JSONException e ) {
-                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
-            }
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return postString(service, resource, resourceId, body, suffix);
-            }
-            else {
-                throw ex;
+                if( endpoint == null ) {
+                    throw new CloudException("No " + service + " endpoint exists");
+                }
+                String response = postString(context.getAuthToken(), endpoint, resourceUri, body.toString());
+                if( response == null ) {
+                    return null;
+                }
+                try {
+                    return new JSONObject(response);
+                }
+                catch( JSONException e ) {
+                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
+                }
             }
-        }
+        });
     }
     
     protected @Nullable String postString(@Nonnull String authToken, @Nonnull String endpoint, @Nonnull String resource, @Nonnull String payload) throws CloudException, InternalException {
@@ -1835,11 +2113,13 @@ public abstract class AbstractMethod {
             wire.debug("");
         }
         HttpClient client = null;
+        HttpResponse response = null;
         try {
             client = getClient();
             HttpPost post = new HttpPost(endpoint + resource);
             
             post.addHeader("Content-Type", "application/json");
+            acceptCompressed(post);
             post.addHeader("X-Auth-Token", authToken);
             if( wire.isDebugEnabled() ) {
                 wire.debug(post.getRequestLine().toString());
@@ -1861,11 +2141,10 @@ public abstract class AbstractMethod {
 
                 wire.debug("");
             }
-            HttpResponse response;
 
             try {
                 std.debug("POST " + toAPIResource(resource));
-                response = client.execute(post);
+                response = execute(client, endpoint, post);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -1906,14 +2185,13 @@ public abstract class AbstractMethod {
                         JSONObject ob = new JSONObject(data);
                         if( ob.has("overLimit") ) {
                             ob = ob.getJSONObject("overLimit");
-                            int min = ob.optInt("retryAfter", 0);
+                            long retryAfter = NovaException.parseRetryAfter(ob.optString("retryAfter", null));
 
-                            if( min < 1 ) {
+                            if( retryAfter < 1L ) {
                                 throw new CloudException(CloudErrorType.CAPACITY, 413, "Over Limit", ob.has("message") ? ob.getString("message") : "Over Limit");
                             }
-                            try { Thread.sleep(CalendarWrapper.MINUTE * min); }
-                            catch( InterruptedException ignore ) { }
-                            return postString(authToken, endpoint, resource, payload);
+                            // retried by the shared retry policy rather than by parking this thread
+                            throw new NovaException(CloudErrorType.THROTTLING, code, "Over Limit", ob.has("message") ? ob.getString("message") : "Over Limit", retryAfter);
                         }
                     }
                 }
@@ -1941,7 +2219,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
 
                 if( items == null ) {
                     items = new NovaException.ExceptionItems();
@@ -1990,8 +2268,8 @@ public abstract class AbstractMethod {
             }
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + AbstractMethod.class.getName() + ".postString()");
@@ -2016,6 +2294,7 @@ public abstract class AbstractMethod {
             wire.debug("");
         }
         HttpClient client = null;
+        HttpResponse response = null;
         try {
             client = getClient();
             HttpPost post = new HttpPost(endpoint + resource);
@@ -2034,11 +2313,10 @@ public abstract class AbstractMethod {
             wire.debug(" ---- BINARY DATA ---- ");
             wire.debug("");
 
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "POST " + toAPIResource(resource));
-                response = client.execute(post);
+                response = execute(client, endpoint, post);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -2086,7 +2364,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
 
                 if( items == null ) {
                     items = new NovaException.ExceptionItems();
@@ -2127,8 +2405,8 @@ public abstract class AbstractMethod {
             }
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + NovaOpenStack.class.getName() + ".postStream()");
@@ -2141,35 +2419,28 @@ public abstract class AbstractMethod {
     }
 
     public void putResourceHeaders(@Nonnull final String service, @Nullable final String resource, @Nullable final String resourceId, @Nonnull final Map<String,String> headers) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(service);
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(service);
 
-        if( endpoint == null ) {
-            throw new CloudException("No " + service + " has been established in " + context.getMyRegion());
-        }
-        String resourceUri = resource;
-        if( resource == null && resourceId == null ) {
-            resourceUri = "/";
-        }
-        else if( resource == null ) {
-            resourceUri = "/" + resourceId;
-        }
-        else if( resourceId != null ) {
-            resourceUri += "/" + resourceId;
-        }
-        try {
-            putHeaders(context.getAuthToken(), endpoint, resourceUri, headers);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                putResourceHeaders(service, resource, resourceId, headers);
-            }
-            else {
-                throw ex;
+                if( endpoint == null ) {
+                    throw new CloudException("No " + service + " has been established in " + context.getMyRegion());
+                }
+                String resourceUri = resource;
+                if( resource == null && resourceId == null ) {
+                    resourceUri = "/";
+                }
+                else if( resource == null ) {
+                    resourceUri = "/" + resourceId;
+                }
+                else if( resourceId != null ) {
+                    resourceUri += "/" + resourceId;
+                }
+                putHeaders(context.getAuthToken(), endpoint, resourceUri, headers);
+                return null;
             }
-        }
+        });
     }
 
     @SuppressWarnings("unused")
@@ -2185,6 +2456,7 @@ public abstract class AbstractMethod {
             wire.debug("");
         }
         HttpClient client = null;
+        HttpResponse response = null;
         try {
             client = getClient();
             HttpPut put = new HttpPut(endpoint + resource);
@@ -2206,11 +2478,10 @@ public abstract class AbstractMethod {
                 }
                 wire.debug("");
             }
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "PUT " + toAPIResource(resource));
-                response = client.execute(put);
+                response = execute(client, endpoint, put);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -2248,7 +2519,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
                 
                 if( items == null ) {
                     items = new NovaException.ExceptionItems();
@@ -2288,8 +2559,8 @@ public abstract class AbstractMethod {
             }
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + AbstractMethod.class.getName() + ".putString()");
@@ -2301,38 +2572,30 @@ public abstract class AbstractMethod {
         }
     }
     
-    public @Nullable JSONObject putString(@Nonnull final String service, @Nonnull final String resource, @Nullable final String resourceId, @Nonnull final JSONObject body , final String suffix) throws CloudException, InternalException {
-    	AuthenticationContext context = provider.getAuthenticationContext();
-        String resourceUri = resource;
-    	if( resourceId != null ) {
-    		resourceUri += "/" + (suffix != null ? (resourceId + "/" + suffix) : resourceId);
-    	}
-    	String endpoint = context.getServiceUrl(service);
-    	if( endpoint == null ) {
-    		throw new CloudException("No " + service + " endpoint exists");
-    	}
-    	try {
-    		String response = putString(context.getAuthToken(), endpoint, resourceUri, body.toString());
-    		if( response == null ) {
-    			return null;
-    		}
-    		try {
-    			return new JSONObject(response);
-    		}
-    		catch( JSONException e ) {
-    			throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
-    		}
-    	}
-    	catch (NovaException ex) {
-    		if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-    			Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-    			cache.clear();
-    			return putString(service, resource, resourceId, body, suffix);
-    		}
-    		else {
-    			throw ex;
-    		}
-    	}
+    public @Nullable JSONObject putString(@Nonnull final String service, @Nonnull final String resource, @Nullable final String resourceId, @Nonnull final JSONObject body, final String suffix) throws CloudException, InternalException {
+        return authenticated(new AuthenticatedCall<JSONObject>() {
+            @Override
+            public JSONObject call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String resourceUri = resource;
+                if( resourceId != null ) {
+                    resourceUri += "/" + (suffix != null ? (resourceId + "/" + suffix) : resourceId);
+                }
+                String endpoint = context.getServiceUrl(service);
+                if( endpoint == null ) {
+                    throw new CloudException("No " + service + " endpoint exists");
+                }
+                String response = putString(context.getAuthToken(), endpoint, resourceUri, body.toString());
+                if( response == null ) {
+                    return null;
+                }
+                try {
+                    return new JSONObject(response);
+                }
+                catch( JSONException e ) {
+                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
+                }
+            }
+        });
     }
 
     protected @Nullable String putString(@Nonnull String authToken, @Nonnull String endpoint, @Nonnull String resource, @Nullable String payload) throws CloudException, InternalException {
@@ -2347,11 +2610,13 @@ public abstract class AbstractMethod {
             wire.debug("");
         }
         HttpClient client = null;
+        HttpResponse response = null;
         try {
             client = getClient();
             HttpPut put = new HttpPut(endpoint + resource);
             
             put.addHeader("Content-Type", "application/json");
+            acceptCompressed(put);
             put.addHeader("X-Auth-Token", authToken);
 
             if( wire.isDebugEnabled() ) {
@@ -2374,11 +2639,10 @@ public abstract class AbstractMethod {
 
                 wire.debug("");
             }
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "PUT " + toAPIResource(resource));
-                response = client.execute(put);
+                response = execute(client, endpoint, put);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -2416,7 +2680,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
                 
                 if( items == null ) {
                     items = new NovaException.ExceptionItems();
@@ -2456,8 +2720,8 @@ public abstract class AbstractMethod {
             }
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + AbstractMethod.class.getName() + ".putString()");
@@ -2481,6 +2745,7 @@ public abstract class AbstractMethod {
             wire.debug("");
         }
         HttpClient client = null;
+        HttpResponse response = null;
         try {
             client = getClient();
             HttpPut put = new HttpPut(endpoint + resource);
@@ -2502,11 +2767,10 @@ public abstract class AbstractMethod {
             wire.debug(" ---- BINARY DATA ---- ");
             wire.debug("");
 
-            HttpResponse response;
 
             try {
                 APITrace.trace(provider, "PUT " + toAPIResource(resource));
-                response = client.execute(put);
+                response = execute(client, endpoint, put);
                 if( wire.isDebugEnabled() ) {
                     wire.debug(response.getStatusLine().toString());
                     for( Header header : response.getAllHeaders() ) {
@@ -2554,7 +2818,7 @@ public abstract class AbstractMethod {
                     e.printStackTrace();
                     throw new CloudException(e);
                 }
-                NovaException.ExceptionItems items = NovaException.parseException(code, data);
+                NovaException.ExceptionItems items = NovaException.parseException(code, data, response);
 
                 if( items == null ) {
                     items = new NovaException.ExceptionItems();
@@ -2594,8 +2858,8 @@ public abstract class AbstractMethod {
             }
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( response != null ) {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
             if( std.isTraceEnabled() ) {
                 std.trace("exit - " + NovaOpenStack.class.getName() + ".putStream()");
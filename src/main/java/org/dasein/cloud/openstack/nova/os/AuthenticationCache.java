@@ -0,0 +1,378 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.util.CalendarWrapper;
+
+/**
+ * Holds the authentication context of every set of credentials in use. Reading a cached context never blocks. When
+ * a context is missing or expired, exactly one thread authenticates for those credentials while any other thread
+ * needing them waits for the outcome of that one attempt. Threads working with different credentials, endpoints or
+ * regions never wait on each other.
+ * <p>
+ * Contexts are used until the expiration the cloud reported for their token, or for {@link #TTL} if it reported
+ * none. Once a context is within the refresh skew of expiring, the next caller starts authenticating again in the
+ * background and keeps using the still valid context, so requests do not wait for authentication and do not run
+ * into a rejected token as long as the credentials are in use. The skew never exceeds half of the lifetime of
+ * the token, and a background refresh that failed is not tried again for {@link #REFRESH_RETRY_INTERVAL}.
+ * </p>
+ */
+public class AuthenticationCache {
+    static private final Logger logger = NovaOpenStack.getLogger(AuthenticationCache.class, "std");
+
+    /**
+     * How long an authentication context is reused when the cloud did not report when its token expires.
+     */
+    static public final long TTL = CalendarWrapper.DAY;
+
+    /**
+     * How long after a failed background refresh the next one may be started. Callers keep using the still valid
+     * context in the meantime.
+     */
+    static public final long REFRESH_RETRY_INTERVAL = 30 * CalendarWrapper.SECOND;
+
+    static private final ConcurrentHashMap<String,Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    static private final AtomicLong authentications   = new AtomicLong();
+    static private final AtomicLong invalidations     = new AtomicLong();
+    static private final AtomicLong refreshes         = new AtomicLong();
+    static private final AtomicLong rejections        = new AtomicLong();
+    static private final AtomicLong retriesExhausted  = new AtomicLong();
+
+    static private final ExecutorService refresher = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(@Nonnull Runnable r) {
+            Thread t = new Thread(r, "Nova Authentication Refresh");
+
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static private class Entry {
+        private volatile AuthenticationContext                        current;
+        private volatile long                                         expires;
+        private volatile long                                         lifetime;
+        private volatile long                                         refreshFailed;
+        private final AtomicReference<FutureTask<AuthenticationContext>> inFlight = new AtomicReference<FutureTask<AuthenticationContext>>();
+
+        private @Nullable AuthenticationContext getFresh() {
+            AuthenticationContext ctx = current;
+
+            if( ctx != null && System.currentTimeMillis() < expires ) {
+                return ctx;
+            }
+            return null;
+        }
+
+        private void set(@Nonnull AuthenticationContext ctx) {
+            long now = System.currentTimeMillis();
+            long expiration = ctx.getExpiration();
+
+            // written before the context so readers of the new context never see the old expiration
+            expires = (expiration > 0L ? expiration : now + TTL);
+            lifetime = Math.max(0L, expires - now);
+            refreshFailed = 0L;
+            current = ctx;
+        }
+
+        private boolean isRefreshDue(long refreshSkew) {
+            if( refreshSkew <= 0L ) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+
+            // a skew longer than the token lives would refresh on every call
+            if( now < expires - Math.min(refreshSkew, lifetime / 2) ) {
+                return false;
+            }
+            return (now - refreshFailed >= REFRESH_RETRY_INTERVAL);
+        }
+    }
+
+    static private @Nonnull Entry getEntry(@Nonnull String key) {
+        Entry entry = entries.get(key);
+
+        if( entry == null ) {
+            entry = new Entry();
+
+            Entry existing = entries.putIfAbsent(key, entry);
+
+            if( existing != null ) {
+                entry = existing;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Provides the cached authentication context for the specified credentials, authenticating through the specified
+     * loader if nothing usable is cached. Concurrent callers for the same credentials share a single authentication.
+     * Cached contexts are never refreshed ahead of their expiration.
+     * @param key identifies the credentials, endpoint and region being authenticated
+     * @param loader performs the authentication; it runs in the calling thread of whichever caller gets there first
+     * @return the authentication context for the credentials
+     * @throws CloudException the cloud rejected the authentication
+     * @throws InternalException an error occurred within Dasein Cloud while authenticating
+     */
+    static public @Nonnull AuthenticationContext get(@Nonnull String key, @Nonnull Callable<AuthenticationContext> loader) throws CloudException, InternalException {
+        return get(key, loader, 0L, null);
+    }
+
+    /**
+     * Provides the cached authentication context for the specified credentials, authenticating through the specified
+     * loader if nothing usable is cached. Concurrent callers for the same credentials share a single authentication.
+     * If the cached context expires within the specified skew, it is returned right away and a single authentication
+     * is started in the background to replace it. The skew is capped at half of the lifetime of the token.
+     * @param key identifies the credentials, endpoint and region being authenticated
+     * @param loader performs the authentication; it runs in the calling thread of whichever caller gets there first
+     * or in the background when refreshing ahead of expiration
+     * @param refreshSkew how many milliseconds before expiration the context should be refreshed in the background
+     * @param provider the provider behind the loader, held for as long as a background refresh runs
+     * @return the authentication context for the credentials
+     * @throws CloudException the cloud rejected the authentication
+     * @throws InternalException an error occurred within Dasein Cloud while authenticating
+     */
+    static public @Nonnull AuthenticationContext get(@Nonnull String key, @Nonnull Callable<AuthenticationContext> loader, long refreshSkew, @Nullable NovaOpenStack provider) throws CloudException, InternalException {
+        Entry entry = getEntry(key);
+        AuthenticationContext ctx = entry.getFresh();
+
+        if( ctx != null ) {
+            if( entry.isRefreshDue(refreshSkew) ) {
+                refresh(key, entry, loader, provider);
+            }
+            return ctx;
+        }
+        while( true ) {
+            FutureTask<AuthenticationContext> task = entry.inFlight.get();
+
+            if( task == null ) {
+                FutureTask<AuthenticationContext> mine = new FutureTask<AuthenticationContext>(loader);
+
+                if( !entry.inFlight.compareAndSet(null, mine) ) {
+                    continue;
+                }
+                try {
+                    // another thread may have finished authenticating between our check and claiming the slot
+                    ctx = entry.getFresh();
+                    if( ctx != null ) {
+                        return ctx;
+                    }
+                    authentications.incrementAndGet();
+                    mine.run();
+                    ctx = await(mine);
+                    entry.set(ctx);
+                    return ctx;
+                }
+                finally {
+                    entry.inFlight.compareAndSet(mine, null);
+                }
+            }
+            return await(task);
+        }
+    }
+
+    /**
+     * Starts authenticating in the background unless an authentication for the entry is already under way. Callers
+     * finding the context expired before the refresh completes wait for the refresh rather than starting their own.
+     */
+    static private void refresh(@Nonnull final String key, @Nonnull final Entry entry, @Nonnull Callable<AuthenticationContext> loader, @Nullable final NovaOpenStack provider) {
+        final FutureTask<AuthenticationContext> mine = new FutureTask<AuthenticationContext>(loader);
+
+        if( !entry.inFlight.compareAndSet(null, mine) ) {
+            return;
+        }
+        if( provider != null ) {
+            provider.hold();
+        }
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshes.incrementAndGet();
+                        mine.run();
+                        entry.set(await(mine));
+                        if( logger.isDebugEnabled() ) {
+                            logger.debug("Refreshed authentication for " + key + " ahead of expiration");
+                        }
+                    }
+                    catch( Throwable t ) {
+                        // the current context stays in use until it expires, then callers authenticate themselves
+                        entry.refreshFailed = System.currentTimeMillis();
+                        logger.warn("Unable to refresh authentication for " + key + ": " + t.getMessage());
+                    }
+                    finally {
+                        entry.inFlight.compareAndSet(mine, null);
+                        if( provider != null ) {
+                            provider.release();
+                        }
+                    }
+                }
+            });
+        }
+        catch( RejectedExecutionException e ) {
+            entry.inFlight.compareAndSet(mine, null);
+            if( provider != null ) {
+                provider.release();
+            }
+        }
+    }
+
+    static private @Nonnull AuthenticationContext await(@Nonnull FutureTask<AuthenticationContext> task) throws CloudException, InternalException {
+        try {
+            AuthenticationContext ctx = task.get();
+
+            if( ctx == null ) {
+                throw new InternalException("Authentication produced no context");
+            }
+            return ctx;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw ( CloudException )cause;
+            }
+            else if( cause instanceof InternalException ) {
+                throw ( InternalException )cause;
+            }
+            else if( cause instanceof RuntimeException ) {
+                throw ( RuntimeException )cause;
+            }
+            else if( cause instanceof Error ) {
+                throw ( Error )cause;
+            }
+            throw new InternalException(cause);
+        }
+    }
+
+    /**
+     * @param key identifies the credentials, endpoint and region
+     * @return the cached authentication context for the credentials, if it is still fresh
+     */
+    static public @Nullable AuthenticationContext getIfPresent(@Nonnull String key) {
+        Entry entry = entries.get(key);
+
+        return (entry == null ? null : entry.getFresh());
+    }
+
+    /**
+     * Drops the cached authentication context for the specified credentials so the next caller authenticates again.
+     * @param key identifies the credentials, endpoint and region
+     */
+    static public void invalidate(@Nonnull String key) {
+        Entry entry = entries.get(key);
+
+        if( entry != null ) {
+            entry.current = null;
+        }
+    }
+
+    /**
+     * Drops the cached authentication context for the specified credentials if it is still the one whose token the
+     * cloud rejected. Once one caller has replaced the context, others reporting the same rejection change nothing.
+     * @param key identifies the credentials, endpoint and region
+     * @param rejected the context whose token the cloud rejected
+     * @return true if the context was dropped
+     */
+    static public boolean invalidate(@Nonnull String key, @Nonnull AuthenticationContext rejected) {
+        Entry entry = entries.get(key);
+
+        rejections.incrementAndGet();
+        // not atomic with a concurrent refresh; losing that race costs one extra authentication
+        if( entry != null && entry.current == rejected ) {
+            entry.current = null;
+            invalidations.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    static void retriesExhausted() {
+        retriesExhausted.incrementAndGet();
+    }
+
+    /**
+     * @return how many times credentials were authenticated while callers waited, since the class was loaded
+     */
+    static public long getAuthenticationCount() {
+        return authentications.get();
+    }
+
+    /**
+     * @return how many times a cached context was dropped because the cloud rejected its token
+     */
+    static public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return how many times credentials were authenticated in the background ahead of expiration
+     */
+    static public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    /**
+     * @return how many requests the cloud answered with 401 Unauthorized; a count growing much faster than
+     * {@link #getInvalidationCount()} means many requests shared each rejected token
+     */
+    static public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    /**
+     * @return how many requests were given up on because new tokens were rejected as well
+     */
+    static public long getRetriesExhaustedCount() {
+        return retriesExhausted.get();
+    }
+
+    /**
+     * Drops every cached authentication context.
+     */
+    static public void clear() {
+        for( Entry entry : entries.values() ) {
+            entry.current = null;
+        }
+    }
+}
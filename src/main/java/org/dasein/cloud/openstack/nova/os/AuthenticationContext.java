@@ -33,22 +33,59 @@ import javax.annotation.Nullable;
 public class AuthenticationContext { 
     private String                         authToken;
     private Map<String,Map<String,String>> endpoints;
+    private long                           expiration;
+    private AuthenticationFlavor           flavor;
+    private volatile NovaVersion           computeVersion;
     private String                         myRegion;
     private String                         storageToken;
     private String                         tenantId;
 
     public AuthenticationContext(@Nonnull String regionId, @Nonnull String token, @Nonnull String tenantId, @Nonnull Map<String,Map<String,String>> services, @Nullable String storageToken) {
+        this(regionId, token, tenantId, services, storageToken, -1L);
+    }
+
+    public AuthenticationContext(@Nonnull String regionId, @Nonnull String token, @Nonnull String tenantId, @Nonnull Map<String,Map<String,String>> services, @Nullable String storageToken, long expiration) {
+        this(regionId, token, tenantId, services, storageToken, expiration, null);
+    }
+
+    public AuthenticationContext(@Nonnull String regionId, @Nonnull String token, @Nonnull String tenantId, @Nonnull Map<String,Map<String,String>> services, @Nullable String storageToken, long expiration, @Nullable AuthenticationFlavor flavor) {
         myRegion = regionId;
         authToken = token;
         endpoints = services;
         this.tenantId = tenantId;
         this.storageToken = storageToken;
+        this.expiration = expiration;
+        this.flavor = flavor;
     }
 
     public @Nonnull String getAuthToken() {
         return authToken;
     }
     
+    /**
+     * Provides the version of the compute API, read from the compute endpoint (or the storage endpoint of a
+     * storage-only cloud) the first time it is needed.
+     * @return the compute API version for this context
+     */
+    public @Nonnull NovaVersion getComputeVersion() {
+        NovaVersion version = computeVersion;
+
+        if( version == null ) {
+            String endpoint = getComputeUrl();
+
+            if( endpoint == null ) {
+                endpoint = getStorageUrl();
+            }
+            version = NovaVersion.parse(endpoint);
+            computeVersion = version;
+        }
+        return version;
+    }
+
+    void setComputeVersion(@Nonnull NovaVersion version) {
+        computeVersion = version;
+    }
+
     public @Nullable String getComputeUrl() {
         Map<String,String> map = endpoints.get("compute");
         
@@ -58,6 +95,21 @@ public class AuthenticationContext {
         return map.get(myRegion);
     }
 
+    /**
+     * @return the time in milliseconds since the epoch at which the cloud stops accepting the token, or -1 if the
+     * cloud did not say
+     */
+    public long getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * @return the authentication flow that produced this context, if known
+     */
+    public @Nullable AuthenticationFlavor getFlavor() {
+        return flavor;
+    }
+
     public @Nullable String getNetworkUrl() {
         return getServiceUrl("network");
     }
@@ -82,6 +134,10 @@ public class AuthenticationContext {
         return myRegion;
     }
 
+    @Nonnull Map<String,Map<String,String>> getServices() {
+        return endpoints;
+    }
+
     public @Nullable String getServiceUrl(String service) {
         Map<String,String> map = endpoints.get(service);
 
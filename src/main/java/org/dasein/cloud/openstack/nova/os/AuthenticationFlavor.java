@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+/**
+ * The authentication flows an OpenStack endpoint may support.
+ */
+public enum AuthenticationFlavor {
+    /**
+     * Keystone v2 token request with API access keys or a password
+     */
+    KEYSTONE,
+    /**
+     * Legacy Nova v1.0/v1.1 authentication returning the service URLs in response headers
+     */
+    STANDARD,
+    /**
+     * Swift v1 authentication returning the storage URL and token in response headers
+     */
+    SWIFT
+}
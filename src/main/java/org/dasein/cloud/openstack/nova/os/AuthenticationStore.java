@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Encrypted file copy of the authentication context of one set of credentials, letting a restarted process reuse a
+ * token that is still valid instead of authenticating again. The file holds the token, its expiration, the service
+ * catalog and the authentication flavor. It is encrypted and signed with keys derived from the API secret of the
+ * credentials, so it can neither be read nor forged without them. Unreadable files are treated as missing but left
+ * in place, as they may belong to another process using different credentials for the same key.
+ */
+public class AuthenticationStore {
+    static private final Logger logger = NovaOpenStack.getLogger(AuthenticationStore.class, "std");
+
+    static private final int          VERSION      = 1;
+    static private final int          IV_LENGTH    = 16;
+    static private final int          MAC_LENGTH   = 32;
+    static private final SecureRandom random       = new SecureRandom();
+
+    private final File   file;
+    private final byte[] encryptionKey;
+    private final byte[] macKey;
+
+    /**
+     * @param directory the directory holding the files, which should be accessible to this process only
+     * @param key identifies the credentials, endpoint and region the context belongs to
+     * @param secret the API secret of the credentials
+     * @throws InternalException the platform lacks the required cryptographic algorithms
+     */
+    public AuthenticationStore(@Nonnull File directory, @Nonnull String key, @Nonnull byte[] secret) throws InternalException {
+        try {
+            Mac kdf = Mac.getInstance("HmacSHA256");
+
+            kdf.init(new SecretKeySpec(secret, "HmacSHA256"));
+            byte[] enc = kdf.doFinal("dasein-nova-authentication-encryption".getBytes("utf-8"));
+
+            // AES-128 keeps the store usable without the unlimited strength policy files
+            encryptionKey = new byte[16];
+            System.arraycopy(enc, 0, encryptionKey, 0, encryptionKey.length);
+            macKey = kdf.doFinal("dasein-nova-authentication-signature".getBytes("utf-8"));
+            file = new File(directory, toHex(MessageDigest.getInstance("SHA-256").digest(key.getBytes("utf-8"))) + ".auth");
+        }
+        catch( GeneralSecurityException e ) {
+            throw new InternalException(e);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Reads the stored authentication context.
+     * @param minimumValidity how many milliseconds the token must remain valid for the context to be worth using
+     * @return the stored context or <code>null</code> if there is none, it cannot be read or it expires too soon
+     */
+    public @Nullable AuthenticationContext load(long minimumValidity) {
+        if( !file.exists() ) {
+            return null;
+        }
+        try {
+            AuthenticationContext ctx = fromJSON(new JSONObject(new String(decrypt(Files.readAllBytes(file.toPath())), "utf-8")));
+
+            if( ctx == null || ctx.getExpiration() - System.currentTimeMillis() <= minimumValidity ) {
+                return null;
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Reusing stored authentication from " + file);
+            }
+            return ctx;
+        }
+        catch( GeneralSecurityException e ) {
+            // most likely written with other credentials, such as a rotated secret, so it may well be in use elsewhere
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Ignoring authentication store " + file + " that cannot be verified with these credentials: " + e.getMessage());
+            }
+            return null;
+        }
+        catch( Exception e ) {
+            logger.warn("Ignoring unreadable authentication store " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores an authentication context, replacing any stored before. Failures are logged and otherwise ignored as
+     * they only cost a future authentication.
+     * @param ctx the context to store
+     */
+    public void save(@Nonnull AuthenticationContext ctx) {
+        File tmp = null;
+
+        try {
+            byte[] data = encrypt(toJSON(ctx).toString().getBytes("utf-8"));
+
+            tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            tmp.setReadable(false, false);
+            tmp.setReadable(true, true);
+            tmp.setWritable(false, false);
+            tmp.setWritable(true, true);
+            Files.write(tmp.toPath(), data);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        }
+        catch( Exception e ) {
+            logger.warn("Unable to store authentication in " + file + ": " + e.getMessage());
+        }
+        finally {
+            if( tmp != null && !tmp.delete() ) {
+                tmp.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Removes the stored authentication context, if any.
+     */
+    public void remove() {
+        if( file.exists() && !file.delete() ) {
+            logger.warn("Unable to remove authentication store " + file);
+        }
+    }
+
+    private @Nonnull byte[] encrypt(@Nonnull byte[] plain) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(encryptionKey, "AES"), new IvParameterSpec(iv));
+        byte[] encrypted = cipher.doFinal(plain);
+        byte[] data = new byte[IV_LENGTH + encrypted.length + MAC_LENGTH];
+
+        System.arraycopy(iv, 0, data, 0, IV_LENGTH);
+        System.arraycopy(encrypted, 0, data, IV_LENGTH, encrypted.length);
+        System.arraycopy(sign(data, IV_LENGTH + encrypted.length), 0, data, IV_LENGTH + encrypted.length, MAC_LENGTH);
+        return data;
+    }
+
+    private @Nonnull byte[] decrypt(@Nonnull byte[] data) throws GeneralSecurityException {
+        if( data.length < IV_LENGTH + MAC_LENGTH + 16 ) {
+            throw new GeneralSecurityException("Truncated authentication store");
+        }
+        int length = data.length - MAC_LENGTH;
+        byte[] mac = new byte[MAC_LENGTH];
+
+        System.arraycopy(data, length, mac, 0, MAC_LENGTH);
+        if( !MessageDigest.isEqual(mac, sign(data, length)) ) {
+            throw new GeneralSecurityException("Authentication store signature does not match");
+        }
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(encryptionKey, "AES"), new IvParameterSpec(data, 0, IV_LENGTH));
+        return cipher.doFinal(data, IV_LENGTH, length - IV_LENGTH);
+    }
+
+    private @Nonnull byte[] sign(@Nonnull byte[] data, int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+
+        mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+        mac.update(data, 0, length);
+        return mac.doFinal();
+    }
+
+    static @Nonnull JSONObject toJSON(@Nonnull AuthenticationContext ctx) throws JSONException {
+        JSONObject json = new JSONObject();
+        JSONArray services = new JSONArray();
+        long expiration = ctx.getExpiration();
+
+        for( Map.Entry<String,Map<String,String>> service : ctx.getServices().entrySet() ) {
+            for( Map.Entry<String,String> endpoint : service.getValue().entrySet() ) {
+                JSONObject ob = new JSONObject();
+
+                ob.put("service", service.getKey());
+                if( endpoint.getKey() != null ) {
+                    ob.put("region", endpoint.getKey());
+                }
+                ob.put("url", endpoint.getValue());
+                services.put(ob);
+            }
+        }
+        json.put("version", VERSION);
+        json.put("region", ctx.getMyRegion());
+        json.put("token", ctx.getAuthToken());
+        json.put("tenantId", ctx.getTenantId());
+        if( !ctx.getStorageToken().equals(ctx.getAuthToken()) ) {
+            json.put("storageToken", ctx.getStorageToken());
+        }
+        // contexts without a reported expiration are reused for as long as they would have been in memory
+        json.put("expires", expiration > 0L ? expiration : System.currentTimeMillis() + AuthenticationCache.TTL);
+        if( ctx.getFlavor() != null ) {
+            json.put("flavor", ctx.getFlavor().name());
+        }
+        json.put("services", services);
+        return json;
+    }
+
+    static @Nullable AuthenticationContext fromJSON(@Nonnull JSONObject json) throws JSONException {
+        if( json.optInt("version") != VERSION ) {
+            return null;
+        }
+        HashMap<String,Map<String,String>> services = new HashMap<String, Map<String, String>>();
+        JSONArray list = json.getJSONArray("services");
+
+        for( int i=0; i<list.length(); i++ ) {
+            JSONObject ob = list.getJSONObject(i);
+            String service = ob.getString("service");
+            Map<String,String> endpoints = services.get(service);
+
+            if( endpoints == null ) {
+                endpoints = new HashMap<String, String>();
+                services.put(service, endpoints);
+            }
+            endpoints.put(ob.optString("region", null), ob.getString("url"));
+        }
+        String flavor = json.optString("flavor", null);
+        String tenantId = json.optString("tenantId", null);
+
+        if( tenantId == null ) {
+            return null;
+        }
+        return new AuthenticationContext(json.optString("region", null), json.getString("token"), tenantId, services, json.optString("storageToken", null), json.getLong("expires"), flavor == null ? null : AuthenticationFlavor.valueOf(flavor));
+    }
+
+    static private @Nonnull String toHex(@Nonnull byte[] bytes) {
+        StringBuilder str = new StringBuilder();
+
+        for( byte b : bytes ) {
+            str.append(String.format("%02x", b & 0xff));
+        }
+        return str.toString();
+    }
+}
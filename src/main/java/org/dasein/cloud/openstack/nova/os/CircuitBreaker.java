@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.http.HttpStatus;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.util.CalendarWrapper;
+
+/**
+ * Stops sending requests to a service endpoint that keeps failing, so callers of an unavailable service fail right
+ * away instead of each waiting out the socket timeout. The circuit of an endpoint opens after
+ * {@link #FAILURE_THRESHOLD} requests in a row failed with an I/O error or a 5xx response other than 501 Not
+ * Implemented, which only means the endpoint lacks a feature. While open, requests fail with a communication error
+ * without being sent. After {@link #OPEN_TIME} a single trial request is let through: if it succeeds the circuit
+ * closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+    static private final Logger logger = NovaOpenStack.getLogger(CircuitBreaker.class, "std");
+
+    static public final int  FAILURE_THRESHOLD = 5;
+    static public final long OPEN_TIME         = 30 * CalendarWrapper.SECOND;
+
+    static public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    static private final ConcurrentHashMap<String,CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    static private final AtomicLong closed   = new AtomicLong();
+    static private final AtomicLong opened   = new AtomicLong();
+    static private final AtomicLong rejected = new AtomicLong();
+    static private final AtomicLong trials   = new AtomicLong();
+
+    /**
+     * @param endpoint the URL of a service endpoint
+     * @return the circuit breaker shared by all requests to the endpoint
+     */
+    static public @Nonnull CircuitBreaker getInstance(@Nonnull String endpoint) {
+        while( endpoint.endsWith("/") ) {
+            endpoint = endpoint.substring(0, endpoint.length() - 1);
+        }
+        CircuitBreaker breaker = breakers.get(endpoint);
+
+        if( breaker == null ) {
+            breaker = new CircuitBreaker(endpoint, FAILURE_THRESHOLD, OPEN_TIME);
+
+            CircuitBreaker existing = breakers.putIfAbsent(endpoint, breaker);
+
+            if( existing != null ) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * @return the circuit breakers of every endpoint requests were sent to
+     */
+    static public @Nonnull Collection<CircuitBreaker> getInstances() {
+        return new ArrayList<CircuitBreaker>(breakers.values());
+    }
+
+    /**
+     * @param status the HTTP status of a response, or a negative value if no response was received
+     * @return true if the status counts as a failure of the endpoint
+     */
+    static public boolean isFailure(int status) {
+        return (status < 0 || (status >= HttpStatus.SC_INTERNAL_SERVER_ERROR && status != HttpStatus.SC_NOT_IMPLEMENTED));
+    }
+
+    /**
+     * @return how many times a circuit closed again after a successful trial, since the class was loaded
+     */
+    static public long getClosedCount() {
+        return closed.get();
+    }
+
+    /**
+     * @return how many times a circuit opened, including after failed trials
+     */
+    static public long getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * @return how many requests failed without being sent because their circuit was open
+     */
+    static public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return how many trial requests were sent to endpoints whose circuit was open
+     */
+    static public long getTrialCount() {
+        return trials.get();
+    }
+
+    private final String endpoint;
+    private int          failures;
+    private final int    failureThreshold;
+    private long         openedAt;
+    private final long   openTime;
+    private State        state = State.CLOSED;
+    private boolean      trialInFlight;
+
+    CircuitBreaker(@Nonnull String endpoint, @Nonnegative int failureThreshold, @Nonnegative long openTime) {
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * Checks whether a request may be sent. Every successful call must be matched by a call to
+     * {@link #release(boolean, boolean, int)}.
+     * @return true if the request is the trial request of an open circuit
+     * @throws CloudException the circuit is open
+     */
+    public synchronized boolean acquire() throws CloudException {
+        if( state == State.CLOSED ) {
+            return false;
+        }
+        if( state == State.OPEN && System.currentTimeMillis() - openedAt >= openTime ) {
+            state = State.HALF_OPEN;
+        }
+        if( state == State.HALF_OPEN && !trialInFlight ) {
+            trialInFlight = true;
+            trials.incrementAndGet();
+            return true;
+        }
+        rejected.incrementAndGet();
+        throw new CloudException(CloudErrorType.COMMUNICATION, HttpStatus.SC_SERVICE_UNAVAILABLE, "CircuitOpen", endpoint + " is failing and is not being called for now");
+    }
+
+    /**
+     * Records the outcome of a request let through by {@link #acquire()}.
+     * @param trial the value returned by {@link #acquire()} for the request
+     * @param sent false if the request was given up on before it was sent, which tells nothing about the endpoint
+     * @param status the HTTP status of the response or a negative value if the request failed without one
+     */
+    public synchronized void release(boolean trial, boolean sent, int status) {
+        if( trial ) {
+            trialInFlight = false;
+        }
+        if( !sent ) {
+            return;
+        }
+        if( !isFailure(status) ) {
+            failures = 0;
+            if( trial && state == State.HALF_OPEN ) {
+                state = State.CLOSED;
+                closed.incrementAndGet();
+                logger.info("Closed the circuit of " + endpoint + " after a successful trial request");
+            }
+            return;
+        }
+        failures++;
+        if( state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold) ) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            opened.incrementAndGet();
+            logger.warn("Opened the circuit of " + endpoint + " after " + failures + " failures in a row");
+        }
+    }
+
+    public @Nonnull String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return how many requests in a row failed most recently
+     */
+    public synchronized int getFailureCount() {
+        return failures;
+    }
+
+    public synchronized @Nonnull State getState() {
+        return state;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return endpoint + " [" + getState() + "]";
+    }
+}
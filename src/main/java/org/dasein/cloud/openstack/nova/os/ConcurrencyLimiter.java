@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.http.HttpStatus;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.util.CalendarWrapper;
+
+/**
+ * Limits how many requests are in flight against a service endpoint at once, adapting the limit to how the
+ * endpoint copes (additive increase, multiplicative decrease). Every request that completes in time while the limit
+ * is in use raises the limit by a fraction, so it grows by about one per round of requests. A request that fails
+ * with an I/O error, a 5xx, 413 or 429 response or that takes longer than {@link #LATENCY_THRESHOLD} cuts the limit
+ * by {@link #BACKOFF_RATIO}, at most once for all requests that were in flight together. Requests over the limit
+ * queue until others complete, for up to {@link #MAX_QUEUE_TIME}.
+ * <p>
+ * A request holds its place until the response headers arrive, which is when the endpoint has done its work.
+ * </p>
+ */
+public class ConcurrencyLimiter {
+    static private final Logger logger = NovaOpenStack.getLogger(ConcurrencyLimiter.class, "std");
+
+    static public final int    INITIAL_LIMIT     = 20;
+    static public final int    MAX_LIMIT         = 200;
+    static public final int    MIN_LIMIT         = 1;
+    static public final double BACKOFF_RATIO     = 0.9;
+    static public final long   LATENCY_THRESHOLD = 10 * CalendarWrapper.SECOND;
+    static public final long   MAX_QUEUE_TIME    = CalendarWrapper.MINUTE;
+
+    static private final ConcurrentHashMap<String,ConcurrencyLimiter> limiters = new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+    static private final AtomicLong queued    = new AtomicLong();
+    static private final AtomicLong queueTime = new AtomicLong();
+    static private final AtomicLong rejected  = new AtomicLong();
+
+    /**
+     * @param endpoint the URL of a service endpoint
+     * @return the limiter shared by all requests to the endpoint
+     */
+    static public @Nonnull ConcurrencyLimiter getInstance(@Nonnull String endpoint) {
+        while( endpoint.endsWith("/") ) {
+            endpoint = endpoint.substring(0, endpoint.length() - 1);
+        }
+        ConcurrencyLimiter limiter = limiters.get(endpoint);
+
+        if( limiter == null ) {
+            limiter = new ConcurrencyLimiter(endpoint, INITIAL_LIMIT, MAX_LIMIT, LATENCY_THRESHOLD, MAX_QUEUE_TIME);
+
+            ConcurrencyLimiter existing = limiters.putIfAbsent(endpoint, limiter);
+
+            if( existing != null ) {
+                limiter = existing;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * @param status the HTTP status of a response
+     * @return true if the status means the endpoint is overloaded or failing
+     */
+    static public boolean isOverloaded(int status) {
+        return (status >= HttpStatus.SC_INTERNAL_SERVER_ERROR || status == HttpStatus.SC_REQUEST_TOO_LONG || status == NovaException.SC_TOO_MANY_REQUESTS);
+    }
+
+    /**
+     * @return how many requests have queued for an endpoint since the class was loaded
+     */
+    static public long getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return the total milliseconds requests have spent queueing
+     */
+    static public long getTotalQueueTime() {
+        return queueTime.get();
+    }
+
+    /**
+     * @return how many requests failed because they queued for longer than {@link #MAX_QUEUE_TIME}
+     */
+    static public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private final String endpoint;
+    private int          inFlight;
+    private long         lastBackoff;
+    private final long   latencyThreshold;
+    private double       limit;
+    private final int    maxLimit;
+    private final long   maxQueueTime;
+
+    ConcurrencyLimiter(@Nonnull String endpoint, @Nonnegative int initialLimit, @Nonnegative int maxLimit, @Nonnegative long latencyThreshold, @Nonnegative long maxQueueTime) {
+        this.endpoint = endpoint;
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThreshold = latencyThreshold;
+        this.maxQueueTime = maxQueueTime;
+        this.lastBackoff = System.nanoTime();
+    }
+
+    /**
+     * Takes a place for a request, waiting for one if the endpoint is at its limit. Every successful call must be
+     * matched by a call to {@link #release(long, boolean)}.
+     * @return when the request started, to be passed back on release
+     * @throws CloudException the request queued for longer than allowed
+     * @throws InternalException the thread was interrupted while queueing
+     */
+    public synchronized long acquire() throws CloudException, InternalException {
+        if( inFlight >= (int)limit ) {
+            long start = System.currentTimeMillis();
+            long deadline = start + maxQueueTime;
+
+            queued.incrementAndGet();
+            try {
+                while( inFlight >= (int)limit ) {
+                    long remaining = deadline - System.currentTimeMillis();
+
+                    if( remaining <= 0L ) {
+                        rejected.incrementAndGet();
+                        throw new CloudException(CloudErrorType.THROTTLING, NovaException.SC_TOO_MANY_REQUESTS, "ConcurrencyLimited", "Timed out waiting for one of " + (int)limit + " concurrent requests to " + endpoint);
+                    }
+                    wait(remaining);
+                }
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+            finally {
+                queueTime.addAndGet(System.currentTimeMillis() - start);
+            }
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Gives up the place of a completed request and adapts the limit to its outcome.
+     * @param started the value returned by {@link #acquire()} for the request
+     * @param overloaded true if the request failed in a way that means the endpoint is overloaded
+     */
+    public synchronized void release(long started, boolean overloaded) {
+        long latency = (System.nanoTime() - started) / 1000000L;
+
+        if( overloaded || latency > latencyThreshold ) {
+            // requests that were already in flight when the limit was cut saw the same overload
+            if( started - lastBackoff >= 0L ) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+                lastBackoff = System.nanoTime();
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Reduced the concurrency limit of " + endpoint + " to " + (int)limit);
+                }
+            }
+        }
+        else if( inFlight * 2 >= limit ) {
+            // only a limit that is actually reached tells anything about the endpoint
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+        inFlight--;
+        notifyAll();
+    }
+
+    public @Nonnull String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return how many requests are in flight against the endpoint right now
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return how many requests may currently be in flight against the endpoint
+     */
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return endpoint + " [" + getInFlight() + "/" + getLimit() + "]";
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Counts the bytes read through an HTTP entity as the caller reads them, so streamed bodies are measured without
+ * being buffered.
+ */
+class CountingEntity extends HttpEntityWrapper {
+    static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(@Nonnull InputStream input, @Nonnull AtomicLong counter) {
+            super(input);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if( b >= 0 ) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+
+            if( count > 0 ) {
+                counter.addAndGet(count);
+            }
+            return count;
+        }
+    }
+
+    private InputStream      content;
+    private final AtomicLong counter;
+
+    CountingEntity(@Nonnull HttpEntity entity, @Nonnull AtomicLong counter) {
+        super(entity);
+        this.counter = counter;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        if( content == null || !wrappedEntity.isStreaming() ) {
+            content = new CountingInputStream(wrappedEntity.getContent(), counter);
+        }
+        return content;
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        InputStream input = getContent();
+
+        try {
+            byte[] buffer = new byte[4096];
+            int count;
+
+            while( (count = input.read(buffer)) != -1 ) {
+                output.write(buffer, 0, count);
+            }
+        }
+        finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Reads list responses such as <code>{"servers": [...], "servers_links": [...]}</code> straight from the response
+ * stream, handing each element of the list to a converter as soon as it has been read. Only one element is held as
+ * JSON at any time, rather than the whole response as text and as a tree next to the converted results.
+ */
+public class JSONListParser {
+    /**
+     * Turns an element of a list response into the object it describes.
+     * @param <T> the type of object the elements describe
+     */
+    static public abstract class ItemConverter<T> {
+        /**
+         * @param item the JSON of one element of the list
+         * @return the converted element or <code>null</code> to leave it out of the results
+         * @throws CloudException the element describes something the cloud should not have returned
+         * @throws InternalException an error occurred within Dasein Cloud while converting the element
+         * @throws JSONException the element is missing expected values
+         */
+        public abstract @Nullable T convert(@Nonnull JSONObject item) throws CloudException, InternalException, JSONException;
+    }
+
+    /**
+     * Reads a list response from a stream, which the caller remains responsible for closing.
+     * @param input the response body
+     * @param listKey the name of the top level member holding the list, such as <code>servers</code>
+     * @param converter converts each element of the list
+     * @param remainder receives every other top level member, such as pagination links, if not <code>null</code>
+     * @param <T> the type of object the elements describe
+     * @return the converted elements in the order of the list, empty if the response has no such list
+     * @throws CloudException the response is not valid JSON or an element could not be converted
+     * @throws InternalException an error occurred within Dasein Cloud while converting an element
+     */
+    static public @Nonnull <T> List<T> parse(@Nonnull InputStream input, @Nonnull String listKey, @Nonnull ItemConverter<T> converter, @Nullable JSONObject remainder) throws CloudException, InternalException {
+        ArrayList<T> results = new ArrayList<T>();
+
+        try {
+            JSONTokener tokener = new JSONTokener(new InputStreamReader(input, "utf-8"));
+
+            if( tokener.nextClean() != '{' ) {
+                throw tokener.syntaxError("A JSONObject text must begin with '{'");
+            }
+            if( tokener.nextClean() == '}' ) {
+                return results;
+            }
+            tokener.back();
+            while( true ) {
+                String key = tokener.nextValue().toString();
+                char c = tokener.nextClean();
+
+                if( c != ':' ) {
+                    throw tokener.syntaxError("Expected a ':' after a key");
+                }
+                if( key.equals(listKey) ) {
+                    parseList(tokener, converter, results);
+                }
+                else {
+                    Object value = tokener.nextValue();
+
+                    if( remainder != null ) {
+                        remainder.put(key, value);
+                    }
+                }
+                c = tokener.nextClean();
+                if( c == '}' ) {
+                    return results;
+                }
+                if( c != ',' ) {
+                    throw tokener.syntaxError("Expected a ',' or '}'");
+                }
+            }
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+        catch( JSONException e ) {
+            throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", "Unable to read the " + listKey + " list: " + e.getMessage());
+        }
+    }
+
+    static private <T> void parseList(@Nonnull JSONTokener tokener, @Nonnull ItemConverter<T> converter, @Nonnull List<T> results) throws CloudException, InternalException, JSONException {
+        char c = tokener.nextClean();
+
+        if( c != '[' ) {
+            // null or anything else that is not a list holds no elements
+            tokener.back();
+            tokener.nextValue();
+            return;
+        }
+        if( tokener.nextClean() == ']' ) {
+            return;
+        }
+        tokener.back();
+        while( true ) {
+            Object value = tokener.nextValue();
+
+            if( value instanceof JSONObject ) {
+                T item = converter.convert(( JSONObject )value);
+
+                if( item != null ) {
+                    results.add(item);
+                }
+            }
+            c = tokener.nextClean();
+            if( c == ']' ) {
+                return;
+            }
+            if( c != ',' ) {
+                throw tokener.syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+}
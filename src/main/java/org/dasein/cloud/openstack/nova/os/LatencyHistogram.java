@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Records latencies in microseconds into log-linear buckets in the manner of an HDR histogram: values below 64 are
+ * counted exactly and every power of two above is split into 32 buckets, so percentiles are reported within about
+ * 3% of the recorded values using a fixed amount of memory. Recording is lock free.
+ */
+public class LatencyHistogram {
+    static private final int LINEAR_BUCKETS = 64;
+    static private final int SUB_BUCKET_BITS = 5;
+    static private final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The largest power of two tracked, covering latencies of up to about 12 days.
+     */
+    static private final int MAX_EXPONENT = 40;
+    static private final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 5) * SUB_BUCKETS;
+
+    static int toIndex(long value) {
+        if( value < LINEAR_BUCKETS ) {
+            return (int)Math.max(0L, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+        if( exponent > MAX_EXPONENT ) {
+            return BUCKETS - 1;
+        }
+        int sub = (int)((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+
+        return LINEAR_BUCKETS + (exponent - 6) * SUB_BUCKETS + sub;
+    }
+
+    static long toHighestValue(int index) {
+        if( index < LINEAR_BUCKETS ) {
+            return index;
+        }
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 6;
+        long sub = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private final AtomicLongArray counts;
+    private final AtomicLong      max = new AtomicLong();
+    private final AtomicLong      total = new AtomicLong();
+    private final AtomicLong      sum = new AtomicLong();
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+    }
+
+    /**
+     * Records a latency.
+     * @param micros the latency in microseconds
+     */
+    public void record(@Nonnegative long micros) {
+        counts.incrementAndGet(toIndex(micros));
+        total.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long m = max.get();
+
+        while( micros > m && !max.compareAndSet(m, micros) ) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * @return a copy of this histogram that further recordings leave alone
+     */
+    public @Nonnull LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+
+        for( int i=0; i<BUCKETS; i++ ) {
+            long c = counts.get(i);
+
+            if( c > 0L ) {
+                copy.counts.set(i, c);
+                copy.total.addAndGet(c);
+            }
+        }
+        copy.sum.set(sum.get());
+        copy.max.set(max.get());
+        return copy;
+    }
+
+    /**
+     * @return how many latencies were recorded
+     */
+    public long getCount() {
+        return total.get();
+    }
+
+    /**
+     * @return the highest latency recorded in microseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the average latency in microseconds or 0 if none were recorded
+     */
+    public long getMean() {
+        long count = total.get();
+
+        return (count < 1L ? 0L : sum.get() / count);
+    }
+
+    /**
+     * @param percentile the percentile, such as 99.0
+     * @return the latency in microseconds that the specified percentage of recorded latencies did not exceed, or 0
+     * if none were recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = total.get();
+
+        if( count < 1L ) {
+            return 0L;
+        }
+        long target = Math.max(1L, (long)Math.ceil(Math.min(100.0, percentile) / 100.0 * count));
+        long seen = 0L;
+
+        for( int i=0; i<BUCKETS; i++ ) {
+            seen += counts.get(i);
+            if( seen >= target ) {
+                return Math.min(toHighestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.util.CalendarWrapper;
+
+/**
+ * Pools HTTP connections to an OpenStack cloud so that API calls reuse established TCP and TLS sessions instead of
+ * building a new client for every request. Pools are shared by all providers connected to the same endpoint through
+ * the same proxy with the same SSL trust setting and the same pool settings; providers asking for different limits
+ * get pools of their own. A pool is held by each {@link NovaOpenStack} that uses it and is shut down once nobody has
+ * held it for longer than its idle timeout.
+ * <p>
+ *     The pool is tuned through the following custom properties on the provider context:
+ * </p>
+ * <ul>
+ *     <li>{@value #MAX_CONNECTIONS} - the maximum number of open connections across all routes (default 50)</li>
+ *     <li>{@value #MAX_CONNECTIONS_PER_ROUTE} - the maximum number of open connections to a single host (default 20)</li>
+ *     <li>{@value #IDLE_TIMEOUT} - seconds an idle connection is kept alive before it is evicted (default 60)</li>
+ * </ul>
+ */
+public class NovaConnectionPool {
+    static private final Logger logger = NovaOpenStack.getLogger(NovaConnectionPool.class, "std");
+
+    static public final String MAX_CONNECTIONS           = "maxConnections";
+    static public final String MAX_CONNECTIONS_PER_ROUTE = "maxConnectionsPerRoute";
+    static public final String IDLE_TIMEOUT              = "connectionIdleTimeout";
+
+    static private final int  DEFAULT_MAX_CONNECTIONS           = 50;
+    static private final int  DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    static private final long DEFAULT_IDLE_TIMEOUT              = CalendarWrapper.MINUTE;
+    static private final long EVICTION_INTERVAL                 = 5 * CalendarWrapper.SECOND;
+
+    static private final ConcurrentHashMap<String,NovaConnectionPool> pools = new ConcurrentHashMap<String, NovaConnectionPool>();
+
+    static private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@Nonnull Runnable r) {
+            Thread t = new Thread(r, "Nova Connection Evictor");
+
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static {
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for( NovaConnectionPool pool : pools.values() ) {
+                    try {
+                        pool.evict();
+                    }
+                    catch( Throwable t ) {
+                        logger.warn("Failed to evict idle connections for " + pool.key + ": " + t.getMessage());
+                    }
+                }
+            }
+        }, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Provides a hold on the connection pool matching the specified context. Each call must be paired with a
+     * call to {@link #release()} once the caller no longer needs the pool.
+     * @param ctx the context for the connection
+     * @param insecure whether or not the SSL certificates of the cloud should be trusted blindly
+     * @return a held connection pool for the context
+     * @throws InternalException the context is missing information needed to connect
+     */
+    static public @Nonnull NovaConnectionPool getInstance(@Nonnull ProviderContext ctx, boolean insecure) throws InternalException {
+        String endpoint = ctx.getCloud().getEndpoint();
+
+        if( endpoint == null ) {
+            throw new InternalException("No cloud endpoint was defined");
+        }
+        Properties p = ctx.getCustomProperties();
+        String proxyHost = null, proxyPort = null;
+
+        if( p != null ) {
+            proxyHost = p.getProperty("proxyHost");
+            proxyPort = p.getProperty("proxyPort");
+        }
+        int maxConnections = getInt(p, MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+        int maxPerRoute = getInt(p, MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        long idleTimeout = getInt(p, IDLE_TIMEOUT, (int)(DEFAULT_IDLE_TIMEOUT / CalendarWrapper.SECOND)) * CalendarWrapper.SECOND;
+        String key = endpoint + "|" + proxyHost + ":" + proxyPort + "|" + insecure + "|" + maxConnections + "/" + maxPerRoute + "/" + idleTimeout;
+
+        while( true ) {
+            NovaConnectionPool pool = pools.get(key);
+
+            if( pool == null ) {
+                pool = new NovaConnectionPool(key, endpoint.startsWith("https"), proxyHost, proxyPort, insecure, maxConnections, maxPerRoute, idleTimeout);
+
+                NovaConnectionPool existing = pools.putIfAbsent(key, pool);
+
+                if( existing != null ) {
+                    pool.shutdown();
+                    pool = existing;
+                }
+            }
+            if( pool.hold() ) {
+                return pool;
+            }
+            // we lost a race with the evictor shutting this pool down
+            pools.remove(key, pool);
+        }
+    }
+
+    static private int getInt(@Nullable Properties p, @Nonnull String name, int def) {
+        String value = (p == null ? null : p.getProperty(name));
+
+        if( value != null ) {
+            try {
+                int i = Integer.parseInt(value.trim());
+
+                if( i > 0 ) {
+                    return i;
+                }
+            }
+            catch( NumberFormatException e ) {
+                logger.warn("Ignoring invalid value for " + name + ": " + value);
+            }
+        }
+        return def;
+    }
+
+    private final DefaultHttpClient              client;
+    private boolean                              closed;
+    private int                                  holders;
+    private final long                           idleTimeout;
+    private final String                         key;
+    private long                                 lastRelease;
+    private final PoolingClientConnectionManager manager;
+
+    private NovaConnectionPool(@Nonnull String key, boolean ssl, @Nullable String proxyHost, @Nullable String proxyPort, boolean insecure, int maxConnections, int maxPerRoute, final long idleTimeout) throws InternalException {
+        this.key = key;
+        SchemeRegistry registry = SchemeRegistryFactory.createDefault();
+
+        if( insecure ) {
+            try {
+                registry.register(new Scheme("https", 443, new SSLSocketFactory(new TrustStrategy() {
+
+                    public boolean isTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
+                        return true;
+                    }
+                }, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER)));
+            }
+            catch( Throwable t ) {
+                logger.error("Unable to trust all SSL certificates for " + key + ": " + t.getMessage(), t);
+            }
+        }
+        manager = new PoolingClientConnectionManager(registry);
+        manager.setMaxTotal(maxConnections);
+        manager.setDefaultMaxPerRoute(maxPerRoute);
+        this.idleTimeout = idleTimeout;
+
+        HttpParams params = new BasicHttpParams();
+
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        //noinspection deprecation
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        HttpProtocolParams.setUserAgent(params, "");
+
+        if( proxyHost != null ) {
+            int port = 0;
+
+            if( proxyPort != null && proxyPort.length() > 0 ) {
+                port = Integer.parseInt(proxyPort);
+            }
+            params.setParameter(ConnRoutePNames.DEFAULT_PROXY, new HttpHost(proxyHost, port, ssl ? "https" : "http"));
+        }
+        client = new DefaultHttpClient(manager, params);
+        client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+
+                while( it.hasNext() ) {
+                    HeaderElement element = it.nextElement();
+
+                    if( element.getValue() != null && element.getName().equalsIgnoreCase("timeout") ) {
+                        try {
+                            return Math.min(Long.parseLong(element.getValue()) * CalendarWrapper.SECOND, idleTimeout);
+                        }
+                        catch( NumberFormatException ignore ) {
+                            // ignore
+                        }
+                    }
+                }
+                return idleTimeout;
+            }
+        });
+        lastRelease = System.currentTimeMillis();
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Created connection pool for " + key + " (max=" + manager.getMaxTotal() + ", perRoute=" + manager.getDefaultMaxPerRoute() + ")");
+        }
+    }
+
+    private void evict() {
+        manager.closeExpiredConnections();
+        manager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        synchronized( this ) {
+            if( closed || holders > 0 || (System.currentTimeMillis() - lastRelease) < idleTimeout ) {
+                return;
+            }
+            closed = true;
+        }
+        pools.remove(key, this);
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Shutting down unused connection pool for " + key);
+        }
+        manager.shutdown();
+    }
+
+    /**
+     * @return the shared client backed by this pool; callers must fully consume or release each response entity
+     * so the underlying connection returns to the pool, and must never shut down its connection manager
+     */
+    public @Nonnull HttpClient getClient() {
+        return client;
+    }
+
+    public @Nonnegative long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public @Nonnull PoolStats getStats() {
+        return manager.getTotalStats();
+    }
+
+    private synchronized boolean hold() {
+        if( closed ) {
+            return false;
+        }
+        holders++;
+        return true;
+    }
+
+    /**
+     * Releases a hold acquired through {@link #getInstance(ProviderContext, boolean)}. The pool stays open for reuse
+     * until it has gone unheld for its idle timeout.
+     */
+    public synchronized void release() {
+        if( holders > 0 ) {
+            holders--;
+        }
+        lastRelease = System.currentTimeMillis();
+    }
+
+    private void shutdown() {
+        synchronized( this ) {
+            closed = true;
+        }
+        manager.shutdown();
+    }
+}
@@ -19,7 +19,13 @@
 
 package org.dasein.cloud.openstack.nova.os;
 
+import javax.annotation.Nullable;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
 import org.dasein.cloud.CloudErrorType;
 import org.dasein.cloud.CloudException;
 import org.json.JSONException;
@@ -33,6 +39,54 @@ public class NovaException extends CloudException {
         public int code;
         public String message;
         public String details;
+        /**
+         * Milliseconds the cloud asked clients to wait before trying again, or -1 if it did not say
+         */
+        public long retryAfter = -1L;
+    }
+
+    static public final int SC_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Parses an error response, including the Retry-After header of a throttled request.
+     * @param code the HTTP status of the response
+     * @param json the body of the response, if any
+     * @param response the response, used for its headers
+     * @return the details of the error or <code>null</code> if the error means the item was not found
+     */
+    static public @Nullable ExceptionItems parseException(int code, @Nullable String json, @Nullable HttpResponse response) {
+        ExceptionItems items = parseException(code, json);
+
+        if( items != null && response != null && items.retryAfter < 0L ) {
+            Header header = response.getFirstHeader("Retry-After");
+
+            if( header != null ) {
+                items.retryAfter = parseRetryAfter(header.getValue());
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @param value a Retry-After value, either in seconds or as an HTTP date
+     * @return the delay in milliseconds or -1 if the value is not understood
+     */
+    static long parseRetryAfter(@Nullable String value) {
+        if( value == null || value.trim().length() < 1 ) {
+            return -1L;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0L, Long.parseLong(value) * 1000L);
+        }
+        catch( NumberFormatException e ) {
+            try {
+                return Math.max(0L, DateUtils.parseDate(value).getTime() - System.currentTimeMillis());
+            }
+            catch( DateParseException again ) {
+                return -1L;
+            }
+        }
     }
 
     //    //{"badRequest": {"message": "AddressLimitExceeded: Address quota exceeded. You cannot allocate any more addresses", "code": 400}}
@@ -53,8 +107,11 @@ public class NovaException extends CloudException {
                 if( code == 400 && ob.has("badRequest") ) {
                     ob = ob.getJSONObject("badRequest");
                 }
-                if( code == 413 && ob.has("overLimit") ) {
+                if( (code == 413 || code == SC_TOO_MANY_REQUESTS) && ob.has("overLimit") ) {
                     ob = ob.getJSONObject("overLimit");
+                    if( ob.has("retryAfter") ) {
+                        items.retryAfter = parseRetryAfter(ob.optString("retryAfter", null));
+                    }
                 }
                 if( ob.has("message") ) {
                     items.message = ob.getString("message");
@@ -87,7 +144,7 @@ public class NovaException extends CloudException {
                 }
                 String t = items.message.toLowerCase().trim();
 
-                if( code == 413 ) {
+                if( code == 413 || code == SC_TOO_MANY_REQUESTS ) {
                     items.type = CloudErrorType.THROTTLING;
                 }
                 else if( t.startsWith("addresslimitexceeded") || t.startsWith("ramlimitexceeded")) {
@@ -120,11 +177,38 @@ public class NovaException extends CloudException {
         return items;
     }
     
+    private long retryAfter = -1L;
+
     public NovaException(ExceptionItems items) {
         super(items.type, items.code, items.message, items.details);
+        retryAfter = items.retryAfter;
     }
     
     public NovaException(CloudErrorType type, int code, String message, String details) {
         super(type, code, message, details);
     }
+
+    public NovaException(CloudErrorType type, int code, String message, String details, long retryAfter) {
+        super(type, code, message, details);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return milliseconds the cloud asked clients to wait before trying again, or -1 if it did not say
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * A request is rate limited when the cloud answers 429, or 413 or 503 with a time to try again. A 413 without
+     * one reports an absolute limit, such as a quota, that waiting will not lift. A 503 may come after the cloud acted
+     * on the request, so only requests that may safely run twice should be repeated on one.
+     * @return true if the request may succeed if tried again later
+     */
+    public boolean isRateLimited() {
+        int code = getHttpCode();
+
+        return (code == SC_TOO_MANY_REQUESTS || ((code == HttpStatus.SC_REQUEST_TOO_LONG || code == HttpStatus.SC_SERVICE_UNAVAILABLE) && retryAfter > 0L));
+    }
 }
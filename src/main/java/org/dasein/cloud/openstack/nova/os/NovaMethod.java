@@ -19,147 +19,221 @@
 
 package org.dasein.cloud.openstack.nova.os;
 
-import org.apache.http.HttpStatus;
+import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudErrorType;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.openstack.nova.os.ext.hp.cdn.HPCDN;
-import org.dasein.cloud.util.Cache;
-import org.dasein.cloud.util.CacheLevel;
-import org.dasein.util.uom.time.Day;
-import org.dasein.util.uom.time.TimePeriod;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class NovaMethod extends AbstractMethod {
+    static private final Logger logger = NovaOpenStack.getLogger(NovaMethod.class, "std");
+
     public NovaMethod(NovaOpenStack provider) { super(provider); }
     
-    public void deleteServers(@Nonnull final String resource, @Nonnull final String resourceId) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getComputeUrl();
-        
-        if( endpoint == null ) {
-            throw new CloudException("No compute endpoint exists");
+    /**
+     * Completes a compute API version with the microversion range Nova publishes in the version document at the
+     * root of the versioned endpoint. Clouds that publish no such document are left without microversions.
+     * @param context the authentication context whose compute endpoint is examined
+     * @param version the version read from the compute endpoint
+     * @return the version with whatever microversion range the cloud reported
+     * @throws InternalException an error occurred within Dasein Cloud while reading the document
+     */
+    public @Nonnull NovaVersion discoverComputeVersion(@Nonnull AuthenticationContext context, @Nonnull NovaVersion version) throws InternalException {
+        String root = version.getRoot();
+
+        if( root == null || context.getComputeUrl() == null ) {
+            return version.withMicroversions(null, null);
         }
         try {
-            delete(context.getAuthToken(), endpoint, resource + "/" + resourceId);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                deleteServers(resource, resourceId);
-            }
-            else {
-                throw ex;
-            }
-        }
-    }
+            String response = getString(context.getAuthToken(), root, "/");
+            JSONObject doc = (response == null ? null : new JSONObject(response).optJSONObject("version"));
 
-    public void deleteNetworks(@Nonnull final String resource, @Nonnull final String resourceId) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getNetworkUrl();
+            if( doc != null ) {
+                String max = doc.optString("version", null);
+                String min = doc.optString("min_version", null);
 
-        if( endpoint == null ) {
-            throw new CloudException("No network endpoint exists");
+                // Nova reports empty strings when the API predates microversions
+                if( max != null && max.length() > 0 && min != null && min.length() > 0 ) {
+                    return version.withMicroversions(min, max);
+                }
+            }
         }
-        if (resource != null && (!endpoint.endsWith("/") && !resource.startsWith("/"))) {
-            endpoint = endpoint+"/";
+        catch( CloudException e ) {
+            logger.debug("No compute version document at " + root + ": " + e.getMessage());
         }
-        try {
-            delete(context.getAuthToken(), endpoint, resource + "/" + resourceId);
+        catch( JSONException e ) {
+            logger.debug("Invalid compute version document at " + root + ": " + e.getMessage());
         }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                deleteNetworks(resource, resourceId);
+        return version.withMicroversions(null, null);
+    }
+
+    public void deleteServers(@Nonnull final String resource, @Nonnull final String resourceId) throws CloudException, InternalException {
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getComputeUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No compute endpoint exists");
+                }
+                delete(context.getAuthToken(), endpoint, resource + "/" + resourceId);
+                return null;
             }
-            else {
-                throw ex;
+        });
+    }
+
+    public void deleteNetworks(@Nonnull final String resource, @Nonnull final String resourceId) throws CloudException, InternalException {
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getNetworkUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No network endpoint exists");
+                }
+                if (resource != null && (!endpoint.endsWith("/") && !resource.startsWith("/"))) {
+                    endpoint = endpoint+"/";
+                }
+                delete(context.getAuthToken(), endpoint, resource + "/" + resourceId);
+                return null;
             }
-        }
+        });
     }
 
     public @Nullable JSONObject getPorts(@Nonnull final String resource, @Nonnull final String resourceId) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
+        return authenticated(new AuthenticatedCall<JSONObject>() {
+            @Override
+            public JSONObject call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getComputeUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No compute URL has been established in " + context.getMyRegion());
+                }
+                String resourceUri = resource;
+                if( resourceId != null ) {
+                    resourceUri += "/" + resourceId;
+                }
+
+                String response = getString(context.getAuthToken(), endpoint, resourceUri);
+
+                if( response == null ) {
+                    return null;
+                }
+                try {
+                    return new JSONObject(response);
+                }
+                catch( JSONException e ) {
+                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Fetches the rate and absolute limits of the compute endpoint of an authentication context. Unlike the other
+     * requests of this class, it uses the context as is rather than the current context of the provider.
+     * @param context the authentication context whose compute endpoint is examined
+     * @return the response to GET /limits or <code>null</code> if the endpoint has none
+     * @throws CloudException the cloud rejected the request
+     * @throws InternalException an error occurred within Dasein Cloud while reading the limits
+     */
+    public @Nullable JSONObject getLimits(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
         String endpoint = context.getComputeUrl();
 
         if( endpoint == null ) {
-            throw new CloudException("No compute URL has been established in " + context.getMyRegion());
-        }
-        String resourceUri = resource;
-        if( resourceId != null ) {
-            resourceUri += "/" + resourceId;
+            return null;
         }
+        String response = getString(context.getAuthToken(), endpoint, "/limits");
 
+        if( response == null ) {
+            return null;
+        }
         try {
-            String response = getString(context.getAuthToken(), endpoint, resourceUri);
-
-            if( response == null ) {
-                return null;
-            }
-            try {
-                return new JSONObject(response);
-            }
-            catch( JSONException e ) {
-                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
-            }
+            return new JSONObject(response);
         }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return getPorts(resource, resourceId);
-            }
-            else {
-                throw ex;
-            }
+        catch( JSONException e ) {
+            throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
         }
     }
-    
+
     public @Nullable JSONObject getServers(@Nonnull final String resource, @Nullable final String resourceId, final boolean suffix) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getComputeUrl();
-        
-        if( endpoint == null ) {
-            throw new CloudException("No compute URL has been established in " + context.getMyRegion());
-        }
-        String resourceUri = resource; // make a copy in case we need to retry with the original resource
-        if( resourceId != null ) {
-            resourceUri += "/" + resourceId;
-        }
-        else if( suffix ) {
-            resourceUri += "/detail";
-        }
-        try {
-            String response = getString(context.getAuthToken(), endpoint, resourceUri);
+        return getServers(resource, resourceId, suffix, null);
+    }
 
-            if( response == null ) {
-                return null;
-            }
-            try {
-                return new JSONObject(response);
-            }
-            catch( JSONException e ) {
-                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
-            }
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return getServers(resource, resourceId, suffix);
-            }
-            else {
-                throw ex;
-            }
-        }
+    public @Nullable JSONObject getServers(@Nonnull final String resource, @Nullable final String resourceId, final boolean suffix, @Nullable final String query) throws CloudException, InternalException {
+        return authenticated(new AuthenticatedCall<JSONObject>() {
+            @Override
+            public JSONObject call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getComputeUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No compute URL has been established in " + context.getMyRegion());
+                }
+                String resourceUri = resource; // make a copy in case we need to retry with the original resource
+                if( resourceId != null ) {
+                    resourceUri += "/" + resourceId;
+                }
+                else if( suffix ) {
+                    resourceUri += "/detail";
+                }
+                if( query != null ) {
+                    resourceUri += query;
+                }
+                String response = getString(context.getAuthToken(), endpoint, resourceUri);
+
+                if( response == null ) {
+                    return null;
+                }
+                try {
+                    return new JSONObject(response);
+                }
+                catch( JSONException e ) {
+                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
+                }
+            }
+        });
+    }
+
+    /**
+     * Lists compute resources, converting each element of the list as it is read from the response rather than
+     * reading the whole response first.
+     * @param resource the path of the listing relative to the compute endpoint
+     * @param suffix true to list the resources in detail
+     * @param query the query string of the listing, starting with <code>?</code>, if any
+     * @param listKey the name of the list in the response, such as <code>servers</code>
+     * @param converter converts each element of the list
+     * @param remainder receives the other top level members of the response, such as pagination links, if not
+     * <code>null</code>
+     * @param <T> the type of object the elements describe
+     * @return the converted elements or <code>null</code> if the listing does not exist
+     * @throws CloudException the cloud rejected the request or returned an invalid listing
+     * @throws InternalException an error occurred within Dasein Cloud while processing the listing
+     */
+    public @Nullable <T> List<T> getServerList(@Nonnull final String resource, final boolean suffix, @Nullable final String query, @Nonnull final String listKey, @Nonnull final JSONListParser.ItemConverter<T> converter, @Nullable final JSONObject remainder) throws CloudException, InternalException {
+        return authenticated(new AuthenticatedCall<List<T>>() {
+            @Override
+            public List<T> call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getComputeUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No compute URL has been established in " + context.getMyRegion());
+                }
+                String resourceUri = (suffix ? resource + "/detail" : resource);
+
+                if( query != null ) {
+                    resourceUri += query;
+                }
+                return getList(context.getAuthToken(), endpoint, resourceUri, listKey, converter, remainder);
+            }
+        });
     }
 
     public @Nullable JSONObject getNetworks(@Nonnull final String resource, @Nullable final String resourceId, final boolean suffix) throws CloudException, InternalException {
@@ -167,194 +241,178 @@ public class NovaMethod extends AbstractMethod {
     }
 
     public @Nullable JSONObject getNetworks(@Nonnull final String resource, @Nullable final String resourceId, final boolean suffix, final String query) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getNetworkUrl();
-
-        if( endpoint == null ) {
-            throw new CloudException("No network URL has been established in " + context.getMyRegion());
-        }
-        String resourceUri = resource; // make a copy in case we need to retry with the original resource
-        if( resourceId != null ) {
-            resourceUri += "/" + resourceId;
-        }
-        else if( suffix ) {
-            resourceUri += "/detail";
-        }
-        if( query != null ) {
-            resourceUri += query;
-        }
-        if (resourceUri != null && (!endpoint.endsWith("/") && !resourceUri.startsWith("/"))) {
-            endpoint = endpoint+"/";
-        }
-        try {
-            String response = getString(context.getAuthToken(), endpoint, resourceUri);
+        return authenticated(new AuthenticatedCall<JSONObject>() {
+            @Override
+            public JSONObject call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getNetworkUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No network URL has been established in " + context.getMyRegion());
+                }
+                String resourceUri = resource; // make a copy in case we need to retry with the original resource
+                if( resourceId != null ) {
+                    resourceUri += "/" + resourceId;
+                }
+                else if( suffix ) {
+                    resourceUri += "/detail";
+                }
+                if( query != null ) {
+                    resourceUri += query;
+                }
+                if (resourceUri != null && (!endpoint.endsWith("/") && !resourceUri.startsWith("/"))) {
+                    endpoint = endpoint+"/";
+                }
+                String response = getString(context.getAuthToken(), endpoint, resourceUri);
+
+                if( response == null ) {
+                    return null;
+                }
+                try {
+                    return new JSONObject(response);
+                }
+                catch( JSONException e ) {
+                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
+                }
+            }
+        });
+    }
 
-            if( response == null ) {
-                return null;
-            }
-            try {
-                return new JSONObject(response);
-            }
-            catch( JSONException e ) {
-                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
-            }
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return getNetworks(resource, resourceId, suffix, query);
-            }
-            else {
-                throw ex;
-            }
-        }
+    /**
+     * Lists network resources, converting each element of the list as it is read from the response rather than
+     * reading the whole response first.
+     * @param resource the path of the listing relative to the network endpoint, including any query string
+     * @param listKey the name of the list in the response, such as <code>ports</code>
+     * @param converter converts each element of the list
+     * @param <T> the type of object the elements describe
+     * @return the converted elements or <code>null</code> if the listing does not exist
+     * @throws CloudException the cloud rejected the request or returned an invalid listing
+     * @throws InternalException an error occurred within Dasein Cloud while processing the listing
+     */
+    public @Nullable <T> List<T> getNetworkList(@Nonnull final String resource, @Nonnull final String listKey, @Nonnull final JSONListParser.ItemConverter<T> converter) throws CloudException, InternalException {
+        return authenticated(new AuthenticatedCall<List<T>>() {
+            @Override
+            public List<T> call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getNetworkUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No network URL has been established in " + context.getMyRegion());
+                }
+                if( !endpoint.endsWith("/") && !resource.startsWith("/") ) {
+                    endpoint = endpoint + "/";
+                }
+                return getList(context.getAuthToken(), endpoint, resource, listKey, converter, null);
+            }
+        });
     }
 
     public @Nullable String postServersForString(@Nonnull final String resource, @Nullable final String resourceId, @Nonnull final JSONObject body, final boolean suffix) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-
-        String resourceUri = resource;
-        if( resourceId != null ) {
-            resourceUri += "/" + (suffix ? (resourceId + "/action") : resourceId);
-        }
-        String computeEndpoint = context.getComputeUrl();
-
-        if( computeEndpoint == null ) {
-            throw new CloudException("No compute endpoint exists");
-        }
-        try {
-            return postString(context.getAuthToken(), computeEndpoint, resourceUri, body.toString());
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return postServersForString(resource, resourceId, body, suffix);
-            }
-            else {
-                throw ex;
-            }
-        }
+        return authenticated(new AuthenticatedCall<String>() {
+            @Override
+            public String call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String resourceUri = resource;
+                if( resourceId != null ) {
+                    resourceUri += "/" + (suffix ? (resourceId + "/action") : resourceId);
+                }
+                String computeEndpoint = context.getComputeUrl();
+
+                if( computeEndpoint == null ) {
+                    throw new CloudException("No compute endpoint exists");
+                }
+                return postString(context.getAuthToken(), computeEndpoint, resourceUri, body.toString());
+            }
+        });
     }
 
     public @Nullable JSONObject postServers(@Nonnull final String resource, @Nullable final String resourceId, @Nonnull final JSONObject body, final boolean suffix) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-
-        String resourceUri = resource;
-        if( resourceId != null ) {
-            resourceUri += "/" + (suffix ? (resourceId + "/action") : resourceId);
-        }
-        String computeEndpoint = context.getComputeUrl();
-
-        if( computeEndpoint == null ) {
-            throw new CloudException("No compute endpoint exists");
-        }
-        try {
-            String response = postString(context.getAuthToken(), computeEndpoint, resourceUri, body.toString());
-        
-            if( response == null ) {
-                return null;
-            }
-            try {
-                return new JSONObject(response);
-            }
-            catch( JSONException e ) {
-                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
-            }
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return postServers(resource, resourceId, body, suffix);
-            }
-            else {
-                throw ex;
-            }
-        }
+        return authenticated(new AuthenticatedCall<JSONObject>() {
+            @Override
+            public JSONObject call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String resourceUri = resource;
+                if( resourceId != null ) {
+                    resourceUri += "/" + (suffix ? (resourceId + "/action") : resourceId);
+                }
+                String computeEndpoint = context.getComputeUrl();
+
+                if( computeEndpoint == null ) {
+                    throw new CloudException("No compute endpoint exists");
+                }
+                String response = postString(context.getAuthToken(), computeEndpoint, resourceUri, body.toString());
+
+                if( response == null ) {
+                    return null;
+                }
+                try {
+                    return new JSONObject(response);
+                }
+                catch( JSONException e ) {
+                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
+                }
+            }
+        });
     }
 
     public @Nullable JSONObject postNetworks(@Nonnull final String resource, @Nullable final String resourceId, @Nonnull final JSONObject body, @Nullable final String action) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-
-        String resourceUri = resource;
-        if( resourceId != null ) {
-            resourceUri = resource + "/" + (action != null ? (resourceId + "/" + action) : resourceId);
-        }
-        String endpoint = context.getNetworkUrl();
-
-        if( endpoint == null ) {
-            throw new CloudException("No network endpoint exists");
-        }
-
-        if (resourceUri != null && (!endpoint.endsWith("/") && !resourceUri.startsWith("/"))) {
-            endpoint = endpoint+"/";
-        }
-        try {
-            String response = postString(context.getAuthToken(), endpoint, resourceUri, body.toString());
-
-            if( response == null ) {
-                return null;
-            }
-            try {
-                return new JSONObject(response);
-            }
-            catch( JSONException e ) {
-                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
-            }
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return postNetworks(resource, resourceId, body, action);
-            }
-            else {
-                throw ex;
-            }
-        }
+        return authenticated(new AuthenticatedCall<JSONObject>() {
+            @Override
+            public JSONObject call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String resourceUri = resource;
+                if( resourceId != null ) {
+                    resourceUri = resource + "/" + (action != null ? (resourceId + "/" + action) : resourceId);
+                }
+                String endpoint = context.getNetworkUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No network endpoint exists");
+                }
+
+                if (resourceUri != null && (!endpoint.endsWith("/") && !resourceUri.startsWith("/"))) {
+                    endpoint = endpoint+"/";
+                }
+                String response = postString(context.getAuthToken(), endpoint, resourceUri, body.toString());
+
+                if( response == null ) {
+                    return null;
+                }
+                try {
+                    return new JSONObject(response);
+                }
+                catch( JSONException e ) {
+                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
+                }
+            }
+        });
     }
 
     public @Nullable JSONObject putNetworks(@Nonnull final String resource, @Nullable final String resourceId, @Nonnull final JSONObject body, final String action) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-
-        String resourceUri = resource;
-        if( resourceId != null ) {
-            resourceUri = resource + "/" + (action != null ? (resourceId + "/" + action) : resourceId);
-        }
-        String endpoint = context.getNetworkUrl();
-
-        if( endpoint == null ) {
-            throw new CloudException("No network endpoint exists");
-        }
-
-        if (resourceUri != null && (!endpoint.endsWith("/") && !resourceUri.startsWith("/"))) {
-            endpoint = endpoint+"/";
-        }
-        try {
-            String response = putString(context.getAuthToken(), endpoint, resourceUri, body.toString());
-
-            if( response == null ) {
-                return null;
-            }
-            try {
-                return new JSONObject(response);
-            }
-            catch( JSONException e ) {
-                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
-            }
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return putNetworks(resource, resourceId, body, action);
-            }
-            else {
-                throw ex;
-            }
-        }
+        return authenticated(new AuthenticatedCall<JSONObject>() {
+            @Override
+            public JSONObject call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String resourceUri = resource;
+                if( resourceId != null ) {
+                    resourceUri = resource + "/" + (action != null ? (resourceId + "/" + action) : resourceId);
+                }
+                String endpoint = context.getNetworkUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No network endpoint exists");
+                }
+
+                if (resourceUri != null && (!endpoint.endsWith("/") && !resourceUri.startsWith("/"))) {
+                    endpoint = endpoint+"/";
+                }
+                String response = putString(context.getAuthToken(), endpoint, resourceUri, body.toString());
+
+                if( response == null ) {
+                    return null;
+                }
+                try {
+                    return new JSONObject(response);
+                }
+                catch( JSONException e ) {
+                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", response);
+                }
+            }
+        });
     }
 
     public @Nullable JSONObject postNetworks(@Nonnull final String resource, @Nullable final String resourceId, @Nonnull final JSONObject body, final boolean suffix) throws CloudException, InternalException {
@@ -362,104 +420,75 @@ public class NovaMethod extends AbstractMethod {
     }
 
     public @Nullable String getHPCDN(@Nullable final String resourceId) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(HPCDN.SERVICE);
+        return authenticated(new AuthenticatedCall<String>() {
+            @Override
+            public String call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(HPCDN.SERVICE);
 
-        if( endpoint == null ) {
-            throw new CloudException("No CDN URL has been established in " + context.getMyRegion());
-        }
-        try {
-            return getString(context.getAuthToken(), endpoint, resourceId == null ? "" : ("/" + resourceId));
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return getHPCDN(resourceId);
+                if( endpoint == null ) {
+                    throw new CloudException("No CDN URL has been established in " + context.getMyRegion());
+                }
+                return getString(context.getAuthToken(), endpoint, resourceId == null ? "" : ("/" + resourceId));
             }
-            else {
-                throw ex;
-            }
-        }
+        });
     }
     
     public void putHPCDN(final String container) throws CloudException, InternalException {
-        Map<String,String> headers = new HashMap<String, String>();
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(HPCDN.SERVICE);
-
-        if( endpoint == null ) {
-            throw new CloudException("No CDN URL has been established in " + context.getMyRegion());
-        }
-        if( container == null ) {
-            throw new InternalException("No container was specified");
-        }
-        headers.put("X-TTL", "86400");
-        try {
-            putHeaders(context.getAuthToken(), endpoint, "/" + container, headers);
-        
-            headers = headResource(HPCDN.SERVICE, HPCDN.RESOURCE, container);
-            if( headers == null ) {
-                throw new CloudException("No container enabled");
-            }
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                putHPCDN(container);
-            }
-            else {
-                throw ex;
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                Map<String,String> headers = new HashMap<String, String>();
+                String endpoint = context.getServiceUrl(HPCDN.SERVICE);
+
+                if( endpoint == null ) {
+                    throw new CloudException("No CDN URL has been established in " + context.getMyRegion());
+                }
+                if( container == null ) {
+                    throw new InternalException("No container was specified");
+                }
+                headers.put("X-TTL", "86400");
+                putHeaders(context.getAuthToken(), endpoint, "/" + container, headers);
+
+                headers = headResource(HPCDN.SERVICE, HPCDN.RESOURCE, container);
+                if( headers == null ) {
+                    throw new CloudException("No container enabled");
+                }
+                return null;
             }
-        }
+        });
     }
 
     public void postHPCDN(@Nonnull final String container, @Nonnull final Map<String,String> headers) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(HPCDN.SERVICE);
-
-        if( endpoint == null ) {
-            throw new CloudException("No CDN URL has been established in " + context.getMyRegion());
-        }
-        if( container == null ) {
-            throw new InternalException("No container was specified");
-        }
-        try {
-            postHeaders(context.getAuthToken(), endpoint, "/" + container, headers);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                postHPCDN(container, headers);
-            }
-            else {
-                throw ex;
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(HPCDN.SERVICE);
+
+                if( endpoint == null ) {
+                    throw new CloudException("No CDN URL has been established in " + context.getMyRegion());
+                }
+                if( container == null ) {
+                    throw new InternalException("No container was specified");
+                }
+                postHeaders(context.getAuthToken(), endpoint, "/" + container, headers);
+                return null;
             }
-        }
+        });
     }
     
     public void deleteHPCDN(@Nonnull final String container) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getServiceUrl(HPCDN.SERVICE);
-
-        if( endpoint == null ) {
-            throw new CloudException("No CDN URL has been established in " + context.getMyRegion());
-        }
-        try {
-            delete(context.getAuthToken(), endpoint, "/" + container);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                deleteHPCDN(container);
-            }
-            else {
-                throw ex;
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getServiceUrl(HPCDN.SERVICE);
+
+                if( endpoint == null ) {
+                    throw new CloudException("No CDN URL has been established in " + context.getMyRegion());
+                }
+                delete(context.getAuthToken(), endpoint, "/" + container);
+                return null;
             }
-        }
+        });
     }
 }
 
@@ -0,0 +1,623 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.pool.PoolStats;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.ProviderContext;
+
+/**
+ * Records what the requests made to an OpenStack cloud cost on the wire: per service and operation latency
+ * histograms, request and response bytes and HTTP status counts, along with authentication retries, rate limited
+ * retries and connection pool usage. Operations are named like the API trace, such as <code>GET servers</code>, so
+ * resource IDs never multiply them. A registry is shared by all providers connected to the same endpoint, account
+ * and region, and is published over JMX under <code>org.dasein.cloud.openstack.nova:type=Metrics</code>.
+ * <p>
+ * Latencies run from sending a request to receiving the response headers and are reported in microseconds. The
+ * {@link Snapshot} also carries the process wide counters of the circuit breakers, limiters, coalescer, caches,
+ * compression and retry policy.
+ * </p>
+ * <p>
+ * Nothing is recorded unless the {@value #ENABLED} custom property of the provider context is <code>true</code>.
+ * </p>
+ */
+public class NovaMetrics implements DynamicMBean {
+    static private final Logger logger = NovaOpenStack.getLogger(NovaMetrics.class, "std");
+
+    static public final String ENABLED = "metrics";
+
+    static public final String JMX_DOMAIN = "org.dasein.cloud.openstack.nova";
+
+    static private final ConcurrentHashMap<String,NovaMetrics> registries = new ConcurrentHashMap<String, NovaMetrics>();
+
+    /**
+     * Provides the registry requests made with the specified context record into.
+     * @param ctx the provider context making the requests
+     * @return the registry for the context or <code>null</code> if metrics are not enabled for it
+     */
+    static public @Nullable NovaMetrics getInstance(@Nonnull ProviderContext ctx) {
+        Properties p = ctx.getCustomProperties();
+
+        if( p == null || !"true".equalsIgnoreCase(p.getProperty(ENABLED)) ) {
+            return null;
+        }
+        String endpoint = ctx.getEndpoint();
+
+        if( endpoint == null && ctx.getCloud() != null ) {
+            endpoint = ctx.getCloud().getEndpoint();
+        }
+        String key = endpoint + "|" + ctx.getAccountNumber() + "|" + ctx.getRegionId();
+        NovaMetrics metrics = registries.get(key);
+
+        if( metrics == null ) {
+            metrics = new NovaMetrics(key, endpoint);
+
+            NovaMetrics existing = registries.putIfAbsent(key, metrics);
+
+            if( existing != null ) {
+                return existing;
+            }
+            metrics.register();
+        }
+        return metrics;
+    }
+
+    /**
+     * @return every registry created since the class was loaded
+     */
+    static public @Nonnull Collection<NovaMetrics> getInstances() {
+        return Collections.unmodifiableCollection(registries.values());
+    }
+
+    /**
+     * @return the process wide counters of the components sitting in the request path, by name
+     */
+    static public @Nonnull Map<String,Long> getSharedCounters() {
+        TreeMap<String,Long> counters = new TreeMap<String, Long>();
+        int open = 0;
+
+        for( CircuitBreaker breaker : CircuitBreaker.getInstances() ) {
+            if( breaker.getState() != CircuitBreaker.State.CLOSED ) {
+                open++;
+            }
+        }
+        counters.put("authentication.authentications", AuthenticationCache.getAuthenticationCount());
+        counters.put("authentication.invalidations", AuthenticationCache.getInvalidationCount());
+        counters.put("authentication.refreshes", AuthenticationCache.getRefreshCount());
+        counters.put("authentication.rejections", AuthenticationCache.getRejectionCount());
+        counters.put("authentication.retriesExhausted", AuthenticationCache.getRetriesExhaustedCount());
+        counters.put("circuitBreaker.closed", CircuitBreaker.getClosedCount());
+        counters.put("circuitBreaker.open", (long)open);
+        counters.put("circuitBreaker.opened", CircuitBreaker.getOpenedCount());
+        counters.put("circuitBreaker.rejected", CircuitBreaker.getRejectedCount());
+        counters.put("circuitBreaker.trials", CircuitBreaker.getTrialCount());
+        counters.put("compression.bytesDecompressed", ResponseCompression.getDecompressedSize());
+        counters.put("compression.bytesReceived", ResponseCompression.getCompressedSize());
+        counters.put("compression.bytesSaved", ResponseCompression.getSavedSize());
+        counters.put("compression.responses", ResponseCompression.getCompressedCount());
+        counters.put("concurrencyLimiter.queued", ConcurrencyLimiter.getQueuedCount());
+        counters.put("concurrencyLimiter.queueTime", ConcurrencyLimiter.getTotalQueueTime());
+        counters.put("concurrencyLimiter.rejected", ConcurrencyLimiter.getRejectedCount());
+        counters.put("requestCoalescer.coalesced", RequestCoalescer.getCoalescedCount());
+        counters.put("requestCoalescer.requests", RequestCoalescer.getRequestCount());
+        counters.put("requestCoalescer.reused", RequestCoalescer.getReusedCount());
+        counters.put("requestLimiter.delayed", RequestLimiter.getDelayedCount());
+        counters.put("requestLimiter.rejected", RequestLimiter.getRejectedCount());
+        counters.put("requestLimiter.wait", RequestLimiter.getTotalWait());
+        counters.put("responseCache.evictions", ResponseCache.getEvictionCount());
+        counters.put("responseCache.hits", ResponseCache.getHitCount());
+        counters.put("responseCache.savedSize", ResponseCache.getSavedSize());
+        counters.put("responseCache.size", ResponseCache.getSize());
+        counters.put("retryPolicy.delay", RetryPolicy.getTotalDelay());
+        counters.put("retryPolicy.exhausted", RetryPolicy.getExhaustedCount());
+        counters.put("retryPolicy.retries", RetryPolicy.getRetryCount());
+        return counters;
+    }
+
+    /**
+     * Names an operation after the first segment of the resource path below the service endpoint, as the API trace
+     * does, leaving out IDs and query strings.
+     * @param endpoint the service endpoint
+     * @param request the request made to the endpoint
+     * @return the name of the operation, such as <code>GET servers</code>
+     */
+    static @Nonnull String getOperationName(@Nonnull String endpoint, @Nonnull HttpUriRequest request) {
+        String url = request.getURI().toString();
+        String resource = (url.startsWith(endpoint) ? url.substring(endpoint.length()) : request.getURI().getRawPath());
+
+        if( resource == null ) {
+            resource = "";
+        }
+        int idx = resource.indexOf('?');
+
+        if( idx > -1 ) {
+            resource = resource.substring(0, idx);
+        }
+        while( resource.startsWith("/") ) {
+            resource = resource.substring(1);
+        }
+        idx = resource.indexOf('/');
+        if( idx > -1 ) {
+            resource = resource.substring(0, idx);
+        }
+        return request.getMethod() + " " + (resource.length() < 1 ? "/" : resource);
+    }
+
+    /**
+     * The metrics of a single operation against a single service.
+     */
+    static class Operation {
+        private final LatencyHistogram                   latency = new LatencyHistogram();
+        private final AtomicLong                         failures = new AtomicLong();
+        private final String                             name;
+        private final AtomicLong                         requestBytes = new AtomicLong();
+        private final AtomicLong                         responseBytes = new AtomicLong();
+        private final String                             service;
+        private final ConcurrentHashMap<Integer,AtomicLong> statuses = new ConcurrentHashMap<Integer, AtomicLong>();
+
+        private Operation(@Nonnull String service, @Nonnull String name) {
+            this.service = service;
+            this.name = name;
+        }
+
+        /**
+         * Records a response, counting the bytes of its body as the caller reads them.
+         * @param started when the request was sent, as {@link System#nanoTime()}
+         * @param request the request sent
+         * @param response the response received
+         */
+        void record(long started, @Nonnull HttpRequest request, @Nonnull HttpResponse response) {
+            latency.record(Math.max(0L, (System.nanoTime() - started) / 1000L));
+            if( request instanceof HttpEntityEnclosingRequest ) {
+                HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+
+                if( entity != null && entity.getContentLength() > 0L ) {
+                    requestBytes.addAndGet(entity.getContentLength());
+                }
+            }
+            int status = response.getStatusLine().getStatusCode();
+            AtomicLong count = statuses.get(status);
+
+            if( count == null ) {
+                AtomicLong existing = statuses.putIfAbsent(status, count = new AtomicLong());
+
+                if( existing != null ) {
+                    count = existing;
+                }
+            }
+            count.incrementAndGet();
+
+            HttpEntity entity = response.getEntity();
+
+            if( entity != null ) {
+                response.setEntity(new CountingEntity(entity, responseBytes));
+            }
+        }
+
+        /**
+         * Records a request that never got a response.
+         * @param started when the request was sent, as {@link System#nanoTime()}
+         */
+        void fail(long started) {
+            latency.record(Math.max(0L, (System.nanoTime() - started) / 1000L));
+            failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * The metrics of a single operation against a single service at some point in time.
+     */
+    static public class OperationSnapshot {
+        private final long              failureCount;
+        private final LatencyHistogram  latency;
+        private final String            operation;
+        private final long              requestBytes;
+        private final long              responseBytes;
+        private final String            service;
+        private final Map<Integer,Long> statusCounts;
+
+        private OperationSnapshot(@Nonnull Operation op) {
+            TreeMap<Integer,Long> counts = new TreeMap<Integer, Long>();
+
+            for( Map.Entry<Integer,AtomicLong> entry : op.statuses.entrySet() ) {
+                counts.put(entry.getKey(), entry.getValue().get());
+            }
+            failureCount = op.failures.get();
+            latency = op.latency.copy();
+            operation = op.name;
+            requestBytes = op.requestBytes.get();
+            responseBytes = op.responseBytes.get();
+            service = op.service;
+            statusCounts = Collections.unmodifiableMap(counts);
+        }
+
+        /**
+         * @return how many requests were made, including those that never got a response
+         */
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        /**
+         * @return how many requests failed without a response, such as on I/O errors
+         */
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * @return the latencies of the requests in microseconds
+         */
+        public @Nonnull LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the name of the operation, such as <code>GET servers</code>
+         */
+        public @Nonnull String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return the total bytes of request bodies of known length
+         */
+        public long getRequestBytes() {
+            return requestBytes;
+        }
+
+        /**
+         * @return the total bytes of response bodies read off the wire, before any decompression
+         */
+        public long getResponseBytes() {
+            return responseBytes;
+        }
+
+        /**
+         * @return the service the operation ran against, such as <code>compute</code>
+         */
+        public @Nonnull String getService() {
+            return service;
+        }
+
+        /**
+         * @return how many responses came back with each HTTP status
+         */
+        public @Nonnull Map<Integer,Long> getStatusCounts() {
+            return statusCounts;
+        }
+    }
+
+    /**
+     * The metrics of a registry at some point in time.
+     */
+    static public class Snapshot {
+        private final Map<String,Long>        counters;
+        private final List<OperationSnapshot> operations;
+        private final PoolStats               poolStats;
+        private final long                    reauthenticationCount;
+        private final long                    retryCount;
+        private final long                    timestamp;
+
+        private Snapshot(@Nonnull NovaMetrics metrics) {
+            ArrayList<OperationSnapshot> list = new ArrayList<OperationSnapshot>();
+            NovaConnectionPool pool = metrics.pool;
+
+            for( Operation op : metrics.operations.values() ) {
+                list.add(new OperationSnapshot(op));
+            }
+            counters = getSharedCounters();
+            operations = Collections.unmodifiableList(list);
+            poolStats = (pool == null ? null : pool.getStats());
+            reauthenticationCount = metrics.reauthentications.get();
+            retryCount = metrics.retries.get();
+            timestamp = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the process wide counters of the components in the request path
+         * @see #getSharedCounters()
+         */
+        public @Nonnull Map<String,Long> getCounters() {
+            return counters;
+        }
+
+        /**
+         * @return the metrics of every operation made so far
+         */
+        public @Nonnull List<OperationSnapshot> getOperations() {
+            return operations;
+        }
+
+        /**
+         * @return the usage of the connection pool requests were made through, if one was used yet
+         */
+        public @Nullable PoolStats getPoolStats() {
+            return poolStats;
+        }
+
+        /**
+         * @return how many requests were retried with a new token after the cloud rejected theirs
+         */
+        public long getReauthenticationCount() {
+            return reauthenticationCount;
+        }
+
+        /**
+         * @return how many rate limited requests were retried
+         */
+        public long getRetryCount() {
+            return retryCount;
+        }
+
+        /**
+         * @return when the snapshot was taken
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Flattens the snapshot into named values, which is how it is published over JMX. Operation values are
+         * named after the service and operation, such as <code>compute GET servers.latencyP99</code>.
+         * @return the values of the snapshot by name
+         */
+        public @Nonnull Map<String,Long> toMap() {
+            TreeMap<String,Long> values = new TreeMap<String, Long>(counters);
+
+            for( OperationSnapshot op : operations ) {
+                String prefix = op.getService() + " " + op.getOperation() + ".";
+                LatencyHistogram latency = op.getLatency();
+
+                values.put(prefix + "count", op.getCount());
+                values.put(prefix + "failures", op.getFailureCount());
+                values.put(prefix + "latencyMax", latency.getMax());
+                values.put(prefix + "latencyMean", latency.getMean());
+                values.put(prefix + "latencyP50", latency.getPercentile(50.0));
+                values.put(prefix + "latencyP90", latency.getPercentile(90.0));
+                values.put(prefix + "latencyP99", latency.getPercentile(99.0));
+                values.put(prefix + "requestBytes", op.getRequestBytes());
+                values.put(prefix + "responseBytes", op.getResponseBytes());
+                for( Map.Entry<Integer,Long> entry : op.getStatusCounts().entrySet() ) {
+                    values.put(prefix + "status." + entry.getKey(), entry.getValue());
+                }
+            }
+            if( poolStats != null ) {
+                values.put("pool.available", (long)poolStats.getAvailable());
+                values.put("pool.leased", (long)poolStats.getLeased());
+                values.put("pool.max", (long)poolStats.getMax());
+                values.put("pool.pending", (long)poolStats.getPending());
+            }
+            values.put("reauthentications", reauthenticationCount);
+            values.put("retries", retryCount);
+            return values;
+        }
+    }
+
+    private volatile AuthenticationContext              context;
+    private final String                                endpoint;
+    private final String                                key;
+    private final ConcurrentHashMap<String,Operation>   operations = new ConcurrentHashMap<String, Operation>();
+    private volatile NovaConnectionPool                 pool;
+    private final AtomicLong                            reauthentications = new AtomicLong();
+    private final AtomicLong                            retries = new AtomicLong();
+    private final ConcurrentHashMap<String,String>      services = new ConcurrentHashMap<String, String>();
+
+    NovaMetrics(@Nonnull String key, @Nullable String endpoint) {
+        this.key = key;
+        this.endpoint = endpoint;
+    }
+
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, getObjectName());
+        }
+        catch( JMException e ) {
+            logger.warn("Unable to publish metrics for " + key + " over JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the name the registry is published under over JMX
+     * @throws JMException the name could not be built
+     */
+    public @Nonnull ObjectName getObjectName() throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Metrics,name=" + ObjectName.quote(key));
+    }
+
+    /**
+     * Provides the metrics of the operation a request performs.
+     * @param endpoint the service endpoint the request is made to
+     * @param request the request
+     * @return the metrics to record the request into
+     */
+    @Nonnull Operation getOperation(@Nonnull String endpoint, @Nonnull HttpUriRequest request) {
+        String service = getService(endpoint);
+        String name = getOperationName(endpoint, request);
+        String id = service + " " + name;
+        Operation op = operations.get(id);
+
+        if( op == null ) {
+            Operation existing = operations.putIfAbsent(id, op = new Operation(service, name));
+
+            if( existing != null ) {
+                op = existing;
+            }
+        }
+        return op;
+    }
+
+    private @Nonnull String getService(@Nonnull String endpoint) {
+        String service = services.get(endpoint);
+
+        if( service != null ) {
+            return service;
+        }
+        AuthenticationContext ctx = context;
+        int matched = -1;
+
+        if( ctx != null ) {
+            for( Map.Entry<String,Map<String,String>> entry : ctx.getServices().entrySet() ) {
+                for( String url : entry.getValue().values() ) {
+                    if( url != null && url.length() > matched && (endpoint.startsWith(url) || url.startsWith(endpoint)) ) {
+                        service = entry.getKey();
+                        matched = url.length();
+                    }
+                }
+            }
+        }
+        if( service == null && this.endpoint != null && this.endpoint.contains(endpoint) ) {
+            service = "identity";
+        }
+        if( service == null ) {
+            // not worth remembering, the catalog may name it once authenticated
+            String host = URI.create(endpoint).getHost();
+
+            return (host == null ? "unknown" : host);
+        }
+        services.putIfAbsent(endpoint, service);
+        return service;
+    }
+
+    /**
+     * Makes the service catalog of an authentication context available for naming the services requests go to.
+     * @param context the authentication context requests are being made with
+     */
+    void observe(@Nonnull AuthenticationContext context) {
+        if( this.context != context ) {
+            this.context = context;
+        }
+    }
+
+    /**
+     * Records that a request was retried with a new token.
+     */
+    void reauthenticated() {
+        reauthentications.incrementAndGet();
+    }
+
+    /**
+     * Records that a rate limited request was retried.
+     */
+    void retried() {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * @param pool the connection pool requests are made through
+     */
+    void setConnectionPool(@Nonnull NovaConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the endpoint, account and region the registry records requests for
+     */
+    public @Nonnull String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the current metrics of this registry
+     */
+    public @Nonnull Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = snapshot().toMap().get(attribute);
+
+        if( value == null ) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String,Long> values = snapshot().toMap();
+        AttributeList list = new AttributeList();
+
+        for( String name : attributes ) {
+            Long value = values.get(name);
+
+            if( value != null ) {
+                list.add(new Attribute(name, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        ArrayList<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+
+        for( String name : snapshot().toMap().keySet() ) {
+            attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "OpenStack request metrics for " + key, attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[0], null);
+    }
+}
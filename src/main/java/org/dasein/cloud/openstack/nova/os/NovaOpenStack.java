@@ -19,13 +19,15 @@
 
 package org.dasein.cloud.openstack.nova.os;
 
+import java.io.File;
+import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -49,15 +51,26 @@ import org.dasein.cloud.openstack.nova.os.storage.SwiftStorageServices;
 import org.dasein.cloud.platform.PlatformServices;
 import org.dasein.cloud.storage.StorageServices;
 import org.dasein.cloud.util.APITrace;
-import org.dasein.cloud.util.Cache;
-import org.dasein.cloud.util.CacheLevel;
-import org.dasein.util.uom.time.Day;
-import org.dasein.util.uom.time.TimePeriod;
+import org.dasein.util.CalendarWrapper;
 import org.json.JSONObject;
 
 public class NovaOpenStack extends AbstractCloud {
     static private final Logger logger = getLogger(NovaOpenStack.class, "std");
 
+    /**
+     * Custom property holding how many seconds before its token expires an authentication context is refreshed in
+     * the background (default 300). It is capped at half of the lifetime of the token.
+     */
+    static public final String AUTHENTICATION_REFRESH_SKEW = "authenticationRefreshSkew";
+
+    /**
+     * Custom property naming a directory in which authentication contexts are kept, encrypted, across restarts. Nothing
+     * is kept on disk unless it is set. The directory should only be accessible to the process.
+     */
+    static public final String AUTHENTICATION_CACHE_DIRECTORY = "authenticationCacheDirectory";
+
+    static private final long DEFAULT_AUTHENTICATION_REFRESH_SKEW = 5 * CalendarWrapper.MINUTE;
+
     static private @Nonnull String getLastItem(@Nonnull String name) {
         int idx = name.lastIndexOf('.');
         
@@ -99,30 +112,168 @@ public class NovaOpenStack extends AbstractCloud {
         return (major <= 2 && minor < 10);
     }
     
+    private transient volatile NovaConnectionPool connectionPool;
+    private transient volatile NovaMetrics        metrics;
+    private transient volatile boolean            metricsResolved;
+
     public NovaOpenStack() { }
-    
-    public synchronized @Nonnull AuthenticationContext getAuthenticationContext() throws CloudException, InternalException {
-        APITrace.begin(this, "Cloud.getAuthenticationContext");
-        try {
-            Cache<AuthenticationContext> cache = Cache.getInstance(this, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
+
+    @Override
+    public void close() {
+        NovaConnectionPool pool;
+
+        synchronized( this ) {
+            pool = connectionPool;
+            connectionPool = null;
+        }
+        if( pool != null ) {
+            pool.release();
+        }
+        super.close();
+    }
+
+    /**
+     * Provides the pooled HTTP connections shared by all calls this provider makes to the cloud. The pool is held
+     * until the provider is closed.
+     * @return the connection pool for this provider's context
+     * @throws InternalException no context was established for this provider
+     */
+    public @Nonnull NovaConnectionPool getConnectionPool() throws InternalException {
+        NovaConnectionPool pool = connectionPool;
+
+        if( pool == null ) {
+            synchronized( this ) {
+                if( connectionPool == null ) {
+                    ProviderContext ctx = getContext();
+
+                    if( ctx == null ) {
+                        throw new InternalException("No context was defined for this request");
+                    }
+                    connectionPool = NovaConnectionPool.getInstance(ctx, isInsecure());
+
+                    NovaMetrics m = getMetrics();
+
+                    if( m != null ) {
+                        m.setConnectionPool(connectionPool);
+                    }
+                }
+                pool = connectionPool;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Provides the registry the requests of this provider record their metrics into, which is shared with other
+     * providers connected to the same endpoint, account and region.
+     * @return the metrics registry for this provider's context or <code>null</code> if the {@value NovaMetrics#ENABLED}
+     * custom property does not turn metrics on
+     */
+    public @Nullable NovaMetrics getMetrics() {
+        if( !metricsResolved ) {
             ProviderContext ctx = getContext();
 
             if( ctx == null ) {
-                throw new CloudException("No context was set for this request");
+                return null;
             }
-            Iterable<AuthenticationContext> current = cache.get(ctx);
-            AuthenticationContext authenticationContext = null;
+            metrics = NovaMetrics.getInstance(ctx);
+            metricsResolved = true;
+        }
+        return metrics;
+    }
 
-            NovaMethod method = new NovaMethod(this);
+    /**
+     * Identifies the credentials, endpoint and region this provider authenticates with, which is what an
+     * authentication context and the {@link ResponseCache responses} fetched with it are cached under.
+     * @param ctx the context of this provider
+     * @return the authentication cache key for the context
+     * @throws InternalException the credentials in the context could not be read
+     */
+    @Nonnull String getAuthenticationKey(@Nonnull ProviderContext ctx) throws InternalException {
+        byte[][] keyPair = getAccessKeys(ctx);
+        String user = null;
 
-            if( current != null ) {
-                authenticationContext = current.iterator().next();
+        try {
+            if( keyPair != null && keyPair.length > 0 && keyPair[0] != null ) {
+                user = new String(keyPair[0], "utf-8");
             }
-            else {
-                try {
-                    authenticationContext = method.authenticate();
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+        return ctx.getEndpoint() + "|" + ctx.getAccountNumber() + "|" + ctx.getRegionId() + "|" + user;
+    }
+
+    private @Nullable byte[][] getAccessKeys(@Nonnull ProviderContext ctx) {
+        byte[][] keyPair = null;
+
+        for( ContextRequirements.Field f : getContextRequirements().getConfigurableValues() ) {
+            if( f.type.equals(ContextRequirements.FieldType.KEYPAIR) ) {
+                keyPair = (byte[][])ctx.getConfigurationValue(f);
+            }
+        }
+        return keyPair;
+    }
+
+    /**
+     * Provides the file copy of this provider's authentication context if the {@value #AUTHENTICATION_CACHE_DIRECTORY}
+     * custom property names a directory to keep it in. The copy is encrypted with keys derived from the API secret.
+     * @param ctx the context of this provider
+     * @return the store for the authentication context or <code>null</code> if none is configured
+     * @throws InternalException the credentials in the context could not be read
+     */
+    private @Nullable AuthenticationStore getAuthenticationStore(@Nonnull ProviderContext ctx) throws InternalException {
+        Properties p = ctx.getCustomProperties();
+        String directory = (p == null ? null : p.getProperty(AUTHENTICATION_CACHE_DIRECTORY));
+
+        if( directory == null || directory.trim().length() < 1 ) {
+            return null;
+        }
+        byte[][] keyPair = getAccessKeys(ctx);
+
+        if( keyPair == null || keyPair.length < 2 || keyPair[1] == null || keyPair[1].length < 1 ) {
+            return null;
+        }
+        File dir = new File(directory.trim());
+
+        if( !dir.isDirectory() && !dir.mkdirs() ) {
+            logger.warn("Unable to create authentication cache directory " + dir);
+            return null;
+        }
+        return new AuthenticationStore(dir, getAuthenticationKey(ctx), keyPair[1]);
+    }
+
+    public @Nonnull AuthenticationContext getAuthenticationContext() throws CloudException, InternalException {
+        final ProviderContext ctx = getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context was set for this request");
+        }
+        final long skew = getAuthenticationRefreshSkew(ctx);
+
+        return AuthenticationCache.get(getAuthenticationKey(ctx), new Callable<AuthenticationContext>() {
+            @Override
+            public AuthenticationContext call() throws CloudException, InternalException {
+                AuthenticationStore store = getAuthenticationStore(ctx);
+
+                if( store != null ) {
+                    // a token about to be refreshed ahead of expiration is not worth picking up again
+                    AuthenticationContext saved = store.load(skew);
+
+                    if( saved != null ) {
+                        String endpoint = ctx.getEndpoint();
+
+                        // a restarted process need not detect the flavor again when the token runs out
+                        if( saved.getFlavor() != null && endpoint != null && AbstractMethod.getAuthenticationFlavor(endpoint) == null ) {
+                            AbstractMethod.setAuthenticationFlavor(endpoint, saved.getFlavor());
+                        }
+                        return saved;
+                    }
                 }
-                finally {
+                APITrace.begin(NovaOpenStack.this, "Cloud.getAuthenticationContext");
+                try {
+                    AuthenticationContext authenticationContext = new NovaMethod(NovaOpenStack.this).authenticate();
+
                     if( authenticationContext == null ) {
                         NovaException.ExceptionItems items = new NovaException.ExceptionItems();
 
@@ -132,14 +283,70 @@ public class NovaOpenStack extends AbstractCloud {
                         items.details = "The API keys failed to authenticate with the specified endpoint.";
                         throw new NovaException(items);
                     }
-                    cache.put(ctx, Collections.singletonList(authenticationContext));
+                    if( store != null ) {
+                        store.save(authenticationContext);
+                    }
                     return authenticationContext;
                 }
+                finally {
+                    APITrace.end();
+                }
+            }
+        }, skew, this);
+    }
+
+    private long getAuthenticationRefreshSkew(@Nonnull ProviderContext ctx) {
+        Properties p = ctx.getCustomProperties();
+        String value = (p == null ? null : p.getProperty(AUTHENTICATION_REFRESH_SKEW));
+
+        if( value != null ) {
+            try {
+                long seconds = Long.parseLong(value.trim());
+
+                if( seconds >= 0L ) {
+                    return seconds * CalendarWrapper.SECOND;
+                }
+            }
+            catch( NumberFormatException e ) {
+                logger.warn("Invalid value for " + AUTHENTICATION_REFRESH_SKEW + ": " + value);
             }
-            return authenticationContext;
         }
-        finally {
-            APITrace.end();
+        return DEFAULT_AUTHENTICATION_REFRESH_SKEW;
+    }
+
+    /**
+     * Drops the cached authentication context of this provider's credentials, typically because the cloud rejected
+     * its token, so the next request authenticates again. Other credentials are left alone.
+     * @throws InternalException the credentials in the context could not be read
+     */
+    public void invalidateAuthenticationContext() throws InternalException {
+        ProviderContext ctx = getContext();
+
+        if( ctx != null ) {
+            AuthenticationStore store = getAuthenticationStore(ctx);
+
+            AuthenticationCache.invalidate(getAuthenticationKey(ctx));
+            if( store != null ) {
+                store.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the specified authentication context after the cloud rejected its token. Nothing happens if the context
+     * has already been replaced, so many requests failing with the same token cause a single new authentication.
+     * @param rejected the authentication context whose token the cloud rejected
+     * @throws InternalException the credentials in the context could not be read
+     */
+    public void invalidateAuthenticationContext(@Nonnull AuthenticationContext rejected) throws InternalException {
+        ProviderContext ctx = getContext();
+
+        if( ctx != null && AuthenticationCache.invalidate(getAuthenticationKey(ctx), rejected) ) {
+            AuthenticationStore store = getAuthenticationStore(ctx);
+
+            if( store != null ) {
+                store.remove();
+            }
         }
     }
     
@@ -223,83 +430,35 @@ public class NovaOpenStack extends AbstractCloud {
     }
     
     public @Nonnegative int getMajorVersion() throws CloudException, InternalException {
-        AuthenticationContext ctx = getAuthenticationContext();
-        String endpoint = ctx.getComputeUrl();
-        
-        if( endpoint == null ) {
-            endpoint = ctx.getStorageUrl();
-            if( endpoint == null ) {
-                return 1;
-            }
-        }
-        while( endpoint.endsWith("/") && endpoint.length() > 1 ) {
-            endpoint = endpoint.substring(0,endpoint.length()-1);
-        }
-        String[] parts = endpoint.split("/");
-        int idx = parts.length-1;
-        
-        do {
-            endpoint = parts[idx];
-            while( !Character.isDigit(endpoint.charAt(0)) && endpoint.length() > 1 ) {
-                endpoint = endpoint.substring(1);
-            }
-            if( Character.isDigit(endpoint.charAt(0)) ) {
-                int i = endpoint.indexOf('.');
-                
-                try {
-                    if( i == -1 ) {
-                        return Integer.parseInt(endpoint);
-                    }
-                    String[] d = endpoint.split("\\.");
-
-                    return Integer.parseInt(d[0]);
-                }
-                catch( NumberFormatException ignore ) {
-                    // ignore
-                }
-            }
-        } while( (idx--) > 0 );
-        return 1;
+        return getAuthenticationContext().getComputeVersion().getMajor();
     }
     
     public @Nonnegative int getMinorVersion() throws CloudException, InternalException {
+        return getAuthenticationContext().getComputeVersion().getMinor();
+    }
+
+    /**
+     * Provides the compute API version negotiated with the cloud, including the microversion range from Nova's
+     * version document. The document is fetched once per authentication context; clouds that do not publish one
+     * are remembered as not supporting microversions.
+     * @return the compute API version for the current authentication context
+     * @throws CloudException an error occurred authenticating with the cloud
+     * @throws InternalException an error occurred within Dasein Cloud while authenticating
+     */
+    public @Nonnull NovaVersion getComputeVersion() throws CloudException, InternalException {
         AuthenticationContext ctx = getAuthenticationContext();
-        String endpoint = ctx.getComputeUrl();
-        
-        if( endpoint == null ) {
-            endpoint = ctx.getStorageUrl();
-            if( endpoint == null ) {
-                return 1;
-            }
-        }
-        while( endpoint.endsWith("/") && endpoint.length() > 1 ) {
-            endpoint = endpoint.substring(0,endpoint.length()-1);
-        }
-        String[] parts = endpoint.split("/");
-        int idx = parts.length-1;
-        
-        do {
-            endpoint = parts[idx];
-            while( !Character.isDigit(endpoint.charAt(0)) && endpoint.length() > 1 ) {
-                endpoint = endpoint.substring(1);
-            }
-            if( Character.isDigit(endpoint.charAt(0)) ) {
-                int i = endpoint.indexOf('.');
-                
-                try {
-                    if( i == -1 ) {
-                        return Integer.parseInt(endpoint);
-                    }
-                    String[] d = endpoint.split("\\.");
+        NovaVersion version = ctx.getComputeVersion();
 
-                    return Integer.parseInt(d[1]);
-                }
-                catch( NumberFormatException ignore ) {
-                    // ignore
+        if( !version.isDiscovered() ) {
+            synchronized( ctx ) {
+                version = ctx.getComputeVersion();
+                if( !version.isDiscovered() ) {
+                    version = new NovaMethod(this).discoverComputeVersion(ctx, version);
+                    ctx.setComputeVersion(version);
                 }
             }
-        } while( (idx--) > 0 );
-        return 1;
+        }
+        return version;
     }
 
     @Override
@@ -346,7 +505,7 @@ public class NovaOpenStack extends AbstractCloud {
     }
 
     public boolean isPostCactus() throws CloudException, InternalException {
-        return (getMajorVersion() > 1 || getMinorVersion() > 0);
+        return getAuthenticationContext().getComputeVersion().isPostCactus();
     }
     
     static public long parseTimestamp(String time) throws CloudException {
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The version of the compute API behind an authentication context. The major and minor versions come from the
+ * compute endpoint URL. The microversion range comes from the version document Nova publishes at the root of the
+ * versioned endpoint, once it has been discovered through {@link NovaOpenStack#getComputeVersion()}.
+ */
+public class NovaVersion {
+    /**
+     * Reads the API version from an endpoint URL, looking for the last path segment that starts with a number once
+     * any leading letters, such as the "v" in "v2.1", are dropped. A segment without a minor version yields the same
+     * number for both, and an endpoint without any version is treated as 1.1.
+     * @param endpoint the versioned endpoint URL
+     * @return the version of the endpoint
+     */
+    static public @Nonnull NovaVersion parse(@Nullable String endpoint) {
+        if( endpoint == null ) {
+            return new NovaVersion(1, 1, null);
+        }
+        while( endpoint.endsWith("/") && endpoint.length() > 1 ) {
+            endpoint = endpoint.substring(0,endpoint.length()-1);
+        }
+        String[] parts = endpoint.split("/");
+        int idx = parts.length-1;
+
+        do {
+            String part = parts[idx];
+
+            while( part.length() > 1 && !Character.isDigit(part.charAt(0)) ) {
+                part = part.substring(1);
+            }
+            if( part.length() > 0 && Character.isDigit(part.charAt(0)) ) {
+                StringBuilder root = new StringBuilder();
+
+                for( int i=0; i<=idx; i++ ) {
+                    if( i > 0 ) {
+                        root.append('/');
+                    }
+                    root.append(parts[i]);
+                }
+                try {
+                    int i = part.indexOf('.');
+
+                    if( i == -1 ) {
+                        int v = Integer.parseInt(part);
+
+                        return new NovaVersion(v, v, root.toString());
+                    }
+                    String[] d = part.split("\\.");
+
+                    return new NovaVersion(Integer.parseInt(d[0]), Integer.parseInt(d[1]), root.toString());
+                }
+                catch( NumberFormatException ignore ) {
+                    // ignore
+                }
+            }
+        } while( (idx--) > 0 );
+        return new NovaVersion(1, 1, null);
+    }
+
+    private final boolean discovered;
+    private final int     major;
+    private final String  maxMicroversion;
+    private final String  minMicroversion;
+    private final int     minor;
+    private final String  root;
+
+    private NovaVersion(int major, int minor, @Nullable String root) {
+        this(major, minor, root, false, null, null);
+    }
+
+    private NovaVersion(int major, int minor, @Nullable String root, boolean discovered, @Nullable String minMicroversion, @Nullable String maxMicroversion) {
+        this.major = major;
+        this.minor = minor;
+        this.root = root;
+        this.discovered = discovered;
+        this.minMicroversion = minMicroversion;
+        this.maxMicroversion = maxMicroversion;
+    }
+
+    /**
+     * @param minMicroversion the oldest microversion the cloud supports, if any
+     * @param maxMicroversion the newest microversion the cloud supports, if any
+     * @return this version completed with what the cloud's version document said about microversions
+     */
+    public @Nonnull NovaVersion withMicroversions(@Nullable String minMicroversion, @Nullable String maxMicroversion) {
+        return new NovaVersion(major, minor, root, true, minMicroversion, maxMicroversion);
+    }
+
+    public @Nonnegative int getMajor() {
+        return major;
+    }
+
+    public @Nonnegative int getMinor() {
+        return minor;
+    }
+
+    /**
+     * @return the newest microversion the cloud supports, which is what requests can ask for, or <code>null</code> if
+     * the cloud does not support microversions or they have not been discovered
+     */
+    public @Nullable String getMicroversion() {
+        return maxMicroversion;
+    }
+
+    /**
+     * @return the oldest microversion the cloud supports, if any
+     */
+    public @Nullable String getMinMicroversion() {
+        return minMicroversion;
+    }
+
+    /**
+     * @return the endpoint URL up to and including its version segment, where Nova publishes its version document
+     */
+    public @Nullable String getRoot() {
+        return root;
+    }
+
+    /**
+     * @return true if the cloud's version document has been consulted, successfully or not
+     */
+    public boolean isDiscovered() {
+        return discovered;
+    }
+
+    /**
+     * @return true for the original 1.0 API, which differs in how it represents images, flavors and addresses
+     */
+    public boolean isLegacy() {
+        return (major == 1 && minor == 0);
+    }
+
+    public boolean isPostCactus() {
+        return (major > 1 || minor > 0);
+    }
+
+    /**
+     * @param microversion a microversion such as 2.25
+     * @return true if the cloud supports the specified microversion
+     */
+    public boolean supportsMicroversion(@Nonnull String microversion) {
+        if( minMicroversion == null || maxMicroversion == null ) {
+            return false;
+        }
+        try {
+            return (compare(minMicroversion, microversion) <= 0 && compare(microversion, maxMicroversion) <= 0);
+        }
+        catch( NumberFormatException e ) {
+            return false;
+        }
+    }
+
+    static private int compare(@Nonnull String a, @Nonnull String b) {
+        String[] x = a.split("\\."), y = b.split("\\.");
+
+        for( int i=0; i<Math.max(x.length, y.length); i++ ) {
+            int m = (i < x.length ? Integer.parseInt(x[i].trim()) : 0);
+            int n = (i < y.length ? Integer.parseInt(y[i].trim()) : 0);
+
+            if( m != n ) {
+                return (m < n ? -1 : 1);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return major + "." + minor + (maxMicroversion == null ? "" : " (" + minMicroversion + "-" + maxMicroversion + ")");
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+
+/**
+ * Lets concurrent identical GET requests share a single HTTP request. Requests are identical when they are made
+ * with the same token, and thus the same scope, to the same URL. The first caller sends the request; callers
+ * arriving while it is in flight wait for it and receive the same response body, or the same error. Bodies are
+ * shared rather than parsed objects because callers are free to modify the JSON they get back.
+ * <p>
+ * A completed response can also be reused for a short window, so callers arriving just after it completed do not
+ * fetch it again. Errors are never reused.
+ * </p>
+ * <p>
+ * Coalescing is off unless enabled through the following custom properties of the provider context:
+ * </p>
+ * <ul>
+ *     <li>{@value #ENABLED} - <code>true</code> to coalesce identical GET requests</li>
+ *     <li>{@value #REUSE_WINDOW} - how many milliseconds a completed response is reused (default 0, which shares
+ *     only responses still in flight)</li>
+ * </ul>
+ */
+public class RequestCoalescer {
+    static private final Logger logger = NovaOpenStack.getLogger(RequestCoalescer.class, "std");
+
+    static public final String ENABLED      = "coalesceRequests";
+    static public final String REUSE_WINDOW = "coalesceReuseWindow";
+
+    /**
+     * How many completed responses are kept for reuse before expired ones are swept out.
+     */
+    static private final int SWEEP_THRESHOLD = 1000;
+
+    static private final ConcurrentHashMap<String,Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    static private final AtomicLong coalesced = new AtomicLong();
+    static private final AtomicLong requests  = new AtomicLong();
+    static private final AtomicLong reused    = new AtomicLong();
+
+    static private class Flight {
+        private volatile long                  completed = -1L;
+        private final FutureTask<String>       task;
+
+        private Flight(@Nonnull Callable<String> loader) {
+            task = new FutureTask<String>(loader);
+        }
+
+        private boolean isReusable(long now, long window) {
+            long c = completed;
+
+            return (c >= 0L && now - c <= window);
+        }
+    }
+
+    /**
+     * @param ctx the provider context holding the configuration, if any
+     * @return how many milliseconds completed responses are reused or -1 if requests are not coalesced at all
+     */
+    static public long getReuseWindow(@Nullable ProviderContext ctx) {
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+
+        if( p == null || !"true".equalsIgnoreCase(p.getProperty(ENABLED)) ) {
+            return -1L;
+        }
+        String value = p.getProperty(REUSE_WINDOW);
+
+        if( value != null ) {
+            try {
+                return Math.max(0L, Long.parseLong(value.trim()));
+            }
+            catch( NumberFormatException e ) {
+                logger.warn("Invalid value for " + REUSE_WINDOW + ": " + value);
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Provides the response body for a GET request, sharing the request with identical ones in flight or completed
+     * within the reuse window.
+     * @param authToken the token the request is made with
+     * @param url the URL requested
+     * @param window how many milliseconds a completed response may be reused
+     * @param loader sends the request; it runs in the calling thread if no identical request is in flight
+     * @return the response body, which may be <code>null</code> if the resource does not exist
+     * @throws CloudException the cloud rejected the request
+     * @throws InternalException an error occurred within Dasein Cloud while processing the request
+     */
+    static public @Nullable String get(@Nonnull String authToken, @Nonnull String url, @Nonnegative long window, @Nonnull Callable<String> loader) throws CloudException, InternalException {
+        String key = authToken + " " + url;
+
+        while( true ) {
+            Flight flight = flights.get(key);
+
+            if( flight != null ) {
+                if( flight.completed < 0L ) {
+                    coalesced.incrementAndGet();
+                    return await(flight.task);
+                }
+                if( flight.isReusable(System.currentTimeMillis(), window) ) {
+                    reused.incrementAndGet();
+                    return await(flight.task);
+                }
+                flights.remove(key, flight);
+                continue;
+            }
+            Flight mine = new Flight(loader);
+
+            if( flights.putIfAbsent(key, mine) != null ) {
+                continue;
+            }
+            boolean keep = false;
+
+            try {
+                requests.incrementAndGet();
+                mine.task.run();
+
+                String body = await(mine.task);
+
+                keep = (window > 0L);
+                return body;
+            }
+            finally {
+                mine.completed = System.currentTimeMillis();
+                if( !keep ) {
+                    flights.remove(key, mine);
+                }
+                else if( flights.size() > SWEEP_THRESHOLD ) {
+                    sweep(window);
+                }
+            }
+        }
+    }
+
+    static private void sweep(long window) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String,Flight>> it = flights.entrySet().iterator();
+
+        while( it.hasNext() ) {
+            Flight flight = it.next().getValue();
+
+            if( flight.completed >= 0L && !flight.isReusable(now, window) ) {
+                it.remove();
+            }
+        }
+    }
+
+    static private @Nullable String await(@Nonnull FutureTask<String> task) throws CloudException, InternalException {
+        try {
+            return task.get();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw ( CloudException )cause;
+            }
+            else if( cause instanceof InternalException ) {
+                throw ( InternalException )cause;
+            }
+            else if( cause instanceof RuntimeException ) {
+                throw ( RuntimeException )cause;
+            }
+            else if( cause instanceof Error ) {
+                throw ( Error )cause;
+            }
+            throw new InternalException(cause);
+        }
+    }
+
+    /**
+     * @return how many GET requests joined an identical request in flight, since the class was loaded
+     */
+    static public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return how many GET requests were actually sent through the coalescer
+     */
+    static public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return how many GET requests were answered with a response completed within the reuse window
+     */
+    static public long getReusedCount() {
+        return reused.get();
+    }
+}
@@ -0,0 +1,511 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.util.CalendarWrapper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Keeps requests to an endpoint under the rate limits the cloud publishes for it, so they are throttled on the
+ * client rather than rejected with 413 Over Limit or 429 Too Many Requests. Each endpoint has a token bucket per
+ * HTTP verb, seeded from the global (<code>*</code>) rate limits Nova lists under GET /limits, including how many
+ * requests the account has left. The limits are fetched again in the background every {@link #REFRESH_INTERVAL}
+ * while the endpoint is in use. Endpoints whose limits are unknown, such as those of services other than compute,
+ * are not limited.
+ * <p>
+ * The limiter is configured through the following custom properties of the provider context:
+ * </p>
+ * <ul>
+ *     <li>{@value #POLICY} - <code>block</code> to wait for the limit (the default), <code>failFast</code> to raise a
+ *     throttling error instead of waiting, or <code>none</code> to not limit requests at all</li>
+ *     <li>{@value #MAX_WAIT} - the most seconds a request blocks for the limit before failing (default 30)</li>
+ * </ul>
+ */
+public class RequestLimiter {
+    static private final Logger logger = NovaOpenStack.getLogger(RequestLimiter.class, "std");
+
+    static public final String POLICY   = "requestLimitPolicy";
+    static public final String MAX_WAIT = "requestLimitMaxWait";
+
+    /**
+     * How often the limits of an endpoint in use are fetched again.
+     */
+    static public final long REFRESH_INTERVAL = 5 * CalendarWrapper.MINUTE;
+
+    static private final long DEFAULT_MAX_WAIT = 30 * CalendarWrapper.SECOND;
+
+    /**
+     * What requests do when the limit of their endpoint has been reached.
+     */
+    static public enum Policy {
+        /**
+         * wait until the request fits the limit, up to the maximum wait
+         */
+        BLOCK,
+        /**
+         * fail with a throttling error right away
+         */
+        FAIL_FAST,
+        /**
+         * do not limit requests
+         */
+        NONE;
+
+        static public @Nonnull Policy parse(@Nullable String value) {
+            if( value != null ) {
+                String v = value.trim().replaceAll("[_-]", "").toLowerCase(Locale.ENGLISH);
+
+                if( v.equals("failfast") ) {
+                    return FAIL_FAST;
+                }
+                else if( v.equals("none") || v.equals("off") ) {
+                    return NONE;
+                }
+                else if( !v.equals("block") ) {
+                    logger.warn("Invalid value for " + POLICY + ": " + value);
+                }
+            }
+            return BLOCK;
+        }
+    }
+
+    static private final ConcurrentHashMap<String,RequestLimiter> limiters = new ConcurrentHashMap<String, RequestLimiter>();
+
+    static private final AtomicLong delayed  = new AtomicLong();
+    static private final AtomicLong rejected = new AtomicLong();
+    static private final AtomicLong waited   = new AtomicLong();
+
+    static private final ExecutorService refresher = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(@Nonnull Runnable r) {
+            Thread t = new Thread(r, "Nova Limits Refresh");
+
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static private @Nonnull String toKey(@Nonnull String endpoint) {
+        while( endpoint.endsWith("/") ) {
+            endpoint = endpoint.substring(0, endpoint.length() - 1);
+        }
+        return endpoint;
+    }
+
+    /**
+     * Finds the limiter for the endpoint a request goes to, matching the longest endpoint URL the request URL starts
+     * with. The lookup costs one map access per path segment of the request.
+     * @param uri the URI of the request
+     * @return the limiter of the endpoint or <code>null</code> if requests to it are not limited
+     */
+    static public @Nullable RequestLimiter find(@Nonnull URI uri) {
+        if( limiters.isEmpty() ) {
+            return null;
+        }
+        String base = uri.getScheme() + "://" + uri.getRawAuthority();
+        String path = uri.getRawPath();
+        String key = (path == null ? base : base + toKey(path));
+
+        while( true ) {
+            RequestLimiter limiter = limiters.get(key);
+
+            if( limiter != null ) {
+                return limiter;
+            }
+            int idx = key.lastIndexOf('/');
+
+            if( idx < base.length() ) {
+                return null;
+            }
+            key = key.substring(0, idx);
+        }
+    }
+
+    /**
+     * @param endpoint the URL of an endpoint
+     * @return the limiter for the endpoint, created without limits if there is none yet
+     */
+    static public @Nonnull RequestLimiter getInstance(@Nonnull String endpoint) {
+        String key = toKey(endpoint);
+        RequestLimiter limiter = limiters.get(key);
+
+        if( limiter == null ) {
+            limiter = new RequestLimiter(key);
+
+            RequestLimiter existing = limiters.putIfAbsent(key, limiter);
+
+            if( existing != null ) {
+                limiter = existing;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Fetches the limits of the compute endpoint of an authentication context in the background if they were never
+     * fetched or are due to be fetched again. Only one fetch per endpoint runs at any time and requests never wait
+     * for it.
+     * @param provider the provider making requests with the context, held for as long as the fetch runs
+     * @param context the authentication context whose compute endpoint is limited
+     */
+    static public void refresh(@Nonnull final NovaOpenStack provider, @Nonnull final AuthenticationContext context) {
+        String endpoint = context.getComputeUrl();
+
+        if( endpoint == null ) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        RequestLimiter current = limiters.get(toKey(endpoint));
+
+        if( current != null && now < current.nextRefresh ) {
+            return;
+        }
+        ProviderContext ctx = provider.getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        final Policy policy = Policy.parse(p == null ? null : p.getProperty(POLICY));
+
+        if( policy == Policy.NONE ) {
+            if( current != null ) {
+                limiters.remove(current.endpoint, current);
+            }
+            return;
+        }
+        final long maxWait = getMaxWait(p);
+        final RequestLimiter limiter = (current == null ? getInstance(endpoint) : current);
+
+        synchronized( limiter ) {
+            if( now < limiter.nextRefresh ) {
+                return;
+            }
+            limiter.nextRefresh = now + REFRESH_INTERVAL;
+        }
+        provider.hold();
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        JSONObject limits = new NovaMethod(provider).getLimits(context);
+
+                        if( limits != null ) {
+                            limiter.update(limits, policy, maxWait);
+                        }
+                    }
+                    catch( Throwable t ) {
+                        // keep whatever limits were known; they are fetched again at the next refresh
+                        logger.warn("Unable to fetch the limits of " + limiter.endpoint + ": " + t.getMessage());
+                    }
+                    finally {
+                        provider.release();
+                    }
+                }
+            });
+        }
+        catch( RejectedExecutionException e ) {
+            provider.release();
+        }
+    }
+
+    static private long getMaxWait(@Nullable Properties p) {
+        String value = (p == null ? null : p.getProperty(MAX_WAIT));
+
+        if( value != null ) {
+            try {
+                long l = Long.parseLong(value.trim());
+
+                if( l >= 0L ) {
+                    return l * CalendarWrapper.SECOND;
+                }
+            }
+            catch( NumberFormatException e ) {
+                logger.warn("Invalid value for " + MAX_WAIT + ": " + value);
+            }
+        }
+        return DEFAULT_MAX_WAIT;
+    }
+
+    static private long getUnit(@Nullable String unit) {
+        if( unit != null ) {
+            unit = unit.trim().toUpperCase(Locale.ENGLISH);
+            if( unit.equals("SECOND") ) {
+                return CalendarWrapper.SECOND;
+            }
+            else if( unit.equals("MINUTE") ) {
+                return CalendarWrapper.MINUTE;
+            }
+            else if( unit.equals("HOUR") ) {
+                return CalendarWrapper.HOUR;
+            }
+            else if( unit.equals("DAY") ) {
+                return CalendarWrapper.DAY;
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * @return how many requests have waited for a rate limit since the class was loaded
+     */
+    static public long getDelayedCount() {
+        return delayed.get();
+    }
+
+    /**
+     * @return how many requests failed because they would have exceeded a rate limit
+     */
+    static public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the total milliseconds requests have waited for rate limits
+     */
+    static public long getTotalWait() {
+        return waited.get();
+    }
+
+    /**
+     * Requests of one verb, allowed at a steady rate with bursts of up to the published number of requests.
+     */
+    static class TokenBucket {
+        private final double capacity;
+        private final double rate;
+        private double       tokens;
+        private long         updated;
+
+        /**
+         * @param value how many requests are allowed per unit
+         * @param unit the milliseconds in which the requests are allowed
+         * @param remaining how many requests are left right now
+         * @param now the current time
+         */
+        TokenBucket(@Nonnegative int value, @Nonnegative long unit, double remaining, long now) {
+            this.capacity = Math.max(1, value);
+            this.rate = capacity / unit;
+            this.tokens = Math.min(capacity, remaining);
+            this.updated = now;
+        }
+
+        double getRate() {
+            return rate;
+        }
+
+        /**
+         * Takes a token for a request, going into debt if the request has to wait so later requests queue behind it.
+         * @param now the current time
+         * @param maxWait the longest the request may wait
+         * @return how many milliseconds the request must wait before it is sent or -1 if it would have to wait
+         * longer than allowed, in which case no token was taken
+         */
+        synchronized long reserve(long now, long maxWait) {
+            if( now > updated ) {
+                tokens = Math.min(capacity, tokens + (now - updated) * rate);
+                updated = now;
+            }
+            if( tokens >= 1.0 ) {
+                tokens -= 1.0;
+                return 0L;
+            }
+            long wait = (long)Math.ceil((1.0 - tokens) / rate);
+
+            if( wait > maxWait ) {
+                return -1L;
+            }
+            tokens -= 1.0;
+            return wait;
+        }
+    }
+
+    private final String                           endpoint;
+    private volatile Map<String,Integer>           absoluteLimits = Collections.emptyMap();
+    private volatile Map<String,TokenBucket>       buckets        = Collections.emptyMap();
+    private volatile long                          maxWait        = DEFAULT_MAX_WAIT;
+    private volatile long                          nextRefresh;
+    private volatile Policy                        policy         = Policy.BLOCK;
+
+    RequestLimiter(@Nonnull String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Waits until a request fits the rate limit for its verb, as the configured policy allows.
+     * @param verb the HTTP verb of the request
+     * @throws CloudException the request would exceed the limit and may not wait for it
+     * @throws InternalException the thread was interrupted while waiting
+     */
+    public void acquire(@Nonnull String verb) throws CloudException, InternalException {
+        TokenBucket bucket = buckets.get(verb);
+
+        if( bucket == null ) {
+            return;
+        }
+        long wait = bucket.reserve(System.currentTimeMillis(), policy == Policy.FAIL_FAST ? 0L : maxWait);
+
+        if( wait < 0L ) {
+            rejected.incrementAndGet();
+            throw new CloudException(CloudErrorType.THROTTLING, NovaException.SC_TOO_MANY_REQUESTS, "RequestLimited", "Requests to " + endpoint + " would exceed the " + verb + " rate limit");
+        }
+        if( wait > 0L ) {
+            delayed.incrementAndGet();
+            waited.addAndGet(wait);
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Delaying " + verb + " to " + endpoint + " by " + wait + "ms for its rate limit");
+            }
+            try {
+                Thread.sleep(wait);
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+        }
+    }
+
+    /**
+     * @param name the name of an absolute limit, such as maxTotalInstances or totalInstancesUsed
+     * @return the value Nova last reported for the limit or <code>null</code> if it did not report it
+     */
+    public @Nullable Integer getAbsoluteLimit(@Nonnull String name) {
+        return absoluteLimits.get(name);
+    }
+
+    /**
+     * @return the absolute limits and usage Nova last reported for the account
+     */
+    public @Nonnull Map<String,Integer> getAbsoluteLimits() {
+        return absoluteLimits;
+    }
+
+    public @Nonnull String getEndpoint() {
+        return endpoint;
+    }
+
+    public @Nonnull Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param verb an HTTP verb
+     * @return the requests per second allowed for the verb or -1 if the verb is not limited
+     */
+    public double getRate(@Nonnull String verb) {
+        TokenBucket bucket = buckets.get(verb);
+
+        return (bucket == null ? -1.0 : bucket.getRate() * CalendarWrapper.SECOND);
+    }
+
+    /**
+     * Replaces the limits of the endpoint with those of a GET /limits response. Where several global limits apply to
+     * a verb, such as one per minute and one per hour, the one allowing the lowest steady rate is enforced.
+     * @param limits the response to GET /limits
+     * @param policy what requests do when they reach a limit
+     * @param maxWait the longest a request may wait for a limit when blocking
+     */
+    public void update(@Nonnull JSONObject limits, @Nonnull Policy policy, @Nonnegative long maxWait) {
+        JSONObject root = limits.optJSONObject("limits");
+
+        if( root == null ) {
+            root = limits;
+        }
+        long now = System.currentTimeMillis();
+        Map<String,TokenBucket> buckets = new HashMap<String, TokenBucket>();
+        JSONArray rates = root.optJSONArray("rate");
+
+        if( rates != null ) {
+            for( int i=0; i<rates.length(); i++ ) {
+                JSONObject rate = rates.optJSONObject(i);
+
+                // limits on specific resources, such as server creation per day, would throttle every other request
+                if( rate == null || !"*".equals(rate.optString("uri")) ) {
+                    continue;
+                }
+                JSONArray list = rate.optJSONArray("limit");
+
+                for( int j=0; list != null && j<list.length(); j++ ) {
+                    JSONObject limit = list.optJSONObject(j);
+                    String verb = (limit == null ? null : limit.optString("verb", null));
+                    long unit = (limit == null ? -1L : getUnit(limit.optString("unit", null)));
+                    int value = (limit == null ? 0 : limit.optInt("value", 0));
+
+                    if( verb == null || unit < 1L || value < 1 ) {
+                        continue;
+                    }
+                    verb = verb.toUpperCase(Locale.ENGLISH);
+                    TokenBucket bucket = new TokenBucket(value, unit, limit.optInt("remaining", value), now);
+                    TokenBucket other = buckets.get(verb);
+
+                    if( other == null || bucket.getRate() < other.getRate() ) {
+                        buckets.put(verb, bucket);
+                    }
+                }
+            }
+        }
+        Map<String,Integer> absolute = new HashMap<String, Integer>();
+        JSONObject abs = root.optJSONObject("absolute");
+
+        if( abs != null ) {
+            Iterator<?> names = abs.keys();
+
+            while( names.hasNext() ) {
+                String name = String.valueOf(names.next());
+
+                if( !abs.isNull(name) ) {
+                    absolute.put(name, abs.optInt(name));
+                }
+            }
+        }
+        this.policy = policy;
+        this.maxWait = maxWait;
+        this.absoluteLimits = Collections.unmodifiableMap(absolute);
+        this.buckets = buckets;
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Rate limits for " + endpoint + ": " + buckets.keySet());
+        }
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return endpoint + " " + buckets.keySet();
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.dasein.cloud.ProviderContext;
+
+/**
+ * Remembers the bodies of GET responses that came with validators (an ETag or a Last-Modified date) so the next
+ * GET of the same resource can be made conditional. If the cloud answers 304 Not Modified, the remembered body is
+ * used rather than downloading it again, which turns repeated polls of large listings such as flavors, images or
+ * container contents into a header-only exchange.
+ * <p>
+ * Only the download is saved. The remembered body is handed back as a string and callers parse it again just as
+ * they would a fresh one. Only the string GETs of {@link AbstractMethod#getString(String, String, String)} use the
+ * cache; listings streamed through <code>getList</code> and downloads through <code>getStream</code> always fetch
+ * the full body, since caching them would mean buffering what they stream.
+ * </p>
+ * <p>
+ * Responses are cached per identity, meaning the endpoint, account, region and user a provider authenticates as,
+ * not per token, so they survive re-authentication while users with different roles never see each other's
+ * responses. The cache is shared by all providers and holds at most {@link #MAX_SIZE} characters of response bodies, evicting the least
+ * recently used ones first. Bodies over {@link #MAX_ENTRY_SIZE} characters are never cached.
+ * </p>
+ * <p>
+ * The cache is used unless the {@value #ENABLED} custom property of the provider context is <code>false</code>.
+ * </p>
+ */
+public class ResponseCache {
+    static public final String ENABLED = "responseCache";
+
+    static public final long MAX_SIZE       = 8 * 1024 * 1024;
+    static public final long MAX_ENTRY_SIZE = MAX_SIZE / 4;
+
+    static private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    static private long size;
+
+    static private final AtomicLong evictions = new AtomicLong();
+    static private final AtomicLong hits      = new AtomicLong();
+    static private final AtomicLong savedSize = new AtomicLong();
+
+    static class Entry {
+        final String body;
+        final String etag;
+        final String lastModified;
+
+        Entry(@Nonnull String body, @Nullable String etag, @Nullable String lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * @param ctx the provider context making the request, if any
+     * @param identity the credentials, endpoint, account and region the context authenticates with
+     * @param url the URL of the resource
+     * @return the key the resource is cached under for the context or <code>null</code> if the context does not
+     * use the cache
+     */
+    static public @Nullable String getKey(@Nullable ProviderContext ctx, @Nonnull String identity, @Nonnull String url) {
+        if( ctx == null ) {
+            return null;
+        }
+        Properties p = ctx.getCustomProperties();
+
+        if( p != null && "false".equalsIgnoreCase(p.getProperty(ENABLED)) ) {
+            return null;
+        }
+        return identity + "|" + url;
+    }
+
+    static synchronized @Nullable Entry get(@Nonnull String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Makes a request conditional on the cached response for it, if there is one.
+     * @param key the cache key of the resource
+     * @param request the GET request for the resource
+     * @return the cached response the request was made conditional on or <code>null</code> if none is cached
+     */
+    static @Nullable Entry addValidators(@Nonnull String key, @Nonnull HttpRequest request) {
+        Entry entry = get(key);
+
+        if( entry != null ) {
+            if( entry.etag != null ) {
+                request.addHeader("If-None-Match", entry.etag);
+            }
+            if( entry.lastModified != null ) {
+                request.addHeader("If-Modified-Since", entry.lastModified);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Records that the cloud confirmed a cached response is still current.
+     * @param entry the cached response
+     * @return the body of the cached response
+     */
+    static @Nonnull String hit(@Nonnull Entry entry) {
+        hits.incrementAndGet();
+        savedSize.addAndGet(entry.body.length());
+        return entry.body;
+    }
+
+    /**
+     * Caches a successful response if it carries validators, or forgets any cached response for the resource if
+     * it does not.
+     * @param key the cache key of the resource
+     * @param response the response to the GET request
+     * @param body the body of the response
+     */
+    static void put(@Nonnull String key, @Nonnull HttpResponse response, @Nullable String body) {
+        Header etag = response.getFirstHeader("ETag");
+        Header lastModified = response.getFirstHeader("Last-Modified");
+
+        if( body == null || (etag == null && lastModified == null) || body.length() > MAX_ENTRY_SIZE ) {
+            remove(key);
+            return;
+        }
+        put(key, new Entry(body, etag == null ? null : etag.getValue(), lastModified == null ? null : lastModified.getValue()));
+    }
+
+    static synchronized void put(@Nonnull String key, @Nonnull Entry entry) {
+        Entry old = entries.put(key, entry);
+
+        if( old != null ) {
+            size -= old.body.length();
+        }
+        size += entry.body.length();
+        Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator();
+
+        while( size > MAX_SIZE && it.hasNext() ) {
+            Entry eldest = it.next().getValue();
+
+            it.remove();
+            size -= eldest.body.length();
+            evictions.incrementAndGet();
+        }
+    }
+
+    static synchronized void remove(@Nonnull String key) {
+        Entry old = entries.remove(key);
+
+        if( old != null ) {
+            size -= old.body.length();
+        }
+    }
+
+    /**
+     * Drops every cached response.
+     */
+    static public synchronized void clear() {
+        entries.clear();
+        size = 0L;
+    }
+
+    /**
+     * @return how many cached responses were dropped to make room for others, since the class was loaded
+     */
+    static public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return how many GET requests were answered 304 Not Modified and served from the cache
+     */
+    static public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the total characters of response bodies that did not have to be downloaded again
+     */
+    static public long getSavedSize() {
+        return savedSize.get();
+    }
+
+    /**
+     * @return the total characters of response bodies currently cached
+     */
+    static public synchronized long getSize() {
+        return size;
+    }
+}
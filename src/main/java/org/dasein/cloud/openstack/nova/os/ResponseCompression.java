@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.dasein.cloud.ProviderContext;
+
+/**
+ * Negotiates compressed responses for JSON API calls. Requests that accept compression announce gzip and deflate
+ * support, and compressed responses to them are decompressed as they are read, so streamed listings are never
+ * held compressed or decompressed in full. Responses to requests that did not ask for compression are left alone,
+ * which keeps Swift objects stored with their own <code>Content-Encoding</code> byte for byte intact.
+ * <p>
+ * Compression is negotiated unless the {@value #ENABLED} custom property of the provider context is
+ * <code>false</code>.
+ * </p>
+ */
+public class ResponseCompression {
+    static public final String ENABLED = "compressResponses";
+
+    static private final String ACCEPT_ENCODING = "gzip, deflate";
+
+    static private final AtomicLong compressedCount  = new AtomicLong();
+    static private final AtomicLong compressedSize   = new AtomicLong();
+    static private final AtomicLong decompressedSize = new AtomicLong();
+
+    /**
+     * Decompresses an entity as it is read, counting the bytes read off the wire and the bytes they decompress to.
+     */
+    static private class DecompressingEntity extends HttpEntityWrapper {
+        private InputStream   content;
+        private final boolean gzip;
+
+        private DecompressingEntity(@Nonnull HttpEntity entity, boolean gzip) {
+            super(entity);
+            this.gzip = gzip;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if( content == null || !wrappedEntity.isStreaming() ) {
+                InputStream input = new CountingEntity.CountingInputStream(wrappedEntity.getContent(), compressedSize);
+
+                content = new CountingEntity.CountingInputStream(gzip ? new GZIPInputStream(input) : inflate(input), decompressedSize);
+            }
+            return content;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1L;
+        }
+
+        @Override
+        public void writeTo(OutputStream output) throws IOException {
+            InputStream input = getContent();
+
+            try {
+                byte[] buffer = new byte[4096];
+                int count;
+
+                while( (count = input.read(buffer)) != -1 ) {
+                    output.write(buffer, 0, count);
+                }
+            }
+            finally {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Inflates a deflate encoded body. The encoding is meant to be zlib wrapped, but some servers send raw deflate
+     * data, so the zlib header is checked for.
+     * @param input the compressed body
+     * @return the decompressed body
+     * @throws IOException the body could not be read
+     */
+    static private @Nonnull InputStream inflate(@Nonnull InputStream input) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(input, 2);
+        byte[] header = new byte[2];
+        int count = 0;
+
+        while( count < header.length ) {
+            int n = pushback.read(header, count, header.length - count);
+
+            if( n < 0 ) {
+                break;
+            }
+            count += n;
+        }
+        if( count > 0 ) {
+            pushback.unread(header, 0, count);
+        }
+        int cmf = header[0] & 0xff, flg = header[1] & 0xff;
+        boolean zlib = (count == 2 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0);
+
+        return new InflaterInputStream(pushback, new Inflater(!zlib));
+    }
+
+    /**
+     * @param ctx the provider context making the request, if any
+     * @return true if requests for the context should ask for compressed responses
+     */
+    static public boolean isEnabled(@Nullable ProviderContext ctx) {
+        if( ctx == null ) {
+            return false;
+        }
+        Properties p = ctx.getCustomProperties();
+
+        return (p == null || !"false".equalsIgnoreCase(p.getProperty(ENABLED)));
+    }
+
+    /**
+     * Asks for a compressed response to a request if compression is enabled for the context.
+     * @param ctx the provider context making the request, if any
+     * @param request the request expecting a JSON response
+     */
+    static void accept(@Nullable ProviderContext ctx, @Nonnull HttpRequest request) {
+        if( isEnabled(ctx) && !request.containsHeader("Accept-Encoding") ) {
+            request.addHeader("Accept-Encoding", ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * Replaces the entity of a compressed response with one decompressing it as it is read, provided the request
+     * asked for compression.
+     * @param request the request the response answers
+     * @param response the response to decode
+     */
+    static void decode(@Nonnull HttpRequest request, @Nonnull HttpResponse response) {
+        if( !request.containsHeader("Accept-Encoding") ) {
+            return;
+        }
+        HttpEntity entity = response.getEntity();
+
+        if( entity == null ) {
+            return;
+        }
+        Header encoding = entity.getContentEncoding();
+
+        if( encoding == null ) {
+            return;
+        }
+        String value = encoding.getValue().trim().toLowerCase();
+
+        if( value.equals("gzip") || value.equals("x-gzip") ) {
+            response.setEntity(new DecompressingEntity(entity, true));
+        }
+        else if( value.equals("deflate") ) {
+            response.setEntity(new DecompressingEntity(entity, false));
+        }
+        else {
+            return;
+        }
+        compressedCount.incrementAndGet();
+        response.removeHeaders("Content-Encoding");
+        response.removeHeaders("Content-Length");
+        response.removeHeaders("Content-MD5");
+    }
+
+    /**
+     * @return how many compressed responses were received, since the class was loaded
+     */
+    static public long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    /**
+     * @return the total bytes of compressed responses read off the wire
+     */
+    static public long getCompressedSize() {
+        return compressedSize.get();
+    }
+
+    /**
+     * @return the total bytes the compressed responses decompressed to
+     */
+    static public long getDecompressedSize() {
+        return decompressedSize.get();
+    }
+
+    /**
+     * @return the total bytes that did not have to be transferred thanks to compression
+     */
+    static public long getSavedSize() {
+        return Math.max(0L, decompressedSize.get() - compressedSize.get());
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.util.CalendarWrapper;
+
+/**
+ * Decides whether and when a rate limited request is tried again. Delays grow exponentially from
+ * {@link #BASE_DELAY} with random jitter so clients throttled together do not come back together. When the cloud
+ * says how long to wait, through a Retry-After header or the retryAfter of an overLimit body, that wait is honored
+ * plus a little jitter. A request is given up on once its retries would exceed the maximum number of retries or the
+ * maximum total delay.
+ * <p>
+ * The policy is configured through the following custom properties of the provider context:
+ * </p>
+ * <ul>
+ *     <li>{@value #MAX_RETRIES} - how many times a rate limited request is retried (default 5)</li>
+ *     <li>{@value #MAX_TOTAL_DELAY} - the most seconds spent waiting to retry a single request (default 60)</li>
+ * </ul>
+ */
+public class RetryPolicy {
+    static private final Logger logger = NovaOpenStack.getLogger(RetryPolicy.class, "std");
+
+    static public final String MAX_RETRIES     = "rateLimitMaxRetries";
+    static public final String MAX_TOTAL_DELAY = "rateLimitMaxDelay";
+
+    static public final long BASE_DELAY = CalendarWrapper.SECOND;
+    static public final long MAX_DELAY  = 30 * CalendarWrapper.SECOND;
+
+    static private final int  DEFAULT_MAX_RETRIES     = 5;
+    static private final long DEFAULT_MAX_TOTAL_DELAY = CalendarWrapper.MINUTE;
+
+    static private final Random random = new Random();
+
+    static private final AtomicLong delayed   = new AtomicLong();
+    static private final AtomicLong exhausted = new AtomicLong();
+    static private final AtomicLong retries   = new AtomicLong();
+
+    /**
+     * @param ctx the provider context holding the configuration, if any
+     * @return the retry policy configured for the context
+     */
+    static public @Nonnull RetryPolicy getInstance(@Nullable ProviderContext ctx) {
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+
+        return new RetryPolicy(getLong(p, MAX_RETRIES, DEFAULT_MAX_RETRIES), getLong(p, MAX_TOTAL_DELAY, DEFAULT_MAX_TOTAL_DELAY / CalendarWrapper.SECOND) * CalendarWrapper.SECOND);
+    }
+
+    static private long getLong(@Nullable Properties p, @Nonnull String name, long def) {
+        String value = (p == null ? null : p.getProperty(name));
+
+        if( value != null ) {
+            try {
+                long l = Long.parseLong(value.trim());
+
+                if( l >= 0L ) {
+                    return l;
+                }
+            }
+            catch( NumberFormatException e ) {
+                logger.warn("Invalid value for " + name + ": " + value);
+            }
+        }
+        return def;
+    }
+
+    /**
+     * @return how many rate limited requests have been retried since the class was loaded
+     */
+    static public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * @return the total milliseconds requests have been delayed before being retried
+     */
+    static public long getTotalDelay() {
+        return delayed.get();
+    }
+
+    /**
+     * @return how many rate limited requests were given up on
+     */
+    static public long getExhaustedCount() {
+        return exhausted.get();
+    }
+
+    private final long maxRetries;
+    private final long maxTotalDelay;
+
+    public RetryPolicy(@Nonnegative long maxRetries, @Nonnegative long maxTotalDelay) {
+        this.maxRetries = maxRetries;
+        this.maxTotalDelay = maxTotalDelay;
+    }
+
+    /**
+     * @param attempt how many times the request has been retried already
+     * @param retryAfter milliseconds the cloud asked to wait, or -1 if it did not say
+     * @return how many milliseconds to wait before the next attempt
+     */
+    public long getDelay(@Nonnegative int attempt, long retryAfter) {
+        long backoff = MAX_DELAY;
+
+        if( attempt < 30 ) {
+            backoff = Math.min(MAX_DELAY, BASE_DELAY << attempt);
+        }
+        if( retryAfter >= 0L ) {
+            // everyone told to come back at the same time would otherwise do exactly that
+            return retryAfter + (long)(random.nextDouble() * BASE_DELAY);
+        }
+        // half fixed, half random, so retries neither come back together nor immediately
+        return backoff / 2 + (long)(random.nextDouble() * (backoff / 2));
+    }
+
+    /**
+     * Decides whether a failed request should be tried again.
+     * @param failure the failure of the last attempt
+     * @param attempt how many times the request has been retried already
+     * @param waited how many milliseconds have been spent waiting to retry the request so far
+     * @return the milliseconds to wait before trying again or -1 if the request should fail with the failure
+     */
+    public long getNextDelay(@Nonnull Throwable failure, @Nonnegative int attempt, @Nonnegative long waited) {
+        if( !(failure instanceof NovaException) || !((NovaException)failure).isRateLimited() ) {
+            return -1L;
+        }
+        long delay = getDelay(attempt, ((NovaException)failure).getRetryAfter());
+
+        if( attempt >= maxRetries || waited + delay > maxTotalDelay ) {
+            exhausted.incrementAndGet();
+            return -1L;
+        }
+        retries.incrementAndGet();
+        delayed.addAndGet(delay);
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Rate limited (" + ((NovaException)failure).getHttpCode() + "), retrying in " + delay + "ms");
+        }
+        return delay;
+    }
+
+    /**
+     * Waits before retrying a request in the calling thread.
+     * @param delay the milliseconds to wait, as returned by {@link #getNextDelay(Throwable, int, long)}
+     * @throws InternalException the thread was interrupted while waiting
+     */
+    public void sleep(long delay) throws InternalException {
+        try {
+            Thread.sleep(delay);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Runs a task in the calling thread, retrying it according to this policy.
+     * @param task the task to run
+     * @param <T> the result of the task
+     * @return the result of the task
+     * @throws CloudException the task failed with an error from the cloud, after any retries
+     * @throws InternalException the task failed within Dasein Cloud
+     */
+    public <T> T execute(@Nonnull Callable<T> task) throws CloudException, InternalException {
+        long waited = 0L;
+
+        for( int attempt=0; ; attempt++ ) {
+            try {
+                return task.call();
+            }
+            catch( CloudException e ) {
+                long delay = getNextDelay(e, attempt, waited);
+
+                if( delay < 0L ) {
+                    throw e;
+                }
+                sleep(delay);
+                waited += delay;
+            }
+            catch( InternalException e ) {
+                throw e;
+            }
+            catch( RuntimeException e ) {
+                throw e;
+            }
+            catch( Exception e ) {
+                throw new InternalException(e);
+            }
+        }
+    }
+}
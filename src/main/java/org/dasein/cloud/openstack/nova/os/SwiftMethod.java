@@ -25,15 +25,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.http.HttpStatus;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.Tag;
-import org.dasein.cloud.util.Cache;
-import org.dasein.cloud.util.CacheLevel;
-import org.dasein.util.uom.time.Day;
-import org.dasein.util.uom.time.TimePeriod;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -42,226 +37,158 @@ public class SwiftMethod extends AbstractMethod {
 	static private final Logger logger = NovaOpenStack.getLogger(SwiftMethod.class, "std");
     public SwiftMethod(NovaOpenStack provider) { super(provider); }
         
-    public void delete(@Nonnull String bucket) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getStorageUrl();
-        
-        if( endpoint == null ) {
-            throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
-        }
-        try {
-            delete(context.getAuthToken(), endpoint, "/" + bucket);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                delete(bucket);
-            }
-            else {
-                throw ex;
+    public void delete(@Nonnull final String bucket) throws CloudException, InternalException {
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getStorageUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
+                }
+                delete(context.getAuthToken(), endpoint, "/" + bucket);
+                return null;
             }
-        }
+        });
     }
     
-    public void delete(@Nonnull String bucket, @Nonnull String object) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-
-        String endpoint = context.getStorageUrl();
-
-        if( endpoint == null ) {
-            throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
-        }
-        try {
-            delete(context.getAuthToken(), endpoint, "/" + bucket + "/" + object);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                delete(bucket, object);
-            }
-            else {
-                throw ex;
+    public void delete(@Nonnull final String bucket, @Nonnull final String object) throws CloudException, InternalException {
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getStorageUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
+                }
+                delete(context.getAuthToken(), endpoint, "/" + bucket + "/" + object);
+                return null;
             }
-        }
+        });
     }
     
-    public @Nonnull List<String> get(@Nullable String bucket) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getStorageUrl();
-
-        if( endpoint == null ) {
-            throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
-        }
-        try {
-            String response = getString(context.getAuthToken(), endpoint, bucket == null ? "/" : "/" + bucket);
+    public @Nonnull List<String> get(@Nullable final String bucket) throws CloudException, InternalException {
+        return authenticated(new AuthenticatedCall<List<String>>() {
+            @Override
+            public List<String> call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getStorageUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
+                }
+                String response = getString(context.getAuthToken(), endpoint, bucket == null ? "/" : "/" + bucket);
 
-            ArrayList<String> entries = new ArrayList<String>();
+                ArrayList<String> entries = new ArrayList<String>();
 
-            if( response != null ) {
-                response = response.trim();
-                if( response.length() > 0 ) {
-                    String[] lines = response.split("\n");
+                if( response != null ) {
+                    response = response.trim();
+                    if( response.length() > 0 ) {
+                        String[] lines = response.split("\n");
 
-                    if( lines.length < 1 ) {
-                        entries.add(response);
-                    }
-                    else {
-                        for( String line : lines ) {
-                            entries.add(line.trim());
+                        if( lines.length < 1 ) {
+                            entries.add(response);
+                        }
+                        else {
+                            for( String line : lines ) {
+                                entries.add(line.trim());
+                            }
                         }
-                    }
 
+                    }
                 }
+                return entries;
             }
-            return entries;
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return get(bucket);
-            }
-            else {
-                throw ex;
-            }
-        }
+        });
     }
 
-    public @Nullable InputStream get(@Nonnull String bucket, @Nonnull String object) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getStorageUrl();
+    public @Nullable InputStream get(@Nonnull final String bucket, @Nonnull final String object) throws CloudException, InternalException {
+        return authenticated(new AuthenticatedCall<InputStream>() {
+            @Override
+            public InputStream call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getStorageUrl();
 
-        if( endpoint == null ) {
-            throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
-        }
-        try {
-            return getStream(context.getAuthToken(), endpoint, "/" + bucket + "/" + object);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return get(bucket, object);
-            }
-            else {
-                throw ex;
+                if( endpoint == null ) {
+                    throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
+                }
+                return getStream(context.getAuthToken(), endpoint, "/" + bucket + "/" + object);
             }
-        }
+        });
     }
     
     @SuppressWarnings("unused")
-    public @Nullable Map<String,String> head(@Nonnull String bucket) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getStorageUrl();
-
-        if( endpoint == null ) {
-            throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
-        }
-        try {
-            return head(context.getAuthToken(), endpoint, "/" + bucket);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return head(bucket);
-            }
-            else {
-                throw ex;
+    public @Nullable Map<String,String> head(@Nonnull final String bucket) throws CloudException, InternalException {
+        return authenticated(new AuthenticatedCall<Map<String,String>>() {
+            @Override
+            public Map<String,String> call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getStorageUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
+                }
+                return head(context.getAuthToken(), endpoint, "/" + bucket);
             }
-        }
+        });
     }
     
-    public @Nullable Map<String,String> head(@Nonnull String bucket, @Nonnull String object) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getStorageUrl();
-
-        if( endpoint == null ) {
-            throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
-        }
-        try {
-            return head(context.getAuthToken(), endpoint, "/" + bucket + "/" + object);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                return head(bucket, object);
-            }
-            else {
-                throw ex;
+    public @Nullable Map<String,String> head(@Nonnull final String bucket, @Nonnull final String object) throws CloudException, InternalException {
+        return authenticated(new AuthenticatedCall<Map<String,String>>() {
+            @Override
+            public Map<String,String> call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getStorageUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
+                }
+                return head(context.getAuthToken(), endpoint, "/" + bucket + "/" + object);
             }
-        }
+        });
     }
     
-    public void put(@Nonnull String bucket) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getStorageUrl();
-
-        if( endpoint == null ) {
-            throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
-        }
-        try {
-            putString(context.getAuthToken(), endpoint, "/" + bucket, null);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                put(bucket);
-            }
-            else {
-                throw ex;
+    public void put(@Nonnull final String bucket) throws CloudException, InternalException {
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getStorageUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
+                }
+                putString(context.getAuthToken(), endpoint, "/" + bucket, null);
+                return null;
             }
-        }
+        });
     }
     
-    public void put(@Nonnull String bucket, @Nonnull String object, @Nullable String md5Hash, @Nonnull InputStream payload) throws CloudException, InternalException {
-        AuthenticationContext context = provider.getAuthenticationContext();
-        String endpoint = context.getStorageUrl();
-
-        if( endpoint == null ) {
-            throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
-        }
-        try {
-            putStream(context.getAuthToken(), endpoint, "/" + bucket + "/" + object, md5Hash, payload);
-        }
-        catch (NovaException ex) {
-            if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-                Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-                cache.clear();
-                put(bucket, object, md5Hash, payload);
-            }
-            else {
-                throw ex;
+    public void put(@Nonnull final String bucket, @Nonnull final String object, @Nullable final String md5Hash, @Nonnull final InputStream payload) throws CloudException, InternalException {
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getStorageUrl();
+
+                if( endpoint == null ) {
+                    throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
+                }
+                putStream(context.getAuthToken(), endpoint, "/" + bucket + "/" + object, md5Hash, payload);
+                return null;
             }
-        }
+        }, false);
     }
     
-    public void put(@Nonnull String bucket, @Nonnull String prefix, @Nonnull Tag ... tags) throws CloudException, InternalException {
-    	AuthenticationContext context = provider.getAuthenticationContext();
-    	String endpoint = context.getStorageUrl();
-    	if( endpoint == null ) {
-    		throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
-    	}
-    	try {
-    		HashMap<String,String> customHeaders = new HashMap<String,String>();
-    		for (int i = 0; i < tags.length ; i++ ) {
-    			customHeaders.put(prefix + tags[i].getKey(), tags[i].getValue() != null ? tags[i].getValue() : "");
-    		}
-    		putHeaders(context.getAuthToken(), endpoint, "/" + bucket, customHeaders);
-    	}
-    	catch (NovaException ex) {
-    		if (ex.getHttpCode() == HttpStatus.SC_UNAUTHORIZED) {
-    			Cache<AuthenticationContext> cache = Cache.getInstance(provider, "authenticationContext", AuthenticationContext.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-    			cache.clear();
-    			put(bucket, prefix, tags);
-    		}
-    		else {
-    			logger.error("Error while updating the tags for bucket - " + bucket + ": " + ex.getMessage());
-    		}
-    	}
+    public void put(@Nonnull final String bucket, @Nonnull final String prefix, @Nonnull final Tag ... tags) throws CloudException, InternalException {
+        authenticated(new AuthenticatedCall<Void>() {
+            @Override
+            public Void call(@Nonnull AuthenticationContext context) throws CloudException, InternalException {
+                String endpoint = context.getStorageUrl();
+                if( endpoint == null ) {
+                    throw new CloudException("No storage endpoint exists for " + context.getMyRegion());
+                }
+                HashMap<String,String> customHeaders = new HashMap<String,String>();
+                for (int i = 0; i < tags.length ; i++ ) {
+                    customHeaders.put(prefix + tags[i].getKey(), tags[i].getValue() != null ? tags[i].getValue() : "");
+                }
+                putHeaders(context.getAuthToken(), endpoint, "/" + bucket, customHeaders);
+                return null;
+            }
+        });
     }
 }
@@ -36,6 +36,7 @@ import org.dasein.cloud.compute.VolumeFormat;
 import org.dasein.cloud.compute.VolumeProduct;
 import org.dasein.cloud.compute.VolumeState;
 import org.dasein.cloud.compute.VolumeType;
+import org.dasein.cloud.openstack.nova.os.JSONListParser;
 import org.dasein.cloud.openstack.nova.os.NovaMethod;
 import org.dasein.cloud.openstack.nova.os.NovaOpenStack;
 import org.dasein.cloud.openstack.nova.os.OpenStackProvider;
@@ -54,6 +55,7 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -402,30 +404,17 @@ public class CinderVolume extends AbstractVolumeSupport {
     public @Nonnull Iterable<Volume> listVolumes() throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Volume.listVolumes");
         try {
-            Iterable<VolumeProduct> products = listVolumeProducts();
+            final Iterable<VolumeProduct> products = listVolumeProducts();
             NovaMethod method = new NovaMethod(((NovaOpenStack)getProvider()));
-            ArrayList<Volume> volumes = new ArrayList<Volume>();
-
-            JSONObject json = method.getResource(SERVICE, getResource(), null, false);
-
-            if( json != null && json.has("volumes") ) {
-                try {
-                    JSONArray list = json.getJSONArray("volumes");
-
-                    for( int i=0; i<list.length(); i++ ) {
-                        JSONObject v = list.getJSONObject(i);
-                        Volume volume = toVolume(v, products);
-
-                        if( volume != null ) {
-                            volumes.add(volume);
-                        }
-                    }
-                }
-                catch( JSONException e ) {
-                    logger.error("listVolumes(): Unable to identify expected values in JSON: " + e.getMessage());
-                    e.printStackTrace();
-                    throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", "Missing JSON element for volumes in " + json.toString());
+            List<Volume> volumes = method.getResourceList(SERVICE, getResource(), false, "volumes", new JSONListParser.ItemConverter<Volume>() {
+                @Override
+                public Volume convert(@Nonnull JSONObject v) throws CloudException, InternalException {
+                    return toVolume(v, products);
                 }
+            });
+
+            if( volumes == null ) {
+                return Collections.emptyList();
             }
             return volumes;
         }
@@ -539,7 +528,7 @@ public class CinderVolume extends AbstractVolumeSupport {
         }
     }
 
-    private @Nullable Volume toVolume(@Nullable JSONObject json, @Nonnull Iterable<VolumeProduct> types) throws CloudException, InternalException {
+    @Nullable Volume toVolume(@Nullable JSONObject json, @Nonnull Iterable<VolumeProduct> types) throws CloudException, InternalException {
         if( json == null ) {
             return null;
         }
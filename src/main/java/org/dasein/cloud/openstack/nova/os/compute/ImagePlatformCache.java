@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os.compute;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.openstack.nova.os.NovaOpenStack;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.CalendarWrapper;
+import org.dasein.util.uom.time.Day;
+import org.dasein.util.uom.time.TimePeriod;
+
+/**
+ * Bounded, expiring map of machine image IDs to the platform of the image, shared by all compute services
+ * operating against the same region and account. It spares virtual machine conversions from looking up the same
+ * image over and over again. Images that no longer exist are remembered for a shorter time so servers launched from
+ * deleted images do not trigger a lookup each time they are listed.
+ */
+public class ImagePlatformCache {
+    static public final int  MAX_ENTRIES  = 1000;
+    static public final long TTL          = CalendarWrapper.HOUR;
+    static public final long NEGATIVE_TTL = 5 * CalendarWrapper.MINUTE;
+
+    /**
+     * Provides the image platform cache for the region and account of the specified provider.
+     * @param provider the provider for which the cache is needed
+     * @return the shared cache for the provider's region and account
+     */
+    static public @Nonnull ImagePlatformCache getInstance(@Nonnull NovaOpenStack provider) {
+        ProviderContext ctx = provider.getContext();
+
+        if( ctx == null ) {
+            return new ImagePlatformCache();
+        }
+        Cache<ImagePlatformCache> cache = Cache.getInstance(provider, "imagePlatforms", ImagePlatformCache.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
+        Iterable<ImagePlatformCache> instances = cache.get(ctx);
+
+        if( instances != null ) {
+            for( ImagePlatformCache instance : instances ) {
+                return instance;
+            }
+        }
+        ImagePlatformCache instance = new ImagePlatformCache();
+
+        cache.put(ctx, Collections.singletonList(instance));
+        return instance;
+    }
+
+    static private class Entry {
+        public final long     expires;
+        public final Platform platform;
+
+        public Entry(@Nullable Platform platform, long expires) {
+            this.platform = platform;
+            this.expires = expires;
+        }
+    }
+
+    private final LinkedHashMap<String,Entry> entries;
+    private final long                        negativeTtl;
+    private final long                        ttl;
+
+    public ImagePlatformCache() {
+        this(MAX_ENTRIES, TTL, NEGATIVE_TTL);
+    }
+
+    ImagePlatformCache(@Nonnegative final int maxEntries, @Nonnegative long ttl, @Nonnegative long negativeTtl) {
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Looks up a cached image platform.
+     * @param imageId the ID of the image
+     * @return the platform of the image, {@link Platform#UNKNOWN} if the image is known not to exist, or
+     * <code>null</code> if nothing is cached for the image
+     */
+    public synchronized @Nullable Platform get(@Nonnull String imageId) {
+        Entry entry = entries.get(imageId);
+
+        if( entry == null ) {
+            return null;
+        }
+        if( entry.expires < System.currentTimeMillis() ) {
+            entries.remove(imageId);
+            return null;
+        }
+        return (entry.platform == null ? Platform.UNKNOWN : entry.platform);
+    }
+
+    /**
+     * Records the platform of an image.
+     * @param imageId the ID of the image
+     * @param platform the platform of the image or <code>null</code> if the image does not exist
+     */
+    public synchronized void put(@Nonnull String imageId, @Nullable Platform platform) {
+        entries.put(imageId, new Entry(platform, System.currentTimeMillis() + (platform == null ? negativeTtl : ttl)));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
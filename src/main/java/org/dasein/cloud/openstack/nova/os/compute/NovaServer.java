@@ -20,7 +20,6 @@
 package org.dasein.cloud.openstack.nova.os.compute;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.net.util.SubnetUtils;
 import org.apache.http.HttpStatus;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
@@ -35,16 +34,21 @@ import org.dasein.cloud.network.RawAddress;
 import org.dasein.cloud.network.Subnet;
 import org.dasein.cloud.network.VLAN;
 import org.dasein.cloud.network.VLANSupport;
+import org.dasein.cloud.openstack.nova.os.JSONListParser;
 import org.dasein.cloud.openstack.nova.os.NovaException;
 import org.dasein.cloud.openstack.nova.os.NovaMethod;
 import org.dasein.cloud.openstack.nova.os.NovaOpenStack;
 import org.dasein.cloud.openstack.nova.os.OpenStackProvider;
 import org.dasein.cloud.openstack.nova.os.network.NovaNetworkServices;
 import org.dasein.cloud.openstack.nova.os.network.Quantum;
+import org.dasein.cloud.openstack.nova.os.network.SubnetIndex;
 import org.dasein.cloud.util.APITrace;
 import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
 import org.dasein.util.CalendarWrapper;
+import org.dasein.util.Jiterator;
+import org.dasein.util.JiteratorPopulator;
+import org.dasein.util.PopulatorThread;
 import org.dasein.util.uom.storage.Gigabyte;
 import org.dasein.util.uom.storage.Megabyte;
 import org.dasein.util.uom.storage.Storage;
@@ -58,12 +62,17 @@ import org.omg.PortableInterceptor.ACTIVE;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Implements services supporting interaction with cloud virtual machines.
@@ -79,6 +88,12 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
 
     static public final String SERVICE = "compute";
 
+    /**
+     * The number of servers requested per page when listing servers. Clouds with a lower osapi_max_limit return
+     * smaller pages, which are followed just the same.
+     */
+    static public final int SERVER_PAGE_SIZE = 1000;
+
     NovaServer(NovaOpenStack provider) {
         super(provider);
     }
@@ -118,16 +133,125 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
 
         if( p.equals(Platform.UNKNOWN) ) {
             if (imageId != null) {
+                ImagePlatformCache cache = getImagePlatformCache();
+                Platform cached = cache.get(imageId);
+
+                if( cached != null ) {
+                    return cached;
+                }
                 MachineImage img = getProvider().getComputeServices().getImageSupport().getImage(imageId);
                 if( img != null ) {
                     p = img.getPlatform();
                 }
+                cache.put(imageId, img == null ? null : p);
             }
         }
 
         return p;
     }
 
+    /**
+     * @return the image platforms cached for the region and account of this service
+     */
+    @Nonnull ImagePlatformCache getImagePlatformCache() {
+        return ImagePlatformCache.getInstance(getProvider());
+    }
+
+    /**
+     * Resolves the platforms of all images used by the specified servers that cannot be guessed from the servers
+     * themselves, so converting the servers afterwards does not look up their images one at a time.
+     * @param servers the JSON of the servers about to be converted
+     * @param lookups the lookups of the listing the servers belong to
+     */
+    private void prefetchImagePlatforms(@Nonnull JSONArray servers, @Nonnull ServerLookups lookups) throws CloudException, InternalException, JSONException {
+        ImagePlatformCache cache = lookups.getPlatforms();
+        Set<String> imageIds = new HashSet<String>();
+
+        for( int i=0; i<servers.length(); i++ ) {
+            JSONObject server = servers.getJSONObject(i);
+            JSONObject img = server.optJSONObject("image");
+            JSONObject md = server.optJSONObject("metadata");
+
+            if( img == null || !img.has("id") || (md != null && md.has("org.dasein.platform")) ) {
+                continue;
+            }
+            String name = server.optString("name", null);
+            String description = server.optString("description", null);
+
+            if( md != null && md.has("org.dasein.description") ) {
+                description = md.getString("org.dasein.description");
+            }
+            if( !Platform.guess(name + " " + (description == null ? name : description)).equals(Platform.UNKNOWN) ) {
+                continue;
+            }
+            String imageId = img.getString("id");
+
+            if( cache.get(imageId) == null ) {
+                imageIds.add(imageId);
+            }
+        }
+        cacheImagePlatforms(imageIds, lookups);
+    }
+
+    /**
+     * Caches the platforms of the specified images. The image details of the tenant are listed, a page at a time, at
+     * most once per listing of servers and kept with its lookups. Only the requested images go into the shared
+     * {@link ImagePlatformCache}, so a tenant with more images than the cache holds does not push out the ones its
+     * servers use. Requested images missing from the listing no longer exist and are cached as such.
+     * @param imageIds the IDs of the images whose platforms are needed
+     * @param lookups the lookups of the listing the images are needed for
+     */
+    private void cacheImagePlatforms(@Nonnull Set<String> imageIds, @Nonnull ServerLookups lookups) throws CloudException, InternalException {
+        if( imageIds.isEmpty() ) {
+            return;
+        }
+        if( lookups.imagePlatforms == null ) {
+            lookups.imagePlatforms = listImagePlatforms();
+        }
+        ImagePlatformCache cache = lookups.getPlatforms();
+
+        for( String imageId : imageIds ) {
+            cache.put(imageId, lookups.imagePlatforms.get(imageId));
+        }
+    }
+
+    /**
+     * @return the platform of every image listed for the tenant, by image ID
+     */
+    private @Nonnull Map<String,Platform> listImagePlatforms() throws CloudException, InternalException {
+        final NovaImage support = getProvider().getComputeServices().getImageSupport();
+        final Map<String,Platform> platforms = new HashMap<String, Platform>();
+        JSONListParser.ItemConverter<MachineImage> converter = new JSONListParser.ItemConverter<MachineImage>() {
+            @Override
+            public MachineImage convert(@Nonnull JSONObject json) throws CloudException, InternalException, JSONException {
+                MachineImage img = support.toImage(json);
+
+                if( img != null ) {
+                    platforms.put(img.getProviderMachineImageId(), img.getPlatform());
+                }
+                // only the platforms are kept
+                return null;
+            }
+        };
+        String marker = null;
+
+        do {
+            JSONObject links = new JSONObject();
+
+            if( getMethod().getServerList("/images", true, getServerPageQuery(null, marker), "images", converter, links) == null ) {
+                break;
+            }
+            try {
+                marker = getNextMarker(links, "images_links", marker);
+            }
+            catch( JSONException e ) {
+                logger.error("listImagePlatforms(): Unable to identify expected values in JSON: " + e.getMessage());
+                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", "Missing JSON element for images_links in " + links.toString());
+            }
+        } while( marker != null );
+        return platforms;
+    }
+
     @Override
     public @Nonnull String getConsoleOutput(@Nonnull String vmId) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "VM.getConsoleOutput");
@@ -505,22 +629,208 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
         return round.intValue();
     }
 
-    private @Nonnull Iterable<String> listFirewalls(@Nonnull String vmId, @Nonnull JSONObject server) throws InternalException, CloudException {
-        try {
-            if( server.has("security_groups") ) {
-                NetworkServices services = getProvider().getNetworkServices();
-                Iterable<Firewall> firewalls = null;
+    /**
+     * Hash indexes over the IP pools of a tenant for resolving the IP address assigned to a server without scanning
+     * the pools for every address of every server.
+     */
+    static private class IpAddressIndex {
+        private final Map<String,IpAddress> ipv4ByAddress = new HashMap<String, IpAddress>();
+        private final Map<String,IpAddress> ipv6ByAddress = new HashMap<String, IpAddress>();
+        private final Map<String,IpAddress> byServer      = new HashMap<String, IpAddress>();
 
-                if( services != null ) {
-                    FirewallSupport support = services.getFirewallSupport();
+        IpAddressIndex(@Nonnull Iterable<IpAddress> ipv4, @Nonnull Iterable<IpAddress> ipv6) {
+            // IPv4 addresses take precedence over IPv6 ones when matching by server
+            index(ipv4, ipv4ByAddress);
+            index(ipv6, ipv6ByAddress);
+        }
+
+        private void index(@Nonnull Iterable<IpAddress> pool, @Nonnull Map<String,IpAddress> byAddress) {
+            for( IpAddress addr : pool ) {
+                RawAddress raw = addr.getRawAddress();
+                String serverId = addr.getServerId();
+
+                if( raw != null && raw.getIpAddress() != null && !byAddress.containsKey(raw.getIpAddress()) ) {
+                    byAddress.put(raw.getIpAddress(), addr);
+                }
+                if( serverId != null && !byServer.containsKey(serverId) ) {
+                    byServer.put(serverId, addr);
+                }
+            }
+        }
+
+        @Nullable IpAddress getByAddress(@Nullable IPVersion version, @Nullable String address) {
+            if( IPVersion.IPV4.equals(version) ) {
+                return ipv4ByAddress.get(address);
+            }
+            else if( IPVersion.IPV6.equals(version) ) {
+                return ipv6ByAddress.get(address);
+            }
+            return null;
+        }
+
+        @Nullable IpAddress getByServer(@Nullable String serverId) {
+            return byServer.get(serverId);
+        }
+    }
+
+    /**
+     * Supporting resources shared by every server converted within a single listing or lookup. Each resource is
+     * fetched from the cloud on first use and then reused for the remaining servers, so the cost of a listing does
+     * not grow with the number of servers. Instances are confined to the thread performing the listing.
+     */
+    private class ServerLookups {
+        private Iterable<IpAddress>      ipv4     = Collections.emptyList();
+        private Iterable<IpAddress>      ipv6     = Collections.emptyList();
+        private Iterable<VLAN>           networks = Collections.emptyList();
+        private IpAddressIndex           addresses;
+        private Set<String>              firewallIds;
+        private Map<String,List<String>> firewallNames;
+        private Map<String,Platform>     imagePlatforms;
+        private ImagePlatformCache       platforms;
+        private List<VirtualMachine>     unresolved;
+        private Boolean                  legacy;
+        private boolean                  subnetsLoaded;
+        private SubnetIndex              subnets;
+
+        @Nonnull ImagePlatformCache getPlatforms() {
+            if( platforms == null ) {
+                platforms = getImagePlatformCache();
+            }
+            return platforms;
+        }
+
+        /**
+         * Loads everything converting a server may otherwise look up on first use, except for image platforms, so
+         * servers can be converted while their page is still being read.
+         */
+        void preload() throws CloudException, InternalException {
+            if( !getCloudProvider().equals(OpenStackProvider.RACKSPACE) ) {
+                loadFirewalls();
+            }
+            getSubnets();
+        }
+
+        /**
+         * Holds back a virtual machine whose platform would have to be looked up while a page of servers is being
+         * read. Platforms already cached or listed with these lookups are resolved right away.
+         * @param vm a virtual machine without a known platform
+         * @return true if the platform of the virtual machine is to be resolved once the page has been read
+         */
+        boolean deferPlatform(@Nonnull VirtualMachine vm) {
+            String imageId = vm.getProviderMachineImageId();
+
+            if( unresolved == null || imageId == null ) {
+                return false;
+            }
+            if( !Platform.guess(vm.getName() + " " + vm.getDescription()).equals(Platform.UNKNOWN) ) {
+                return false;
+            }
+            ImagePlatformCache cache = getPlatforms();
+
+            if( cache.get(imageId) != null ) {
+                return false;
+            }
+            if( imagePlatforms != null ) {
+                cache.put(imageId, imagePlatforms.get(imageId));
+                return false;
+            }
+            unresolved.add(vm);
+            return true;
+        }
+
+        /**
+         * Indexes the IP pools of the listing on first use. The pools must be the same for every server converted
+         * with these lookups.
+         */
+        @Nonnull IpAddressIndex getAddresses(@Nonnull Iterable<IpAddress> ipv4, @Nonnull Iterable<IpAddress> ipv6) {
+            if( addresses == null ) {
+                addresses = new IpAddressIndex(ipv4, ipv6);
+            }
+            return addresses;
+        }
+
+        private void loadFirewalls() throws CloudException, InternalException {
+            firewallIds = new HashSet<String>();
+            firewallNames = new HashMap<String, List<String>>();
+
+            NetworkServices services = getNetworkServices();
+
+            if( services != null ) {
+                FirewallSupport support = services.getFirewallSupport();
+
+                if( support != null ) {
+                    for( Firewall fw : support.list() ) {
+                        String id = fw.getProviderFirewallId();
 
-                    if( support != null ) {
-                        firewalls = support.list();
+                        if( id == null ) {
+                            continue;
+                        }
+                        firewallIds.add(id);
+                        if( fw.getName() != null ) {
+                            List<String> ids = firewallNames.get(fw.getName());
+
+                            if( ids == null ) {
+                                ids = new ArrayList<String>();
+                                firewallNames.put(fw.getName(), ids);
+                            }
+                            ids.add(id);
+                        }
                     }
                 }
-                if( firewalls == null ) {
-                    firewalls = Collections.emptyList();
+            }
+        }
+
+        /**
+         * Reads the compute API version on first use, so servers are not each looked up against the authentication
+         * context to tell how their addresses are listed.
+         * @return true if servers list their addresses the way the 1.0 API did
+         */
+        boolean isLegacy() throws CloudException, InternalException {
+            if( legacy == null ) {
+                legacy = (getMajorVersion() == 1 && getMinorVersion() == 0);
+            }
+            return legacy;
+        }
+
+        boolean hasFirewall(@Nonnull String id) throws CloudException, InternalException {
+            if( firewallIds == null ) {
+                loadFirewalls();
+            }
+            return firewallIds.contains(id);
+        }
+
+        @Nonnull List<String> getFirewallIdsByName(@Nonnull String name) throws CloudException, InternalException {
+            if( firewallNames == null ) {
+                loadFirewalls();
+            }
+            List<String> ids = firewallNames.get(name);
+
+            if( ids == null ) {
+                return Collections.emptyList();
+            }
+            return ids;
+        }
+
+        @Nullable SubnetIndex getSubnets() throws CloudException, InternalException {
+            if( !subnetsLoaded ) {
+                NetworkServices services = getNetworkServices();
+
+                if( services != null ) {
+                    VLANSupport support = services.getVlanSupport();
+
+                    if( support instanceof Quantum ) {
+                        subnets = (( Quantum )support).getSubnetIndex();
+                    }
                 }
+                subnetsLoaded = true;
+            }
+            return subnets;
+        }
+    }
+
+    private @Nonnull Iterable<String> listFirewalls(@Nonnull String vmId, @Nonnull JSONObject server, @Nonnull ServerLookups lookups) throws InternalException, CloudException {
+        try {
+            if( server.has("security_groups") ) {
                 JSONArray groups = server.getJSONArray("security_groups");
                 List<String> results = new ArrayList<String>();
 
@@ -529,18 +839,14 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
                     String id = group.has("id") ? group.getString("id") : null;
                     String name = group.has("name") ? group.getString("name") : null;
 
-                    if( id != null || name != null  ) {
-                        for( Firewall fw : firewalls ) {
-                            if( id != null ) {
-                                if( id.equals(fw.getProviderFirewallId()) ) {
-                                    results.add(id);
-                                }
-                            }
-                            else if( name.equals(fw.getName()) ) {
-                                results.add(fw.getProviderFirewallId());
-                            }
+                    if( id != null ) {
+                        if( lookups.hasFirewall(id) ) {
+                            results.add(id);
                         }
                     }
+                    else if( name != null ) {
+                        results.addAll(lookups.getFirewallIdsByName(name));
+                    }
                 }
                 return results;
             }
@@ -584,7 +890,7 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
                 if( ob.has("server") ) {
                     JSONObject server = ob.getJSONObject("server");
 
-                    return listFirewalls(vmId, server);
+                    return listFirewalls(vmId, server, new ServerLookups());
                 }
                 throw new CloudException("No such server: " + vmId);
             }
@@ -719,88 +1025,501 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
         }
     }
 
-    @Override
-    public @Nonnull Iterable<ResourceStatus> listVirtualMachineStatus() throws InternalException, CloudException {
-        APITrace.begin(getProvider(), "VM.listVirtualMachineStatus");
+    /**
+     * Fetches a single page of the detailed server listing.
+     * @param filters query parameters narrowing down the servers to list, if any
+     * @param marker the ID of the last server on the previous page or <code>null</code> for the first page
+     * @return the page of servers
+     */
+    private @Nullable JSONObject getServerPage(@Nullable Map<String,String> filters, @Nullable String marker) throws CloudException, InternalException {
+        return getMethod().getServers("/servers", null, true, getServerPageQuery(filters, marker));
+    }
+
+    /**
+     * Fetches a single page of the detailed server listing, converting each server as it is read from the response.
+     * @param filters query parameters narrowing down the servers to list, if any
+     * @param marker the ID of the last server on the previous page or <code>null</code> for the first page
+     * @param converter converts each server on the page
+     * @param links receives the pagination links of the page
+     * @return the converted servers on the page
+     */
+    private @Nullable <T> List<T> getServerPage(@Nullable Map<String,String> filters, @Nullable String marker, @Nonnull JSONListParser.ItemConverter<T> converter, @Nonnull JSONObject links) throws CloudException, InternalException {
+        return getMethod().getServerList("/servers", true, getServerPageQuery(filters, marker), "servers", converter, links);
+    }
+
+    private @Nonnull String getServerPageQuery(@Nullable Map<String,String> filters, @Nullable String marker) throws InternalException {
+        StringBuilder query = new StringBuilder();
+
+        query.append("?limit=").append(SERVER_PAGE_SIZE);
         try {
-            JSONObject ob = getMethod().getServers("/servers", null, true);
-            List<ResourceStatus> servers = new ArrayList<ResourceStatus>();
+            if( filters != null ) {
+                for( Map.Entry<String,String> filter : filters.entrySet() ) {
+                    query.append("&").append(URLEncoder.encode(filter.getKey(), "utf-8"));
+                    query.append("=").append(URLEncoder.encode(filter.getValue(), "utf-8"));
+                }
+            }
+            if( marker != null ) {
+                query.append("&marker=").append(URLEncoder.encode(marker, "utf-8"));
+            }
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+        return query.toString();
+    }
 
-            try {
-                if( ob != null && ob.has("servers") ) {
-                    JSONArray list = ob.getJSONArray("servers");
+    /**
+     * Identifies where the page following the specified page of servers starts. Only the marker is taken from the
+     * next link so that subsequent pages are still fetched through the configured compute endpoint.
+     * @param page a page of the server listing
+     * @param marker the marker used to fetch the page
+     * @return the marker for the next page or <code>null</code> if this was the last page
+     */
+    static @Nullable String getNextMarker(@Nonnull JSONObject page, @Nullable String marker) throws JSONException {
+        return getNextMarker(page, "servers_links", marker);
+    }
 
-                    for( int i=0; i<list.length(); i++ ) {
-                        JSONObject server = list.getJSONObject(i);
-                        ResourceStatus vm = toStatus(server);
+    /**
+     * Identifies where the page following the specified page of a compute listing starts.
+     * @param page a page of the listing
+     * @param linksKey the name of the pagination links in the page, such as <code>images_links</code>
+     * @param marker the marker used to fetch the page
+     * @return the marker for the next page or <code>null</code> if this was the last page
+     */
+    static @Nullable String getNextMarker(@Nonnull JSONObject page, @Nonnull String linksKey, @Nullable String marker) throws JSONException {
+        JSONArray links = page.optJSONArray(linksKey);
+
+        if( links == null ) {
+            return null;
+        }
+        for( int i=0; i<links.length(); i++ ) {
+            JSONObject link = links.getJSONObject(i);
 
-                        if( vm != null ) {
-                            servers.add(vm);
+            if( "next".equals(link.optString("rel")) && link.has("href") ) {
+                String href = link.getString("href");
+                int idx = href.indexOf('?');
+
+                if( idx < 0 ) {
+                    return null;
+                }
+                for( String param : href.substring(idx + 1).split("&") ) {
+                    if( param.startsWith("marker=") ) {
+                        String next;
+
+                        try {
+                            next = URLDecoder.decode(param.substring("marker=".length()), "utf-8");
+                        }
+                        catch( UnsupportedEncodingException e ) {
+                            return null;
                         }
+                        // guard against a cloud handing back the same page over and over
+                        if( next.length() < 1 || next.equals(marker) ) {
+                            return null;
+                        }
+                        return next;
+                    }
+                }
+            }
+        }
+        return null;
+    }
 
+    @Override
+    public @Nonnull Iterable<ResourceStatus> listVirtualMachineStatus() throws InternalException, CloudException {
+        PopulatorThread<ResourceStatus> populator;
+
+        getProvider().hold();
+        populator = new PopulatorThread<ResourceStatus>(new JiteratorPopulator<ResourceStatus>() {
+            public void populate(@Nonnull Jiterator<ResourceStatus> iterator) throws CloudException, InternalException {
+                try {
+                    APITrace.begin(getProvider(), "VM.listVirtualMachineStatus");
+                    try {
+                        listVirtualMachineStatus(iterator);
                     }
+                    finally {
+                        APITrace.end();
+                    }
+                }
+                finally {
+                    getProvider().release();
                 }
             }
+        });
+        populator.populate();
+        return populator.getResult();
+    }
+
+    private void listVirtualMachineStatus(@Nonnull final Jiterator<ResourceStatus> iterator) throws InternalException, CloudException {
+        JSONListParser.ItemConverter<ResourceStatus> converter = new JSONListParser.ItemConverter<ResourceStatus>() {
+            @Override
+            public ResourceStatus convert(@Nonnull JSONObject server) throws CloudException, InternalException, JSONException {
+                ResourceStatus vm = toStatus(server);
+
+                if( vm != null ) {
+                    iterator.push(vm);
+                }
+                // pushed as soon as it is read
+                return null;
+            }
+        };
+        String marker = null;
+
+        do {
+            JSONObject links = new JSONObject();
+
+            if( getServerPage(null, marker, converter, links) == null ) {
+                return;
+            }
+            try {
+                marker = getNextMarker(links, marker);
+            }
             catch( JSONException e ) {
-                logger.error("listVirtualMachines(): Unable to identify expected values in JSON: " + e.getMessage());                e.printStackTrace();
-                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", "Missing JSON element for servers in " + ob.toString());
+                logger.error("listVirtualMachineStatus(): Unable to identify expected values in JSON: " + e.getMessage());
+                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", "Missing JSON element for servers_links in " + links.toString());
             }
-            return servers;
-        }
-        finally {
-            APITrace.end();
-        }
+        } while( marker != null );
     }
 
     @Override
     public @Nonnull Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
-        APITrace.begin(getProvider(), "VM.listVirtualMachines");
-        try {
-            JSONObject ob = getMethod().getServers("/servers", null, true);
-            List<VirtualMachine> servers = new ArrayList<VirtualMachine>();
+        return listVirtualMachines(NovaServerFilter.getInstance(), null);
+    }
 
-            Iterable<IpAddress> ipv4 = Collections.emptyList(), ipv6 = Collections.emptyList();
-            Iterable<VLAN> nets = Collections.emptyList();
-            NetworkServices services = getProvider().getNetworkServices();
+    /**
+     * Lists the virtual machines matching the specified options, letting Nova filter on server status where the
+     * options allow it. See {@link NovaServerFilter#getInstance(VMFilterOptions)} for which criteria are
+     * evaluated by Nova; the options as a whole are still checked against each virtual machine returned.
+     * @param options the criteria virtual machines must match
+     * @return the matching virtual machines
+     * @throws InternalException an error occurred within Dasein Cloud while processing the servers
+     * @throws CloudException an error occurred with the cloud provider while listing the servers
+     */
+    @Override
+    public @Nonnull Iterable<VirtualMachine> listVirtualMachines(@Nullable VMFilterOptions options) throws InternalException, CloudException {
+        return listVirtualMachines(NovaServerFilter.getInstance(options), options);
+    }
 
-            if( services != null ) {
-                IpAddressSupport support = services.getIpAddressSupport();
+    /**
+     * Lists the virtual machines Nova finds for the specified server filter that also match the specified options.
+     * This is the way to have Nova narrow a listing down by image, flavor, host or IP address.
+     * @param filter the criteria passed on to Nova as query parameters
+     * @param options further criteria checked against each virtual machine Nova returns, if any
+     * @return the matching virtual machines
+     * @throws InternalException an error occurred within Dasein Cloud while processing the servers
+     * @throws CloudException an error occurred with the cloud provider while listing the servers
+     */
+    public @Nonnull Iterable<VirtualMachine> listVirtualMachines(@Nonnull NovaServerFilter filter, @Nullable final VMFilterOptions options) throws InternalException, CloudException {
+        final Map<String,String> parameters = (filter.isEmpty() ? null : filter.getParameters());
+        PopulatorThread<VirtualMachine> populator;
+
+        getProvider().hold();
+        populator = new PopulatorThread<VirtualMachine>(new JiteratorPopulator<VirtualMachine>() {
+            public void populate(@Nonnull Jiterator<VirtualMachine> iterator) throws CloudException, InternalException {
+                try {
+                    APITrace.begin(getProvider(), "VM.listVirtualMachines");
+                    try {
+                        listVirtualMachines(parameters, options, iterator);
+                    }
+                    finally {
+                        APITrace.end();
+                    }
+                }
+                finally {
+                    getProvider().release();
+                }
+            }
+        });
+        populator.populate();
+        return populator.getResult();
+    }
 
-                if( support != null ) {
-                    ipv4 = support.listIpPool(IPVersion.IPV4, false);
-                    ipv6 = support.listIpPool(IPVersion.IPV6, false);
+    /**
+     * @return lookups for converting many servers, preloaded with the IP pools and networks of the tenant
+     */
+    private @Nonnull ServerLookups getListingLookups() throws InternalException, CloudException {
+        ServerLookups lookups = new ServerLookups();
+        NetworkServices services = getProvider().getNetworkServices();
+
+        if( services != null ) {
+            IpAddressSupport support = services.getIpAddressSupport();
+
+            if( support != null ) {
+                lookups.ipv4 = support.listIpPool(IPVersion.IPV4, false);
+                lookups.ipv6 = support.listIpPool(IPVersion.IPV6, false);
+            }
+
+            VLANSupport vs = services.getVlanSupport();
+
+            if( vs != null ) {
+                lookups.networks = vs.listVlans();
+            }
+        }
+        return lookups;
+    }
+
+    private void listVirtualMachines(@Nullable Map<String,String> filters, @Nullable final VMFilterOptions options, @Nonnull final Jiterator<VirtualMachine> iterator) throws InternalException, CloudException {
+        final ServerLookups lookups = getListingLookups();
+        // servers are converted and pushed while their page is read, so nothing converting them may make another
+        // request on top of the open page; servers that would are held back until the page has been read
+        final boolean rackspace = getCloudProvider().equals(OpenStackProvider.RACKSPACE);
+        final List<JSONObject> held = new ArrayList<JSONObject>();
+        JSONListParser.ItemConverter<VirtualMachine> converter = new JSONListParser.ItemConverter<VirtualMachine>() {
+            @Override
+            public VirtualMachine convert(@Nonnull JSONObject server) throws CloudException, InternalException, JSONException {
+                if( !rackspace && !server.has("security_groups") ) {
+                    // the security groups of the server have to be looked up separately
+                    held.add(server);
+                    return null;
                 }
+                int count = lookups.unresolved.size();
+                VirtualMachine vm = toVirtualMachine(server, lookups.ipv4, lookups.ipv6, lookups.networks, lookups);
 
-                VLANSupport vs = services.getVlanSupport();
+                // a virtual machine whose platform is still unresolved is pushed once the page has been read
+                if( vm != null && lookups.unresolved.size() == count && (options == null || options.matches(vm)) ) {
+                    iterator.push(vm);
+                }
+                return null;
+            }
+        };
+        String marker = null;
 
-                if( vs != null ) {
-                    nets = vs.listVlans();
+        lookups.preload();
+        do {
+            JSONObject links = new JSONObject();
+
+            held.clear();
+            lookups.unresolved = new ArrayList<VirtualMachine>();
+            if( getServerPage(filters, marker, converter, links) == null ) {
+                return;
+            }
+            List<VirtualMachine> unresolved = lookups.unresolved;
+
+            lookups.unresolved = null;
+            if( !unresolved.isEmpty() ) {
+                Set<String> imageIds = new HashSet<String>();
+
+                for( VirtualMachine vm : unresolved ) {
+                    imageIds.add(vm.getProviderMachineImageId());
+                }
+                cacheImagePlatforms(imageIds, lookups);
+                for( VirtualMachine vm : unresolved ) {
+                    vm.setPlatform(getPlatform(vm.getName(), vm.getDescription(), vm.getProviderMachineImageId()));
+                    if( options == null || options.matches(vm) ) {
+                        iterator.push(vm);
+                    }
                 }
             }
             try {
-                if( ob != null && ob.has("servers") ) {
-                    JSONArray list = ob.getJSONArray("servers");
+                for( JSONObject server : held ) {
+                    VirtualMachine vm = toVirtualMachine(server, lookups.ipv4, lookups.ipv6, lookups.networks, lookups);
 
-                    for( int i=0; i<list.length(); i++ ) {
-                        JSONObject server = list.getJSONObject(i);
-                        VirtualMachine vm = toVirtualMachine(server, ipv4, ipv6, nets);
+                    if( vm != null && (options == null || options.matches(vm)) ) {
+                        iterator.push(vm);
+                    }
+                }
+            }
+            catch( JSONException e ) {
+                logger.error("listVirtualMachines(): Unable to identify expected values in JSON: " + e.getMessage());
+                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", "Missing JSON element for servers");
+            }
+            try {
+                marker = getNextMarker(links, marker);
+            }
+            catch( JSONException e ) {
+                logger.error("listVirtualMachines(): Unable to identify expected values in JSON: " + e.getMessage());
+                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", "Missing JSON element for servers_links in " + links.toString());
+            }
+        } while( marker != null );
+    }
+
+    /**
+     * The inventory of virtual machines as of the last incremental sync of a region and account.
+     */
+    static class ServerSnapshot {
+        private String                            highWaterMark;
+        private long                              highWaterTime = -1L;
+        private final Map<String,Long>            updated         = new HashMap<String, Long>();
+        private final Map<String,VirtualMachine>  virtualMachines = new HashMap<String, VirtualMachine>();
+    }
+
+    /**
+     * Synchronizes a locally held inventory of the virtual machines in the current region and account with the cloud
+     * and reports what changed since the previous sync. The first sync, or the first after the inventory has been
+     * evicted from the cache, lists every server and reports all of them as added. Later syncs ask Nova only for the
+     * servers updated or deleted since the most recent update seen so far, so the cost of polling follows churn rather
+     * than fleet size.
+     * <p>
+     *     Deleted servers are reported by Nova through changes-since only for as long as it keeps deleted instance
+     *     records around; call this often enough relative to that retention to catch every removal.
+     * </p>
+     * @return the virtual machines added, changed and removed since the previous sync
+     * @throws InternalException an error occurred within Dasein Cloud while processing the servers
+     * @throws CloudException an error occurred with the cloud provider while listing the servers
+     */
+    public @Nonnull VirtualMachineChanges syncVirtualMachines() throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "VM.syncVirtualMachines");
+        try {
+            ProviderContext ctx = getProvider().getContext();
+
+            if( ctx == null ) {
+                throw new CloudException("No context was specified for this request");
+            }
+            Cache<ServerSnapshot> cache = Cache.getInstance(getProvider(), "vmSnapshots", ServerSnapshot.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
+            ServerSnapshot snapshot = null;
+            Iterable<ServerSnapshot> snapshots = cache.get(ctx);
 
+            if( snapshots != null ) {
+                for( ServerSnapshot s : snapshots ) {
+                    snapshot = s;
+                }
+            }
+            if( snapshot == null ) {
+                snapshot = new ServerSnapshot();
+                cache.put(ctx, Collections.singletonList(snapshot));
+            }
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized( snapshot ) {
+                return sync(snapshot);
+            }
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    @Nonnull VirtualMachineChanges sync(@Nonnull ServerSnapshot snapshot) throws InternalException, CloudException {
+        boolean full = (snapshot.highWaterMark == null);
+        Map<String,String> filters = null;
+
+        if( !full ) {
+            filters = new HashMap<String, String>();
+            filters.put("changes-since", snapshot.highWaterMark);
+        }
+        List<VirtualMachine> added = new ArrayList<VirtualMachine>();
+        List<VirtualMachine> changed = new ArrayList<VirtualMachine>();
+        List<VirtualMachine> removed = new ArrayList<VirtualMachine>();
+        Map<String,VirtualMachine> virtualMachines = new HashMap<String, VirtualMachine>(snapshot.virtualMachines);
+        Map<String,Long> updated = new HashMap<String, Long>(snapshot.updated);
+        String highWaterMark = snapshot.highWaterMark;
+        long highWaterTime = snapshot.highWaterTime;
+        Set<String> seen = new HashSet<String>();
+        ServerLookups lookups = getListingLookups();
+        String marker = null;
+
+        do {
+            JSONObject ob = getServerPage(filters, marker);
+
+            if( ob == null || !ob.has("servers") ) {
+                break;
+            }
+            try {
+                JSONArray list = ob.getJSONArray("servers");
+
+                prefetchImagePlatforms(list, lookups);
+                for( int i=0; i<list.length(); i++ ) {
+                    JSONObject server = list.getJSONObject(i);
+                    String id = server.optString("id", null);
+
+                    if( id == null ) {
+                        continue;
+                    }
+                    seen.add(id);
+                    String timestamp = server.optString("updated", null);
+                    long when = (timestamp == null ? -1L : NovaOpenStack.parseTimestamp(timestamp));
+
+                    if( when > highWaterTime ) {
+                        highWaterTime = when;
+                        highWaterMark = timestamp;
+                    }
+                    if( "deleted".equalsIgnoreCase(server.optString("status")) ) {
+                        VirtualMachine vm = virtualMachines.remove(id);
+
+                        updated.remove(id);
                         if( vm != null ) {
-                            servers.add(vm);
+                            removed.add(vm);
                         }
+                        continue;
+                    }
+                    VirtualMachine vm = toVirtualMachine(server, lookups.ipv4, lookups.ipv6, lookups.networks, lookups);
+
+                    if( vm == null ) {
+                        continue;
+                    }
+                    VirtualMachine current = virtualMachines.put(id, vm);
+                    Long previous = updated.put(id, when);
 
+                    if( current == null ) {
+                        added.add(vm);
+                    }
+                    // changes-since is inclusive and Nova timestamps only resolve to the second, so servers updated in
+                    // the same second as the high-water mark come back every time; they are reconverted and reported
+                    // only if they really differ from what was seen before
+                    else if( previous == null || when < 0L || previous != when || !isSame(current, vm) ) {
+                        changed.add(vm);
                     }
                 }
+                marker = getNextMarker(ob, marker);
             }
             catch( JSONException e ) {
-                logger.error("listVirtualMachines(): Unable to identify expected values in JSON: " + e.getMessage());                e.printStackTrace();
+                logger.error("syncVirtualMachines(): Unable to identify expected values in JSON: " + e.getMessage());
                 throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", "Missing JSON element for servers in " + ob.toString());
             }
-            return servers;
+        } while( marker != null );
+        if( full ) {
+            // a full listing reports deletions by omission
+            for( String id : new ArrayList<String>(virtualMachines.keySet()) ) {
+                if( !seen.contains(id) ) {
+                    removed.add(virtualMachines.remove(id));
+                    updated.remove(id);
+                }
+            }
         }
-        finally {
-            APITrace.end();
+        // only commit once the whole sync succeeded so a failure part way through is simply retried
+        snapshot.virtualMachines.clear();
+        snapshot.virtualMachines.putAll(virtualMachines);
+        snapshot.updated.clear();
+        snapshot.updated.putAll(updated);
+        snapshot.highWaterMark = highWaterMark;
+        snapshot.highWaterTime = highWaterTime;
+        return new VirtualMachineChanges(full, added, changed, removed, new ArrayList<VirtualMachine>(virtualMachines.values()));
+    }
+
+    /**
+     * Compares what a sync reports about a virtual machine between two conversions of the same server.
+     * @param a the virtual machine as previously converted
+     * @param b the virtual machine as just converted
+     * @return true if nothing reported for the virtual machine differs
+     */
+    static private boolean isSame(@Nonnull VirtualMachine a, @Nonnull VirtualMachine b) {
+        return isSame(a.getCurrentState(), b.getCurrentState())
+                && isSame(a.getName(), b.getName())
+                && isSame(a.getDescription(), b.getDescription())
+                && isSame(a.getProductId(), b.getProductId())
+                && isSame(a.getProviderMachineImageId(), b.getProviderMachineImageId())
+                && isSame(a.getPlatform(), b.getPlatform())
+                && isSame(a.getProviderVlanId(), b.getProviderVlanId())
+                && isSame(a.getProviderSubnetId(), b.getProviderSubnetId())
+                && isSame(a.getProviderAssignedIpAddressId(), b.getProviderAssignedIpAddressId())
+                && isSame(toString(a.getPublicAddresses()), toString(b.getPublicAddresses()))
+                && isSame(toString(a.getPrivateAddresses()), toString(b.getPrivateAddresses()))
+                && Arrays.equals(a.getProviderFirewallIds(), b.getProviderFirewallIds())
+                && isSame(a.getTags(), b.getTags());
+    }
+
+    static private boolean isSame(@Nullable Object a, @Nullable Object b) {
+        return (a == null ? b == null : a.equals(b));
+    }
+
+    static private @Nullable String toString(@Nullable RawAddress[] addresses) {
+        if( addresses == null ) {
+            return null;
+        }
+        StringBuilder str = new StringBuilder();
+
+        for( RawAddress addr : addresses ) {
+            str.append(addr.getIpAddress()).append(",");
         }
+        return str.toString();
     }
 
     @Override
@@ -1097,6 +1816,10 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
     }
 
     protected @Nullable VirtualMachine toVirtualMachine(@Nullable JSONObject server, @Nonnull Iterable<IpAddress> ipv4, @Nonnull Iterable<IpAddress> ipv6, @Nonnull Iterable<VLAN> networks) throws JSONException, InternalException, CloudException {
+        return toVirtualMachine(server, ipv4, ipv6, networks, new ServerLookups());
+    }
+
+    private @Nullable VirtualMachine toVirtualMachine(@Nullable JSONObject server, @Nonnull Iterable<IpAddress> ipv4, @Nonnull Iterable<IpAddress> ipv6, @Nonnull Iterable<VLAN> networks, @Nonnull ServerLookups lookups) throws JSONException, InternalException, CloudException {
         if( server == null ) {
             return null;
         }
@@ -1274,6 +1997,7 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
             if( names != null && names.length > 0 ) {
                 List<RawAddress> pub = new ArrayList<RawAddress>();
                 List<RawAddress> priv = new ArrayList<RawAddress>();
+                boolean legacy = lookups.isLegacy();
 
                 for( String name : names ) {
                     JSONArray arr = addrs.getJSONArray(name);
@@ -1283,7 +2007,7 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
                         RawAddress addr = null;
                         String type = null;
 
-                        if( getMinorVersion() == 0 && getMajorVersion() == 1 ) {
+                        if( legacy ) {
                             addr = new RawAddress(arr.getString(i).trim(), IPVersion.IPV4);
                         }
                         else {
@@ -1322,21 +2046,11 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
                             if( network.getName().equals(name) ) {
                                 vm.setProviderVlanId(network.getProviderVlanId());
                                 //get subnet
-                                NetworkServices services = getProvider().getNetworkServices();
-                                VLANSupport support = services.getVlanSupport();
-                                Iterable<Subnet> subnets = support.listSubnets(network.getProviderVlanId());
-                                for (Subnet sub : subnets) {
-                                    try {
-                                        SubnetUtils utils = new SubnetUtils(sub.getCidr());
-
-                                        if( utils.getInfo().isInRange(subnet) ) {
-                                            vm.setProviderSubnetId(sub.getProviderSubnetId());
-                                            break;
-                                        }
-                                    }
-                                    catch( IllegalArgumentException arg ) {
-                                        logger.warn("Couldn't match against an invalid CIDR: "+sub.getCidr());
-                                        continue;
+                                if( subnet != null ) {
+                                    SubnetIndex subnets = lookups.getSubnets();
+
+                                    if( subnets != null ) {
+                                        vm.setProviderSubnetId(subnets.getSubnetId(network.getProviderVlanId(), subnet));
                                     }
                                 }
                                 break;
@@ -1348,53 +2062,22 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
                 vm.setPrivateAddresses(priv.toArray(new RawAddress[priv.size()]));
             }
             RawAddress[] raw = vm.getPublicAddresses();
+            IpAddressIndex addresses = lookups.getAddresses(ipv4, ipv6);
 
             if( raw != null ) {
                 for( RawAddress addr : vm.getPublicAddresses() ) {
-                    if( addr.getVersion().equals(IPVersion.IPV4) ) {
-                        for( IpAddress a : ipv4 ) {
-                            if( a.getRawAddress().getIpAddress().equals(addr.getIpAddress()) ) {
-                                vm.setProviderAssignedIpAddressId(a.getProviderIpAddressId());
-                                break;
-                            }
-                        }
-                    }
-                    else if( addr.getVersion().equals(IPVersion.IPV6) ) {
-                        for( IpAddress a : ipv6 ) {
-                            if( a.getRawAddress().getIpAddress().equals(addr.getIpAddress()) ) {
-                                vm.setProviderAssignedIpAddressId(a.getProviderIpAddressId());
-                                break;
-                            }
-                        }
-                    }
-                }
-            }
-            if( vm.getProviderAssignedIpAddressId() == null ) {
-                for( IpAddress addr : ipv4 ) {
-                    String serverId = addr.getServerId();
-
-                    if( serverId != null && serverId.equals(vm.getProviderVirtualMachineId()) ) {
-                        vm.setProviderAssignedIpAddressId(addr.getProviderIpAddressId());
-                        break;
-                    }
-                }
-                if( vm.getProviderAssignedIpAddressId() == null ) {
-                    for( IpAddress addr : ipv6 ) {
-                        String serverId = addr.getServerId();
+                    IpAddress a = addresses.getByAddress(addr.getVersion(), addr.getIpAddress());
 
-                        if( serverId != null && addr.getServerId().equals(vm.getProviderVirtualMachineId()) ) {
-                            vm.setProviderAssignedIpAddressId(addr.getProviderIpAddressId());
-                            break;
-                        }
+                    if( a != null ) {
+                        vm.setProviderAssignedIpAddressId(a.getProviderIpAddressId());
                     }
                 }
             }
             if( vm.getProviderAssignedIpAddressId() == null ) {
-                for( IpAddress addr : ipv6 ) {
-                    if( addr.getServerId().equals(vm.getProviderVirtualMachineId()) ) {
-                        vm.setProviderAssignedIpAddressId(addr.getProviderIpAddressId());
-                        break;
-                    }
+                IpAddress a = addresses.getByServer(vm.getProviderVirtualMachineId());
+
+                if( a != null ) {
+                    vm.setProviderAssignedIpAddressId(a.getProviderIpAddressId());
                 }
             }
         }
@@ -1408,7 +2091,7 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
             vm.setDescription(vm.getName());
         }
 
-        if( Platform.UNKNOWN.equals(vm.getPlatform())) {
+        if( Platform.UNKNOWN.equals(vm.getPlatform()) && !lookups.deferPlatform(vm) ) {
             vm.setPlatform(getPlatform(vm.getName(), vm.getDescription(), vm.getProviderMachineImageId()));
         }
         vm.setImagable(vm.getCurrentState() == null);
@@ -1419,7 +2102,7 @@ public class NovaServer extends AbstractVMSupport<NovaOpenStack> {
         	vm.setProviderFirewallIds(null);
         }
         else{
-            Iterable<String> fwIds = listFirewalls(vm.getProviderVirtualMachineId(), server);
+            Iterable<String> fwIds = listFirewalls(vm.getProviderVirtualMachineId(), server, lookups);
             int count = 0;
 
             //noinspection UnusedDeclaration
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os.compute;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.compute.VMFilterOptions;
+import org.dasein.cloud.compute.VmState;
+
+/**
+ * Criteria Nova can apply itself when listing servers, sent as query parameters of /servers/detail. Anything that
+ * cannot be expressed here is left for the client to filter.
+ */
+public class NovaServerFilter {
+    /**
+     * Translates the criteria of Dasein Cloud filter options that Nova can evaluate on its own. A single virtual
+     * machine state is mapped onto the Nova status it uniquely corresponds to. The options' regular expression is
+     * never pushed down: Dasein Cloud matches it against the name, description and addresses of a virtual machine,
+     * whereas Nova only searches server names using its own regular expression dialect, so it would drop virtual
+     * machines the options match. Options matching any rather than all criteria are never pushed down either.
+     * @param options the filter options to translate
+     * @return a filter holding whatever part of the options Nova can apply
+     */
+    static public @Nonnull NovaServerFilter getInstance(@Nullable VMFilterOptions options) {
+        NovaServerFilter filter = new NovaServerFilter();
+
+        if( options == null || options.isMatchesAny() ) {
+            return filter;
+        }
+        if( options.getVmStates() != null ) {
+            VmState state = null;
+            int count = 0;
+
+            for( VmState s : options.getVmStates() ) {
+                state = s;
+                count++;
+            }
+            if( count == 1 ) {
+                String status = toStatus(state);
+
+                if( status != null ) {
+                    filter.withStatus(status);
+                }
+            }
+        }
+        return filter;
+    }
+
+    static public @Nonnull NovaServerFilter getInstance() {
+        return new NovaServerFilter();
+    }
+
+    /**
+     * @param state a virtual machine state
+     * @return the only Nova status mapped to the state, or <code>null</code> if several statuses map to it
+     */
+    static @Nullable String toStatus(@Nullable VmState state) {
+        if( state == null ) {
+            return null;
+        }
+        switch( state ) {
+            case RUNNING: return "ACTIVE";
+            case SUSPENDED: return "SUSPENDED";
+            case PAUSED: return "PAUSED";
+            case STOPPED: return "SHUTOFF";
+            case ERROR: return "ERROR";
+            default: return null;
+        }
+    }
+
+    private final Map<String,String> parameters = new HashMap<String, String>();
+
+    private NovaServerFilter() { }
+
+    /**
+     * @return the query parameters for the server listing
+     */
+    public @Nonnull Map<String,String> getParameters() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    public boolean isEmpty() {
+        return parameters.isEmpty();
+    }
+
+    /**
+     * @param flavorId the ID of the flavor (product) servers must have been launched with
+     * @return this
+     */
+    public @Nonnull NovaServerFilter withFlavorId(@Nonnull String flavorId) {
+        parameters.put("flavor", flavorId);
+        return this;
+    }
+
+    /**
+     * @param host the compute host servers must run on; Nova usually restricts this to administrators
+     * @return this
+     */
+    public @Nonnull NovaServerFilter withHost(@Nonnull String host) {
+        parameters.put("host", host);
+        return this;
+    }
+
+    /**
+     * @param imageId the ID of the machine image servers must have been launched from
+     * @return this
+     */
+    public @Nonnull NovaServerFilter withImageId(@Nonnull String imageId) {
+        parameters.put("image", imageId);
+        return this;
+    }
+
+    /**
+     * @param regex a regular expression the IPv4 addresses of servers must match
+     * @return this
+     */
+    public @Nonnull NovaServerFilter withIpAddress(@Nonnull String regex) {
+        parameters.put("ip", regex);
+        return this;
+    }
+
+    /**
+     * @param regex a regular expression Nova searches for in server names
+     * @return this
+     */
+    public @Nonnull NovaServerFilter withName(@Nonnull String regex) {
+        parameters.put("name", regex);
+        return this;
+    }
+
+    /**
+     * @param status the Nova status servers must be in, such as ACTIVE or SHUTOFF
+     * @return this
+     */
+    public @Nonnull NovaServerFilter withStatus(@Nonnull String status) {
+        parameters.put("status", status);
+        return this;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return parameters.toString();
+    }
+}
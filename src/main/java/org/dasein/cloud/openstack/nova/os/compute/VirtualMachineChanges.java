@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os.compute;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.annotation.Nonnull;
+
+import org.dasein.cloud.compute.VirtualMachine;
+
+/**
+ * The outcome of an incremental virtual machine sync through {@link NovaServer#syncVirtualMachines()}: the virtual
+ * machines that appeared, changed or went away since the previous sync, plus the full inventory after applying them.
+ */
+public class VirtualMachineChanges {
+    private final Collection<VirtualMachine> added;
+    private final Collection<VirtualMachine> changed;
+    private final boolean                    fullSync;
+    private final Collection<VirtualMachine> removed;
+    private final Collection<VirtualMachine> virtualMachines;
+
+    public VirtualMachineChanges(boolean fullSync, @Nonnull Collection<VirtualMachine> added, @Nonnull Collection<VirtualMachine> changed, @Nonnull Collection<VirtualMachine> removed, @Nonnull Collection<VirtualMachine> virtualMachines) {
+        this.fullSync = fullSync;
+        this.added = Collections.unmodifiableCollection(added);
+        this.changed = Collections.unmodifiableCollection(changed);
+        this.removed = Collections.unmodifiableCollection(removed);
+        this.virtualMachines = Collections.unmodifiableCollection(virtualMachines);
+    }
+
+    /**
+     * @return virtual machines that were not part of the previous inventory
+     */
+    public @Nonnull Collection<VirtualMachine> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return virtual machines from the previous inventory that were updated since
+     */
+    public @Nonnull Collection<VirtualMachine> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return virtual machines from the previous inventory that have since been deleted, as they were last seen
+     */
+    public @Nonnull Collection<VirtualMachine> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return the complete inventory after this sync
+     */
+    public @Nonnull Collection<VirtualMachine> getVirtualMachines() {
+        return virtualMachines;
+    }
+
+    /**
+     * @return true if every virtual machine was listed and compared rather than only those Nova reported as changed
+     */
+    public boolean isFullSync() {
+        return fullSync;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return "[added=" + added.size() + ",changed=" + changed.size() + ",removed=" + removed.size() + ",total=" + virtualMachines.size() + "]";
+    }
+}
@@ -224,30 +224,7 @@ public class Quantum extends AbstractVLANSupport<NovaOpenStack> {
     public @Nonnull Iterable<String> listPorts(@Nonnull VirtualMachine vm) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "VLAN.listPorts");
         try {
-            JSONObject result = null;
-            if (getNetworkType().equals(QuantumType.QUANTUM) ) {
-                result = getMethod().getNetworks(getPortResource() + "?device_id=" + vm.getProviderVirtualMachineId() + "&fields=id", null, false);
-            }
-            else {
-                result = getMethod().getServers(getNetworkResource() + "/" + vm.getProviderVlanId() + "/ports", null, false);
-            }
-            if( result != null && result.has("ports") ) {
-                List<String> portIds = new ArrayList<String>();
-                try {
-                    JSONArray ports = result.getJSONArray("ports");
-                    for( int i = 0; i < ports.length(); i++ ) {
-                        JSONObject port = ports.getJSONObject(i);
-                        if( port.has("id" ) ) {
-                            portIds.add(port.getString("id"));
-                        }
-                    }
-                } catch (JSONException e) {
-                    logger.error("Unable to understand listPorts response: " + e.getMessage());
-                    throw new CloudException(e);
-                }
-                return portIds;
-            }
-            return Collections.EMPTY_LIST;
+            return listPortIds(getPortResource() + "?device_id=" + vm.getProviderVirtualMachineId() + "&fields=id", vm.getProviderVlanId(), null);
         }
         finally {
             APITrace.end();
@@ -258,41 +235,7 @@ public class Quantum extends AbstractVLANSupport<NovaOpenStack> {
         try {
             Subnet subnet = getSubnet(subnetId);
 
-            JSONObject result = null;
-            if (getNetworkType().equals(QuantumType.QUANTUM) ) {
-                result = getMethod().getNetworks(getPortResource() + "?network_id=" + subnet.getProviderVlanId() + "&fields=id&fields=fixed_ips", null, false);
-            }
-            else {
-                result = getMethod().getServers(getNetworkResource() + "/" + subnet.getProviderVlanId() + "/ports", null, false);
-            }
-            if( result != null && result.has("ports") ) {
-                List<String> portIds = new ArrayList<String>();
-                try {
-                    JSONArray ports = result.getJSONArray("ports");
-                    for( int i = 0; i < ports.length(); i++ ) {
-                        JSONObject port = ports.getJSONObject(i);
-                        boolean subnetFound = false;
-                        if( port.has("fixed_ips")){
-                            JSONArray ips = port.getJSONArray("fixed_ips");
-                            for( int j = 0; j < ips.length(); j++ ) {
-                                JSONObject fixedIp = ips.getJSONObject(j);
-                                if( fixedIp.has("subnet_id") && ( subnetId.equals(fixedIp.getString("subnet_id")) ) ) {
-                                    subnetFound = true;
-                                    break;
-                                }
-                            }
-                        }
-                        if( port.has("id") && subnetFound ) {
-                            portIds.add(port.getString("id"));
-                        }
-                    }
-                } catch (JSONException e) {
-                    logger.error("Unable to understand listPorts response: " + e.getMessage());
-                    throw new CloudException(e);
-                }
-                return portIds;
-            }
-            return Collections.EMPTY_LIST;
+            return listPortIds(getPortResource() + "?network_id=" + subnet.getProviderVlanId() + "&fields=id&fields=fixed_ips", subnet.getProviderVlanId(), subnetId);
         }
         finally {
             APITrace.end();
@@ -302,34 +245,64 @@ public class Quantum extends AbstractVLANSupport<NovaOpenStack> {
     protected  @Nonnull Iterable<String> listPortsByNetworkId(@Nonnull String vlanId) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "VLAN.listPorts");
         try {
-            JSONObject result = null;
-            if (getNetworkType().equals(QuantumType.QUANTUM) ) {
-                result = getMethod().getNetworks(getPortResource() + "?network_id=" + vlanId + "&fields=id", null, false);
-            }
-            else {
-                result = getMethod().getServers(getNetworkResource() + "/" + vlanId + "/ports", null, false);
-            }
-            if( result != null && result.has("ports") ) {
-                List<String> portIds = new ArrayList<String>();
-                try {
-                    JSONArray ports = result.getJSONArray("ports");
-                    for( int i = 0; i < ports.length(); i++ ) {
-                        JSONObject port = ports.getJSONObject(i);
-                        if( port.has("id" ) ) {
-                            portIds.add(port.getString("id"));
+            return listPortIds(getPortResource() + "?network_id=" + vlanId + "&fields=id", vlanId, null);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Lists the IDs of ports, reading each port as it arrives instead of holding the whole listing in memory.
+     * @param portResource the port listing to use with Quantum networking, including its query string
+     * @param vlanId the network whose ports are listed with other networking types
+     * @param subnetId the subnet in which ports must have a fixed IP or <code>null</code> to list all ports
+     * @return the IDs of the ports
+     * @throws CloudException an error occurred with the cloud provider while listing the ports
+     * @throws InternalException an error occurred within Dasein Cloud while processing the ports
+     */
+    private @Nonnull List<String> listPortIds(@Nonnull String portResource, @Nullable String vlanId, @Nullable final String subnetId) throws CloudException, InternalException {
+        JSONListParser.ItemConverter<String> converter = new JSONListParser.ItemConverter<String>() {
+            @Override
+            public String convert(@Nonnull JSONObject port) throws JSONException {
+                if( !port.has("id") ) {
+                    return null;
+                }
+                if( subnetId != null ) {
+                    JSONArray ips = port.optJSONArray("fixed_ips");
+
+                    if( ips == null ) {
+                        return null;
+                    }
+                    boolean subnetFound = false;
+
+                    for( int j = 0; j < ips.length(); j++ ) {
+                        JSONObject fixedIp = ips.getJSONObject(j);
+
+                        if( fixedIp.has("subnet_id") && subnetId.equals(fixedIp.getString("subnet_id")) ) {
+                            subnetFound = true;
+                            break;
                         }
                     }
-                } catch (JSONException e) {
-                    logger.error("Unable to understand listPorts response: " + e.getMessage());
-                    throw new CloudException(e);
+                    if( !subnetFound ) {
+                        return null;
+                    }
                 }
-                return portIds;
+                return port.getString("id");
             }
-            return Collections.EMPTY_LIST;
+        };
+        List<String> portIds;
+
+        if( getNetworkType().equals(QuantumType.QUANTUM) ) {
+            portIds = getMethod().getNetworkList(portResource, "ports", converter);
         }
-        finally {
-            APITrace.end();
+        else {
+            portIds = getMethod().getServerList(getNetworkResource() + "/" + vlanId + "/ports", false, null, "ports", converter, null);
+        }
+        if( portIds == null ) {
+            return Collections.emptyList();
         }
+        return portIds;
     }
 
     @Override
@@ -713,6 +686,47 @@ public class Quantum extends AbstractVLANSupport<NovaOpenStack> {
         }
     }
 
+    /**
+     * Fetches every subnet visible to the tenant in a single call and indexes them by network so that callers
+     * mapping many addresses to subnets do not need to list subnets once per address.
+     * @return an index of all subnets by network
+     * @throws CloudException an error occurred with the cloud provider while listing the subnets
+     * @throws InternalException an error occurred within Dasein Cloud while processing the subnets
+     */
+    public @Nonnull SubnetIndex getSubnetIndex() throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "VLAN.getSubnetIndex");
+        try {
+            SubnetIndex index = new SubnetIndex();
+
+            if( !getNetworkType().equals(QuantumType.QUANTUM) ) {
+                return index;
+            }
+            JSONObject ob = getMethod().getNetworks(getSubnetResource(), null, false);
+
+            try {
+                if( ob != null && ob.has("subnets") ) {
+                    JSONArray list = ob.getJSONArray("subnets");
+
+                    for( int i=0; i<list.length(); i++ ) {
+                        JSONObject json = list.getJSONObject(i);
+
+                        if( json.has("id") && json.has("network_id") ) {
+                            index.add(json.getString("network_id"), json.getString("id"), json.optString("cidr", null));
+                        }
+                    }
+                }
+            }
+            catch( JSONException e ) {
+                logger.error("Unable to identify expected values in JSON: " + e.getMessage());
+                throw new CloudException(CloudErrorType.COMMUNICATION, 200, "invalidJson", "Missing JSON element for subnets in " + ob.toString());
+            }
+            return index;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
     @Override
     public @Nonnull Iterable<ResourceStatus> listVlanStatus() throws CloudException, InternalException {
         APITrace.begin(getProvider(), "VLAN.listVlanStatus");
@@ -0,0 +1,256 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os.network;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.openstack.nova.os.NovaOpenStack;
+
+/**
+ * In-memory longest-prefix-match index of the subnets in each network. It lets callers resolve the subnet an IPv4
+ * or IPv6 address belongs to without going back to the cloud for every address. An index is populated once and is
+ * safe to share between threads for lookups afterwards.
+ */
+public class SubnetIndex {
+    static private final Logger logger = NovaOpenStack.getLogger(SubnetIndex.class, "std");
+
+    /**
+     * Parses a literal IPv4 or IPv6 address without ever resolving host names.
+     * @param address the address to parse
+     * @return the raw bytes of the address or <code>null</code> if it is not a valid literal address
+     */
+    static @Nullable byte[] toBytes(@Nullable String address) {
+        if( address == null ) {
+            return null;
+        }
+        address = address.trim();
+        if( address.indexOf(':') > -1 ) {
+            int idx = address.indexOf('%');
+
+            if( idx > -1 ) {
+                address = address.substring(0, idx);
+            }
+            return toIPv6Bytes(address);
+        }
+        return toIPv4Bytes(address);
+    }
+
+    static private @Nullable byte[] toIPv4Bytes(@Nonnull String address) {
+        String[] parts = address.split("\\.", -1);
+
+        if( parts.length != 4 ) {
+            return null;
+        }
+        byte[] bytes = new byte[4];
+
+        for( int i=0; i<4; i++ ) {
+            int octet = toNumber(parts[i], 10, 3);
+
+            if( octet < 0 || octet > 255 ) {
+                return null;
+            }
+            bytes[i] = (byte)octet;
+        }
+        return bytes;
+    }
+
+    static private @Nullable byte[] toIPv6Bytes(@Nonnull String address) {
+        int idx = address.indexOf("::");
+
+        if( idx > -1 && address.indexOf("::", idx + 1) > -1 ) {
+            return null;
+        }
+        int[] head = toGroups(idx > -1 ? address.substring(0, idx) : address, idx < 0);
+        int[] tail = toGroups(idx > -1 ? address.substring(idx + 2) : "", true);
+
+        if( head == null || tail == null ) {
+            return null;
+        }
+        if( idx > -1 ? (head.length + tail.length > 7) : (head.length != 8) ) {
+            return null;
+        }
+        byte[] bytes = new byte[16];
+
+        for( int i=0; i<head.length; i++ ) {
+            bytes[i * 2] = (byte)(head[i] >> 8);
+            bytes[i * 2 + 1] = (byte)head[i];
+        }
+        for( int i=0; i<tail.length; i++ ) {
+            int offset = (8 - tail.length + i) * 2;
+
+            bytes[offset] = (byte)(tail[i] >> 8);
+            bytes[offset + 1] = (byte)tail[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Parses the colon-separated 16-bit groups on one side of an IPv6 <code>::</code>.
+     * @param part the groups to parse
+     * @param last whether the groups end the address, so the final one may be an embedded IPv4 address
+     * @return the values of the groups or <code>null</code> if any group is invalid
+     */
+    static private @Nullable int[] toGroups(@Nonnull String part, boolean last) {
+        if( part.length() < 1 ) {
+            return new int[0];
+        }
+        String[] groups = part.split(":", -1);
+        byte[] ipv4 = null;
+        int count = groups.length;
+
+        if( last && groups[count - 1].indexOf('.') > -1 ) {
+            ipv4 = toIPv4Bytes(groups[count - 1]);
+            if( ipv4 == null ) {
+                return null;
+            }
+            count--;
+        }
+        int[] values = new int[ipv4 == null ? count : count + 2];
+
+        for( int i=0; i<count; i++ ) {
+            values[i] = toNumber(groups[i], 16, 4);
+            if( values[i] < 0 ) {
+                return null;
+            }
+        }
+        if( ipv4 != null ) {
+            values[count] = ((ipv4[0] & 0xff) << 8) | (ipv4[1] & 0xff);
+            values[count + 1] = ((ipv4[2] & 0xff) << 8) | (ipv4[3] & 0xff);
+        }
+        return values;
+    }
+
+    static private int toNumber(@Nonnull String digits, int radix, int maxLength) {
+        if( digits.length() < 1 || digits.length() > maxLength ) {
+            return -1;
+        }
+        int value = 0;
+
+        for( int i=0; i<digits.length(); i++ ) {
+            char c = digits.charAt(i);
+            int digit = (c < 128 ? Character.digit(c, radix) : -1);
+
+            if( digit < 0 ) {
+                return -1;
+            }
+            value = value * radix + digit;
+        }
+        return value;
+    }
+
+    static private @Nonnull BigInteger toPrefix(@Nonnull byte[] address, int prefixLength) {
+        return new BigInteger(1, address).shiftRight(address.length * 8 - prefixLength);
+    }
+
+    // network ID + address length -> prefix length (longest first) -> network prefix -> subnet ID
+    private final Map<String,TreeMap<Integer,Map<BigInteger,String>>> networks = new HashMap<String, TreeMap<Integer, Map<BigInteger, String>>>();
+    private int size;
+
+    public SubnetIndex() { }
+
+    /**
+     * Adds a subnet to the index.
+     * @param vlanId the ID of the network the subnet belongs to
+     * @param subnetId the ID of the subnet
+     * @param cidr the address block of the subnet
+     * @return true if the subnet was indexed, false if its CIDR could not be understood
+     */
+    public boolean add(@Nonnull String vlanId, @Nonnull String subnetId, @Nullable String cidr) {
+        if( cidr == null ) {
+            return false;
+        }
+        int idx = cidr.indexOf('/');
+        byte[] address = toBytes(idx > -1 ? cidr.substring(0, idx) : cidr);
+
+        if( address == null ) {
+            logger.warn("Couldn't index an invalid CIDR: " + cidr);
+            return false;
+        }
+        int prefixLength = address.length * 8;
+
+        if( idx > -1 ) {
+            try {
+                prefixLength = Integer.parseInt(cidr.substring(idx + 1).trim());
+            }
+            catch( NumberFormatException e ) {
+                prefixLength = -1;
+            }
+            if( prefixLength < 0 || prefixLength > address.length * 8 ) {
+                logger.warn("Couldn't index an invalid CIDR: " + cidr);
+                return false;
+            }
+        }
+        String key = vlanId + "/" + address.length;
+        TreeMap<Integer,Map<BigInteger,String>> prefixes = networks.get(key);
+
+        if( prefixes == null ) {
+            prefixes = new TreeMap<Integer, Map<BigInteger, String>>(Collections.reverseOrder());
+            networks.put(key, prefixes);
+        }
+        Map<BigInteger,String> subnets = prefixes.get(prefixLength);
+
+        if( subnets == null ) {
+            subnets = new HashMap<BigInteger, String>();
+            prefixes.put(prefixLength, subnets);
+        }
+        subnets.put(toPrefix(address, prefixLength), subnetId);
+        size++;
+        return true;
+    }
+
+    /**
+     * Identifies the most specific subnet in the specified network that contains the specified address.
+     * @param vlanId the ID of the network to search
+     * @param address the IPv4 or IPv6 address to match
+     * @return the ID of the matching subnet or <code>null</code> if no subnet in the network contains the address
+     */
+    public @Nullable String getSubnetId(@Nonnull String vlanId, @Nullable String address) {
+        byte[] bytes = toBytes(address);
+
+        if( bytes == null ) {
+            return null;
+        }
+        TreeMap<Integer,Map<BigInteger,String>> prefixes = networks.get(vlanId + "/" + bytes.length);
+
+        if( prefixes == null ) {
+            return null;
+        }
+        for( Map.Entry<Integer,Map<BigInteger,String>> entry : prefixes.entrySet() ) {
+            String subnetId = entry.getValue().get(toPrefix(bytes, entry.getKey()));
+
+            if( subnetId != null ) {
+                return subnetId;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -4,16 +4,28 @@ import org.apache.http.*;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.HttpStatus;
+import org.dasein.cloud.Cloud;
 import org.dasein.cloud.CloudErrorType;
 import org.dasein.cloud.CloudException;
+import org.dasein.cloud.ContextRequirements;
 import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.openstack.nova.os.fake.FakeOpenStack;
+import org.json.JSONObject;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 /**
@@ -85,4 +97,149 @@ public class AbstractMethodTest {
             e.printStackTrace();
         }
     }
+
+    private AuthenticationContext newContext(String token) {
+        Map<String,Map<String,String>> services = new HashMap<String, Map<String, String>>();
+
+        return new AuthenticationContext("region", token, "tenant", services, null);
+    }
+
+    @Test
+    public void unauthorizedRequestIsRetriedWithNewToken() throws Exception {
+        NovaOpenStack provider = mock(NovaOpenStack.class);
+        AuthenticationContext rejected = newContext("rejected"), accepted = newContext("accepted");
+
+        when(provider.getAuthenticationContext()).thenReturn(rejected, accepted);
+        NovaMethod method = new NovaMethod(provider);
+        String result = method.authenticated(new AbstractMethod.AuthenticatedCall<String>() {
+            @Override
+            public String call(AuthenticationContext context) throws CloudException, InternalException {
+                if( context.getAuthToken().equals("rejected") ) {
+                    throw new NovaException(CloudErrorType.AUTHENTICATION, HttpStatus.SC_UNAUTHORIZED, "unauthorized", "expired");
+                }
+                return context.getAuthToken();
+            }
+        });
+        assertEquals("accepted", result);
+        verify(provider).invalidateAuthenticationContext(rejected);
+        verify(provider, never()).invalidateAuthenticationContext(accepted);
+    }
+
+    @Test
+    public void unauthorizedRetriesAreBounded() throws Exception {
+        NovaOpenStack provider = mock(NovaOpenStack.class);
+        final AtomicInteger calls = new AtomicInteger();
+
+        when(provider.getAuthenticationContext()).thenReturn(newContext("revoked"));
+        NovaMethod method = new NovaMethod(provider);
+        try {
+            method.authenticated(new AbstractMethod.AuthenticatedCall<String>() {
+                @Override
+                public String call(AuthenticationContext context) throws CloudException, InternalException {
+                    calls.incrementAndGet();
+                    throw new NovaException(CloudErrorType.AUTHENTICATION, HttpStatus.SC_UNAUTHORIZED, "unauthorized", "revoked");
+                }
+            });
+            assertTrue("Exception should have been thrown", false);
+        }
+        catch( CloudException e ) {
+            assertEquals("Exception HTTP status code does not match", HttpStatus.SC_UNAUTHORIZED, e.getHttpCode());
+        }
+        assertEquals(AbstractMethod.MAX_AUTHENTICATION_RETRIES + 1, calls.get());
+    }
+
+    /**
+     * Connects a real provider to a fake cloud whose endpoint carries no "ks:" or "st:" prefix, so authentication
+     * has to work out the flavor the endpoint speaks.
+     */
+    private NovaOpenStack connect(FakeOpenStack cloud) {
+        final ProviderContext ctx = mock(ProviderContext.class);
+        Cloud c = mock(Cloud.class);
+
+        when(c.getEndpoint()).thenReturn(cloud.getEndpoint());
+        when(ctx.getCloud()).thenReturn(c);
+        when(ctx.getEndpoint()).thenReturn(cloud.getEndpoint());
+        when(ctx.getAccountNumber()).thenReturn(FakeOpenStack.TENANT_NAME);
+        when(ctx.getEffectiveAccountNumber()).thenReturn(FakeOpenStack.TENANT_NAME);
+        when(ctx.getRegionId()).thenReturn(FakeOpenStack.REGION);
+        when(ctx.getCustomProperties()).thenReturn(new Properties());
+        when(ctx.getConfigurationValue(any(ContextRequirements.Field.class))).thenReturn(new byte[][] { "user".getBytes(), "secret".getBytes() });
+        return new NovaOpenStack() {
+            @Override
+            public ProviderContext getContext() {
+                return ctx;
+            }
+        };
+    }
+
+    @Test
+    public void rememberedFlavorIsTriedFirst() throws Exception {
+        FakeOpenStack cloud = new FakeOpenStack().start();
+
+        try {
+            NovaMethod method = new NovaMethod(connect(cloud));
+
+            assertNotNull(method.authenticate());
+            assertEquals("Detection should have settled on Keystone", AuthenticationFlavor.KEYSTONE, AbstractMethod.getAuthenticationFlavor(cloud.getEndpoint()));
+            cloud.resetStatistics();
+            assertNotNull(method.authenticate());
+            assertEquals("Authenticating with a remembered flavor should take a single request", 1L, cloud.getRequestCount());
+            assertEquals(1L, cloud.getRequestCount("POST identity tokens"));
+        }
+        finally {
+            cloud.stop();
+        }
+    }
+
+    @Test
+    public void rememberedFlavorIsDroppedOnceItFails() throws Exception {
+        FakeOpenStack cloud = new FakeOpenStack().start();
+
+        try {
+            NovaMethod method = new NovaMethod(connect(cloud));
+
+            AbstractMethod.setAuthenticationFlavor(cloud.getEndpoint(), AuthenticationFlavor.STANDARD);
+            assertNotNull("Authentication should have fallen back to detection", method.authenticate());
+            assertEquals("The remembered flavor should have been tried first", 1L, cloud.getRequestCount("GET identity /"));
+            assertEquals(1L, cloud.getRequestCount("POST identity tokens"));
+            assertEquals("The flavor that failed should have been replaced", AuthenticationFlavor.KEYSTONE, AbstractMethod.getAuthenticationFlavor(cloud.getEndpoint()));
+            cloud.resetStatistics();
+            assertNotNull(method.authenticate());
+            assertEquals("The failed flavor should not be tried again", 0L, cloud.getRequestCount("GET identity /"));
+            assertEquals(1L, cloud.getRequestCount());
+        }
+        finally {
+            cloud.stop();
+        }
+    }
+
+    @Test
+    public void unavailableResponsesAreOnlyRetriedForIdempotentRequests() throws Exception {
+        FakeOpenStack cloud = new FakeOpenStack().start();
+
+        try {
+            NovaMethod method = new NovaMethod(connect(cloud));
+
+            cloud.createImages(1);
+            cloud.setFailureStatus(HttpStatus.SC_SERVICE_UNAVAILABLE).setRetryAfter(1);
+            method.getServers("/flavors", null, false);
+            cloud.resetStatistics();
+            cloud.failNext(1);
+            assertNotNull("The GET should have been retried", method.getServers("/flavors", null, false));
+            assertEquals(2L, cloud.getRequestCount("GET compute flavors"));
+            cloud.failNext(1);
+            try {
+                method.postServers("/servers", null, new JSONObject().put("server", new JSONObject().put("name", "unavailable")), false);
+                fail("A POST answered with 503 should not have been repeated");
+            }
+            catch( CloudException e ) {
+                assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, e.getHttpCode());
+            }
+            assertEquals(1L, cloud.getRequestCount("POST compute servers"));
+            assertEquals(0, cloud.getServers().size());
+        }
+        finally {
+            cloud.stop();
+        }
+    }
 }
@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import org.dasein.cloud.CloudException;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AuthenticationCacheTest {
+    private AuthenticationContext newContext(String token) {
+        return newContext(token, -1L);
+    }
+
+    private AuthenticationContext newContext(String token, long expiration) {
+        Map<String,Map<String,String>> services = new HashMap<String, Map<String, String>>();
+
+        return new AuthenticationContext("region", token, "tenant", services, null, expiration);
+    }
+
+    @Test
+    public void concurrentMissesAuthenticateOnce() throws Exception {
+        final String key = "single-flight|" + System.nanoTime();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<AuthenticationContext> loader = new Callable<AuthenticationContext>() {
+            @Override
+            public AuthenticationContext call() throws Exception {
+                calls.incrementAndGet();
+                release.await(10, TimeUnit.SECONDS);
+                return newContext("token");
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<AuthenticationContext>> results = new ArrayList<Future<AuthenticationContext>>();
+
+            for( int i=0; i<8; i++ ) {
+                results.add(executor.submit(new Callable<AuthenticationContext>() {
+                    @Override
+                    public AuthenticationContext call() throws Exception {
+                        return AuthenticationCache.get(key, loader);
+                    }
+                }));
+            }
+            Thread.sleep(200L);
+            release.countDown();
+            for( Future<AuthenticationContext> result : results ) {
+                assertEquals("token", result.get(10, TimeUnit.SECONDS).getAuthToken());
+            }
+            assertEquals("Only one thread should have authenticated", 1, calls.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void invalidateOnlyAffectsItsKey() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<AuthenticationContext> loader = new Callable<AuthenticationContext>() {
+            @Override
+            public AuthenticationContext call() throws Exception {
+                return newContext("token-" + calls.incrementAndGet());
+            }
+        };
+        String a = "a|" + System.nanoTime(), b = "b|" + System.nanoTime();
+
+        assertEquals("token-1", AuthenticationCache.get(a, loader).getAuthToken());
+        assertEquals("token-2", AuthenticationCache.get(b, loader).getAuthToken());
+        AuthenticationCache.invalidate(a);
+        assertNull(AuthenticationCache.getIfPresent(a));
+        assertEquals("token-3", AuthenticationCache.get(a, loader).getAuthToken());
+        assertEquals("token-2", AuthenticationCache.get(b, loader).getAuthToken());
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        String key = "failure|" + System.nanoTime();
+
+        try {
+            AuthenticationCache.get(key, new Callable<AuthenticationContext>() {
+                @Override
+                public AuthenticationContext call() throws Exception {
+                    throw new CloudException("denied");
+                }
+            });
+            fail("The authentication failure should have been raised");
+        }
+        catch( CloudException expected ) {
+            assertEquals("denied", expected.getMessage());
+        }
+        assertEquals("token", AuthenticationCache.get(key, new Callable<AuthenticationContext>() {
+            @Override
+            public AuthenticationContext call() throws Exception {
+                return newContext("token");
+            }
+        }).getAuthToken());
+    }
+
+    @Test
+    public void expiredContextsAreReplaced() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<AuthenticationContext> loader = new Callable<AuthenticationContext>() {
+            @Override
+            public AuthenticationContext call() throws Exception {
+                return newContext("token-" + calls.incrementAndGet(), System.currentTimeMillis() - 1000L);
+            }
+        };
+        String key = "expired|" + System.nanoTime();
+
+        assertEquals("token-1", AuthenticationCache.get(key, loader).getAuthToken());
+        assertNull(AuthenticationCache.getIfPresent(key));
+        assertEquals("token-2", AuthenticationCache.get(key, loader).getAuthToken());
+    }
+
+    @Test
+    public void contextsAboutToExpireAreRefreshedInTheBackground() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        Callable<AuthenticationContext> loader = new Callable<AuthenticationContext>() {
+            @Override
+            public AuthenticationContext call() throws Exception {
+                int call = calls.incrementAndGet();
+
+                if( call > 1 ) {
+                    refreshed.countDown();
+                }
+                return newContext("token-" + call, System.currentTimeMillis() + (call > 1 ? 60000L : 2000L));
+            }
+        };
+        String key = "refresh|" + System.nanoTime();
+
+        assertEquals("token-1", AuthenticationCache.get(key, loader, 120000L, null).getAuthToken());
+        // the skew is capped at half of the two second lifetime
+        Thread.sleep(1100L);
+        // still valid, so it is served while the replacement is fetched
+        assertEquals("token-1", AuthenticationCache.get(key, loader, 120000L, null).getAuthToken());
+        assertTrue("No background refresh happened", refreshed.await(10, TimeUnit.SECONDS));
+        for( int i=0; i<100 && AuthenticationCache.getIfPresent(key).getAuthToken().equals("token-1"); i++ ) {
+            Thread.sleep(10L);
+        }
+        assertEquals("token-2", AuthenticationCache.get(key, loader, 1000L, null).getAuthToken());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void keystoneExpirationIsParsedAsUtc() {
+        assertEquals(1441108800000L, AbstractMethod.parseExpiration("2015-09-01T12:00:00Z"));
+        assertEquals(1441108800123L, AbstractMethod.parseExpiration("2015-09-01T12:00:00.123456Z"));
+        assertEquals(-1L, AbstractMethod.parseExpiration(null));
+        assertEquals(-1L, AbstractMethod.parseExpiration(""));
+        assertEquals(-1L, AbstractMethod.parseExpiration("soon"));
+    }
+
+    @Test
+    public void keystoneExpirationHonorsEveryReportedFormat() {
+        // v3
+        assertEquals(1441108800000L, AbstractMethod.parseExpiration("2015-09-01T12:00:00.000000Z"));
+        // numeric offsets
+        assertEquals(1441108800000L, AbstractMethod.parseExpiration("2015-09-01T12:00:00+00:00"));
+        assertEquals(1441108800000L, AbstractMethod.parseExpiration("2015-09-01T14:00:00+02:00"));
+        assertEquals(1441108800000L, AbstractMethod.parseExpiration("2015-09-01T07:00:00-0500"));
+        assertEquals(1441108800000L, AbstractMethod.parseExpiration("2015-09-01T12:00:00.000000+00:00"));
+        // no zone at all
+        assertEquals(1441108800000L, AbstractMethod.parseExpiration("2015-09-01T12:00:00"));
+    }
+
+    @Test
+    public void novaTimestampsAreStillReadInLocalTime() throws Exception {
+        TimeZone zone = TimeZone.getDefault();
+
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        try {
+            long local = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse("2015-09-01 12:00:00").getTime();
+
+            assertEquals(local, NovaOpenStack.parseTimestamp("2015-09-01 12:00:00"));
+            assertEquals(local, NovaOpenStack.parseTimestamp("2015-09-01T12:00:00"));
+            assertEquals(local, NovaOpenStack.parseTimestamp("2015-09-01T12:00:00Z"));
+            assertEquals(local, NovaOpenStack.parseTimestamp("2015-09-01T12:00:00.000000"));
+            assertEquals(0L, NovaOpenStack.parseTimestamp(null));
+            // token expirations are UTC whatever the local time zone
+            assertEquals(1441108800000L, AbstractMethod.parseExpiration("2015-09-01T12:00:00"));
+        }
+        finally {
+            TimeZone.setDefault(zone);
+        }
+    }
+
+    @Test
+    public void refreshSkewIsCappedAtHalfTheTokenLifetime() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<AuthenticationContext> loader = new Callable<AuthenticationContext>() {
+            @Override
+            public AuthenticationContext call() throws Exception {
+                return newContext("token-" + calls.incrementAndGet(), System.currentTimeMillis() + 60000L);
+            }
+        };
+        String key = "skew|" + System.nanoTime();
+
+        for( int i=0; i<10; i++ ) {
+            assertEquals("token-1", AuthenticationCache.get(key, loader, 120000L, null).getAuthToken());
+        }
+        Thread.sleep(200L);
+        assertEquals("A skew longer than the token lives should not refresh on every call", 1, calls.get());
+    }
+
+    @Test
+    public void failedRefreshesAreNotRetriedRightAway() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch failed = new CountDownLatch(1);
+        Callable<AuthenticationContext> loader = new Callable<AuthenticationContext>() {
+            @Override
+            public AuthenticationContext call() throws Exception {
+                if( calls.incrementAndGet() > 1 ) {
+                    failed.countDown();
+                    throw new CloudException("denied");
+                }
+                return newContext("token-1", System.currentTimeMillis() + 2000L);
+            }
+        };
+        String key = "refresh-failure|" + System.nanoTime();
+
+        assertEquals("token-1", AuthenticationCache.get(key, loader, 60000L, null).getAuthToken());
+        Thread.sleep(1100L);
+        assertEquals("token-1", AuthenticationCache.get(key, loader, 60000L, null).getAuthToken());
+        assertTrue("No background refresh happened", failed.await(10, TimeUnit.SECONDS));
+        for( int i=0; i<10; i++ ) {
+            assertEquals("token-1", AuthenticationCache.get(key, loader, 60000L, null).getAuthToken());
+            Thread.sleep(10L);
+        }
+        assertEquals("The failed refresh should not have been retried", 2, calls.get());
+    }
+
+    @Test
+    public void staleRejectionsDoNotDropNewerContexts() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<AuthenticationContext> loader = new Callable<AuthenticationContext>() {
+            @Override
+            public AuthenticationContext call() throws Exception {
+                return newContext("token-" + calls.incrementAndGet());
+            }
+        };
+        String key = "rejection|" + System.nanoTime();
+        AuthenticationContext first = AuthenticationCache.get(key, loader);
+
+        assertTrue(AuthenticationCache.invalidate(key, first));
+        assertEquals("token-2", AuthenticationCache.get(key, loader).getAuthToken());
+        // a second request that was rejected with the first token must not throw away the second one
+        assertFalse(AuthenticationCache.invalidate(key, first));
+        assertEquals("token-2", AuthenticationCache.get(key, loader).getAuthToken());
+        assertEquals(2, calls.get());
+    }
+}
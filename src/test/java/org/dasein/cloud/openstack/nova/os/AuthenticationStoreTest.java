@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AuthenticationStoreTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("nova-auth", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+
+        if( files != null ) {
+            for( File file : files ) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private AuthenticationContext newContext(long expiration) {
+        Map<String,Map<String,String>> services = new HashMap<String, Map<String, String>>();
+        Map<String,String> compute = new HashMap<String, String>();
+
+        compute.put("region-a", "https://compute.example.com/v2/tenant");
+        compute.put(null, "https://compute.example.com/v2/default");
+        services.put("compute", compute);
+        return new AuthenticationContext("region-a", "token", "tenant", services, null, expiration, AuthenticationFlavor.KEYSTONE);
+    }
+
+    @Test
+    public void storedContextIsRestored() throws Exception {
+        long expiration = System.currentTimeMillis() + 3600000L;
+
+        new AuthenticationStore(directory, "key", "secret".getBytes("utf-8")).save(newContext(expiration));
+        AuthenticationContext ctx = new AuthenticationStore(directory, "key", "secret".getBytes("utf-8")).load(60000L);
+
+        assertNotNull(ctx);
+        assertEquals("token", ctx.getAuthToken());
+        assertEquals("token", ctx.getStorageToken());
+        assertEquals("tenant", ctx.getTenantId());
+        assertEquals(expiration, ctx.getExpiration());
+        assertEquals(AuthenticationFlavor.KEYSTONE, ctx.getFlavor());
+        assertEquals("https://compute.example.com/v2/tenant", ctx.getComputeUrl());
+        assertEquals("https://compute.example.com/v2/default", ctx.getServices().get("compute").get(null));
+    }
+
+    @Test
+    public void storeIsUnreadableWithOtherCredentials() throws Exception {
+        new AuthenticationStore(directory, "key", "secret".getBytes("utf-8")).save(newContext(System.currentTimeMillis() + 3600000L));
+        assertNull(new AuthenticationStore(directory, "key", "other".getBytes("utf-8")).load(0L));
+        assertNull(new AuthenticationStore(directory, "other", "secret".getBytes("utf-8")).load(0L));
+    }
+
+    @Test
+    public void failedLoadsLeaveTheStoreAlone() throws Exception {
+        new AuthenticationStore(directory, "key", "secret".getBytes("utf-8")).save(newContext(System.currentTimeMillis() + 3600000L));
+        // a provider set up with a wrong or rotated secret must not destroy a store others are using
+        assertNull(new AuthenticationStore(directory, "key", "rotated".getBytes("utf-8")).load(0L));
+        assertNotNull(new AuthenticationStore(directory, "key", "secret".getBytes("utf-8")).load(0L));
+    }
+
+    @Test
+    public void recordsWithoutATenantAreRejected() throws Exception {
+        JSONObject json = AuthenticationStore.toJSON(newContext(System.currentTimeMillis() + 3600000L));
+
+        assertNotNull(AuthenticationStore.fromJSON(json));
+        json.remove("tenantId");
+        assertNull(AuthenticationStore.fromJSON(json));
+    }
+
+    @Test
+    public void tamperedStoreIsIgnored() throws Exception {
+        new AuthenticationStore(directory, "key", "secret".getBytes("utf-8")).save(newContext(System.currentTimeMillis() + 3600000L));
+        File[] files = directory.listFiles();
+
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        RandomAccessFile raf = new RandomAccessFile(files[0], "rw");
+
+        try {
+            raf.seek(20);
+            int b = raf.read();
+
+            raf.seek(20);
+            raf.write(b ^ 1);
+        }
+        finally {
+            raf.close();
+        }
+        assertNull(new AuthenticationStore(directory, "key", "secret".getBytes("utf-8")).load(0L));
+    }
+
+    @Test
+    public void contextsExpiringSoonAreNotReused() throws Exception {
+        AuthenticationStore store = new AuthenticationStore(directory, "key", "secret".getBytes("utf-8"));
+
+        store.save(newContext(System.currentTimeMillis() + 60000L));
+        assertNull(store.load(300000L));
+        assertNotNull(store.load(0L));
+        store.remove();
+        assertNull(store.load(0L));
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    private void failRequests(CircuitBreaker breaker, int times) throws CloudException {
+        for( int i=0; i<times; i++ ) {
+            breaker.release(breaker.acquire(), true, 503);
+        }
+    }
+
+    private void assertRejected(CircuitBreaker breaker) {
+        try {
+            breaker.acquire();
+            fail("The circuit should be open");
+        }
+        catch( CloudException expected ) {
+            assertEquals(CloudErrorType.COMMUNICATION, expected.getErrorType());
+        }
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("https://lbaas.example.com", 3, 60000L);
+
+        failRequests(breaker, 2);
+        breaker.release(breaker.acquire(), true, 200);
+        failRequests(breaker, 2);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        failRequests(breaker, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertRejected(breaker);
+    }
+
+    @Test
+    public void trialRequestClosesTheCircuit() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("https://lbaas.example.com", 1, 0L);
+
+        failRequests(breaker, 1);
+        assertTrue("The first request after the open time should be a trial", breaker.acquire());
+        // only one trial at a time
+        assertRejected(breaker);
+        breaker.release(true, true, 200);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertFalse(breaker.acquire());
+    }
+
+    @Test
+    public void failedTrialOpensTheCircuitAgain() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("https://lbaas.example.com", 1, 0L);
+
+        failRequests(breaker, 1);
+        breaker.release(breaker.acquire(), true, -1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void unsentTrialsLetTheNextRequestTry() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("https://lbaas.example.com", 1, 0L);
+
+        failRequests(breaker, 1);
+        breaker.release(breaker.acquire(), false, -1);
+        assertTrue(breaker.acquire());
+    }
+
+    @Test
+    public void onlyOutagesCountAsFailures() {
+        assertTrue(CircuitBreaker.isFailure(-1));
+        assertTrue(CircuitBreaker.isFailure(500));
+        assertTrue(CircuitBreaker.isFailure(503));
+        assertFalse(CircuitBreaker.isFailure(501));
+        assertFalse(CircuitBreaker.isFailure(404));
+        assertFalse(CircuitBreaker.isFailure(413));
+    }
+}
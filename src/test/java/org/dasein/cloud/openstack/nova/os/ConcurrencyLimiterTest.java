@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimiterTest {
+    @Test
+    public void limitGrowsWhileItIsReached() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("https://nova.example.com", 2, 10, 60000L, 1000L);
+
+        for( int i=0; i<20; i++ ) {
+            long a = limiter.acquire();
+            long b = limiter.acquire();
+
+            limiter.release(a, false);
+            limiter.release(b, false);
+        }
+        assertTrue("The limit did not grow: " + limiter.getLimit(), limiter.getLimit() > 2);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void limitDoesNotGrowWhileItIsNotReached() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("https://nova.example.com", 10, 100, 60000L, 1000L);
+
+        for( int i=0; i<100; i++ ) {
+            limiter.release(limiter.acquire(), false);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void overloadCutsTheLimitOncePerRound() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("https://nova.example.com", 10, 100, 60000L, 1000L);
+        long[] started = new long[5];
+
+        for( int i=0; i<started.length; i++ ) {
+            started[i] = limiter.acquire();
+        }
+        for( long s : started ) {
+            limiter.release(s, true);
+        }
+        assertEquals(9, limiter.getLimit());
+        limiter.release(limiter.acquire(), true);
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void requestsOverTheLimitQueue() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter("https://nova.example.com", 1, 1, 60000L, 10000L);
+        long first = limiter.acquire();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<Long> second = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return limiter.acquire();
+                }
+            });
+
+            Thread.sleep(100L);
+            assertFalse("The second request should wait for the first", second.isDone());
+            limiter.release(first, false);
+            limiter.release(second.get(10, TimeUnit.SECONDS), false);
+            assertEquals(0, limiter.getInFlight());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void queueingIsBounded() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("https://nova.example.com", 1, 1, 60000L, 50L);
+
+        limiter.acquire();
+        try {
+            limiter.acquire();
+            fail("The second request should have timed out");
+        }
+        catch( CloudException expected ) {
+            assertEquals(CloudErrorType.THROTTLING, expected.getErrorType());
+        }
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void failingStatusesMeanOverload() {
+        assertTrue(ConcurrencyLimiter.isOverloaded(503));
+        assertTrue(ConcurrencyLimiter.isOverloaded(500));
+        assertTrue(ConcurrencyLimiter.isOverloaded(413));
+        assertTrue(ConcurrencyLimiter.isOverloaded(429));
+        assertFalse(ConcurrencyLimiter.isOverloaded(404));
+        assertFalse(ConcurrencyLimiter.isOverloaded(200));
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JSONListParserTest {
+    static private final JSONListParser.ItemConverter<String> NAMES = new JSONListParser.ItemConverter<String>() {
+        @Override
+        public String convert(@Nonnull JSONObject item) throws JSONException {
+            if( item.optBoolean("skip") ) {
+                return null;
+            }
+            return item.getString("name");
+        }
+    };
+
+    private InputStream toStream(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("utf-8"));
+    }
+
+    @Test
+    public void elementsAreConvertedInOrder() throws Exception {
+        String json = "{\"servers\": [{\"id\": \"1\", \"name\": \"web\", \"metadata\": {\"a\": [1, 2]}}, {\"name\": \"skip\", \"skip\": true}, {\"name\": \"db\"}]}";
+
+        assertEquals(Arrays.asList("web", "db"), JSONListParser.parse(toStream(json), "servers", NAMES, null));
+    }
+
+    @Test
+    public void otherMembersAreKeptInTheRemainder() throws Exception {
+        String json = "{\"servers_links\": [{\"rel\": \"next\", \"href\": \"https://nova/servers?marker=abc\"}], \"servers\": [{\"name\": \"web\"}], \"count\": 1}";
+        JSONObject remainder = new JSONObject();
+        List<String> names = JSONListParser.parse(toStream(json), "servers", NAMES, remainder);
+
+        assertEquals(Arrays.asList("web"), names);
+        assertFalse(remainder.has("servers"));
+        assertEquals("next", remainder.getJSONArray("servers_links").getJSONObject(0).getString("rel"));
+        assertEquals(1, remainder.getInt("count"));
+    }
+
+    @Test
+    public void missingOrEmptyListsYieldNothing() throws Exception {
+        assertTrue(JSONListParser.parse(toStream("{}"), "volumes", NAMES, null).isEmpty());
+        assertTrue(JSONListParser.parse(toStream("{\"volumes\": []}"), "volumes", NAMES, null).isEmpty());
+        assertTrue(JSONListParser.parse(toStream("{\"volumes\": null}"), "volumes", NAMES, null).isEmpty());
+        assertTrue(JSONListParser.parse(toStream("{\"other\": [{\"name\": \"x\"}]}"), "volumes", NAMES, null).isEmpty());
+    }
+
+    @Test
+    public void malformedResponsesAreReportedAsInvalidJson() throws Exception {
+        try {
+            JSONListParser.parse(toStream("{\"servers\": [{\"name\": \"web\"} {\"name\": \"db\"}]}"), "servers", NAMES, null);
+            fail("The missing comma should have been reported");
+        }
+        catch( CloudException expected ) {
+            assertEquals(CloudErrorType.COMMUNICATION, expected.getErrorType());
+            assertEquals("invalidJson", expected.getProviderCode());
+        }
+    }
+
+    @Test
+    public void conversionFailuresAreReported() throws Exception {
+        try {
+            JSONListParser.parse(toStream("{\"servers\": [{\"id\": \"1\"}]}"), "servers", NAMES, null);
+            fail("The server without a name should have been reported");
+        }
+        catch( CloudException expected ) {
+            assertEquals("invalidJson", expected.getProviderCode());
+        }
+    }
+}
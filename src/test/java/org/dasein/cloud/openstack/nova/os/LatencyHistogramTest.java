@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsCoverEveryValueWithinThreePercent() {
+        long[] values = { 0L, 1L, 63L, 64L, 65L, 1000L, 123456L, 99999999L, 1L << 40 };
+
+        for( long value : values ) {
+            long highest = LatencyHistogram.toHighestValue(LatencyHistogram.toIndex(value));
+
+            assertTrue("Bucket for " + value + " ends below it", highest >= value);
+            assertTrue("Bucket for " + value + " is too wide", highest - value <= Math.max(1L, value / 32L));
+        }
+        for( int i=1; i<1000; i++ ) {
+            assertTrue(LatencyHistogram.toHighestValue(i) > LatencyHistogram.toHighestValue(i - 1));
+        }
+    }
+
+    @Test
+    public void percentilesFollowTheRecordedLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for( long micros=1L; micros<=10000L; micros++ ) {
+            histogram.record(micros);
+        }
+        assertEquals(10000L, histogram.getCount());
+        assertEquals(10000L, histogram.getMax());
+        assertEquals(5000L, histogram.getMean());
+        assertEquals(5000.0, histogram.getPercentile(50.0), 5000.0 / 32);
+        assertEquals(9900.0, histogram.getPercentile(99.0), 9900.0 / 32);
+        assertEquals(10000L, histogram.getPercentile(100.0));
+    }
+
+    @Test
+    public void copiesAreNotAffectedByLaterRecordings() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(100L);
+
+        LatencyHistogram copy = histogram.copy();
+
+        histogram.record(5000000L);
+        assertEquals(1L, copy.getCount());
+        assertEquals(100L, copy.getMax());
+        assertEquals(100L, copy.getPercentile(99.0));
+        assertEquals(0L, new LatencyHistogram().getPercentile(50.0));
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.Properties;
+
+import org.dasein.cloud.Cloud;
+import org.dasein.cloud.ProviderContext;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NovaConnectionPoolTest {
+    private ProviderContext toContext(String endpoint, Properties p) {
+        ProviderContext ctx = mock(ProviderContext.class);
+        Cloud cloud = mock(Cloud.class);
+
+        when(cloud.getEndpoint()).thenReturn(endpoint);
+        when(ctx.getCloud()).thenReturn(cloud);
+        when(ctx.getCustomProperties()).thenReturn(p);
+        return ctx;
+    }
+
+    @Test
+    public void providersWithTheSameSettingsShareAPool() throws Exception {
+        NovaConnectionPool first = NovaConnectionPool.getInstance(toContext("https://shared.example.com:5000/v2.0", new Properties()), false);
+        NovaConnectionPool second = NovaConnectionPool.getInstance(toContext("https://shared.example.com:5000/v2.0", new Properties()), false);
+
+        try {
+            assertSame(first, second);
+            assertSame(first.getClient(), second.getClient());
+        }
+        finally {
+            first.release();
+            second.release();
+        }
+    }
+
+    @Test
+    public void endpointsProxiesAndTrustGetPoolsOfTheirOwn() throws Exception {
+        Properties proxied = new Properties();
+
+        proxied.setProperty("proxyHost", "proxy.example.com");
+        proxied.setProperty("proxyPort", "3128");
+
+        NovaConnectionPool pool = NovaConnectionPool.getInstance(toContext("https://one.example.com:5000/v2.0", new Properties()), false);
+        NovaConnectionPool otherEndpoint = NovaConnectionPool.getInstance(toContext("https://two.example.com:5000/v2.0", new Properties()), false);
+        NovaConnectionPool otherProxy = NovaConnectionPool.getInstance(toContext("https://one.example.com:5000/v2.0", proxied), false);
+        NovaConnectionPool otherTrust = NovaConnectionPool.getInstance(toContext("https://one.example.com:5000/v2.0", new Properties()), true);
+
+        try {
+            assertNotSame(pool, otherEndpoint);
+            assertNotSame(pool, otherProxy);
+            assertNotSame(pool, otherTrust);
+        }
+        finally {
+            pool.release();
+            otherEndpoint.release();
+            otherProxy.release();
+            otherTrust.release();
+        }
+    }
+
+    @Test
+    public void differentPoolSettingsAreNotSilentlyIgnored() throws Exception {
+        Properties small = new Properties();
+        Properties large = new Properties();
+
+        small.setProperty(NovaConnectionPool.MAX_CONNECTIONS, "5");
+        small.setProperty(NovaConnectionPool.IDLE_TIMEOUT, "10");
+        large.setProperty(NovaConnectionPool.MAX_CONNECTIONS, "200");
+
+        NovaConnectionPool first = NovaConnectionPool.getInstance(toContext("https://sized.example.com:5000/v2.0", small), false);
+        NovaConnectionPool second = NovaConnectionPool.getInstance(toContext("https://sized.example.com:5000/v2.0", large), false);
+
+        try {
+            assertNotSame(first, second);
+            assertEquals(5, first.getStats().getMax());
+            assertEquals(10000L, first.getIdleTimeout());
+            assertEquals(200, second.getStats().getMax());
+            assertEquals(60000L, second.getIdleTimeout());
+        }
+        finally {
+            first.release();
+            second.release();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.dasein.cloud.ProviderContext;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class NovaMetricsTest {
+    static private final String COMPUTE = "https://nova.example.com/v2/tenant";
+
+    private ProviderContext toContext(String enabled, String account) {
+        ProviderContext ctx = mock(ProviderContext.class);
+        Properties p = new Properties();
+
+        if( enabled != null ) {
+            p.setProperty(NovaMetrics.ENABLED, enabled);
+        }
+        when(ctx.getCustomProperties()).thenReturn(p);
+        when(ctx.getEndpoint()).thenReturn("https://keystone.example.com/v2.0");
+        when(ctx.getAccountNumber()).thenReturn(account);
+        when(ctx.getRegionId()).thenReturn("RegionOne");
+        return ctx;
+    }
+
+    private NovaMetrics.OperationSnapshot find(NovaMetrics.Snapshot snapshot, String service, String operation) {
+        for( NovaMetrics.OperationSnapshot op : snapshot.getOperations() ) {
+            if( op.getService().equals(service) && op.getOperation().equals(operation) ) {
+                return op;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void operationsAreNamedWithoutIdsOrQueries() {
+        assertEquals("GET servers", NovaMetrics.getOperationName(COMPUTE, new HttpGet(COMPUTE + "/servers/detail?limit=100&marker=abc")));
+        assertEquals("GET servers", NovaMetrics.getOperationName(COMPUTE, new HttpGet(COMPUTE + "/servers?name=web")));
+        assertEquals("POST tokens", NovaMetrics.getOperationName("https://keystone.example.com/v2.0", new HttpPost("https://keystone.example.com/v2.0/tokens")));
+        assertEquals("GET /", NovaMetrics.getOperationName(COMPUTE, new HttpGet(COMPUTE)));
+    }
+
+    @Test
+    public void metricsAreOnlyRecordedWhenEnabled() throws Exception {
+        assertNull(NovaMetrics.getInstance(toContext(null, "disabled")));
+        assertNull(NovaMetrics.getInstance(toContext("false", "disabled")));
+
+        NovaMetrics metrics = NovaMetrics.getInstance(toContext("true", "shared"));
+
+        assertNotNull(metrics);
+        assertSame(metrics, NovaMetrics.getInstance(toContext("true", "shared")));
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(metrics.getObjectName()));
+    }
+
+    @Test
+    public void requestsAreRecordedPerServiceAndOperation() throws Exception {
+        NovaMetrics metrics = new NovaMetrics("test|recorded|RegionOne", "https://keystone.example.com/v2.0");
+        Map<String,Map<String,String>> services = new HashMap<String, Map<String, String>>();
+
+        services.put("compute", Collections.singletonMap("RegionOne", COMPUTE));
+        metrics.observe(new AuthenticationContext("RegionOne", "token", "tenant", services, null));
+
+        HttpPost post = new HttpPost(COMPUTE + "/servers");
+
+        post.setEntity(new StringEntity("{\"server\": {}}"));
+        for( int status : new int[] { 202, 202, 413 } ) {
+            HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+
+            response.setEntity(new StringEntity("{\"server\": {\"id\": \"1\"}}"));
+            metrics.getOperation(COMPUTE, post).record(System.nanoTime(), post, response);
+            assertEquals("{\"server\": {\"id\": \"1\"}}", EntityUtils.toString(response.getEntity()));
+        }
+        metrics.getOperation(COMPUTE, new HttpGet(COMPUTE + "/flavors/detail")).fail(System.nanoTime());
+        metrics.retried();
+        metrics.reauthenticated();
+
+        NovaMetrics.Snapshot snapshot = metrics.snapshot();
+        NovaMetrics.OperationSnapshot create = find(snapshot, "compute", "POST servers");
+
+        assertNotNull(create);
+        assertEquals(3L, create.getCount());
+        assertEquals(Long.valueOf(2L), create.getStatusCounts().get(202));
+        assertEquals(Long.valueOf(1L), create.getStatusCounts().get(413));
+        assertEquals(3L * "{\"server\": {}}".length(), create.getRequestBytes());
+        assertEquals(3L * "{\"server\": {\"id\": \"1\"}}".length(), create.getResponseBytes());
+        assertEquals(1L, find(snapshot, "compute", "GET flavors").getFailureCount());
+        assertEquals(1L, snapshot.getRetryCount());
+        assertEquals(1L, snapshot.getReauthenticationCount());
+
+        Map<String,Long> values = snapshot.toMap();
+
+        assertEquals(Long.valueOf(3L), values.get("compute POST servers.count"));
+        assertEquals(Long.valueOf(1L), values.get("compute POST servers.status.413"));
+        assertTrue(values.containsKey("compute POST servers.latencyP99"));
+        assertTrue(values.containsKey("circuitBreaker.opened"));
+        assertTrue(values.containsKey("compression.bytesSaved"));
+        assertEquals(values.get("retries"), metrics.getAttribute("retries"));
+    }
+
+    @Test
+    public void authenticationRequestsAreAttributedToIdentity() {
+        NovaMetrics metrics = new NovaMetrics("test|identity|RegionOne", "ks:https://keystone.example.com/v2.0");
+
+        metrics.getOperation("https://keystone.example.com/v2.0", new HttpPost("https://keystone.example.com/v2.0/tokens")).fail(System.nanoTime());
+        assertNotNull(find(metrics.snapshot(), "identity", "POST tokens"));
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NovaVersionTest {
+    @Test
+    public void versionIsReadFromEndpoint() {
+        NovaVersion version = NovaVersion.parse("https://compute.example.com:8774/v1.1/5a8c32ef");
+
+        assertEquals(1, version.getMajor());
+        assertEquals(1, version.getMinor());
+        assertEquals("https://compute.example.com:8774/v1.1", version.getRoot());
+        assertTrue(version.isPostCactus());
+        assertFalse(version.isLegacy());
+        assertFalse(version.isDiscovered());
+
+        version = NovaVersion.parse("https://compute.example.com/v1.0/");
+        assertTrue(version.isLegacy());
+        assertFalse(version.isPostCactus());
+
+        version = NovaVersion.parse("https://compute.example.com/v2/");
+        assertEquals(2, version.getMajor());
+        assertEquals(2, version.getMinor());
+        assertEquals("https://compute.example.com/v2", version.getRoot());
+    }
+
+    @Test
+    public void missingEndpointIsTreatedAsOneDotOne() {
+        NovaVersion version = NovaVersion.parse(null);
+
+        assertEquals(1, version.getMajor());
+        assertEquals(1, version.getMinor());
+        assertNull(version.getRoot());
+    }
+
+    @Test
+    public void microversionsAreCompared() {
+        NovaVersion version = NovaVersion.parse("https://compute.example.com/v2.1").withMicroversions("2.1", "2.38");
+
+        assertTrue(version.isDiscovered());
+        assertEquals("2.38", version.getMicroversion());
+        assertTrue(version.supportsMicroversion("2.1"));
+        assertTrue(version.supportsMicroversion("2.9"));
+        assertTrue(version.supportsMicroversion("2.38"));
+        assertFalse(version.supportsMicroversion("2.39"));
+        assertFalse(version.supportsMicroversion("3.0"));
+        assertFalse(version.withMicroversions(null, null).supportsMicroversion("2.1"));
+    }
+
+    @Test
+    public void versionIsParsedOncePerContext() {
+        Map<String,Map<String,String>> services = new HashMap<String, Map<String, String>>();
+        Map<String,String> compute = new HashMap<String, String>();
+
+        compute.put("region", "https://compute.example.com/v2/tenant");
+        services.put("compute", compute);
+        AuthenticationContext ctx = new AuthenticationContext("region", "token", "tenant", services, null);
+
+        assertSame(ctx.getComputeVersion(), ctx.getComputeVersion());
+        assertEquals(2, ctx.getComputeVersion().getMajor());
+    }
+}
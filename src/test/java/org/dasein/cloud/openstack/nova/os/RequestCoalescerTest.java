@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dasein.cloud.CloudException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RequestCoalescerTest {
+    @Test
+    public void concurrentIdenticalRequestsShareOneFetch() throws Exception {
+        final String url = "https://nova.example.com/v2/tenant/os-floating-ips?" + System.nanoTime();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                release.await(10, TimeUnit.SECONDS);
+                return "{\"floating_ips\":[]}";
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        long coalesced = RequestCoalescer.getCoalescedCount();
+
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+
+            for( int i=0; i<6; i++ ) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return RequestCoalescer.get("token", url, 0L, loader);
+                    }
+                }));
+            }
+            // callers arriving after the request completed would rightly send their own
+            for( int i=0; i<1000 && RequestCoalescer.getCoalescedCount() < coalesced + 5; i++ ) {
+                Thread.sleep(10L);
+            }
+            release.countDown();
+            for( Future<String> result : results ) {
+                assertEquals("{\"floating_ips\":[]}", result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals("Only one request should have been sent", 1, calls.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void requestsWithDifferentTokensAreNotShared() throws Exception {
+        String url = "https://nova.example.com/v2/tenant/flavors?" + System.nanoTime();
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return "body-" + calls.incrementAndGet();
+            }
+        };
+
+        assertEquals("body-1", RequestCoalescer.get("token-a", url, 60000L, loader));
+        assertEquals("body-2", RequestCoalescer.get("token-b", url, 60000L, loader));
+        assertEquals("body-1", RequestCoalescer.get("token-a", url, 60000L, loader));
+    }
+
+    @Test
+    public void completedResponsesAreOnlyReusedWithinTheWindow() throws Exception {
+        String url = "https://nova.example.com/v2/tenant/os-networks?" + System.nanoTime();
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return "body-" + calls.incrementAndGet();
+            }
+        };
+
+        assertEquals("body-1", RequestCoalescer.get("token", url, 0L, loader));
+        assertEquals("body-2", RequestCoalescer.get("token", url, 0L, loader));
+        assertEquals("body-3", RequestCoalescer.get("token", url, 50L, loader));
+        assertEquals("body-3", RequestCoalescer.get("token", url, 50L, loader));
+        Thread.sleep(100L);
+        assertEquals("body-4", RequestCoalescer.get("token", url, 50L, loader));
+    }
+
+    @Test
+    public void failuresAreNotReused() throws Exception {
+        String url = "https://nova.example.com/v2/tenant/os-security-groups?" + System.nanoTime();
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if( calls.incrementAndGet() == 1 ) {
+                    throw new CloudException("unavailable");
+                }
+                return "body";
+            }
+        };
+
+        try {
+            RequestCoalescer.get("token", url, 60000L, loader);
+            fail("The failure should have been raised");
+        }
+        catch( CloudException expected ) {
+            assertEquals("unavailable", expected.getMessage());
+        }
+        assertEquals("body", RequestCoalescer.get("token", url, 60000L, loader));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.net.URI;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RequestLimiterTest {
+    static private final String LIMITS = "{\"limits\":{" +
+            "\"rate\":[" +
+            "{\"uri\":\"*\",\"regex\":\".*\",\"limit\":[" +
+            "{\"verb\":\"POST\",\"value\":10,\"remaining\":2,\"unit\":\"MINUTE\"}," +
+            "{\"verb\":\"POST\",\"value\":1000,\"remaining\":1000,\"unit\":\"HOUR\"}," +
+            "{\"verb\":\"GET\",\"value\":120,\"remaining\":120,\"unit\":\"MINUTE\"}]}," +
+            "{\"uri\":\"*/servers\",\"regex\":\"^/servers\",\"limit\":[" +
+            "{\"verb\":\"POST\",\"value\":50,\"remaining\":50,\"unit\":\"DAY\"}]}]," +
+            "\"absolute\":{\"maxTotalInstances\":10,\"totalInstancesUsed\":3}}}";
+
+    @Test
+    public void bucketsAllowBurstsThenTheSteadyRate() {
+        RequestLimiter.TokenBucket bucket = new RequestLimiter.TokenBucket(2, 1000L, 2, 0L);
+
+        assertEquals(0L, bucket.reserve(0L, 0L));
+        assertEquals(0L, bucket.reserve(0L, 0L));
+        assertEquals(-1L, bucket.reserve(0L, 0L));
+        assertEquals(500L, bucket.reserve(0L, 1000L));
+        // the waiting request took the next token, so the one after it queues behind
+        assertEquals(1000L, bucket.reserve(0L, 1000L));
+        assertEquals(0L, bucket.reserve(2000L, 0L));
+    }
+
+    @Test
+    public void globalLimitsAreSeededWithTheStrictestRate() throws Exception {
+        RequestLimiter limiter = new RequestLimiter("https://nova.example.com/v2/tenant");
+
+        limiter.update(new JSONObject(LIMITS), RequestLimiter.Policy.BLOCK, 0L);
+        assertEquals(10.0 / 60.0, limiter.getRate("POST"), 0.0001);
+        assertEquals(2.0, limiter.getRate("GET"), 0.0001);
+        assertEquals(-1.0, limiter.getRate("DELETE"), 0.0001);
+        assertEquals(Integer.valueOf(10), limiter.getAbsoluteLimit("maxTotalInstances"));
+        assertEquals(Integer.valueOf(3), limiter.getAbsoluteLimit("totalInstancesUsed"));
+    }
+
+    @Test
+    public void failFastRaisesThrottlingOnceTheRemainingRequestsAreUsed() throws Exception {
+        RequestLimiter limiter = new RequestLimiter("https://nova.example.com/v2/tenant");
+
+        limiter.update(new JSONObject(LIMITS), RequestLimiter.Policy.FAIL_FAST, 60000L);
+        limiter.acquire("POST");
+        limiter.acquire("POST");
+        limiter.acquire("DELETE");
+        try {
+            limiter.acquire("POST");
+            fail("The third POST should have exceeded the remaining requests");
+        }
+        catch( CloudException expected ) {
+            assertEquals(CloudErrorType.THROTTLING, expected.getErrorType());
+            assertEquals(NovaException.SC_TOO_MANY_REQUESTS, expected.getHttpCode());
+        }
+    }
+
+    @Test
+    public void requestsFindTheLimiterOfTheirEndpoint() throws Exception {
+        String endpoint = "https://nova-" + System.nanoTime() + ".example.com:8774/v2/tenant";
+        RequestLimiter limiter = RequestLimiter.getInstance(endpoint + "/");
+
+        assertSame(limiter, RequestLimiter.find(new URI(endpoint + "/servers/detail?name=web")));
+        assertSame(limiter, RequestLimiter.find(new URI(endpoint)));
+        assertNull(RequestLimiter.find(new URI(endpoint.replace("/tenant", "/other") + "/servers")));
+        assertNull(RequestLimiter.find(new URI("https://swift.example.com/v1/container/object")));
+    }
+
+    @Test
+    public void policiesAreParsedLeniently() {
+        assertEquals(RequestLimiter.Policy.BLOCK, RequestLimiter.Policy.parse(null));
+        assertEquals(RequestLimiter.Policy.FAIL_FAST, RequestLimiter.Policy.parse("failFast"));
+        assertEquals(RequestLimiter.Policy.FAIL_FAST, RequestLimiter.Policy.parse("FAIL_FAST"));
+        assertEquals(RequestLimiter.Policy.NONE, RequestLimiter.Policy.parse("none"));
+        assertEquals(RequestLimiter.Policy.BLOCK, RequestLimiter.Policy.parse("sometimes"));
+    }
+}
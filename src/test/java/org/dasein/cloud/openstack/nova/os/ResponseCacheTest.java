@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.dasein.cloud.ProviderContext;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ResponseCacheTest {
+    private HttpResponse newResponse(String etag, String lastModified) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+
+        if( etag != null ) {
+            response.addHeader("ETag", etag);
+        }
+        if( lastModified != null ) {
+            response.addHeader("Last-Modified", lastModified);
+        }
+        return response;
+    }
+
+    @After
+    public void clear() {
+        ResponseCache.clear();
+    }
+
+    @Test
+    public void cachedResponsesMakeRequestsConditional() {
+        ResponseCache.put("flavors", newResponse("\"abc\"", "Tue, 01 Sep 2015 12:00:00 GMT"), "{\"flavors\":[]}");
+
+        HttpGet get = new HttpGet("https://nova.example.com/v2/tenant/flavors/detail");
+        ResponseCache.Entry entry = ResponseCache.addValidators("flavors", get);
+
+        assertNotNull(entry);
+        assertEquals("\"abc\"", get.getFirstHeader("If-None-Match").getValue());
+        assertEquals("Tue, 01 Sep 2015 12:00:00 GMT", get.getFirstHeader("If-Modified-Since").getValue());
+
+        long saved = ResponseCache.getSavedSize();
+
+        assertEquals("{\"flavors\":[]}", ResponseCache.hit(entry));
+        assertEquals(saved + 14, ResponseCache.getSavedSize());
+    }
+
+    @Test
+    public void responsesAreCachedPerIdentity() {
+        ProviderContext ctx = mock(ProviderContext.class);
+        String url = "https://nova.example.com/v2/tenant/servers/detail";
+
+        when(ctx.getCustomProperties()).thenReturn(new Properties());
+
+        String admin = ResponseCache.getKey(ctx, "https://keystone.example.com|tenant|RegionOne|admin", url);
+        String member = ResponseCache.getKey(ctx, "https://keystone.example.com|tenant|RegionOne|member", url);
+
+        assertNotNull(admin);
+        assertNotNull(member);
+        assertFalse("Users of the same account share cached responses", admin.equals(member));
+        assertEquals(admin, ResponseCache.getKey(ctx, "https://keystone.example.com|tenant|RegionOne|admin", url));
+
+        ResponseCache.put(admin, newResponse("\"abc\"", null), "{\"servers\":[]}");
+        assertNull(ResponseCache.addValidators(member, new HttpGet(url)));
+    }
+
+    @Test
+    public void contextsCanOptOutOfTheCache() {
+        ProviderContext ctx = mock(ProviderContext.class);
+        Properties p = new Properties();
+
+        p.setProperty(ResponseCache.ENABLED, "false");
+        when(ctx.getCustomProperties()).thenReturn(p);
+        assertNull(ResponseCache.getKey(ctx, "identity", "https://nova.example.com/v2/tenant/flavors/detail"));
+        assertNull(ResponseCache.getKey(null, "identity", "https://nova.example.com/v2/tenant/flavors/detail"));
+    }
+
+    @Test
+    public void responsesWithoutValidatorsAreNotCached() {
+        ResponseCache.put("images", newResponse("\"abc\"", null), "{\"images\":[]}");
+        ResponseCache.put("images", newResponse(null, null), "{\"images\":[{}]}");
+        assertNull(ResponseCache.get("images"));
+
+        HttpGet get = new HttpGet("https://glance.example.com/v1/images/detail");
+
+        assertNull(ResponseCache.addValidators("images", get));
+        assertNull(get.getFirstHeader("If-None-Match"));
+    }
+
+    @Test
+    public void leastRecentlyUsedResponsesAreEvicted() {
+        char[] chars = new char[(int)ResponseCache.MAX_ENTRY_SIZE];
+
+        Arrays.fill(chars, 'x');
+
+        String body = new String(chars);
+
+        for( int i=0; i<4; i++ ) {
+            ResponseCache.put("r" + i, newResponse("\"" + i + "\"", null), body);
+        }
+        assertNotNull(ResponseCache.get("r0"));
+        ResponseCache.put("r4", newResponse("\"4\"", null), body);
+        assertNotNull("The most recently used response was evicted", ResponseCache.get("r0"));
+        assertNull("The least recently used response was kept", ResponseCache.get("r1"));
+        assertTrue(ResponseCache.getSize() <= ResponseCache.MAX_SIZE);
+    }
+
+    @Test
+    public void oversizedResponsesAreNotCached() {
+        char[] chars = new char[(int)ResponseCache.MAX_ENTRY_SIZE + 1];
+
+        ResponseCache.put("large", newResponse("\"abc\"", null), new String(chars));
+        assertNull(ResponseCache.get("large"));
+        assertEquals(0L, ResponseCache.getSize());
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResponseCompressionTest {
+    static private final String BODY;
+
+    static {
+        StringBuilder json = new StringBuilder("{\"flavors\": [");
+
+        for( int i=0; i<200; i++ ) {
+            json.append(i == 0 ? "" : ", ").append("{\"id\": \"").append(i).append("\", \"name\": \"m1.flavor-").append(i).append("\", \"ram\": 2048, \"vcpus\": 2}");
+        }
+        BODY = json.append("]}").toString();
+    }
+
+    private HttpResponse toResponse(byte[] content, String encoding) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ByteArrayEntity entity = new ByteArrayEntity(content);
+
+        entity.setContentEncoding(encoding);
+        response.setEntity(entity);
+        response.addHeader("Content-Encoding", encoding);
+        response.addHeader("Content-Length", String.valueOf(content.length));
+        return response;
+    }
+
+    private byte[] gzip(String text) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream output = new GZIPOutputStream(bytes);
+
+        output.write(text.getBytes("utf-8"));
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    private byte[] deflate(String text) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream output = new DeflaterOutputStream(bytes);
+
+        output.write(text.getBytes("utf-8"));
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    private HttpGet toRequest() {
+        HttpGet get = new HttpGet("https://nova.example.com/v2/tenant/flavors/detail");
+
+        get.addHeader("Accept-Encoding", "gzip, deflate");
+        return get;
+    }
+
+    @Test
+    public void gzipResponsesAreDecompressedAndCounted() throws Exception {
+        byte[] compressed = gzip(BODY);
+        HttpResponse response = toResponse(compressed, "gzip");
+        long count = ResponseCompression.getCompressedCount();
+        long size = ResponseCompression.getCompressedSize();
+        long decompressed = ResponseCompression.getDecompressedSize();
+
+        ResponseCompression.decode(toRequest(), response);
+        assertEquals(BODY, EntityUtils.toString(response.getEntity()));
+        assertFalse(response.containsHeader("Content-Encoding"));
+        assertFalse(response.containsHeader("Content-Length"));
+        assertEquals(count + 1, ResponseCompression.getCompressedCount());
+        assertEquals(size + compressed.length, ResponseCompression.getCompressedSize());
+        assertEquals(decompressed + BODY.length(), ResponseCompression.getDecompressedSize());
+        assertTrue(ResponseCompression.getSavedSize() > 0L);
+    }
+
+    @Test
+    public void deflateResponsesAreDecompressed() throws Exception {
+        HttpResponse response = toResponse(deflate(BODY), "deflate");
+
+        ResponseCompression.decode(toRequest(), response);
+        assertEquals(BODY, EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void responsesToRequestsNotAskingForCompressionAreLeftAlone() throws Exception {
+        byte[] stored = gzip(BODY);
+        HttpResponse response = toResponse(stored, "gzip");
+
+        ResponseCompression.decode(new HttpGet("https://swift.example.com/v1/AUTH_tenant/container/archive.json.gz"), response);
+        assertArrayEquals(stored, EntityUtils.toByteArray(response.getEntity()));
+        assertTrue(response.containsHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void compressionIsOnlyNegotiatedForAProvider() throws Exception {
+        HttpGet get = new HttpGet("https://nova.example.com/v2/tenant/servers/detail");
+
+        ResponseCompression.accept(null, get);
+        assertFalse(get.containsHeader("Accept-Encoding"));
+        assertFalse(ResponseCompression.isEnabled(null));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os;
+
+import org.apache.http.HttpStatus;
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+    private NovaException throttled(long retryAfter) {
+        return new NovaException(CloudErrorType.THROTTLING, NovaException.SC_TOO_MANY_REQUESTS, "overLimit", "slow down", retryAfter);
+    }
+
+    @Test
+    public void backoffGrowsWithJitterAndIsCapped() {
+        RetryPolicy policy = new RetryPolicy(5, RetryPolicy.MAX_DELAY * 10);
+
+        for( int i=0; i<100; i++ ) {
+            long first = policy.getDelay(0, -1L), third = policy.getDelay(2, -1L), late = policy.getDelay(40, -1L);
+
+            assertTrue(first >= RetryPolicy.BASE_DELAY / 2 && first <= RetryPolicy.BASE_DELAY);
+            assertTrue(third >= RetryPolicy.BASE_DELAY * 2 && third <= RetryPolicy.BASE_DELAY * 4);
+            assertTrue(late >= RetryPolicy.MAX_DELAY / 2 && late <= RetryPolicy.MAX_DELAY);
+        }
+    }
+
+    @Test
+    public void retryAfterIsHonored() {
+        RetryPolicy policy = new RetryPolicy(5, RetryPolicy.MAX_DELAY * 10);
+        long delay = policy.getDelay(0, 20000L);
+
+        assertTrue(delay >= 20000L && delay <= 20000L + RetryPolicy.BASE_DELAY);
+    }
+
+    @Test
+    public void onlyRateLimitedFailuresAreRetried() {
+        RetryPolicy policy = new RetryPolicy(5, RetryPolicy.MAX_DELAY);
+
+        assertTrue(policy.getNextDelay(throttled(-1L), 0, 0L) >= 0L);
+        assertTrue(policy.getNextDelay(new NovaException(CloudErrorType.THROTTLING, HttpStatus.SC_REQUEST_TOO_LONG, "overLimit", "later", 1000L), 0, 0L) >= 0L);
+        // without a time to retry, a 413 reports an absolute limit
+        assertEquals(-1L, policy.getNextDelay(new NovaException(CloudErrorType.THROTTLING, HttpStatus.SC_REQUEST_TOO_LONG, "overLimit", "quota", -1L), 0, 0L));
+        assertEquals(-1L, policy.getNextDelay(new NovaException(CloudErrorType.GENERAL, HttpStatus.SC_INTERNAL_SERVER_ERROR, "error", "error"), 0, 0L));
+        assertEquals(-1L, policy.getNextDelay(new CloudException("other"), 0, 0L));
+    }
+
+    @Test
+    public void retriesAreBoundedByCountAndTotalDelay() {
+        RetryPolicy policy = new RetryPolicy(2, 30000L);
+
+        assertEquals(-1L, policy.getNextDelay(throttled(10L), 2, 0L));
+        assertEquals(-1L, policy.getNextDelay(throttled(20000L), 1, 15000L));
+        assertTrue(policy.getNextDelay(throttled(10L), 1, 15000L) >= 10L);
+    }
+
+    @Test
+    public void executeRetriesUntilSuccess() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        RetryPolicy policy = new RetryPolicy(5, 10000L);
+
+        String result = policy.execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if( calls.incrementAndGet() < 3 ) {
+                    throw throttled(0L);
+                }
+                return "done";
+            }
+        });
+        assertEquals("done", result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void retryAfterValuesAreParsed() {
+        assertEquals(120000L, NovaException.parseRetryAfter("120"));
+        assertEquals(-1L, NovaException.parseRetryAfter("soon"));
+        assertEquals(-1L, NovaException.parseRetryAfter(null));
+        assertTrue(NovaException.parseRetryAfter("Thu, 01 Jan 1970 00:00:00 GMT") == 0L);
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os.compute;
+
+import org.dasein.cloud.compute.Platform;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImagePlatformCacheTest {
+    @Test
+    public void platformsExpireAfterTheirTtl() throws InterruptedException {
+        ImagePlatformCache cache = new ImagePlatformCache(10, 50L, 10000L);
+
+        cache.put("img1", Platform.UBUNTU);
+        assertEquals(Platform.UBUNTU, cache.get("img1"));
+        Thread.sleep(100L);
+        assertNull("An expired platform must be looked up again", cache.get("img1"));
+        assertEquals("Expired entries should be dropped on access", 0, cache.size());
+    }
+
+    @Test
+    public void missingImagesExpireAfterTheNegativeTtl() throws InterruptedException {
+        ImagePlatformCache cache = new ImagePlatformCache(10, 10000L, 50L);
+
+        cache.put("img1", Platform.UBUNTU);
+        cache.put("img2", null);
+        assertEquals("A missing image is remembered as unknown", Platform.UNKNOWN, cache.get("img2"));
+        Thread.sleep(100L);
+        assertNull("A missing image must be looked up again once the negative TTL passes", cache.get("img2"));
+        assertEquals("The negative TTL must not apply to existing images", Platform.UBUNTU, cache.get("img1"));
+    }
+
+    @Test
+    public void leastRecentlyUsedImagesAreEvicted() {
+        ImagePlatformCache cache = new ImagePlatformCache(2, 10000L, 10000L);
+
+        cache.put("img1", Platform.UBUNTU);
+        cache.put("img2", Platform.WINDOWS);
+        assertEquals(Platform.UBUNTU, cache.get("img1"));
+        cache.put("img3", Platform.UNIX);
+        assertEquals(2, cache.size());
+        assertNull("The least recently used image should have been evicted", cache.get("img2"));
+        assertEquals(Platform.UBUNTU, cache.get("img1"));
+        assertEquals(Platform.UNIX, cache.get("img3"));
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.openstack.nova.os.compute;
+
+import java.util.EnumSet;
+
+import org.dasein.cloud.compute.VMFilterOptions;
+import org.dasein.cloud.compute.VmState;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NovaServerFilterTest {
+    private VMFilterOptions toOptions(boolean matchesAny, String regex, VmState... states) {
+        VMFilterOptions options = mock(VMFilterOptions.class);
+
+        when(options.isMatchesAny()).thenReturn(matchesAny);
+        when(options.getRegex()).thenReturn(regex);
+        if( states.length > 0 ) {
+            when(options.getVmStates()).thenReturn(EnumSet.of(states[0], states));
+        }
+        return options;
+    }
+
+    @Test
+    public void statesMapOntoTheOnlyNovaStatusProducingThem() {
+        assertEquals("ACTIVE", NovaServerFilter.toStatus(VmState.RUNNING));
+        assertEquals("SUSPENDED", NovaServerFilter.toStatus(VmState.SUSPENDED));
+        assertEquals("PAUSED", NovaServerFilter.toStatus(VmState.PAUSED));
+        assertEquals("SHUTOFF", NovaServerFilter.toStatus(VmState.STOPPED));
+        assertEquals("ERROR", NovaServerFilter.toStatus(VmState.ERROR));
+        // several Nova statuses end up as these states, so none of them can be asked for alone
+        assertNull(NovaServerFilter.toStatus(VmState.PENDING));
+        assertNull(NovaServerFilter.toStatus(VmState.REBOOTING));
+        assertNull(NovaServerFilter.toStatus(VmState.TERMINATED));
+        assertNull(NovaServerFilter.toStatus(null));
+    }
+
+    @Test
+    public void aSingleMappedStateIsPushedDown() {
+        NovaServerFilter filter = NovaServerFilter.getInstance(toOptions(false, null, VmState.STOPPED));
+
+        assertEquals(1, filter.getParameters().size());
+        assertEquals("SHUTOFF", filter.getParameters().get("status"));
+    }
+
+    @Test
+    public void unmappedOrMultipleStatesAreNotPushedDown() {
+        assertTrue(NovaServerFilter.getInstance(toOptions(false, null, VmState.PENDING)).isEmpty());
+        assertTrue(NovaServerFilter.getInstance(toOptions(false, null, VmState.RUNNING, VmState.STOPPED)).isEmpty());
+    }
+
+    @Test
+    public void regularExpressionsAreNeverPushedDown() {
+        // the options match names, descriptions and addresses alike, Nova only names
+        assertTrue(NovaServerFilter.getInstance(toOptions(false, "web-.*")).isEmpty());
+        assertTrue(NovaServerFilter.getInstance(toOptions(false, "10\\.0\\.0\\.5")).isEmpty());
+
+        NovaServerFilter filter = NovaServerFilter.getInstance(toOptions(false, "web-.*", VmState.RUNNING));
+
+        assertFalse(filter.getParameters().containsKey("name"));
+        assertEquals("ACTIVE", filter.getParameters().get("status"));
+    }
+
+    @Test
+    public void matchingAnyCriterionIsNeverPushedDown() {
+        assertTrue(NovaServerFilter.getInstance(toOptions(true, null, VmState.RUNNING)).isEmpty());
+        assertTrue(NovaServerFilter.getInstance(null).isEmpty());
+    }
+
+    @Test
+    public void explicitFiltersBecomeQueryParameters() {
+        NovaServerFilter filter = NovaServerFilter.getInstance().withName("^web-").withImageId("image1").withFlavorId("2").withIpAddress("10\\.0\\.0\\..*").withHost("compute1").withStatus("ACTIVE");
+
+        assertEquals("^web-", filter.getParameters().get("name"));
+        assertEquals("image1", filter.getParameters().get("image"));
+        assertEquals("2", filter.getParameters().get("flavor"));
+        assertEquals("10\\.0\\.0\\..*", filter.getParameters().get("ip"));
+        assertEquals("compute1", filter.getParameters().get("host"));
+        assertEquals("ACTIVE", filter.getParameters().get("status"));
+    }
+}
@@ -3,33 +3,53 @@ package org.dasein.cloud.openstack.nova.os.compute;
 import org.apache.commons.io.IOUtils;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.MachineImage;
 import org.dasein.cloud.compute.Platform;
 import org.dasein.cloud.compute.VirtualMachine;
 import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.network.Firewall;
+import org.dasein.cloud.network.FirewallSupport;
 import org.dasein.cloud.network.IPVersion;
+import org.dasein.cloud.network.IpAddress;
 import org.dasein.cloud.network.IpAddressSupport;
 import org.dasein.cloud.network.NetworkServices;
+import org.dasein.cloud.network.RawAddress;
+import org.dasein.cloud.network.VLAN;
 import org.dasein.cloud.network.VLANSupport;
+import org.dasein.cloud.openstack.nova.os.JSONListParser;
 import org.dasein.cloud.openstack.nova.os.NovaMethod;
+import org.dasein.cloud.openstack.nova.os.NovaOpenStack;
 import org.dasein.cloud.openstack.nova.os.OpenStackProvider;
+import org.dasein.cloud.openstack.nova.os.network.NovaNetworkServices;
 import org.dasein.cloud.openstack.nova.os.network.Quantum;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 /**
@@ -51,6 +71,498 @@ public class NovaServerTest {
     }
 
 
+    private JSONObject toServer(String id, String status, String updated) throws JSONException {
+        return new JSONObject("{\"id\": \"" + id + "\", \"name\": \"" + id + "\", \"status\": \"" + status + "\", \"updated\": \"" + updated + "\", " +
+                "\"flavor\": {\"id\": \"1\"}, \"image\": {\"id\": \"70a599e0-31e7-49b7-b260-868f441e862b\"}, \"metadata\": {}, \"security_groups\": [], " +
+                "\"addresses\": {\"private\": [{\"version\": 4, \"addr\": \"10.0.0.2\", \"OS-EXT-IPS:type\": \"fixed\"}]}}");
+    }
+
+    private JSONObject toServer(String id, String imageId) throws JSONException {
+        JSONObject server = toServer(id, "ACTIVE", "2015-10-09T10:00:00Z");
+
+        server.getJSONObject("image").put("id", imageId);
+        return server;
+    }
+
+    private JSONObject toPage(JSONObject ... servers) throws JSONException {
+        JSONObject page = new JSONObject();
+        JSONArray list = new JSONArray();
+
+        for( JSONObject server : servers ) {
+            list.put(server);
+        }
+        page.put("servers", list);
+        return page;
+    }
+
+    /**
+     * Has the method stream the specified pages of servers through the converter of each server listing request.
+     * @param streaming set while a page is being streamed
+     */
+    private void stubServerPages(NovaMethod method, final boolean[] streaming, final JSONObject[][] pages) throws Exception {
+        final int[] page = { 0 };
+
+        when(method.getServerList(eq("/servers"), anyBoolean(), anyString(), eq("servers"), any(JSONListParser.ItemConverter.class), any(JSONObject.class))).thenAnswer(new Answer<List<Object>>() {
+            @Override
+            public List<Object> answer(InvocationOnMock invocation) throws Throwable {
+                JSONListParser.ItemConverter<?> converter = (JSONListParser.ItemConverter<?>)invocation.getArguments()[4];
+                JSONObject links = (JSONObject)invocation.getArguments()[5];
+                List<Object> items = new ArrayList<Object>();
+
+                streaming[0] = true;
+                try {
+                    for( JSONObject item : pages[page[0]] ) {
+                        items.add(converter.convert(item));
+                    }
+                }
+                finally {
+                    streaming[0] = false;
+                }
+                if( ++page[0] < pages.length ) {
+                    links.put("servers_links", new JSONArray().put(new JSONObject().put("rel", "next").put("href", "https://nova.example.com/v2/openstack/servers/detail?limit=1000&marker=vm" + (page[0] * 2))));
+                }
+                return items;
+            }
+        });
+    }
+
+    /**
+     * @return a server service converting servers without calling out to anything but the specified method
+     */
+    private NovaServer toSyncingServer(final NovaMethod method) {
+        return toSyncingServer(method, mock(NovaOpenStack.class));
+    }
+
+    private NovaServer toSyncingServer(final NovaMethod method, NovaOpenStack provider) {
+        NovaComputeServices compute = mock(NovaComputeServices.class);
+
+        when(provider.getCloudProvider()).thenReturn(OpenStackProvider.OTHER);
+        when(provider.getComputeServices()).thenReturn(compute);
+        when(compute.getImageSupport()).thenReturn(mock(NovaImage.class));
+        return new NovaServer(provider) {
+            @Override
+            protected NovaMethod getMethod() {
+                return method;
+            }
+
+            @Override
+            protected @Nonnull String getTenantId() {
+                return "openstack";
+            }
+
+            @Override
+            protected String getRegionId() {
+                return "testRegion";
+            }
+
+            @Override
+            protected int getMajorVersion() {
+                return 2;
+            }
+
+            @Override
+            protected int getMinorVersion() {
+                return 1;
+            }
+
+            @Override
+            protected Platform getPlatform(String vmName, String vmDescription, String imageId) {
+                return Platform.UBUNTU;
+            }
+        };
+    }
+
+    @Test
+    public void syncReportsChangesWithinTheSameSecond() throws Exception {
+        NovaMethod method = mock(NovaMethod.class);
+        NovaServer server = toSyncingServer(method);
+        NovaServer.ServerSnapshot snapshot = new NovaServer.ServerSnapshot();
+        ArgumentCaptor<String> query = ArgumentCaptor.forClass(String.class);
+
+        when(method.getServers(eq("/servers"), anyString(), anyBoolean(), query.capture())).thenReturn(
+                toPage(toServer("vm1", "ACTIVE", "2015-10-09T10:00:00Z"), toServer("vm2", "ACTIVE", "2015-10-09T09:00:00Z")),
+                toPage(toServer("vm1", "ACTIVE", "2015-10-09T10:00:00Z")),
+                toPage(toServer("vm1", "SHUTOFF", "2015-10-09T10:00:00Z")));
+
+        VirtualMachineChanges changes = server.sync(snapshot);
+
+        assertTrue("The first sync must list everything", changes.isFullSync());
+        assertEquals("Both servers should have been added", 2, changes.getAdded().size());
+
+        changes = server.sync(snapshot);
+        assertFalse("Later syncs must only ask for changes", changes.isFullSync());
+        assertTrue("changes-since was not passed to Nova", query.getValue().contains("changes-since=2015-10-09T10%3A00%3A00Z"));
+        assertTrue("A server returned again at the high-water mark without changes is not a change", changes.isEmpty());
+
+        changes = server.sync(snapshot);
+        assertEquals("A second update within the same second was dropped", 1, changes.getChanged().size());
+        VirtualMachine vm = changes.getChanged().iterator().next();
+
+        assertEquals("vm1", vm.getProviderVirtualMachineId());
+        assertEquals(VmState.STOPPED, vm.getCurrentState());
+        assertEquals(2, changes.getVirtualMachines().size());
+    }
+
+    @Test
+    public void syncReportsDeletions() throws Exception {
+        NovaMethod method = mock(NovaMethod.class);
+        NovaServer server = toSyncingServer(method);
+        NovaServer.ServerSnapshot snapshot = new NovaServer.ServerSnapshot();
+
+        when(method.getServers(eq("/servers"), anyString(), anyBoolean(), anyString())).thenReturn(
+                toPage(toServer("vm1", "ACTIVE", "2015-10-09T10:00:00Z"), toServer("vm2", "ACTIVE", "2015-10-09T10:00:00Z")),
+                toPage(toServer("vm2", "DELETED", "2015-10-09T10:05:00Z")));
+        server.sync(snapshot);
+
+        VirtualMachineChanges changes = server.sync(snapshot);
+
+        assertEquals("The deleted server was not reported", 1, changes.getRemoved().size());
+        assertEquals("vm2", changes.getRemoved().iterator().next().getProviderVirtualMachineId());
+        assertTrue(changes.getAdded().isEmpty());
+        assertTrue(changes.getChanged().isEmpty());
+        assertEquals(1, changes.getVirtualMachines().size());
+        assertEquals("vm1", changes.getVirtualMachines().iterator().next().getProviderVirtualMachineId());
+    }
+
+    @Test
+    public void syncOfAnEmptyTenantStaysFull() throws Exception {
+        NovaMethod method = mock(NovaMethod.class);
+        NovaServer server = toSyncingServer(method);
+        NovaServer.ServerSnapshot snapshot = new NovaServer.ServerSnapshot();
+        ArgumentCaptor<String> query = ArgumentCaptor.forClass(String.class);
+
+        when(method.getServers(eq("/servers"), anyString(), anyBoolean(), query.capture())).thenReturn(toPage());
+        for( int i=0; i<2; i++ ) {
+            VirtualMachineChanges changes = server.sync(snapshot);
+
+            assertTrue("Without a high-water mark every sync must be a full one", changes.isFullSync());
+            assertTrue(changes.isEmpty());
+            assertTrue(changes.getVirtualMachines().isEmpty());
+            assertFalse("changes-since must not be sent without a high-water mark", query.getValue().contains("changes-since"));
+        }
+    }
+
+    @Test
+    public void listingsReadTheComputeVersionOnce() throws Exception {
+        NovaMethod method = mock(NovaMethod.class);
+        NovaServer server = spy(toSyncingServer(method));
+
+        when(method.getServers(eq("/servers"), anyString(), anyBoolean(), anyString())).thenReturn(
+                toPage(toServer("vm1", "ACTIVE", "2015-10-09T10:00:00Z"), toServer("vm2", "ACTIVE", "2015-10-09T10:00:00Z"), toServer("vm3", "ACTIVE", "2015-10-09T10:00:00Z")));
+        assertEquals(3, server.sync(new NovaServer.ServerSnapshot()).getAdded().size());
+        verify(server, times(1)).getMajorVersion();
+        verify(server, atMost(1)).getMinorVersion();
+    }
+
+    @Test
+    public void listingsMakeNoRequestsWhileAPageIsStreamed() throws Exception {
+        final NovaMethod method = mock(NovaMethod.class);
+        NovaServer server = toSyncingServer(method);
+        final JSONObject[][] pages = {
+                { toServer("vm1", "ACTIVE", "2015-10-09T10:00:00Z"), toServer("vm2", "ACTIVE", "2015-10-09T10:00:00Z") },
+                { toServer("vm3", "ACTIVE", "2015-10-09T10:00:00Z") }
+        };
+        final boolean[] streaming = { false };
+
+        stubServerPages(method, streaming, pages);
+        when(method.getServerList(eq("/images"), anyBoolean(), anyString(), eq("images"), any(JSONListParser.ItemConverter.class), any(JSONObject.class))).thenAnswer(new Answer<List<Object>>() {
+            @Override
+            public List<Object> answer(InvocationOnMock invocation) throws Throwable {
+                assertFalse("Images were fetched while a page of servers was still being read", streaming[0]);
+                return Collections.emptyList();
+            }
+        });
+
+        int count = 0;
+
+        for( VirtualMachine vm : server.listVirtualMachines() ) {
+            assertEquals(VmState.RUNNING, vm.getCurrentState());
+            count++;
+        }
+        assertEquals("Every page should have been listed", 3, count);
+        verify(method, times(2)).getServerList(eq("/servers"), anyBoolean(), anyString(), eq("servers"), any(JSONListParser.ItemConverter.class), any(JSONObject.class));
+        verify(method, times(1)).getServerList(eq("/images"), anyBoolean(), anyString(), eq("images"), any(JSONListParser.ItemConverter.class), any(JSONObject.class));
+    }
+
+    @Test
+    public void listingsLoadTheirLookupsBeforeStreaming() throws Exception {
+        final NovaMethod method = mock(NovaMethod.class);
+        NovaOpenStack provider = mock(NovaOpenStack.class);
+        NovaNetworkServices services = mock(NovaNetworkServices.class);
+        Quantum quantum = mock(Quantum.class);
+        FirewallSupport firewalls = mock(FirewallSupport.class);
+        NovaServer server = toSyncingServer(method, provider);
+        JSONObject grouped = toServer("vm2", "ACTIVE", "2015-10-09T10:00:00Z");
+        JSONObject ungrouped = toServer("vm3", "ACTIVE", "2015-10-09T10:00:00Z");
+        final JSONObject[][] pages = {
+                { toServer("vm1", "ACTIVE", "2015-10-09T10:00:00Z"), grouped },
+                { ungrouped }
+        };
+        final boolean[] streaming = { false };
+        final Firewall fw = mock(Firewall.class);
+        Answer<Object> notStreaming = new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                assertFalse(invocation.getMethod().getName() + " was called while a page of servers was still being read", streaming[0]);
+                if( invocation.getMethod().getName().equals("list") ) {
+                    return Collections.singletonList(fw);
+                }
+                if( invocation.getMethod().getName().equals("listVlans") ) {
+                    return Collections.emptyList();
+                }
+                return null;
+            }
+        };
+
+        grouped.getJSONArray("security_groups").put(new JSONObject().put("name", "default"));
+        ungrouped.remove("security_groups");
+        stubServerPages(method, streaming, pages);
+        when(fw.getProviderFirewallId()).thenReturn("fw1");
+        when(fw.getName()).thenReturn("default");
+        when(provider.getNetworkServices()).thenReturn(services);
+        when(services.getFirewallSupport()).thenReturn(firewalls);
+        when(services.getVlanSupport()).thenReturn(quantum);
+        when(firewalls.list()).thenAnswer(notStreaming);
+        when(quantum.listVlans()).thenAnswer(notStreaming);
+        when(quantum.getSubnetIndex()).thenAnswer(notStreaming);
+        when(method.getServers(eq("/os-security-groups/servers"), anyString(), anyBoolean())).thenAnswer(notStreaming);
+        when(method.getServerList(eq("/images"), anyBoolean(), anyString(), eq("images"), any(JSONListParser.ItemConverter.class), any(JSONObject.class))).thenAnswer(notStreaming);
+
+        Map<String,VirtualMachine> vms = new HashMap<String, VirtualMachine>();
+
+        for( VirtualMachine vm : server.listVirtualMachines() ) {
+            vms.put(vm.getProviderVirtualMachineId(), vm);
+        }
+        assertEquals("Every server should have been listed", 3, vms.size());
+        assertEquals(0, vms.get("vm1").getProviderFirewallIds().length);
+        assertEquals("fw1", vms.get("vm2").getProviderFirewallIds()[0]);
+        verify(firewalls, times(1)).list();
+        verify(quantum, times(1)).getSubnetIndex();
+        verify(method, times(1)).getServers(eq("/os-security-groups/servers"), eq("vm3/os-security-groups"), anyBoolean());
+    }
+
+    private Firewall toFirewall(String id, String name) {
+        Firewall fw = mock(Firewall.class);
+
+        when(fw.getProviderFirewallId()).thenReturn(id);
+        when(fw.getName()).thenReturn(name);
+        return fw;
+    }
+
+    @Test
+    public void listingsListFirewallsOnceAndResolveGroupsByIdAndName() throws Exception {
+        NovaMethod method = mock(NovaMethod.class);
+        NovaOpenStack provider = mock(NovaOpenStack.class);
+        NovaNetworkServices services = mock(NovaNetworkServices.class);
+        FirewallSupport firewalls = mock(FirewallSupport.class);
+        NovaServer server = toSyncingServer(method, provider);
+        JSONObject byId = toServer("vm1", "ACTIVE", "2015-10-09T10:00:00Z");
+        JSONObject byName = toServer("vm2", "ACTIVE", "2015-10-09T10:00:00Z");
+        JSONObject both = toServer("vm3", "ACTIVE", "2015-10-09T10:00:00Z");
+        JSONObject[][] pages = { { byId, byName }, { both } };
+
+        byId.getJSONArray("security_groups").put(new JSONObject().put("id", "fw1")).put(new JSONObject().put("id", "fw-deleted"));
+        byName.getJSONArray("security_groups").put(new JSONObject().put("name", "web"));
+        both.getJSONArray("security_groups").put(new JSONObject().put("id", "fw1").put("name", "default")).put(new JSONObject().put("name", "unknown"));
+        stubServerPages(method, new boolean[1], pages);
+        when(provider.getNetworkServices()).thenReturn(services);
+        when(services.getFirewallSupport()).thenReturn(firewalls);
+        List<Firewall> groups = Arrays.asList(toFirewall("fw1", "default"), toFirewall("fw2", "web"), toFirewall("fw3", "web"));
+
+        when(firewalls.list()).thenReturn(groups);
+
+        Map<String,VirtualMachine> vms = new HashMap<String, VirtualMachine>();
+
+        for( VirtualMachine vm : server.listVirtualMachines() ) {
+            vms.put(vm.getProviderVirtualMachineId(), vm);
+        }
+        assertEquals(3, vms.size());
+        assertArrayEquals("Groups listed by ID should resolve to existing firewalls only", new String[] { "fw1" }, vms.get("vm1").getProviderFirewallIds());
+        assertArrayEquals("Groups listed by name should resolve to every firewall of that name", new String[] { "fw2", "fw3" }, vms.get("vm2").getProviderFirewallIds());
+        assertArrayEquals("The ID of a group should take precedence over its name", new String[] { "fw1" }, vms.get("vm3").getProviderFirewallIds());
+        verify(firewalls, times(1)).list();
+        verify(method, never()).getServers(eq("/os-security-groups/servers"), anyString(), anyBoolean());
+    }
+
+    private IpAddress toIpAddress(String id, String address, String serverId) {
+        IpAddress ip = new IpAddress();
+
+        ip.setIpAddressId(id);
+        ip.setAddress(address);
+        ip.setVersion(address.contains(":") ? IPVersion.IPV6 : IPVersion.IPV4);
+        ip.setServerId(serverId);
+        ip.setRegionId("testRegion");
+        return ip;
+    }
+
+    /**
+     * Matches a virtual machine against the IP pools the way servers were matched before the pools were indexed.
+     * @return the ID of the IP address assigned to the virtual machine, if any
+     */
+    private String scanIpPools(VirtualMachine vm, List<IpAddress> ipv4, List<IpAddress> ipv6) {
+        String assigned = null;
+
+        for( RawAddress addr : vm.getPublicAddresses() ) {
+            for( IpAddress a : (addr.getVersion().equals(IPVersion.IPV4) ? ipv4 : ipv6) ) {
+                if( a.getRawAddress().getIpAddress().equals(addr.getIpAddress()) ) {
+                    assigned = a.getProviderIpAddressId();
+                    break;
+                }
+            }
+        }
+        if( assigned == null ) {
+            for( IpAddress a : ipv4 ) {
+                if( vm.getProviderVirtualMachineId().equals(a.getServerId()) ) {
+                    return a.getProviderIpAddressId();
+                }
+            }
+            for( IpAddress a : ipv6 ) {
+                if( vm.getProviderVirtualMachineId().equals(a.getServerId()) ) {
+                    return a.getProviderIpAddressId();
+                }
+            }
+        }
+        return assigned;
+    }
+
+    @Test
+    public void indexedIpPoolsMatchLikeTheLinearScan() throws Exception {
+        NovaServer server = toSyncingServer(mock(NovaMethod.class));
+        List<IpAddress> ipv4 = Arrays.asList(
+                toIpAddress("ip1", "203.0.113.1", "other"),
+                toIpAddress("ip2", "203.0.113.2", null),
+                toIpAddress("ip3", "203.0.113.2", null),
+                toIpAddress("ip4", "203.0.113.4", "vm3"),
+                toIpAddress("ip5", "203.0.113.5", "vm5"),
+                toIpAddress("ip6", "203.0.113.6", "vm3"));
+        List<IpAddress> ipv6 = Arrays.asList(
+                toIpAddress("ip7", "2001:db8::7", null),
+                toIpAddress("ip8", "2001:db8::8", "vm4"),
+                toIpAddress("ip9", "2001:db8::9", "vm5"));
+        String[][] servers = {
+                { "vm1", "203.0.113.1" },
+                { "vm2", "2001:db8::7" },
+                { "vm3" },
+                { "vm4" },
+                { "vm5" },
+                { "vm6", "198.51.100.9" },
+                { "vm7", "203.0.113.2" },
+                { "vm8", "203.0.113.1", "2001:db8::7" },
+                { "vm9", "2001:db8::1" },
+                { "vm10", "203.0.113.5" }
+        };
+        String[] expected = { "ip1", "ip7", "ip4", "ip8", "ip5", null, "ip2", "ip7", null, "ip5" };
+
+        for( int i=0; i<servers.length; i++ ) {
+            JSONObject json = toServer(servers[i][0], "ACTIVE", "2015-10-09T10:00:00Z");
+            JSONArray addresses = json.getJSONObject("addresses").getJSONArray("private");
+
+            for( int j=1; j<servers[i].length; j++ ) {
+                addresses.put(new JSONObject().put("version", servers[i][j].contains(":") ? 6 : 4).put("addr", servers[i][j]).put("OS-EXT-IPS:type", "floating"));
+            }
+            VirtualMachine vm = server.toVirtualMachine(json, ipv4, ipv6, Collections.<VLAN>emptyList());
+
+            assertEquals("The index and the scan disagree about " + servers[i][0], scanIpPools(vm, ipv4, ipv6), vm.getProviderAssignedIpAddressId());
+            assertEquals("Unexpected IP address for " + servers[i][0], expected[i], vm.getProviderAssignedIpAddressId());
+        }
+    }
+
+    @Test
+    public void listingsListImagesOnceAndCacheOnlyTheImagesInUse() throws Exception {
+        final NovaMethod method = mock(NovaMethod.class);
+        final ImagePlatformCache cache = new ImagePlatformCache();
+        NovaOpenStack provider = mock(NovaOpenStack.class);
+        NovaComputeServices compute = mock(NovaComputeServices.class);
+        NovaImage images = mock(NovaImage.class);
+        NovaServer server = new NovaServer(provider) {
+            @Override
+            protected NovaMethod getMethod() {
+                return method;
+            }
+
+            @Override
+            protected @Nonnull String getTenantId() {
+                return "openstack";
+            }
+
+            @Override
+            protected String getRegionId() {
+                return "testRegion";
+            }
+
+            @Override
+            protected int getMajorVersion() {
+                return 2;
+            }
+
+            @Override
+            protected int getMinorVersion() {
+                return 1;
+            }
+
+            @Override
+            @Nonnull ImagePlatformCache getImagePlatformCache() {
+                return cache;
+            }
+        };
+        final String[][] imagePages = { { "imgA:UBUNTU", "imgX:UNIX" }, { "imgB:WINDOWS", "imgY:UNIX" } };
+        final int[] imagePage = { 0 };
+
+        when(provider.getCloudProvider()).thenReturn(OpenStackProvider.OTHER);
+        when(provider.getComputeServices()).thenReturn(compute);
+        when(compute.getImageSupport()).thenReturn(images);
+        when(images.toImage(any(JSONObject.class))).thenAnswer(new Answer<MachineImage>() {
+            @Override
+            public MachineImage answer(InvocationOnMock invocation) throws Throwable {
+                JSONObject json = (JSONObject)invocation.getArguments()[0];
+                MachineImage img = mock(MachineImage.class);
+
+                when(img.getProviderMachineImageId()).thenReturn(json.getString("id"));
+                when(img.getPlatform()).thenReturn(Platform.valueOf(json.getString("platform")));
+                return img;
+            }
+        });
+        when(method.getServers(eq("/servers"), anyString(), anyBoolean(), anyString())).thenReturn(
+                toPage(toServer("vm1", "imgA"), toServer("vm2", "imgB")).put("servers_links", new JSONArray().put(new JSONObject().put("rel", "next").put("href", "https://nova.example.com/v2/openstack/servers/detail?marker=vm2"))),
+                toPage(toServer("vm3", "imgC"), toServer("vm4", "imgA")));
+        when(method.getServerList(eq("/images"), anyBoolean(), anyString(), eq("images"), any(JSONListParser.ItemConverter.class), any(JSONObject.class))).thenAnswer(new Answer<List<Object>>() {
+            @Override
+            public List<Object> answer(InvocationOnMock invocation) throws Throwable {
+                JSONListParser.ItemConverter<?> converter = (JSONListParser.ItemConverter<?>)invocation.getArguments()[4];
+                JSONObject links = (JSONObject)invocation.getArguments()[5];
+                List<Object> items = new ArrayList<Object>();
+
+                for( String image : imagePages[imagePage[0]] ) {
+                    String[] parts = image.split(":");
+
+                    items.add(converter.convert(new JSONObject().put("id", parts[0]).put("platform", parts[1])));
+                }
+                if( ++imagePage[0] < imagePages.length ) {
+                    links.put("images_links", new JSONArray().put(new JSONObject().put("rel", "next").put("href", "https://nova.example.com/v2/openstack/images/detail?marker=imgX")));
+                }
+                return items;
+            }
+        });
+
+        Map<String,Platform> platforms = new HashMap<String, Platform>();
+
+        for( VirtualMachine vm : server.sync(new NovaServer.ServerSnapshot()).getAdded() ) {
+            platforms.put(vm.getProviderVirtualMachineId(), vm.getPlatform());
+        }
+        assertEquals(4, platforms.size());
+        assertEquals(Platform.UBUNTU, platforms.get("vm1"));
+        assertEquals(Platform.WINDOWS, platforms.get("vm2"));
+        assertEquals("A server of a deleted image has no known platform", Platform.UNKNOWN, platforms.get("vm3"));
+        assertEquals(Platform.UBUNTU, platforms.get("vm4"));
+        verify(method, times(2)).getServerList(eq("/images"), anyBoolean(), anyString(), eq("images"), any(JSONListParser.ItemConverter.class), any(JSONObject.class));
+        verify(images, never()).getImage(anyString());
+
+        assertEquals("Only the images of listed servers should be cached", 3, cache.size());
+        assertNull(cache.get("imgX"));
+        assertNull(cache.get("imgY"));
+        assertEquals("A missing image should be cached as such", Platform.UNKNOWN, cache.get("imgC"));
+    }
+
     @Test
     public void getConsoleOutputTest() {
         NovaMethod method = mock(NovaMethod.class);
@@ -187,5 +699,12 @@ public class NovaServerTest {
         }
     }
 
+    @Test
+    public void getNextMarkerTest() throws JSONException {
+        JSONObject page = new JSONObject("{\"servers\": [], \"servers_links\": [{\"rel\": \"next\", \"href\": \"http://nova:8774/v2/openstack/servers/detail?limit=2&marker=7838ff1b-b71f-48b9\"}]}");
 
+        assertEquals("Next marker is not as expected ", "7838ff1b-b71f-48b9", NovaServer.getNextMarker(page, null));
+        assertNull("A repeated marker must end the listing", NovaServer.getNextMarker(page, "7838ff1b-b71f-48b9"));
+        assertNull("A page without links must end the listing", NovaServer.getNextMarker(new JSONObject("{\"servers\": []}"), null));
     }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os.fake;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An ordered collection of resources of one type held by a {@link FakeOpenStack}. IDs are handed out in ascending
+ * order so listings page through resources in creation order, as marker based pagination expects. Stored resources
+ * are never modified; updates replace them, so listings can be serialized without locking.
+ */
+public class FakeCollection {
+    private final ConcurrentSkipListMap<String,JSONObject> items = new ConcurrentSkipListMap<String, JSONObject>();
+    private final AtomicLong                               sequence = new AtomicLong();
+    private final int                                      type;
+
+    /**
+     * @param type a number distinguishing the IDs of this collection from those of other collections
+     */
+    public FakeCollection(int type) {
+        this.type = type;
+    }
+
+    /**
+     * @return a new ID in the format OpenStack uses, sorting after every ID handed out before
+     */
+    public @Nonnull String nextId() {
+        return String.format("%08x-0000-4000-8000-%012x", type, sequence.incrementAndGet());
+    }
+
+    /**
+     * Stores a resource under the ID it carries.
+     * @param item the resource, which must have an <code>id</code>
+     * @return the resource
+     */
+    public @Nonnull JSONObject put(@Nonnull JSONObject item) {
+        try {
+            items.put(item.getString("id"), item);
+        }
+        catch( JSONException e ) {
+            throw new IllegalArgumentException(e);
+        }
+        return item;
+    }
+
+    /**
+     * Replaces the specified values of a stored resource.
+     * @param id the ID of the resource
+     * @param changes the values to set
+     * @return the updated resource or <code>null</code> if there is no such resource
+     */
+    public @Nullable JSONObject update(@Nonnull String id, @Nonnull JSONObject changes) {
+        while( true ) {
+            JSONObject current = items.get(id);
+
+            if( current == null ) {
+                return null;
+            }
+            try {
+                JSONObject updated = new JSONObject(current.toString());
+                Iterator<?> keys = changes.keys();
+
+                while( keys.hasNext() ) {
+                    String key = (String)keys.next();
+
+                    if( !key.equals("id") ) {
+                        updated.put(key, changes.get(key));
+                    }
+                }
+                if( items.replace(id, current, updated) ) {
+                    return updated;
+                }
+            }
+            catch( JSONException e ) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    public @Nullable JSONObject get(@Nonnull String id) {
+        return items.get(id);
+    }
+
+    public @Nullable JSONObject remove(@Nonnull String id) {
+        return items.remove(id);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public void clear() {
+        items.clear();
+    }
+
+    /**
+     * Lists a page of resources matching the specified filters.
+     * @param filters values the top level members of matching resources must equal, if any
+     * @param marker the ID of the last resource of the previous page or <code>null</code> for the first page
+     * @param limit the maximum number of resources in the page
+     * @return the resources in the page, one more than the limit if further pages follow
+     */
+    public @Nonnull List<JSONObject> list(@Nullable Map<String,String> filters, @Nullable String marker, int limit) {
+        ConcurrentNavigableMap<String,JSONObject> view = (marker == null ? items : items.tailMap(marker, false));
+        ArrayList<JSONObject> page = new ArrayList<JSONObject>();
+
+        for( JSONObject item : view.values() ) {
+            if( matches(item, filters) ) {
+                page.add(item);
+                if( page.size() > limit ) {
+                    break;
+                }
+            }
+        }
+        return page;
+    }
+
+    private boolean matches(@Nonnull JSONObject item, @Nullable Map<String,String> filters) {
+        if( filters == null ) {
+            return true;
+        }
+        for( Map.Entry<String,String> filter : filters.entrySet() ) {
+            Object value = item.opt(filter.getKey());
+
+            if( value == null || !value.toString().equals(filter.getValue()) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,1418 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os.fake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A stateful stand-in for an OpenStack cloud, served over HTTP on a local port so requests go through the real
+ * connection pool, retries and parsing. It implements enough of Keystone v2 (tokens and the service catalog), Nova
+ * (servers, flavors, images and limits), Neutron (networks, subnets and ports), Cinder (volumes, types and
+ * snapshots) and Swift (containers and objects) for load and regression tests to run offline.
+ * <p>
+ * Listings page with <code>limit</code> and <code>marker</code> and publish next links like the real services.
+ * JSON responses carry ETags, honor <code>If-None-Match</code> and are gzip compressed when the client accepts it.
+ * Latency, server failures and 413 throttling can be injected into every call except authentication, either at a
+ * rate or for the next few calls, and the <code>create</code> methods generate fleets of thousands of resources.
+ * </p>
+ * <pre>
+ * FakeOpenStack cloud = new FakeOpenStack().start();
+ *
+ * cloud.createServers(5000);
+ * cloud.setThrottleRate(0.05);
+ * // point the provider context at cloud.getEndpoint()
+ * cloud.stop();
+ * </pre>
+ */
+public class FakeOpenStack {
+    static public final String REGION      = "RegionOne";
+    static public final String TENANT_ID   = "0123456789abcdef0123456789abcdef";
+    static public final String TENANT_NAME = "fake-tenant";
+
+    static private final String[] FLAVORS = { "m1.tiny:512:1:1", "m1.small:2048:20:1", "m1.medium:4096:40:2", "m1.large:8192:80:4", "m1.xlarge:16384:160:8" };
+
+    static private final int COMPRESSION_THRESHOLD = 256;
+
+    static private final Set<String> PAGING_PARAMETERS = new HashSet<String>(Arrays.asList("limit", "marker", "fields", "format", "changes-since", "sort_key", "sort_dir", "prefix", "delimiter", "end_marker"));
+
+    static private String toTimestamp(long when) {
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return fmt.format(new Date(when));
+    }
+
+    static private String md5(byte[] data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            StringBuilder hex = new StringBuilder();
+
+            for( byte b : digest.digest(data) ) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static private class StoredObject {
+        final String contentType;
+        final byte[] data;
+        final String etag;
+        final long   modified;
+        final Map<String,String> metadata;
+
+        StoredObject(@Nonnull byte[] data, @Nullable String contentType, @Nonnull Map<String,String> metadata) {
+            this.contentType = (contentType == null ? "application/octet-stream" : contentType);
+            this.data = data;
+            this.etag = md5(data);
+            this.metadata = metadata;
+            this.modified = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A request being served, with the path below the service prefix split into segments.
+     */
+    static private class Call {
+        final HttpExchange       exchange;
+        final String             method;
+        final Map<String,String> query = new TreeMap<String, String>();
+        final String[]           path;
+        byte[]                   body;
+
+        Call(@Nonnull HttpExchange exchange) throws IOException {
+            this.exchange = exchange;
+            method = exchange.getRequestMethod().toUpperCase();
+
+            String raw = exchange.getRequestURI().getRawPath();
+            String[] parts = (raw == null ? "" : raw).split("/");
+            int count = 0;
+
+            for( String part : parts ) {
+                if( part.length() > 0 ) {
+                    parts[count++] = URLDecoder.decode(part, "utf-8");
+                }
+            }
+            path = Arrays.copyOf(parts, count);
+
+            String q = exchange.getRequestURI().getRawQuery();
+
+            if( q != null ) {
+                for( String param : q.split("&") ) {
+                    int idx = param.indexOf('=');
+
+                    if( idx > 0 ) {
+                        query.put(URLDecoder.decode(param.substring(0, idx), "utf-8"), URLDecoder.decode(param.substring(idx + 1), "utf-8"));
+                    }
+                    else if( param.length() > 0 ) {
+                        query.put(URLDecoder.decode(param, "utf-8"), "");
+                    }
+                }
+            }
+            InputStream input = exchange.getRequestBody();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+
+            while( (n = input.read(buffer)) != -1 ) {
+                bytes.write(buffer, 0, n);
+            }
+            body = bytes.toByteArray();
+        }
+
+        @Nonnull JSONObject json() throws JSONException {
+            try {
+                return new JSONObject(body.length < 1 ? "{}" : new String(body, "utf-8"));
+            }
+            catch( UnsupportedEncodingException e ) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Nullable String segment(int i) {
+            return (i < path.length ? path[i] : null);
+        }
+
+        @Nonnull String rest(int from) {
+            StringBuilder str = new StringBuilder();
+
+            for( int i=from; i<path.length; i++ ) {
+                if( str.length() > 0 ) {
+                    str.append('/');
+                }
+                str.append(path[i]);
+            }
+            return str.toString();
+        }
+
+        @Nonnull Map<String,String> filters() {
+            HashMap<String,String> filters = new HashMap<String, String>();
+
+            for( Map.Entry<String,String> entry : query.entrySet() ) {
+                if( !PAGING_PARAMETERS.contains(entry.getKey()) ) {
+                    filters.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return filters;
+        }
+    }
+
+    private final FakeCollection flavors   = new FakeCollection(1);
+    private final FakeCollection images    = new FakeCollection(2);
+    private final FakeCollection servers   = new FakeCollection(3);
+    private final FakeCollection networks  = new FakeCollection(4);
+    private final FakeCollection subnets   = new FakeCollection(5);
+    private final FakeCollection ports     = new FakeCollection(6);
+    private final FakeCollection volumes   = new FakeCollection(7);
+    private final FakeCollection types     = new FakeCollection(8);
+    private final FakeCollection snapshots = new FakeCollection(9);
+
+    private final ConcurrentSkipListMap<String,ConcurrentSkipListMap<String,StoredObject>> containers = new ConcurrentSkipListMap<String, ConcurrentSkipListMap<String, StoredObject>>();
+
+    private final ConcurrentHashMap<String,Long>       tokens = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentHashMap<String,AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+    private final Set<String>                          connections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong                           requests = new AtomicLong();
+    private final AtomicLong                           failed = new AtomicLong();
+    private final AtomicLong                           throttled = new AtomicLong();
+    private final AtomicLong                           tokenSequence = new AtomicLong();
+
+    private final AtomicInteger failNext = new AtomicInteger();
+    private final AtomicInteger throttleNext = new AtomicInteger();
+
+    private volatile boolean compression = true;
+    private volatile int     failureStatus = 500;
+    private volatile double  failureRate;
+    private volatile long    latency;
+    private volatile long    latencyJitter;
+    private volatile int     maxPageSize = 1000;
+    private volatile Random  random = new Random();
+    private volatile int     retryAfter = 1;
+    private volatile double  throttleRate;
+    private volatile long    tokenLifetime = 60 * 60 * 1000L;
+
+    private ExecutorService executor;
+    private HttpServer      server;
+
+    public FakeOpenStack() {
+        for( String flavor : FLAVORS ) {
+            String[] parts = flavor.split(":");
+
+            createFlavor(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+        }
+        createImages(3);
+        try {
+            types.put(new JSONObject().put("id", types.nextId()).put("name", "standard").put("extra_specs", new JSONObject()));
+        }
+        catch( JSONException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts serving on a free port of the loopback interface.
+     * @return this cloud
+     * @throws IOException the server could not be started
+     */
+    public synchronized @Nonnull FakeOpenStack start() throws IOException {
+        if( server != null ) {
+            return this;
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r, "Fake OpenStack " + count.incrementAndGet());
+
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                }
+                catch( Throwable t ) {
+                    try {
+                        sendError(exchange, 500, "computeFault", "Fake OpenStack failed: " + t);
+                    }
+                    catch( Throwable ignore ) {
+                        // the response was already under way
+                    }
+                }
+                finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return this;
+    }
+
+    /**
+     * Stops serving, dropping open connections.
+     */
+    public synchronized void stop() {
+        if( server != null ) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the base URL of the server
+     */
+    public synchronized @Nonnull String getBaseUrl() {
+        if( server == null ) {
+            throw new IllegalStateException("The fake cloud has not been started");
+        }
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return the Keystone endpoint to configure as the cloud endpoint of a provider context
+     */
+    public @Nonnull String getEndpoint() {
+        return getBaseUrl() + "/identity/v2.0";
+    }
+
+    public @Nonnull String getComputeUrl() {
+        return getBaseUrl() + "/compute/v2/" + TENANT_ID;
+    }
+
+    public @Nonnull String getNetworkUrl() {
+        return getBaseUrl() + "/network";
+    }
+
+    public @Nonnull String getVolumeUrl() {
+        return getBaseUrl() + "/volume/v1/" + TENANT_ID;
+    }
+
+    public @Nonnull String getStorageUrl() {
+        return getBaseUrl() + "/object-store/v1/AUTH_" + TENANT_ID;
+    }
+
+    /**
+     * Adds latency to every call.
+     * @param millis the fixed part of the latency
+     * @param jitter the upper bound of a random latency added on top
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack setLatency(@Nonnegative long millis, @Nonnegative long jitter) {
+        latency = millis;
+        latencyJitter = jitter;
+        return this;
+    }
+
+    /**
+     * @param rate the share of calls, between 0 and 1, failing with the failure status
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack setFailureRate(double rate) {
+        failureRate = rate;
+        return this;
+    }
+
+    /**
+     * @param status the HTTP status injected failures respond with (default 500); a 503 carries the Retry-After value
+     * of throttled calls
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack setFailureStatus(int status) {
+        failureStatus = status;
+        return this;
+    }
+
+    /**
+     * @param count how many of the next calls fail with the failure status
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack failNext(int count) {
+        failNext.set(count);
+        return this;
+    }
+
+    /**
+     * @param rate the share of calls, between 0 and 1, rejected with 413 Request Entity Too Large as Nova does
+     * when rate limiting
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack setThrottleRate(double rate) {
+        throttleRate = rate;
+        return this;
+    }
+
+    /**
+     * @param count how many of the next calls are throttled
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack throttleNext(int count) {
+        throttleNext.set(count);
+        return this;
+    }
+
+    /**
+     * @param seconds the Retry-After value of throttled calls (default 1)
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack setRetryAfter(@Nonnegative int seconds) {
+        retryAfter = seconds;
+        return this;
+    }
+
+    /**
+     * @param seed makes injected failures and throttling repeatable
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack setSeed(long seed) {
+        random = new Random(seed);
+        return this;
+    }
+
+    /**
+     * @param enabled whether JSON responses are gzip compressed for clients accepting it (default true)
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack setCompression(boolean enabled) {
+        compression = enabled;
+        return this;
+    }
+
+    /**
+     * @param size the most resources a listing returns per page, whatever limit is asked for (default 1000)
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack setMaxPageSize(@Nonnegative int size) {
+        maxPageSize = Math.max(1, size);
+        return this;
+    }
+
+    /**
+     * @param millis how long issued tokens stay valid (default one hour)
+     * @return this cloud
+     */
+    public @Nonnull FakeOpenStack setTokenLifetime(@Nonnegative long millis) {
+        tokenLifetime = millis;
+        return this;
+    }
+
+    /**
+     * Revokes every issued token, so the next calls are rejected with 401 until clients authenticate again.
+     */
+    public void revokeTokens() {
+        tokens.clear();
+    }
+
+    /**
+     * Issues a token without going through Keystone, for tests calling services directly.
+     * @return the token
+     */
+    public @Nonnull String issueToken() {
+        String token = "fake-token-" + tokenSequence.incrementAndGet();
+
+        tokens.put(token, System.currentTimeMillis() + tokenLifetime);
+        return token;
+    }
+
+    public @Nonnull FakeCollection getFlavors() {
+        return flavors;
+    }
+
+    public @Nonnull FakeCollection getImages() {
+        return images;
+    }
+
+    public @Nonnull FakeCollection getServers() {
+        return servers;
+    }
+
+    public @Nonnull FakeCollection getNetworks() {
+        return networks;
+    }
+
+    public @Nonnull FakeCollection getSubnets() {
+        return subnets;
+    }
+
+    public @Nonnull FakeCollection getPorts() {
+        return ports;
+    }
+
+    public @Nonnull FakeCollection getVolumes() {
+        return volumes;
+    }
+
+    /**
+     * @return how many calls were received
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @param operation the operation, named as the method, service and resource such as
+     * <code>GET compute servers</code>
+     * @return how many calls of the operation were received
+     */
+    public long getRequestCount(@Nonnull String operation) {
+        AtomicLong count = counts.get(operation);
+
+        return (count == null ? 0L : count.get());
+    }
+
+    /**
+     * @return how many calls were received per operation
+     */
+    public @Nonnull Map<String,Long> getRequestCounts() {
+        TreeMap<String,Long> map = new TreeMap<String, Long>();
+
+        for( Map.Entry<String,AtomicLong> entry : counts.entrySet() ) {
+            map.put(entry.getKey(), entry.getValue().get());
+        }
+        return map;
+    }
+
+    /**
+     * @return how many distinct client connections calls arrived on, which shows whether connections are reused
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return how many calls failed by injection
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return how many calls were throttled by injection
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * Forgets the statistics gathered so far, leaving resources alone.
+     */
+    public void resetStatistics() {
+        counts.clear();
+        connections.clear();
+        requests.set(0L);
+        failed.set(0L);
+        throttled.set(0L);
+    }
+
+    public @Nonnull JSONObject createFlavor(@Nonnull String name, int ram, int disk, int vcpus) {
+        try {
+            String id = flavors.nextId();
+
+            return flavors.put(new JSONObject().put("id", id).put("name", name).put("ram", ram).put("disk", disk).put("vcpus", vcpus).put("swap", "").put("rxtx_factor", 1.0).put("OS-FLV-EXT-DATA:ephemeral", 0).put("os-flavor-access:is_public", true).put("links", links("flavors", id)));
+        }
+        catch( JSONException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param count how many images to create
+     * @return the IDs of the new images
+     */
+    public @Nonnull String[] createImages(int count) {
+        String[] ids = new String[count];
+
+        try {
+            for( int i=0; i<count; i++ ) {
+                String id = images.nextId();
+                long now = System.currentTimeMillis();
+
+                images.put(new JSONObject().put("id", id).put("name", "image-" + images.size()).put("status", "ACTIVE").put("progress", 100).put("minDisk", 0).put("minRam", 0).put("created", toTimestamp(now)).put("updated", toTimestamp(now)).put("metadata", new JSONObject().put("os_type", i % 4 == 3 ? "windows" : "linux").put("os_distro", "ubuntu")).put("links", links("images", id)));
+                ids[i] = id;
+            }
+        }
+        catch( JSONException e ) {
+            throw new IllegalStateException(e);
+        }
+        return ids;
+    }
+
+    /**
+     * Generates a fleet of active servers spread over the flavors and images, each with a fixed address.
+     * @param count how many servers to create
+     * @return the IDs of the new servers
+     */
+    public @Nonnull String[] createServers(int count) {
+        String[] ids = new String[count];
+        List<JSONObject> flavorList = flavors.list(null, null, Integer.MAX_VALUE);
+        List<JSONObject> imageList = images.list(null, null, Integer.MAX_VALUE);
+
+        try {
+            for( int i=0; i<count; i++ ) {
+                JSONObject server = newServer("server-" + (servers.size() + 1), imageList.get(i % imageList.size()).getString("id"), flavorList.get(i % flavorList.size()).getString("id"), "ACTIVE");
+
+                servers.put(server);
+                ids[i] = server.getString("id");
+            }
+        }
+        catch( JSONException e ) {
+            throw new IllegalStateException(e);
+        }
+        return ids;
+    }
+
+    /**
+     * Generates networks with a subnet each.
+     * @param count how many networks to create
+     * @return the IDs of the new networks
+     */
+    public @Nonnull String[] createNetworks(int count) {
+        String[] ids = new String[count];
+
+        try {
+            for( int i=0; i<count; i++ ) {
+                JSONObject network = newNetwork(new JSONObject().put("name", "network-" + (networks.size() + 1)));
+                String subnetId = subnets.nextId();
+                int octet = subnets.size() % 250;
+
+                subnets.put(new JSONObject().put("id", subnetId).put("name", "subnet-" + (subnets.size() + 1)).put("network_id", network.getString("id")).put("tenant_id", TENANT_ID).put("ip_version", 4).put("cidr", "10." + (octet / 250) + "." + octet + ".0/24").put("gateway_ip", "10." + (octet / 250) + "." + octet + ".1").put("enable_dhcp", true).put("dns_nameservers", new JSONArray()).put("allocation_pools", new JSONArray().put(new JSONObject().put("start", "10.0." + octet + ".2").put("end", "10.0." + octet + ".254"))).put("host_routes", new JSONArray()));
+                network.put("subnets", new JSONArray().put(subnetId));
+                networks.put(network);
+                ids[i] = network.getString("id");
+            }
+        }
+        catch( JSONException e ) {
+            throw new IllegalStateException(e);
+        }
+        return ids;
+    }
+
+    /**
+     * Generates ports on a network.
+     * @param networkId the network the ports belong to
+     * @param count how many ports to create
+     * @return the IDs of the new ports
+     */
+    public @Nonnull String[] createPorts(@Nonnull String networkId, int count) {
+        String[] ids = new String[count];
+
+        try {
+            for( int i=0; i<count; i++ ) {
+                JSONObject port = newPort(new JSONObject().put("network_id", networkId));
+
+                ports.put(port);
+                ids[i] = port.getString("id");
+            }
+        }
+        catch( JSONException e ) {
+            throw new IllegalStateException(e);
+        }
+        return ids;
+    }
+
+    /**
+     * Generates available volumes.
+     * @param count how many volumes to create
+     * @return the IDs of the new volumes
+     */
+    public @Nonnull String[] createVolumes(int count) {
+        String[] ids = new String[count];
+
+        try {
+            for( int i=0; i<count; i++ ) {
+                JSONObject volume = newVolume(new JSONObject().put("display_name", "volume-" + (volumes.size() + 1)).put("size", 1 + (i % 100)));
+
+                volumes.put(volume);
+                ids[i] = volume.getString("id");
+            }
+        }
+        catch( JSONException e ) {
+            throw new IllegalStateException(e);
+        }
+        return ids;
+    }
+
+    /**
+     * Generates objects in a container, creating the container if needed.
+     * @param container the name of the container
+     * @param count how many objects to create
+     * @param size the size of each object in bytes
+     */
+    public void createObjects(@Nonnull String container, int count, @Nonnegative int size) {
+        ConcurrentSkipListMap<String,StoredObject> objects = getContainer(container, true);
+        byte[] data = new byte[size];
+
+        random.nextBytes(data);
+        for( int i=0; i<count; i++ ) {
+            objects.put(String.format("object-%08d", objects.size() + 1), new StoredObject(data, null, Collections.<String, String>emptyMap()));
+        }
+    }
+
+    /**
+     * @param container the name of a container
+     * @param name the name of an object in the container
+     * @return the content of the object or <code>null</code> if there is no such object
+     */
+    public @Nullable byte[] getObject(@Nonnull String container, @Nonnull String name) {
+        ConcurrentSkipListMap<String,StoredObject> objects = containers.get(container);
+        StoredObject object = (objects == null ? null : objects.get(name));
+
+        return (object == null ? null : object.data);
+    }
+
+    private @Nullable ConcurrentSkipListMap<String,StoredObject> getContainer(@Nonnull String name, boolean create) {
+        ConcurrentSkipListMap<String,StoredObject> objects = containers.get(name);
+
+        if( objects == null && create ) {
+            ConcurrentSkipListMap<String,StoredObject> existing = containers.putIfAbsent(name, objects = new ConcurrentSkipListMap<String, StoredObject>());
+
+            if( existing != null ) {
+                objects = existing;
+            }
+        }
+        return objects;
+    }
+
+    private @Nonnull JSONArray links(@Nonnull String resource, @Nonnull String id) throws JSONException {
+        String href = (server == null ? "" : getComputeUrl()) + "/" + resource + "/" + id;
+
+        return new JSONArray().put(new JSONObject().put("rel", "self").put("href", href)).put(new JSONObject().put("rel", "bookmark").put("href", href));
+    }
+
+    private @Nonnull JSONObject newServer(@Nonnull String name, @Nonnull String imageId, @Nonnull String flavorId, @Nonnull String status) throws JSONException {
+        String id = servers.nextId();
+        long n = servers.size() + 1;
+        long now = System.currentTimeMillis();
+        JSONObject address = new JSONObject().put("version", 4).put("addr", "10." + ((n >> 16) & 0xff) + "." + ((n >> 8) & 0xff) + "." + (n & 0xff)).put("OS-EXT-IPS:type", "fixed").put("OS-EXT-IPS-MAC:mac_addr", String.format("fa:16:3e:%02x:%02x:%02x", (n >> 16) & 0xff, (n >> 8) & 0xff, n & 0xff));
+
+        return new JSONObject()
+                .put("id", id)
+                .put("name", name)
+                .put("status", status)
+                .put("tenant_id", TENANT_ID)
+                .put("user_id", "fake-user")
+                .put("hostId", md5(("host-" + (n % 16)).getBytes()))
+                .put("created", toTimestamp(now))
+                .put("updated", toTimestamp(now))
+                .put("progress", 0)
+                .put("accessIPv4", "")
+                .put("accessIPv6", "")
+                .put("key_name", JSONObject.NULL)
+                .put("config_drive", "")
+                .put("image", new JSONObject().put("id", imageId).put("links", links("images", imageId)))
+                .put("flavor", new JSONObject().put("id", flavorId).put("links", links("flavors", flavorId)))
+                .put("addresses", new JSONObject().put("private", new JSONArray().put(address)))
+                .put("metadata", new JSONObject().put("dsnDescription", name))
+                .put("security_groups", new JSONArray().put(new JSONObject().put("name", "default")))
+                .put("OS-EXT-STS:power_state", 1)
+                .put("OS-EXT-STS:vm_state", "active")
+                .put("OS-EXT-STS:task_state", JSONObject.NULL)
+                .put("OS-EXT-AZ:availability_zone", "nova")
+                .put("OS-DCF:diskConfig", "MANUAL")
+                .put("links", links("servers", id));
+    }
+
+    private @Nonnull JSONObject newNetwork(@Nonnull JSONObject request) throws JSONException {
+        return new JSONObject()
+                .put("id", networks.nextId())
+                .put("name", request.optString("name", ""))
+                .put("status", "ACTIVE")
+                .put("admin_state_up", request.optBoolean("admin_state_up", true))
+                .put("shared", request.optBoolean("shared", false))
+                .put("tenant_id", TENANT_ID)
+                .put("router:external", false)
+                .put("subnets", new JSONArray());
+    }
+
+    private @Nonnull JSONObject newSubnet(@Nonnull JSONObject request) throws JSONException {
+        String cidr = request.optString("cidr", "192.168.0.0/24");
+        String prefix = cidr.substring(0, cidr.lastIndexOf('.') + 1);
+
+        return new JSONObject()
+                .put("id", subnets.nextId())
+                .put("name", request.optString("name", ""))
+                .put("network_id", request.optString("network_id", ""))
+                .put("tenant_id", TENANT_ID)
+                .put("ip_version", request.optInt("ip_version", 4))
+                .put("cidr", cidr)
+                .put("gateway_ip", request.optString("gateway_ip", prefix + "1"))
+                .put("enable_dhcp", request.optBoolean("enable_dhcp", true))
+                .put("dns_nameservers", new JSONArray())
+                .put("allocation_pools", new JSONArray().put(new JSONObject().put("start", prefix + "2").put("end", prefix + "254")))
+                .put("host_routes", new JSONArray());
+    }
+
+    private @Nonnull JSONObject newPort(@Nonnull JSONObject request) throws JSONException {
+        String id = ports.nextId();
+        long n = ports.size() + 1;
+
+        return new JSONObject()
+                .put("id", id)
+                .put("name", request.optString("name", ""))
+                .put("network_id", request.optString("network_id", ""))
+                .put("tenant_id", TENANT_ID)
+                .put("status", "ACTIVE")
+                .put("admin_state_up", true)
+                .put("device_id", request.optString("device_id", ""))
+                .put("device_owner", request.optString("device_owner", ""))
+                .put("mac_address", String.format("fa:16:3e:%02x:%02x:%02x", (n >> 16) & 0xff, (n >> 8) & 0xff, n & 0xff))
+                .put("fixed_ips", request.has("fixed_ips") ? request.getJSONArray("fixed_ips") : new JSONArray().put(new JSONObject().put("subnet_id", "").put("ip_address", "10.1." + ((n >> 8) & 0xff) + "." + (n & 0xff))))
+                .put("security_groups", new JSONArray());
+    }
+
+    private @Nonnull JSONObject newVolume(@Nonnull JSONObject request) throws JSONException {
+        String id = volumes.nextId();
+
+        return new JSONObject()
+                .put("id", id)
+                .put("display_name", request.optString("display_name", request.optString("name", "")))
+                .put("display_description", request.optString("display_description", ""))
+                .put("size", request.optInt("size", 1))
+                .put("status", "available")
+                .put("volume_type", request.optString("volume_type", "standard"))
+                .put("availability_zone", "nova")
+                .put("snapshot_id", request.opt("snapshot_id") == null ? JSONObject.NULL : request.get("snapshot_id"))
+                .put("bootable", "false")
+                .put("attachments", new JSONArray())
+                .put("metadata", new JSONObject())
+                .put("created_at", toTimestamp(System.currentTimeMillis()).replace("Z", ".000000"));
+    }
+
+    private void serve(@Nonnull HttpExchange exchange) throws IOException, JSONException {
+        Call call = new Call(exchange);
+        String service = call.segment(0);
+
+        requests.incrementAndGet();
+        connections.add(String.valueOf(exchange.getRemoteAddress()));
+        count(call);
+
+        long delay = latency + (latencyJitter > 0L ? (long)(random.nextDouble() * latencyJitter) : 0L);
+
+        if( delay > 0L ) {
+            try {
+                Thread.sleep(delay);
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if( "identity".equals(service) ) {
+            serveIdentity(call);
+            return;
+        }
+        String token = exchange.getRequestHeaders().getFirst("X-Auth-Token");
+        Long expiration = (token == null ? null : tokens.get(token));
+
+        if( expiration == null || expiration < System.currentTimeMillis() ) {
+            sendError(exchange, 401, "unauthorized", "This server could not verify that you are authorized to access the document you requested.");
+            return;
+        }
+        if( throttleNext.getAndDecrement() > 0 || (throttleRate > 0.0 && random.nextDouble() < throttleRate) ) {
+            throttled.incrementAndGet();
+            exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfter));
+            send(call, 413, new JSONObject().put("overLimit", new JSONObject().put("code", 413).put("message", "This request was rate-limited.").put("details", "Only so many requests per minute are allowed.").put("retryAfter", String.valueOf(retryAfter))));
+            return;
+        }
+        if( failNext.getAndDecrement() > 0 || (failureRate > 0.0 && random.nextDouble() < failureRate) ) {
+            failed.incrementAndGet();
+            if( failureStatus == 503 ) {
+                exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfter));
+            }
+            sendError(exchange, failureStatus, "computeFault", "The server has either erred or is incapable of performing the requested operation.");
+            return;
+        }
+        if( "compute".equals(service) && "v2".equals(call.segment(1)) && TENANT_ID.equals(call.segment(2)) ) {
+            serveCompute(call);
+        }
+        else if( "network".equals(service) ) {
+            serveNetwork(call);
+        }
+        else if( "volume".equals(service) && "v1".equals(call.segment(1)) && TENANT_ID.equals(call.segment(2)) ) {
+            serveVolume(call);
+        }
+        else if( "object-store".equals(service) && "v1".equals(call.segment(1)) && ("AUTH_" + TENANT_ID).equals(call.segment(2)) ) {
+            serveStorage(call);
+        }
+        else {
+            sendError(exchange, 404, "itemNotFound", "No such resource: " + exchange.getRequestURI());
+        }
+    }
+
+    private void count(@Nonnull Call call) {
+        int resource = ("compute".equals(call.segment(0)) || "volume".equals(call.segment(0)) ? 3 : 2);
+        String name = call.segment(resource);
+
+        if( "object-store".equals(call.segment(0)) ) {
+            name = (call.path.length > 4 ? "object" : (call.path.length > 3 ? "container" : "account"));
+        }
+        String operation = call.method + " " + call.segment(0) + " " + (name == null ? "/" : name);
+        AtomicLong count = counts.get(operation);
+
+        if( count == null ) {
+            AtomicLong existing = counts.putIfAbsent(operation, count = new AtomicLong());
+
+            if( existing != null ) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private void serveIdentity(@Nonnull Call call) throws IOException, JSONException {
+        if( !"POST".equals(call.method) || !"tokens".equals(call.segment(2)) ) {
+            sendError(call.exchange, 404, "itemNotFound", "Only token requests are supported");
+            return;
+        }
+        JSONObject auth = call.json().optJSONObject("auth");
+
+        if( auth == null || (!auth.has("passwordCredentials") && !auth.has("apiAccessKeyCredentials") && !auth.has("token")) ) {
+            sendError(call.exchange, 401, "unauthorized", "No credentials were supplied");
+            return;
+        }
+        String token = issueToken();
+        long now = System.currentTimeMillis();
+        JSONArray catalog = new JSONArray()
+                .put(toService("compute", "nova", getComputeUrl(), "2"))
+                .put(toService("network", "neutron", getNetworkUrl(), "2.0"))
+                .put(toService("volume", "cinder", getVolumeUrl(), "1"))
+                .put(toService("object-store", "swift", getStorageUrl(), "1"))
+                .put(toService("identity", "keystone", getEndpoint(), "2.0"));
+        JSONObject access = new JSONObject()
+                .put("token", new JSONObject().put("id", token).put("issued_at", toTimestamp(now)).put("expires", toTimestamp(now + tokenLifetime)).put("tenant", new JSONObject().put("id", TENANT_ID).put("name", TENANT_NAME).put("enabled", true)))
+                .put("serviceCatalog", catalog)
+                .put("user", new JSONObject().put("id", "fake-user").put("name", "fake-user").put("roles", new JSONArray().put(new JSONObject().put("name", "_member_"))));
+
+        send(call, 200, new JSONObject().put("access", access));
+    }
+
+    private @Nonnull JSONObject toService(@Nonnull String type, @Nonnull String name, @Nonnull String url, @Nonnull String version) throws JSONException {
+        JSONObject endpoint = new JSONObject().put("region", REGION).put("publicURL", url).put("internalURL", url).put("adminURL", url).put("versionId", version).put("id", md5(url.getBytes()));
+
+        return new JSONObject().put("type", type).put("name", name).put("endpoints", new JSONArray().put(endpoint)).put("endpoints_links", new JSONArray());
+    }
+
+    private void serveCompute(@Nonnull Call call) throws IOException, JSONException {
+        String resource = call.segment(3);
+        String id = call.segment(4);
+
+        if( "limits".equals(resource) ) {
+            JSONArray rate = new JSONArray();
+
+            for( String verb : new String[] { "POST", "PUT", "DELETE", "GET" } ) {
+                rate.put(new JSONObject().put("verb", verb).put("value", 100000).put("remaining", 100000).put("unit", "MINUTE").put("next-available", toTimestamp(System.currentTimeMillis())));
+            }
+            JSONObject absolute = new JSONObject().put("maxTotalInstances", 100000).put("totalInstancesUsed", servers.size()).put("maxTotalCores", 1000000).put("maxTotalRAMSize", 100000000).put("maxTotalFloatingIps", 1000).put("maxSecurityGroups", 1000);
+
+            send(call, 200, new JSONObject().put("limits", new JSONObject().put("rate", new JSONArray().put(new JSONObject().put("uri", "*").put("regex", ".*").put("limit", rate))).put("absolute", absolute)));
+        }
+        else if( "flavors".equals(resource) ) {
+            serveCollection(call, flavors, "flavor", "flavors", id, false);
+        }
+        else if( "images".equals(resource) ) {
+            serveCollection(call, images, "image", "images", id, false);
+        }
+        else if( "servers".equals(resource) ) {
+            if( "POST".equals(call.method) && id == null ) {
+                JSONObject request = call.json().getJSONObject("server");
+                JSONObject server = newServer(request.getString("name"), request.optString("imageRef", images.list(null, null, 1).get(0).getString("id")), request.optString("flavorRef", flavors.list(null, null, 1).get(0).getString("id")), "BUILD");
+
+                if( request.has("metadata") ) {
+                    server.put("metadata", request.getJSONObject("metadata"));
+                }
+                servers.put(server);
+                send(call, 202, new JSONObject().put("server", new JSONObject().put("id", server.getString("id")).put("adminPass", "fake-password").put("links", server.getJSONArray("links"))));
+                // the next read sees the server running, as a quick cloud would have it
+                servers.update(server.getString("id"), new JSONObject().put("status", "ACTIVE"));
+            }
+            else if( "POST".equals(call.method) && "action".equals(call.segment(5)) ) {
+                if( servers.get(id) == null ) {
+                    sendError(call.exchange, 404, "itemNotFound", "Instance " + id + " could not be found.");
+                }
+                else {
+                    JSONObject action = call.json();
+
+                    if( action.has("os-stop") ) {
+                        servers.update(id, new JSONObject().put("status", "SHUTOFF"));
+                    }
+                    else if( action.has("os-start") ) {
+                        servers.update(id, new JSONObject().put("status", "ACTIVE"));
+                    }
+                    send(call, 202, null);
+                }
+            }
+            else {
+                serveCollection(call, servers, "server", "servers", id, true);
+            }
+        }
+        else if( "os-keypairs".equals(resource) || "os-floating-ips".equals(resource) || "os-security-groups".equals(resource) || "os-availability-zone".equals(resource) || "extensions".equals(resource) ) {
+            String key = resource.startsWith("os-") ? resource.substring(3).replace('-', '_') : resource;
+
+            if( key.equals("availability_zone") ) {
+                send(call, 200, new JSONObject().put("availabilityZoneInfo", new JSONArray().put(new JSONObject().put("zoneName", "nova").put("zoneState", new JSONObject().put("available", true)))));
+            }
+            else {
+                send(call, 200, new JSONObject().put(key, new JSONArray()));
+            }
+        }
+        else {
+            sendError(call.exchange, 404, "itemNotFound", "No such resource: " + resource);
+        }
+    }
+
+    private void serveNetwork(@Nonnull Call call) throws IOException, JSONException {
+        String version = call.segment(1);
+
+        if( version == null ) {
+            JSONObject v2 = new JSONObject().put("status", "CURRENT").put("id", "v2.0").put("links", new JSONArray().put(new JSONObject().put("rel", "self").put("href", getNetworkUrl() + "/v2.0")));
+
+            send(call, 200, new JSONObject().put("versions", new JSONArray().put(v2)));
+            return;
+        }
+        String resource = call.segment(2);
+        String id = call.segment(3);
+
+        if( resource != null && resource.endsWith(".json") ) {
+            resource = resource.substring(0, resource.length() - 5);
+        }
+        if( id != null && id.endsWith(".json") ) {
+            id = id.substring(0, id.length() - 5);
+        }
+        if( !"v2.0".equals(version) ) {
+            sendError(call.exchange, 404, "NotFound", "Unknown API version " + version);
+        }
+        else if( "networks".equals(resource) ) {
+            if( "POST".equals(call.method) ) {
+                JSONObject network = networks.put(newNetwork(call.json().getJSONObject("network")));
+
+                send(call, 201, new JSONObject().put("network", network));
+            }
+            else {
+                serveCollection(call, networks, "network", "networks", id, true);
+            }
+        }
+        else if( "subnets".equals(resource) ) {
+            if( "POST".equals(call.method) ) {
+                JSONObject subnet = subnets.put(newSubnet(call.json().getJSONObject("subnet")));
+                JSONObject network = networks.get(subnet.getString("network_id"));
+
+                if( network != null ) {
+                    JSONArray ids = new JSONArray(network.getJSONArray("subnets").toString()).put(subnet.getString("id"));
+
+                    networks.update(network.getString("id"), new JSONObject().put("subnets", ids));
+                }
+                send(call, 201, new JSONObject().put("subnet", subnet));
+            }
+            else {
+                serveCollection(call, subnets, "subnet", "subnets", id, true);
+            }
+        }
+        else if( "ports".equals(resource) ) {
+            if( "POST".equals(call.method) ) {
+                JSONObject port = ports.put(newPort(call.json().getJSONObject("port")));
+
+                send(call, 201, new JSONObject().put("port", port));
+            }
+            else {
+                serveCollection(call, ports, "port", "ports", id, true);
+            }
+        }
+        else if( "security-groups".equals(resource) || "floatingips".equals(resource) || "routers".equals(resource) || "extensions".equals(resource) ) {
+            send(call, 200, new JSONObject().put(resource.replace('-', '_'), new JSONArray()));
+        }
+        else {
+            sendError(call.exchange, 404, "NotFound", "No such resource: " + resource);
+        }
+    }
+
+    private void serveVolume(@Nonnull Call call) throws IOException, JSONException {
+        String resource = call.segment(3);
+        String id = call.segment(4);
+
+        if( "volumes".equals(resource) ) {
+            if( "POST".equals(call.method) && id == null ) {
+                JSONObject volume = volumes.put(newVolume(call.json().getJSONObject("volume")));
+
+                send(call, 200, new JSONObject().put("volume", volume));
+            }
+            else {
+                serveCollection(call, volumes, "volume", "volumes", id, true);
+            }
+        }
+        else if( "types".equals(resource) ) {
+            serveCollection(call, types, "volume_type", "volume_types", id, false);
+        }
+        else if( "snapshots".equals(resource) ) {
+            serveCollection(call, snapshots, "snapshot", "snapshots", id, true);
+        }
+        else {
+            sendError(call.exchange, 404, "itemNotFound", "No such resource: " + resource);
+        }
+    }
+
+    /**
+     * Serves reads, updates and deletes of a collection, including paged listings with or without details.
+     */
+    private void serveCollection(@Nonnull Call call, @Nonnull FakeCollection collection, @Nonnull String singular, @Nonnull String plural, @Nullable String id, boolean writable) throws IOException, JSONException {
+        boolean detail = "detail".equals(id);
+
+        if( id == null || detail ) {
+            if( !"GET".equals(call.method) ) {
+                sendError(call.exchange, 405, "badMethod", call.method + " is not supported on " + plural);
+                return;
+            }
+            String marker = call.query.get("marker");
+            int limit = maxPageSize;
+
+            if( marker != null && collection.get(marker) == null ) {
+                sendError(call.exchange, 400, "badRequest", "marker [" + marker + "] not found");
+                return;
+            }
+            if( call.query.containsKey("limit") ) {
+                try {
+                    limit = Math.max(1, Math.min(maxPageSize, Integer.parseInt(call.query.get("limit"))));
+                }
+                catch( NumberFormatException e ) {
+                    sendError(call.exchange, 400, "badRequest", "limit param must be an integer");
+                    return;
+                }
+            }
+            List<JSONObject> page = collection.list(call.filters(), marker, limit);
+            boolean more = page.size() > limit;
+            JSONArray list = new JSONArray();
+
+            if( more ) {
+                page = page.subList(0, limit);
+            }
+            for( JSONObject item : page ) {
+                // Neutron and Cinder listings always carry details, Nova's only under /detail
+                if( detail || !"compute".equals(call.segment(0)) ) {
+                    list.put(item);
+                }
+                else {
+                    list.put(new JSONObject().put("id", item.getString("id")).put("name", item.optString("name")).put("links", item.optJSONArray("links")));
+                }
+            }
+            JSONObject response = new JSONObject().put(plural, list);
+
+            if( more ) {
+                String base = getBaseUrl() + call.exchange.getRequestURI().getRawPath();
+                String next = base + "?limit=" + limit + "&marker=" + page.get(page.size() - 1).getString("id");
+
+                response.put(plural + "_links", new JSONArray().put(new JSONObject().put("rel", "next").put("href", next)));
+            }
+            send(call, 200, response);
+            return;
+        }
+        JSONObject item = collection.get(id);
+
+        if( item == null ) {
+            sendError(call.exchange, 404, "itemNotFound", singular + " " + id + " could not be found.");
+        }
+        else if( "GET".equals(call.method) ) {
+            send(call, 200, new JSONObject().put(singular, item));
+        }
+        else if( writable && "PUT".equals(call.method) ) {
+            JSONObject changes = call.json().optJSONObject(singular);
+
+            send(call, 200, new JSONObject().put(singular, collection.update(id, changes == null ? new JSONObject() : changes)));
+        }
+        else if( writable && "DELETE".equals(call.method) ) {
+            collection.remove(id);
+            send(call, 204, null);
+        }
+        else {
+            sendError(call.exchange, 405, "badMethod", call.method + " is not supported on " + plural);
+        }
+    }
+
+    private void serveStorage(@Nonnull Call call) throws IOException, JSONException {
+        String container = call.segment(3);
+        String object = (call.path.length > 4 ? call.rest(4) : null);
+        Headers headers = call.exchange.getResponseHeaders();
+
+        if( container == null ) {
+            long count = 0L, bytes = 0L;
+
+            for( ConcurrentSkipListMap<String,StoredObject> objects : containers.values() ) {
+                for( StoredObject o : objects.values() ) {
+                    count++;
+                    bytes += o.data.length;
+                }
+            }
+            headers.add("X-Account-Container-Count", String.valueOf(containers.size()));
+            headers.add("X-Account-Object-Count", String.valueOf(count));
+            headers.add("X-Account-Bytes-Used", String.valueOf(bytes));
+            if( "HEAD".equals(call.method) || "POST".equals(call.method) ) {
+                send(call, 204, null);
+                return;
+            }
+            JSONArray list = new JSONArray();
+
+            for( Map.Entry<String,ConcurrentSkipListMap<String,StoredObject>> entry : page(containers, call).entrySet() ) {
+                long size = 0L;
+
+                for( StoredObject o : entry.getValue().values() ) {
+                    size += o.data.length;
+                }
+                list.put(new JSONObject().put("name", entry.getKey()).put("count", entry.getValue().size()).put("bytes", size));
+            }
+            sendListing(call, list);
+            return;
+        }
+        if( object == null ) {
+            ConcurrentSkipListMap<String,StoredObject> objects = getContainer(container, false);
+
+            if( "PUT".equals(call.method) ) {
+                boolean created = (objects == null);
+
+                getContainer(container, true);
+                send(call, created ? 201 : 202, null);
+            }
+            else if( objects == null ) {
+                send(call, 404, null);
+            }
+            else if( "DELETE".equals(call.method) ) {
+                if( !objects.isEmpty() ) {
+                    send(call, 409, null);
+                }
+                else {
+                    containers.remove(container, objects);
+                    send(call, 204, null);
+                }
+            }
+            else if( "HEAD".equals(call.method) || "POST".equals(call.method) ) {
+                long bytes = 0L;
+
+                for( StoredObject o : objects.values() ) {
+                    bytes += o.data.length;
+                }
+                headers.add("X-Container-Object-Count", String.valueOf(objects.size()));
+                headers.add("X-Container-Bytes-Used", String.valueOf(bytes));
+                send(call, 204, null);
+            }
+            else {
+                JSONArray list = new JSONArray();
+
+                for( Map.Entry<String,StoredObject> entry : page(objects, call).entrySet() ) {
+                    StoredObject o = entry.getValue();
+
+                    list.put(new JSONObject().put("name", entry.getKey()).put("hash", o.etag).put("bytes", o.data.length).put("content_type", o.contentType).put("last_modified", toTimestamp(o.modified).replace("Z", ".000000")));
+                }
+                sendListing(call, list);
+            }
+            return;
+        }
+        ConcurrentSkipListMap<String,StoredObject> objects = getContainer(container, false);
+
+        if( objects == null ) {
+            send(call, 404, null);
+            return;
+        }
+        if( "PUT".equals(call.method) ) {
+            HashMap<String,String> metadata = new HashMap<String, String>();
+
+            for( Map.Entry<String,List<String>> header : call.exchange.getRequestHeaders().entrySet() ) {
+                if( header.getKey().toLowerCase().startsWith("x-object-meta-") ) {
+                    metadata.put(header.getKey(), header.getValue().get(0));
+                }
+            }
+            StoredObject stored = new StoredObject(call.body, call.exchange.getRequestHeaders().getFirst("Content-Type"), metadata);
+            String expected = call.exchange.getRequestHeaders().getFirst("ETag");
+
+            if( expected != null && !expected.equalsIgnoreCase(stored.etag) ) {
+                send(call, 422, null);
+                return;
+            }
+            objects.put(object, stored);
+            headers.add("ETag", stored.etag);
+            send(call, 201, null);
+            return;
+        }
+        StoredObject stored = objects.get(object);
+
+        if( stored == null ) {
+            send(call, 404, null);
+        }
+        else if( "DELETE".equals(call.method) ) {
+            objects.remove(object);
+            send(call, 204, null);
+        }
+        else {
+            headers.add("ETag", stored.etag);
+            headers.add("Content-Type", stored.contentType);
+            headers.add("Last-Modified", new Date(stored.modified).toString());
+            for( Map.Entry<String,String> meta : stored.metadata.entrySet() ) {
+                headers.add(meta.getKey(), meta.getValue());
+            }
+            if( "HEAD".equals(call.method) ) {
+                headers.add("Content-Length", String.valueOf(stored.data.length));
+                call.exchange.sendResponseHeaders(200, -1);
+            }
+            else {
+                // objects are sent exactly as stored, never compressed
+                call.exchange.sendResponseHeaders(200, stored.data.length == 0 ? -1 : stored.data.length);
+                call.exchange.getResponseBody().write(stored.data);
+            }
+        }
+    }
+
+    private @Nonnull <T> Map<String,T> page(@Nonnull ConcurrentSkipListMap<String,T> map, @Nonnull Call call) {
+        String marker = call.query.get("marker");
+        String prefix = call.query.get("prefix");
+        int limit = 10000;
+
+        if( call.query.containsKey("limit") ) {
+            limit = Math.max(1, Math.min(10000, Integer.parseInt(call.query.get("limit"))));
+        }
+        TreeMap<String,T> page = new TreeMap<String, T>();
+
+        for( Map.Entry<String,T> entry : (marker == null ? map : map.tailMap(marker, false)).entrySet() ) {
+            if( prefix == null || entry.getKey().startsWith(prefix) ) {
+                page.put(entry.getKey(), entry.getValue());
+                if( page.size() >= limit ) {
+                    break;
+                }
+            }
+        }
+        return page;
+    }
+
+    private void sendListing(@Nonnull Call call, @Nonnull JSONArray list) throws IOException, JSONException {
+        if( "json".equals(call.query.get("format")) ) {
+            sendBody(call, list.length() < 1 ? 204 : 200, "application/json; charset=utf-8", list.toString().getBytes("utf-8"));
+        }
+        else {
+            StringBuilder names = new StringBuilder();
+
+            for( int i=0; i<list.length(); i++ ) {
+                names.append(list.getJSONObject(i).getString("name")).append('\n');
+            }
+            sendBody(call, list.length() < 1 ? 204 : 200, "text/plain; charset=utf-8", names.toString().getBytes("utf-8"));
+        }
+    }
+
+    private void sendError(@Nonnull HttpExchange exchange, int status, @Nonnull String type, @Nonnull String message) throws IOException {
+        try {
+            byte[] body = new JSONObject().put(type, new JSONObject().put("code", status).put("message", message)).toString().getBytes("utf-8");
+
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        }
+        catch( JSONException e ) {
+            throw new IOException(e);
+        }
+    }
+
+    private void send(@Nonnull Call call, int status, @Nullable JSONObject json) throws IOException {
+        if( json == null ) {
+            call.exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        sendBody(call, status, "application/json; charset=utf-8", json.toString().getBytes("utf-8"));
+    }
+
+    private void sendBody(@Nonnull Call call, int status, @Nonnull String contentType, @Nonnull byte[] body) throws IOException {
+        HttpExchange exchange = call.exchange;
+        Headers headers = exchange.getResponseHeaders();
+
+        if( status == 204 || "HEAD".equals(call.method) ) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        headers.add("Content-Type", contentType);
+        if( status == 200 && "GET".equals(call.method) ) {
+            String etag = "\"" + md5(body) + "\"";
+
+            headers.add("ETag", etag);
+            if( etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")) ) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+        if( compression && accept != null && accept.contains("gzip") && body.length >= COMPRESSION_THRESHOLD ) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+
+            gzip.write(body);
+            gzip.close();
+            body = bytes.toByteArray();
+            headers.add("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, body.length);
+
+        OutputStream output = exchange.getResponseBody();
+
+        output.write(body);
+    }
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os.fake;
+
+import java.util.HashSet;
+import java.util.Properties;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.dasein.cloud.Cloud;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.ContextRequirements;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.openstack.nova.os.CircuitBreaker;
+import org.dasein.cloud.openstack.nova.os.NovaOpenStack;
+import org.dasein.cloud.openstack.nova.os.compute.NovaServer;
+import org.dasein.cloud.openstack.nova.os.network.NovaNetworkServices;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FakeOpenStackTest {
+    private FakeOpenStack cloud;
+    private HttpClient    client;
+
+    @Before
+    public void setUp() throws Exception {
+        cloud = new FakeOpenStack().setSeed(42L).start();
+        client = new DefaultHttpClient();
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionManager().shutdown();
+        cloud.stop();
+    }
+
+    private String authenticate() throws Exception {
+        HttpPost post = new HttpPost(cloud.getEndpoint() + "/tokens");
+
+        post.setEntity(new StringEntity("{\"auth\": {\"passwordCredentials\": {\"username\": \"user\", \"password\": \"secret\"}, \"tenantName\": \"" + FakeOpenStack.TENANT_NAME + "\"}}", "application/json", "utf-8"));
+
+        HttpResponse response = client.execute(post);
+
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        return new JSONObject(EntityUtils.toString(response.getEntity())).getJSONObject("access").getJSONObject("token").getString("id");
+    }
+
+    /**
+     * Connects a real provider to the fake cloud, so requests go through authentication, the connection pool, the
+     * retry policy and the circuit breaker just as they would against OpenStack. Network services are left out to
+     * keep server listings to the compute API.
+     * @return the provider
+     */
+    private NovaOpenStack connect() {
+        final ProviderContext ctx = mock(ProviderContext.class);
+        Cloud c = mock(Cloud.class);
+
+        when(c.getEndpoint()).thenReturn(cloud.getEndpoint());
+        when(ctx.getCloud()).thenReturn(c);
+        when(ctx.getEndpoint()).thenReturn(cloud.getEndpoint());
+        when(ctx.getAccountNumber()).thenReturn(FakeOpenStack.TENANT_NAME);
+        when(ctx.getEffectiveAccountNumber()).thenReturn(FakeOpenStack.TENANT_NAME);
+        when(ctx.getRegionId()).thenReturn(FakeOpenStack.REGION);
+        when(ctx.getCustomProperties()).thenReturn(new Properties());
+        when(ctx.getConfigurationValue(any(ContextRequirements.Field.class))).thenReturn(new byte[][] { "user".getBytes(), "secret".getBytes() });
+        return new NovaOpenStack() {
+            @Override
+            public ProviderContext getContext() {
+                return ctx;
+            }
+
+            @Override
+            public NovaNetworkServices getNetworkServices() {
+                return null;
+            }
+        };
+    }
+
+    private HashSet<String> listServerIds(NovaServer support) throws Exception {
+        HashSet<String> ids = new HashSet<String>();
+
+        for( VirtualMachine vm : support.listVirtualMachines() ) {
+            assertEquals(FakeOpenStack.REGION, vm.getProviderRegionId());
+            ids.add(vm.getProviderVirtualMachineId());
+        }
+        return ids;
+    }
+
+    private HttpResponse call(HttpUriRequest request, String token) throws Exception {
+        request.addHeader("X-Auth-Token", token);
+        return client.execute(request);
+    }
+
+    private JSONObject getJSON(String url, String token) throws Exception {
+        HttpResponse response = call(new HttpGet(url), token);
+
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        return new JSONObject(EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void authenticationPublishesCatalog() throws Exception {
+        HttpPost post = new HttpPost(cloud.getEndpoint() + "/tokens");
+
+        post.setEntity(new StringEntity("{\"auth\": {\"passwordCredentials\": {\"username\": \"user\", \"password\": \"secret\"}}}", "application/json", "utf-8"));
+
+        JSONObject access = new JSONObject(EntityUtils.toString(client.execute(post).getEntity())).getJSONObject("access");
+        JSONArray catalog = access.getJSONArray("serviceCatalog");
+        HashSet<String> types = new HashSet<String>();
+
+        for( int i=0; i<catalog.length(); i++ ) {
+            JSONObject endpoint = catalog.getJSONObject(i).getJSONArray("endpoints").getJSONObject(0);
+
+            types.add(catalog.getJSONObject(i).getString("type"));
+            assertEquals(FakeOpenStack.REGION, endpoint.getString("region"));
+            assertTrue(endpoint.getString("publicURL").startsWith(cloud.getBaseUrl()));
+        }
+        assertTrue(types.contains("compute"));
+        assertTrue(types.contains("network"));
+        assertTrue(types.contains("volume"));
+        assertTrue(types.contains("object-store"));
+        assertEquals(FakeOpenStack.TENANT_ID, access.getJSONObject("token").getJSONObject("tenant").getString("id"));
+    }
+
+    @Test
+    public void serverFleetPagesThroughEveryServer() throws Exception {
+        String token = authenticate();
+        HashSet<String> ids = new HashSet<String>();
+        String url = cloud.getComputeUrl() + "/servers/detail?limit=1000";
+        int pages = 0;
+
+        cloud.createServers(2500);
+        while( url != null ) {
+            JSONObject json = getJSON(url, token);
+            JSONArray list = json.getJSONArray("servers");
+
+            for( int i=0; i<list.length(); i++ ) {
+                assertEquals("ACTIVE", list.getJSONObject(i).getString("status"));
+                ids.add(list.getJSONObject(i).getString("id"));
+            }
+            url = (json.has("servers_links") ? json.getJSONArray("servers_links").getJSONObject(0).getString("href") : null);
+            pages++;
+        }
+        assertEquals(2500, ids.size());
+        assertEquals(3, pages);
+        assertEquals(3L, cloud.getRequestCount("GET compute servers"));
+    }
+
+    @Test
+    public void createdResourcesAreListed() throws Exception {
+        String token = authenticate();
+        HttpPost post = new HttpPost(cloud.getNetworkUrl() + "/v2.0/networks");
+
+        post.setEntity(new StringEntity("{\"network\": {\"name\": \"backend\"}}", "application/json", "utf-8"));
+
+        HttpResponse response = call(post, token);
+
+        assertEquals(201, response.getStatusLine().getStatusCode());
+
+        String networkId = new JSONObject(EntityUtils.toString(response.getEntity())).getJSONObject("network").getString("id");
+
+        cloud.createNetworks(10);
+        cloud.createPorts(networkId, 5);
+        assertEquals(11, getJSON(cloud.getNetworkUrl() + "/v2.0/networks", token).getJSONArray("networks").length());
+        assertEquals(5, getJSON(cloud.getNetworkUrl() + "/v2.0/ports?network_id=" + networkId, token).getJSONArray("ports").length());
+
+        cloud.createVolumes(20);
+        assertEquals(20, getJSON(cloud.getVolumeUrl() + "/volumes/detail", token).getJSONArray("volumes").length());
+    }
+
+    @Test
+    public void injectedThrottlingAndFailures() throws Exception {
+        String token = authenticate();
+
+        cloud.throttleNext(2);
+        for( int i=0; i<2; i++ ) {
+            HttpResponse response = call(new HttpGet(cloud.getComputeUrl() + "/flavors"), token);
+
+            assertEquals(413, response.getStatusLine().getStatusCode());
+            assertEquals("1", response.getFirstHeader("Retry-After").getValue());
+            assertTrue(new JSONObject(EntityUtils.toString(response.getEntity())).has("overLimit"));
+        }
+        cloud.failNext(1);
+
+        HttpResponse response = call(new HttpGet(cloud.getComputeUrl() + "/flavors"), token);
+
+        assertEquals(500, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+        assertEquals(5, getJSON(cloud.getComputeUrl() + "/flavors", token).getJSONArray("flavors").length());
+        assertEquals(2L, cloud.getThrottledCount());
+        assertEquals(1L, cloud.getFailedCount());
+    }
+
+    @Test
+    public void revokedTokensAreRejected() throws Exception {
+        String token = authenticate();
+
+        getJSON(cloud.getComputeUrl() + "/limits", token);
+        cloud.revokeTokens();
+
+        HttpResponse response = call(new HttpGet(cloud.getComputeUrl() + "/limits"), token);
+
+        assertEquals(401, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+        getJSON(cloud.getComputeUrl() + "/limits", authenticate());
+    }
+
+    @Test
+    public void objectsRoundTrip() throws Exception {
+        String token = authenticate();
+        byte[] data = "the quick brown fox".getBytes("utf-8");
+
+        EntityUtils.consume(call(new HttpPut(cloud.getStorageUrl() + "/backups"), token).getEntity());
+
+        HttpPut put = new HttpPut(cloud.getStorageUrl() + "/backups/2015/01/dump.txt");
+
+        put.setEntity(new ByteArrayEntity(data));
+
+        HttpResponse response = call(put, token);
+
+        assertEquals(201, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+        response = call(new HttpGet(cloud.getStorageUrl() + "/backups/2015/01/dump.txt"), token);
+        assertArrayEquals(data, EntityUtils.toByteArray(response.getEntity()));
+        cloud.createObjects("backups", 3, 16);
+        response = call(new HttpGet(cloud.getStorageUrl() + "/backups?format=json"), token);
+        assertEquals(4, new JSONArray(EntityUtils.toString(response.getEntity())).length());
+    }
+
+    @Test
+    public void compressesAndRevalidatesListings() throws Exception {
+        String token = authenticate();
+        HttpGet get = new HttpGet(cloud.getComputeUrl() + "/servers/detail");
+
+        cloud.createServers(50);
+        get.addHeader("Accept-Encoding", "gzip");
+
+        HttpResponse response = call(get, token);
+
+        assertEquals("gzip", response.getFirstHeader("Content-Encoding").getValue());
+
+        String etag = response.getFirstHeader("ETag").getValue();
+
+        EntityUtils.consume(response.getEntity());
+        get = new HttpGet(cloud.getComputeUrl() + "/servers/detail");
+        get.addHeader("If-None-Match", etag);
+        response = call(get, token);
+        assertEquals(304, response.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void providerPagesThroughTheFleetOnPooledConnections() throws Exception {
+        NovaServer support = connect().getComputeServices().getVirtualMachineSupport();
+
+        cloud.setMaxPageSize(100);
+        cloud.createServers(250);
+        cloud.resetStatistics();
+        assertEquals(250, listServerIds(support).size());
+        assertEquals(3L, cloud.getRequestCount("GET compute servers"));
+
+        int connections = cloud.getConnectionCount();
+
+        assertEquals(250, listServerIds(support).size());
+        assertEquals(6L, cloud.getRequestCount("GET compute servers"));
+        assertEquals("A second listing should reuse the pooled connections", connections, cloud.getConnectionCount());
+    }
+
+    @Test
+    public void providerRidesOutThrottlingAndFailures() throws Exception {
+        NovaOpenStack provider = connect();
+        NovaServer support = provider.getComputeServices().getVirtualMachineSupport();
+        CircuitBreaker breaker = CircuitBreaker.getInstance(provider.getAuthenticationContext().getComputeUrl());
+
+        cloud.setMaxPageSize(100);
+        cloud.createServers(150);
+        cloud.throttleNext(2);
+        assertEquals("Throttled pages should have been retried", 150, listServerIds(support).size());
+        assertEquals(2L, cloud.getThrottledCount());
+
+        cloud.failNext(1);
+        try {
+            listServerIds(support);
+            fail("A server failure should not be retried");
+        }
+        catch( RuntimeException e ) {
+            Throwable cause = e;
+
+            // listings are loaded in the background, which wraps what went wrong
+            while( cause != null && !(cause instanceof CloudException) ) {
+                cause = cause.getCause();
+            }
+            assertNotNull("Unexpected failure: " + e, cause);
+        }
+        assertEquals(1L, cloud.getFailedCount());
+        assertEquals(1, breaker.getFailureCount());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(150, listServerIds(support).size());
+        assertEquals("A success should reset the breaker", 0, breaker.getFailureCount());
+    }
+}
@@ -6,6 +6,7 @@ import org.dasein.cloud.compute.ComputeServices;
 import org.dasein.cloud.compute.VirtualMachine;
 import org.dasein.cloud.compute.VirtualMachineSupport;
 import org.dasein.cloud.network.*;
+import org.dasein.cloud.openstack.nova.os.JSONListParser;
 import org.dasein.cloud.openstack.nova.os.NovaMethod;
 import org.dasein.cloud.test.network.NetworkResources;
 import org.json.JSONArray;
@@ -14,12 +15,16 @@ import org.json.JSONObject;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mockito.verification.VerificationMode;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertEquals;
@@ -49,6 +54,29 @@ public class QuantumTest {
         }
     }
 
+    /**
+     * @return an answer converting each element of the specified list the way a streamed listing does
+     */
+    private Answer<List<Object>> streamList(final JSONObject json, final String listKey) {
+        return new Answer<List<Object>>() {
+            @Override
+            public List<Object> answer(InvocationOnMock invocation) throws Throwable {
+                JSONListParser.ItemConverter<?> converter = (JSONListParser.ItemConverter<?>)invocation.getArguments()[2];
+                JSONArray list = json.getJSONArray(listKey);
+                List<Object> items = new ArrayList<Object>();
+
+                for( int i=0; i<list.length(); i++ ) {
+                    Object item = converter.convert(list.getJSONObject(i));
+
+                    if( item != null ) {
+                        items.add(item);
+                    }
+                }
+                return items;
+            }
+        };
+    }
+
     @Test
     public void listVlansTest() {
         NovaMethod method = mock(NovaMethod.class);
@@ -114,7 +142,7 @@ public class QuantumTest {
             when(quantum.getNetworkType()).thenReturn(Quantum.QuantumType.QUANTUM);
             when(quantum.getTenantId()).thenReturn("628b7b037c8a43ef8868327c0accda40");
             when(quantum.getCurrentRegionId()).thenReturn("RegionOne");
-            when(method.getNetworks(anyString(), anyString(), anyBoolean())).thenReturn(json);
+            when(method.getNetworkList(anyString(), eq("ports"), any(JSONListParser.ItemConverter.class))).thenAnswer(streamList(json, "ports"));
             when(quantum.listPorts(any(VirtualMachine.class))).thenCallRealMethod();
 
             Iterable<String> res = quantum.listPorts(mv);
@@ -543,12 +571,12 @@ public class QuantumTest {
             when(quantum.getNetworkType()).thenReturn(Quantum.QuantumType.QUANTUM);
             when(quantum.getTenantId()).thenReturn("628b7b037c8a43ef8868327c0accda40");
             when(quantum.getCurrentRegionId()).thenReturn("RegionOne");
-            when(method.getNetworks(anyString(), anyString(), anyBoolean())).thenReturn(json);
+            when(method.getNetworkList(anyString(), eq("ports"), any(JSONListParser.ItemConverter.class))).thenAnswer(streamList(json, "ports"));
             when(quantum.listPortsByNetworkId(testVlanId)).thenCallRealMethod();
 
             Iterable<String> res = quantum.listPortsByNetworkId(testVlanId);
             ArgumentCaptor<String> argument = ArgumentCaptor.forClass(String.class);
-            verify(method).getNetworks(argument.capture(), anyString(), anyBoolean());
+            verify(method).getNetworkList(argument.capture(), eq("ports"), any(JSONListParser.ItemConverter.class));
             assertTrue("Network request does not contain network_id parameter", argument.getValue().contains("network_id=" + testVlanId));
             assertNotNull("Returned list of ports cannot be null", res);
             assertEquals("Returned port id does not match", "8c755759-1146-4ca1-a856-fe4867a37689", res.iterator().next());
@@ -586,7 +614,7 @@ public class QuantumTest {
             when(quantum.getSubnet(testSubnetId)).thenReturn(subnet);
             when(quantum.getTenantId()).thenReturn("628b7b037c8a43ef8868327c0accda40");
             when(quantum.getCurrentRegionId()).thenReturn("RegionOne");
-            when(method.getNetworks(anyString(), anyString(), anyBoolean())).thenReturn(json);
+            when(method.getNetworkList(anyString(), eq("ports"), any(JSONListParser.ItemConverter.class))).thenAnswer(streamList(json, "ports"));
             when(quantum.listPortsBySubnetId(testSubnetId)).thenCallRealMethod();
 
             Iterable<String> res = quantum.listPortsBySubnetId(testSubnetId);
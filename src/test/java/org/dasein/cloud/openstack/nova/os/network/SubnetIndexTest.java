@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.openstack.nova.os.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SubnetIndexTest {
+
+    @Test
+    public void longestPrefixWins() {
+        SubnetIndex index = new SubnetIndex();
+
+        assertTrue(index.add("net1", "wide", "10.0.0.0/8"));
+        assertTrue(index.add("net1", "narrow", "10.1.2.0/24"));
+        assertEquals("narrow", index.getSubnetId("net1", "10.1.2.9"));
+        assertEquals("wide", index.getSubnetId("net1", "10.9.2.9"));
+        assertNull(index.getSubnetId("net1", "11.0.0.1"));
+    }
+
+    @Test
+    public void lookupIsScopedToNetwork() {
+        SubnetIndex index = new SubnetIndex();
+
+        index.add("net1", "sub1", "192.168.0.0/24");
+        index.add("net2", "sub2", "192.168.0.0/24");
+        assertEquals("sub1", index.getSubnetId("net1", "192.168.0.10"));
+        assertEquals("sub2", index.getSubnetId("net2", "192.168.0.10"));
+        assertNull(index.getSubnetId("net3", "192.168.0.10"));
+    }
+
+    @Test
+    public void ipv6Subnets() {
+        SubnetIndex index = new SubnetIndex();
+
+        index.add("net1", "v4", "10.0.0.0/8");
+        index.add("net1", "v6", "fd00:1::/64");
+        assertEquals("v6", index.getSubnetId("net1", "fd00:1::f816:3eff:fe01:2"));
+        assertNull(index.getSubnetId("net1", "fd00:2::1"));
+        assertEquals("v4", index.getSubnetId("net1", "10.0.0.1"));
+    }
+
+    @Test
+    public void invalidInputIsIgnored() {
+        SubnetIndex index = new SubnetIndex();
+
+        assertFalse(index.add("net1", "bad", "10.0.0.0/33"));
+        assertFalse(index.add("net1", "bad", "not-a-cidr"));
+        assertFalse(index.add("net1", "bad", null));
+        assertEquals(0, index.size());
+        assertNull(index.getSubnetId("net1", "example.com"));
+        assertNull(index.getSubnetId("net1", null));
+    }
+
+    @Test
+    public void literalsAreParsedWithoutNameResolution() {
+        assertArrayEquals(new byte[] { 10, 1, 2, 3 }, SubnetIndex.toBytes("10.1.2.3"));
+        assertArrayEquals(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 }, SubnetIndex.toBytes("::1"));
+        assertArrayEquals(new byte[] { 0, 1, 0, 2, 0, 3, 0, 4, 0, 5, 0, 6, 0, 7, 0, 8 }, SubnetIndex.toBytes("1:2:3:4:5:6:7:8"));
+        assertArrayEquals(new byte[] { (byte)0xfd, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 }, SubnetIndex.toBytes("fd00:1::"));
+        assertArrayEquals(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte)0xff, (byte)0xff, 10, 0, 0, 1 }, SubnetIndex.toBytes("::ffff:10.0.0.1"));
+        assertArrayEquals(new byte[] { (byte)0xfe, (byte)0x80, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 }, SubnetIndex.toBytes("fe80::1%eth0"));
+        assertNull(SubnetIndex.toBytes("openstack.example.com:5000"));
+        assertNull(SubnetIndex.toBytes("1:2:3:4:5:6:7:8:9"));
+        assertNull(SubnetIndex.toBytes("1::2::3"));
+        assertNull(SubnetIndex.toBytes("12345::1"));
+        assertNull(SubnetIndex.toBytes("1:2:3:4:5:6:7::8"));
+        assertNull(SubnetIndex.toBytes("::1.2.3.4:5"));
+        assertNull(SubnetIndex.toBytes("1:"));
+        assertNull(SubnetIndex.toBytes("10.0.0.256"));
+        assertNull(SubnetIndex.toBytes("10.0.0.+1"));
+    }
+}